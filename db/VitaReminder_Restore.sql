@@ -23,6 +23,7 @@ CREATE TABLE supplements
   supp_text_enabled BOOLEAN NOT NULL,
   supp_voice_enabled BOOLEAN NOT NULL,
   supp_notes VARCHAR(1024) DEFAULT NULL,
+  supp_recurrence VARCHAR(255) DEFAULT NULL,
   CONSTRAINT supp_id_pk PRIMARY KEY (supp_id),
   CONSTRAINT regimen_id_fk FOREIGN KEY (regimen_id) REFERENCES regimens(regimen_id)
       ON UPDATE RESTRICT
@@ -3,12 +3,21 @@ package com.vitareminder;
 import java.awt.EventQueue;
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.channels.FileLock;
+import java.text.DateFormat;
+import java.util.Date;
+
+import javax.swing.JOptionPane;
 
 import org.apache.log4j.Logger;
 
 import com.vitareminder.dao.DAOManager;
+import com.vitareminder.db.AutosaveManager;
 import com.vitareminder.db.DataSource;
+import com.vitareminder.metrics.EdtWatchdog;
+import com.vitareminder.metrics.MetricsRegistry;
 import com.vitareminder.reminders.ReminderManager;
 import com.vitareminder.ui.VitaReminderFrame;
 
@@ -32,11 +41,14 @@ public class VitaReminder
      * so by attempting to create a file and place a lock on it. If this fails, another
      * instance is running and the application exits.  If the file and lock are successfully
      * created, a connection to the database is made and the DAO layer is established by
-     * creating an instance of the {@code DAOManager} class.  An instance of the
+     * creating an instance of the {@code DAOManager} class.  If the previous session
+     * ended with unsaved changes, the user is offered the chance to recover them, and
+     * the background autosave is started.  An instance of the
      * {@code ReminderManager} class is created, which initializes Quartz Scheduler.
      * The application pauses for one second to allow the splash screen to display
      * properly.  After this, the application's main frame ({@code VitaReminderFrame})
-     * is created within Swing's Event Dispatch Thread.
+     * is created within Swing's Event Dispatch Thread, and the startup time and
+     * number of classes loaded are logged.
      *
      * @param args  command-line arguments are ignored
      */
@@ -59,6 +71,9 @@ public class VitaReminder
         DataSource dataSource = new DataSource();
         daoManager = new DAOManager(dataSource);
 
+        offerRecovery();
+        daoManager.getAutosaveManager().start();
+
         reminderManager = new ReminderManager(daoManager);
         reminderManager.loadStartupReminders();
 
@@ -72,17 +87,88 @@ public class VitaReminder
             logger.error("Thread.sleep() was interrupted while the splash screen was loading.", e);
         }
 
+        // Log any event that keeps the user interface from responding
+        EdtWatchdog.install();
+
         EventQueue.invokeLater(new Runnable() {
 
             @Override
             public void run()
             {
                 new VitaReminderFrame(daoManager, reminderManager);
+
+                logStartupStatistics();
             }
         });
     }
 
 
+    /**
+     * Offers to restore the unsaved changes that the previous session left in
+     * the recovery journal.  The journal is only left behind if the application
+     * or the computer crashed while there were unsaved changes, since it is
+     * deleted whenever the user saves or chooses not to save.  If the user
+     * declines, the journal is deleted.
+     */
+    private static void offerRecovery()
+    {
+        AutosaveManager autosaveManager = daoManager.getAutosaveManager();
+
+        if (!autosaveManager.hasRecoveryJournal())
+        {
+            return;
+        }
+
+        logger.info("Recovery journal found from a previous session.");
+
+        String lastModified = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT)
+                                        .format(new Date(autosaveManager.getRecoveryJournal().lastModified()));
+
+        String message = "VitaReminder did not close properly, and there are unsaved\n"
+                       + "changes from " + lastModified + ".  Would you like to recover them?";
+        Object[] options = {"Recover", "Discard"};
+        int choice = JOptionPane.showOptionDialog(null,
+                message,
+                "Recover Unsaved Changes",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                options,
+                options[0]);
+
+        if (choice == 0)  // "Recover"
+        {
+            if (daoManager.recoverUnsavedChanges())
+            {
+                logger.info("Unsaved changes recovered from the recovery journal.");
+            }
+        }
+        else
+        {
+            autosaveManager.markSaved();
+            logger.info("Recovery journal discarded.");
+        }
+    }
+
+
+    /**
+     * Logs how long the application took to start, and how many classes were
+     * loaded while doing so.  Libraries that are only needed for printing,
+     * exporting to Excel or sending reminders (Velocity, POI, JavaMail and
+     * Tropo) are loaded on first use, so they should not be counted here.
+     * Comparing these figures between builds shows the effect of any change
+     * to what is loaded at startup.
+     */
+    private static void logStartupStatistics()
+    {
+        ClassLoadingMXBean classLoadingBean = ManagementFactory.getClassLoadingMXBean();
+        long startupMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        logger.info("Startup completed in " + startupMillis + " ms with "
+                  + classLoadingBean.getLoadedClassCount() + " classes loaded.");
+    }
+
+
     /**
      * This method creates a file and attempts to place a lock on it.  This is used to
      * ensure that only a single instance of the application is running at a time.  If
@@ -117,6 +203,7 @@ public class VitaReminder
 
                             daoManager.closeDatabaseConnection();
                             reminderManager.shutdownScheduler();
+                            logger.info("Metrics for this session:\n" + MetricsRegistry.getInstance().getSummary());
                             logger.info("VitaReminder application closing.");
                         }
                         catch (Exception e)
@@ -0,0 +1,566 @@
+package com.vitareminder.agenda;
+
+import java.sql.Time;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Recurrence;
+import com.vitareminder.business.Regimen;
+import com.vitareminder.business.Supplement;
+import com.vitareminder.dao.RegimenDAO;
+import com.vitareminder.dao.RegimenVisitor;
+import com.vitareminder.reminders.CompiledSchedule;
+import com.vitareminder.reminders.FireTimeSchedule;
+
+
+/**
+ * An in-memory index of when each supplement of the active profile is next
+ * due, used by {@code AgendaDialog} to list the supplements due in the next
+ * day or week.  A supplement is due at the times given by its time and
+ * {@code Recurrence}, whether or not it has reminders set on it, and the
+ * times are worked out by {@code FireTimeSchedule}, in the same zone and with
+ * the same handling of daylight saving time as the reminders themselves.
+ * <p>
+ * Each supplement's next due time, at or after the time of the last query, is
+ * kept in a {@code TreeMap} ordered by time.  {@code upcoming()} first moves
+ * the supplements whose next due time has passed on to their following one,
+ * which takes time in proportion to the number of doses that have passed since
+ * the last query, and then reads the supplements due before the end of the
+ * range from the head of the map, merging their later doses in order as it
+ * goes.  The time taken is therefore in proportion to the number of doses
+ * returned, rather than to the number of supplements.
+ * <p>
+ * The index is built from the database by {@code DAOManager} the first time
+ * it is needed, and is then kept up to date by {@code RegimenDAOImpl} and
+ * {@code SupplementDAOImpl} as they change the database, in the same way as
+ * the {@code SearchIndex}.  Anything that replaces the database wholesale,
+ * such as a restore or a rollback, calls {@code invalidate()}, and the index
+ * is rebuilt on the next query.
+ */
+public class AgendaIndex
+{
+    /** the most doses of a single supplement that are computed at a time */
+    private static final int MAX_BATCH = 64;
+
+    private final TimeZone timeZone;
+
+    /** every indexed supplement, by {@code suppID} */
+    private final Map<Integer, Entry> entries = new HashMap<>();
+
+    /** the next due time of each supplement that is due again, and the supplements due at it */
+    private final TreeMap<Long, Set<Integer>> suppsByNextTime = new TreeMap<>();
+
+    /** the next due times are those at or after this time */
+    private long cursor = Long.MIN_VALUE;
+    private boolean built = false;
+
+    private Logger logger = Logger.getLogger(AgendaIndex.class);
+
+
+    /**
+     * A dose of a supplement that is due within the range of a query.
+     */
+    public static class Dose
+    {
+        private final long time;
+        private final Entry entry;
+
+        Dose(long time, Entry entry)
+        {
+            this.time = time;
+            this.entry = entry;
+        }
+
+        /**
+         * @return the time at which the dose is due, in milliseconds
+         */
+        public long getTime()
+        {
+            return time;
+        }
+
+        public int getSuppID()
+        {
+            return entry.suppID;
+        }
+
+        public int getRegimenID()
+        {
+            return entry.regimenID;
+        }
+
+        public String getSuppName()
+        {
+            return entry.name;
+        }
+
+        /**
+         * @return the amount and units, e.g. "1000 mg"
+         */
+        public String getAmount()
+        {
+            return entry.amount + " " + entry.units;
+        }
+
+        /**
+         * @return e.g. "Vitamin C, 1000 mg"
+         */
+        @Override
+        public String toString()
+        {
+            return entry.name + ", " + getAmount();
+        }
+    }
+
+
+    /** an indexed supplement */
+    private static class Entry
+    {
+        final int suppID;
+        final int regimenID;
+        String name;
+        String amount;
+        String units;
+        int hour;
+        int minute;
+        Recurrence recurrence;
+        CompiledSchedule schedule;
+
+        /** the first due time at or after the index's cursor, or -1 if there is none */
+        long nextTime = -1;
+
+        Entry(Supplement supplement)
+        {
+            suppID = supplement.getSuppID();
+            regimenID = supplement.getRegimenID();
+            name = supplement.getSuppName();
+            amount = supplement.getFormattedAmount();
+            units = supplement.getSuppUnits();
+            hour = supplement.getScheduledHourOfDay();
+            minute = supplement.getScheduledMinute();
+            recurrence = supplement.getRecurrence();
+            compile();
+        }
+
+        /** compiles the schedule, which is <tt>null</tt> for a supplement without a time */
+        void compile()
+        {
+            schedule = hour < 0 ? null : CompiledSchedule.compile(recurrence, hour, minute);
+        }
+    }
+
+
+    /**
+     * Creates an empty index, whose times are worked out in the zone of the
+     * application's {@code FireTimeSchedule}.
+     */
+    public AgendaIndex()
+    {
+        this(FireTimeSchedule.getInstance().getTimeZone());
+    }
+
+
+    /**
+     * Creates an empty index whose times are worked out in the specified zone.
+     *
+     * @param timeZone  the zone in which the supplements' times are interpreted
+     */
+    public AgendaIndex(TimeZone timeZone)
+    {
+        this.timeZone = timeZone;
+    }
+
+
+    /**
+     * Indexes every supplement of the active profile, replacing anything
+     * already in the index.  The regimens are streamed from the database with
+     * {@code RegimenDAO#visitRegimens()}, so they are never all held in memory.
+     *
+     * @param regimenDAO  the DAO used to read the regimens and their supplements
+     */
+    public synchronized void build(RegimenDAO regimenDAO)
+    {
+        long startTime = System.currentTimeMillis();
+
+        clear();
+
+        regimenDAO.visitRegimens(new RegimenVisitor() {
+
+            @Override
+            public boolean visitRegimen(Regimen regimen)
+            {
+                for (Supplement supplement : regimen.getSupplements())
+                {
+                    add(new Entry(supplement));
+                }
+
+                return true;
+            }
+        });
+
+        built = true;
+
+        logger.info("Agenda index built in " + (System.currentTimeMillis() - startTime) + " ms with "
+                  + entries.size() + " supplements.");
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the index has been built and not since invalidated
+     */
+    public synchronized boolean isBuilt()
+    {
+        return built;
+    }
+
+
+    /**
+     * Discards the index, so that it is rebuilt the next time it is needed.
+     * Called when the database has been replaced or rolled back, or the active
+     * profile has changed, and the changes can no longer be applied one by one.
+     */
+    public synchronized void invalidate()
+    {
+        clear();
+        built = false;
+    }
+
+
+    /**
+     * Adds a supplement to the index.
+     *
+     * @param supplement  the supplement, with its {@code suppID} and {@code regimenID}
+     */
+    public synchronized void addSupplement(Supplement supplement)
+    {
+        if (built)
+        {
+            removeSupplement(supplement.getSuppID());
+            add(new Entry(supplement));
+        }
+    }
+
+
+    /**
+     * Updates a single field of a supplement in the index.  A change to its
+     * time or recurrence moves it to its new next due time.  Fields that the
+     * agenda does not show, such as the notes, are ignored.
+     *
+     * @param suppID  the supplement to update
+     * @param field  the name of the column in the supplements table, e.g. "supp_time"
+     * @param value  the new value, as it was written to the database
+     */
+    public synchronized void updateSupplement(int suppID, String field, Object value)
+    {
+        Entry entry = entries.get(suppID);
+
+        if (!built || entry == null)
+        {
+            return;
+        }
+
+        switch (field)
+        {
+        case "supp_name":
+            entry.name = (String) value;
+            return;
+        case "supp_amount":
+        {
+            Supplement supplement = new Supplement();
+            supplement.setSuppAmount(((Number) value).doubleValue());
+            entry.amount = supplement.getFormattedAmount();
+            return;
+        }
+        case "supp_units":
+            entry.units = (String) value;
+            return;
+        case "supp_time":
+        {
+            Supplement supplement = new Supplement();
+            supplement.setSuppTime((Time) value);
+            entry.hour = supplement.getScheduledHourOfDay();
+            entry.minute = supplement.getScheduledMinute();
+            break;
+        }
+        case "supp_recurrence":
+            try
+            {
+                entry.recurrence = Recurrence.parse((String) value);
+            }
+            catch (IllegalArgumentException e)
+            {
+                entry.recurrence = Recurrence.DAILY;
+            }
+            break;
+        default:
+            return;
+        }
+
+        unindex(entry);
+        entry.compile();
+        index(entry);
+    }
+
+
+    /**
+     * Removes all of a regimen's supplements from the index, as the
+     * ON DELETE CASCADE does in the database.
+     *
+     * @param regimenID  the regimen that has been deleted
+     */
+    public synchronized void removeRegimen(int regimenID)
+    {
+        if (!built)
+        {
+            return;
+        }
+
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); )
+        {
+            Entry entry = it.next();
+
+            if (entry.regimenID == regimenID)
+            {
+                unindex(entry);
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Removes a supplement from the index.
+     *
+     * @param suppID  the supplement to remove
+     */
+    public synchronized void removeSupplement(int suppID)
+    {
+        Entry entry = entries.remove(suppID);
+
+        if (built && entry != null)
+        {
+            unindex(entry);
+        }
+    }
+
+
+    /**
+     * Finds every dose that is due from one time up to another, in order of
+     * time.  Doses due at the same time are in no particular order.
+     *
+     * @param from  the start of the range, inclusive, in milliseconds
+     * @param to  the end of the range, exclusive, in milliseconds
+     * @return the doses in ascending order of time
+     */
+    public synchronized List<Dose> upcoming(long from, long to)
+    {
+        if (to <= from)
+        {
+            return Collections.emptyList();
+        }
+
+        moveCursor(from);
+
+        List<Dose> doses = new ArrayList<>();
+
+        // Each supplement due in the range joins the queue at its next due
+        // time, and rejoins at its following one each time it leaves.
+        PriorityQueue<Pending> queue = new PriorityQueue<>();
+
+        for (Set<Integer> suppIDs : suppsByNextTime.headMap(to).values())
+        {
+            for (int suppID : suppIDs)
+            {
+                Entry entry = entries.get(suppID);
+                queue.add(new Pending(entry, to));
+            }
+        }
+
+        while (!queue.isEmpty())
+        {
+            Pending pending = queue.poll();
+            doses.add(new Dose(pending.time(), pending.entry));
+
+            if (pending.advance())
+            {
+                queue.add(pending);
+            }
+        }
+
+        return doses;
+    }
+
+
+    /**
+     * @return the number of supplements in the index
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     * The doses of a single supplement that are due before the end of a
+     * query's range, computed a batch at a time as the merge reaches them.
+     */
+    private class Pending implements Comparable<Pending>
+    {
+        final Entry entry;
+        final long to;
+        long[] times;
+        int index = 0;
+        int batchSize;
+
+        Pending(Entry entry, long to)
+        {
+            this.entry = entry;
+            this.to = to;
+
+            times = new long[] {entry.nextTime};
+
+            // The first batch covers the whole range, unless the range is long
+            long days = (to - entry.nextTime) / (24 * 60 * 60 * 1000L) + 1;
+            batchSize = (int) Math.min(MAX_BATCH, days * entry.schedule.getTimesPerDay());
+        }
+
+        long time()
+        {
+            return times[index];
+        }
+
+        /** moves on to the next dose, and returns <tt>false</tt> if it is not in the range */
+        boolean advance()
+        {
+            if (++index == times.length)
+            {
+                times = FireTimeSchedule.computeFireTimes(timeZone, entry.schedule, times[index - 1], batchSize);
+                index = 0;
+                batchSize = MAX_BATCH;
+            }
+
+            return index < times.length && times[index] < to;
+        }
+
+        @Override
+        public int compareTo(Pending other)
+        {
+            return Long.compare(time(), other.time());
+        }
+    }
+
+
+    /**
+     * Moves every supplement's next due time on to the first one at or after
+     * the specified time.  Moving forward only touches the supplements whose
+     * next due time has passed; the first query, and moving back, recompute
+     * every supplement.
+     */
+    private void moveCursor(long from)
+    {
+        if (cursor == Long.MIN_VALUE || from < cursor)
+        {
+            cursor = from;
+            suppsByNextTime.clear();
+
+            for (Entry entry : entries.values())
+            {
+                entry.nextTime = -1;
+                index(entry);
+            }
+
+            return;
+        }
+
+        cursor = from;
+
+        while (!suppsByNextTime.isEmpty() && suppsByNextTime.firstKey() < from)
+        {
+            for (int suppID : suppsByNextTime.pollFirstEntry().getValue())
+            {
+                index(entries.get(suppID));
+            }
+        }
+    }
+
+
+    private void clear()
+    {
+        entries.clear();
+        suppsByNextTime.clear();
+        cursor = Long.MIN_VALUE;
+    }
+
+
+    private void add(Entry entry)
+    {
+        entries.put(entry.suppID, entry);
+        index(entry);
+    }
+
+
+    /**
+     * Works out the supplement's first due time at or after the cursor,
+     * and adds it to {@code suppsByNextTime}.
+     */
+    private void index(Entry entry)
+    {
+        entry.nextTime = -1;
+
+        if (entry.schedule == null || cursor == Long.MIN_VALUE)
+        {
+            // No time is set, or no query has been made yet to place the cursor
+            return;
+        }
+
+        long[] times = FireTimeSchedule.computeFireTimes(timeZone, entry.schedule, cursor - 1, 1);
+
+        if (times.length == 0)
+        {
+            // The recurrence has ended
+            return;
+        }
+
+        entry.nextTime = times[0];
+
+        Set<Integer> suppIDs = suppsByNextTime.get(entry.nextTime);
+
+        if (suppIDs == null)
+        {
+            suppIDs = new HashSet<>();
+            suppsByNextTime.put(entry.nextTime, suppIDs);
+        }
+
+        suppIDs.add(entry.suppID);
+    }
+
+
+    private void unindex(Entry entry)
+    {
+        Set<Integer> suppIDs = suppsByNextTime.get(entry.nextTime);
+
+        if (suppIDs != null)
+        {
+            suppIDs.remove(entry.suppID);
+
+            if (suppIDs.isEmpty())
+            {
+                suppsByNextTime.remove(entry.nextTime);
+            }
+        }
+
+        entry.nextTime = -1;
+    }
+
+}  // end class AgendaIndex
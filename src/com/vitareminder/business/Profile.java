@@ -0,0 +1,77 @@
+package com.vitareminder.business;
+
+import java.io.Serializable;
+
+
+/**
+ * A {@code Profile} represents one of the people whose regimens are kept in
+ * this installation, e.g. each member of a household.  Every {@code Regimen}
+ * belongs to a single profile, and each profile has its own reminder
+ * settings and table layout, which are kept in the settings table.
+ */
+public class Profile implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private int profileID;
+    private String profileName;
+
+
+    /**
+     * The default, no-argument constructor.  The default values are:
+     * <ul>
+     * <li>profileID = 0</li>
+     * <li>profileName = ""</li>
+     * </ul>
+     */
+    public Profile()
+    {
+        profileID = 0;
+        profileName = "";
+    }
+
+
+    /**
+     * The multiple-argument constructor.
+     *
+     * @param profileID  the unique ID for this profile, which corresponds to its primary key in the
+     *                   profiles table in the database
+     * @param profileName  the user-assigned name for this profile
+     */
+    public Profile(int profileID, String profileName)
+    {
+        this.profileID = profileID;
+        this.profileName = profileName;
+    }
+
+
+    public void setProfileID(int profileID)
+    {
+        this.profileID = profileID;
+    }
+
+
+    public int getProfileID()
+    {
+        return profileID;
+    }
+
+
+    public void setProfileName(String profileName)
+    {
+        this.profileName = profileName;
+    }
+
+
+    public String getProfileName()
+    {
+        return profileName;
+    }
+
+
+    public String toString()
+    {
+        return profileName;
+    }
+
+}  // end class Profile
@@ -0,0 +1,633 @@
+package com.vitareminder.business;
+
+import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+
+/**
+ * A {@code Recurrence} describes on which days, and how many times on each
+ * of those days, a supplement is taken.  The time of the first dose of the
+ * day is the supplement's own time; a {@code Recurrence} adds to it:
+ * <ul>
+ * <li>How often it is repeated through the day: once a day, or every 1, 2,
+ * 3, 4, 6, 8 or 12 hours, which all divide the day evenly.  The doses of a
+ * day are the supplement's time plus a whole number of those hours, wrapping
+ * round midnight, so a supplement taken at 8:00 PM every 6 hours is taken at
+ * 2:00 AM, 8:00 AM, 2:00 PM and 8:00 PM of each day that it is due.</li>
+ * <li>Which days it is due on, which is one of:
+ *     <ul>
+ *     <li>every day;</li>
+ *     <li>certain days of the week, e.g. Monday, Wednesday and Friday;</li>
+ *     <li>every few days, e.g. every other day, counted from a start date;</li>
+ *     <li>a taper, which is a series of stages, each taken every few days for
+ *         a number of days, e.g. every day for a week, then every other day for
+ *         two weeks.  A taper starts on a start date and is not repeated once
+ *         its last stage is over.</li>
+ *     </ul></li>
+ * </ul>
+ * <p>
+ * A {@code Recurrence} is kept in the supp_recurrence column of the supplements
+ * table as the {@code String} returned by {@code getRule()}, a list of
+ * name=value pairs separated by semicolons, e.g. "hours=8;on=MO,WE,FR",
+ * "every=2;from=2026-10-19" or "taper=1x7,2x14;from=2026-10-19".  A supplement
+ * that is taken once every day, as every supplement was before there were
+ * recurrences, has an empty rule, and an empty or <tt>null</tt> column is read
+ * as such.  Days are counted as epoch days, the number of days since
+ * 1970-01-01, which the supplement's time zone does not affect.
+ * <p>
+ * {@code Recurrence} objects are immutable.
+ */
+public final class Recurrence implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** the number of hours that a supplement can be repeated every, with 24 meaning once a day */
+    public static final int[] HOUR_INTERVALS = {1, 2, 3, 4, 6, 8, 12, 24};
+
+    /** the two-letter names of the days of the week used in a rule, starting on Monday */
+    public static final String[] WEEKDAY_CODES = {"MO", "TU", "WE", "TH", "FR", "SA", "SU"};
+
+    public static final int MAX_EVERY_DAYS = 365;
+    public static final int MAX_TAPER_STAGES = 10;
+    public static final int MAX_TAPER_DAYS = 3650;
+
+    /** taken once every day, the default for every supplement */
+    public static final Recurrence DAILY = new Recurrence(24, DayRule.EVERY_DAY, 0, 1, new int[0], new int[0], 0);
+
+    private static final String[] WEEKDAY_NAMES = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+
+    /**
+     * The ways in which the days that a supplement is due on can be chosen.
+     */
+    public enum DayRule
+    {
+        EVERY_DAY,
+        WEEKDAYS,
+        EVERY_N_DAYS,
+        TAPER
+    }
+
+
+    private final int everyHours;
+    private final DayRule dayRule;
+    private final int weekdays;
+    private final int everyDays;
+    private final int[] taperIntervals;
+    private final int[] taperLengths;
+    private final long fromDay;
+
+
+    private Recurrence(int everyHours, DayRule dayRule, int weekdays, int everyDays,
+                       int[] taperIntervals, int[] taperLengths, long fromDay)
+    {
+        this.everyHours = everyHours;
+        this.dayRule = dayRule;
+        this.weekdays = weekdays;
+        this.everyDays = everyDays;
+        this.taperIntervals = taperIntervals;
+        this.taperLengths = taperLengths;
+        this.fromDay = fromDay;
+    }
+
+
+    /**
+     * Creates a recurrence that is due every day.
+     *
+     * @param everyHours  how often the supplement is repeated through the day, one of
+     *                    {@code HOUR_INTERVALS}, or 24 for once a day
+     * @return the {@code Recurrence}
+     * @throws IllegalArgumentException if {@code everyHours} is not one of {@code HOUR_INTERVALS}
+     */
+    public static Recurrence everyDay(int everyHours)
+    {
+        checkHours(everyHours);
+
+        return everyHours == 24 ? DAILY : new Recurrence(everyHours, DayRule.EVERY_DAY, 0, 1,
+                                                         new int[0], new int[0], 0);
+    }
+
+
+    /**
+     * Creates a recurrence that is due on certain days of the week.
+     *
+     * @param everyHours  how often the supplement is repeated through the day
+     * @param weekdays  the days, with bit 0 for Monday up to bit 6 for Sunday
+     * @return the {@code Recurrence}, which is due every day if all seven days are chosen
+     * @throws IllegalArgumentException if {@code everyHours} is not valid or no day is chosen
+     */
+    public static Recurrence onWeekdays(int everyHours, int weekdays)
+    {
+        checkHours(everyHours);
+
+        if ((weekdays & 0x7f) == 0 || (weekdays & ~0x7f) != 0)
+        {
+            throw new IllegalArgumentException("Please choose at least one day of the week.");
+        }
+
+        if (weekdays == 0x7f)
+        {
+            return everyDay(everyHours);
+        }
+
+        return new Recurrence(everyHours, DayRule.WEEKDAYS, weekdays, 7, new int[0], new int[0], 0);
+    }
+
+
+    /**
+     * Creates a recurrence that is due every few days, starting on the specified day.
+     *
+     * @param everyHours  how often the supplement is repeated through the day
+     * @param everyDays  the number of days from one day that the supplement is due to the next,
+     *                   2 - {@code MAX_EVERY_DAYS}
+     * @param fromDay  the first day that the supplement is due, as an epoch day
+     * @return the {@code Recurrence}, which is due every day if {@code everyDays} is 1
+     * @throws IllegalArgumentException if {@code everyHours} or {@code everyDays} is not valid
+     */
+    public static Recurrence everyNDays(int everyHours, int everyDays, long fromDay)
+    {
+        checkHours(everyHours);
+
+        if (everyDays < 1 || everyDays > MAX_EVERY_DAYS)
+        {
+            throw new IllegalArgumentException("The number of days must be between 1 and " + MAX_EVERY_DAYS + ".");
+        }
+
+        if (everyDays == 1)
+        {
+            return everyDay(everyHours);
+        }
+
+        return new Recurrence(everyHours, DayRule.EVERY_N_DAYS, 0, everyDays, new int[0], new int[0], fromDay);
+    }
+
+
+    /**
+     * Creates a taper, which is a series of stages starting on the specified day.
+     * In stage {@code i}, the supplement is due every {@code intervals[i]} days,
+     * on the first day of the stage and every {@code intervals[i]} days after
+     * that, for {@code lengths[i]} days.
+     *
+     * @param everyHours  how often the supplement is repeated through the day
+     * @param intervals  the number of days between the days that the supplement is due in each stage
+     * @param lengths  the number of days that each stage lasts
+     * @param fromDay  the first day of the first stage, as an epoch day
+     * @return the {@code Recurrence}
+     * @throws IllegalArgumentException if any of the values is not valid
+     */
+    public static Recurrence taper(int everyHours, int[] intervals, int[] lengths, long fromDay)
+    {
+        checkHours(everyHours);
+
+        if (intervals.length == 0 || intervals.length != lengths.length)
+        {
+            throw new IllegalArgumentException("Please enter at least one stage.");
+        }
+
+        if (intervals.length > MAX_TAPER_STAGES)
+        {
+            throw new IllegalArgumentException("A taper cannot have more than " + MAX_TAPER_STAGES + " stages.");
+        }
+
+        int totalDays = 0;
+
+        for (int i = 0; i < intervals.length; i++)
+        {
+            if (intervals[i] < 1 || intervals[i] > MAX_EVERY_DAYS || lengths[i] < 1 || lengths[i] > MAX_TAPER_DAYS)
+            {
+                throw new IllegalArgumentException("\"" + intervals[i] + "x" + lengths[i]
+                                                   + "\" is not a valid stage.");
+            }
+
+            totalDays += lengths[i];
+        }
+
+        if (totalDays > MAX_TAPER_DAYS)
+        {
+            throw new IllegalArgumentException("A taper cannot last more than " + MAX_TAPER_DAYS + " days.");
+        }
+
+        return new Recurrence(everyHours, DayRule.TAPER, 0, 0, intervals.clone(), lengths.clone(), fromDay);
+    }
+
+
+    /**
+     * Reads a recurrence from the form written by {@code getRule()}.
+     *
+     * @param rule  the rule, or <tt>null</tt>
+     * @return the {@code Recurrence}, which is {@code DAILY} if the rule is empty or <tt>null</tt>
+     * @throws IllegalArgumentException if the rule is not valid
+     */
+    public static Recurrence parse(String rule)
+    {
+        if (rule == null || rule.trim().isEmpty())
+        {
+            return DAILY;
+        }
+
+        int everyHours = 24;
+        String on = null;
+        String every = null;
+        String taper = null;
+        String from = null;
+
+        for (String part : rule.trim().split(";"))
+        {
+            int equals = part.indexOf('=');
+
+            if (equals == -1)
+            {
+                throw new IllegalArgumentException("\"" + part + "\" is not of the form name=value.");
+            }
+
+            String name = part.substring(0, equals).trim();
+            String value = part.substring(equals + 1).trim();
+
+            switch (name)
+            {
+            case "hours":
+                everyHours = parseInt(value);
+                break;
+            case "on":
+                on = value;
+                break;
+            case "every":
+                every = value;
+                break;
+            case "taper":
+                taper = value;
+                break;
+            case "from":
+                from = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown part \"" + name + "\".");
+            }
+        }
+
+        if ((on != null ? 1 : 0) + (every != null ? 1 : 0) + (taper != null ? 1 : 0) > 1)
+        {
+            throw new IllegalArgumentException("Only one of on, every and taper can be given.");
+        }
+
+        if ((every != null || taper != null) && from == null)
+        {
+            throw new IllegalArgumentException("A start date must be given with every and taper.");
+        }
+
+        if (on != null)
+        {
+            int weekdays = 0;
+
+            for (String day : on.split(","))
+            {
+                int index = Arrays.asList(WEEKDAY_CODES).indexOf(day.trim());
+
+                if (index == -1)
+                {
+                    throw new IllegalArgumentException("\"" + day + "\" is not a day of the week.");
+                }
+
+                weekdays |= 1 << index;
+            }
+
+            return onWeekdays(everyHours, weekdays);
+        }
+
+        if (every != null)
+        {
+            return everyNDays(everyHours, parseInt(every), parseDate(from));
+        }
+
+        if (taper != null)
+        {
+            String[] stages = taper.split(",");
+            int[] intervals = new int[stages.length];
+            int[] lengths = new int[stages.length];
+
+            for (int i = 0; i < stages.length; i++)
+            {
+                String[] stage = stages[i].trim().split("x");
+
+                if (stage.length != 2)
+                {
+                    throw new IllegalArgumentException("\"" + stages[i] + "\" is not of the form NxM.");
+                }
+
+                intervals[i] = parseInt(stage[0]);
+                lengths[i] = parseInt(stage[1]);
+            }
+
+            return taper(everyHours, intervals, lengths, parseDate(from));
+        }
+
+        return everyDay(everyHours);
+    }
+
+
+    /**
+     * @return how often the supplement is repeated through the day, in hours, or 24 for once a day
+     */
+    public int getEveryHours()
+    {
+        return everyHours;
+    }
+
+
+    public DayRule getDayRule()
+    {
+        return dayRule;
+    }
+
+
+    /**
+     * @return for {@code WEEKDAYS}, the days of the week, with bit 0 for Monday up to bit 6 for Sunday
+     */
+    public int getWeekdays()
+    {
+        return weekdays;
+    }
+
+
+    /**
+     * @return for {@code EVERY_N_DAYS}, the number of days from one day that the supplement is due to the next
+     */
+    public int getEveryDays()
+    {
+        return everyDays;
+    }
+
+
+    /**
+     * @return for {@code TAPER}, the number of days between due days in each stage
+     */
+    public int[] getTaperIntervals()
+    {
+        return taperIntervals.clone();
+    }
+
+
+    /**
+     * @return for {@code TAPER}, the number of days that each stage lasts
+     */
+    public int[] getTaperLengths()
+    {
+        return taperLengths.clone();
+    }
+
+
+    /**
+     * @return for {@code EVERY_N_DAYS} and {@code TAPER}, the first day that the
+     *         supplement is due, as an epoch day
+     */
+    public long getFromDay()
+    {
+        return fromDay;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the supplement is taken once every day, <tt>false</tt> otherwise
+     */
+    public boolean isDaily()
+    {
+        return everyHours == 24 && dayRule == DayRule.EVERY_DAY;
+    }
+
+
+    /**
+     * Gets the form of this recurrence that is kept in the database, which
+     * {@code parse()} reads back.  Two recurrences that are due at the same
+     * times have the same rule.
+     *
+     * @return the rule, which is empty for {@code DAILY}
+     */
+    public String getRule()
+    {
+        StringBuilder rule = new StringBuilder();
+
+        if (everyHours != 24)
+        {
+            rule.append("hours=").append(everyHours);
+        }
+
+        switch (dayRule)
+        {
+        case WEEKDAYS:
+            appendSeparator(rule).append("on=").append(joinWeekdays(WEEKDAY_CODES, ","));
+            break;
+        case EVERY_N_DAYS:
+            appendSeparator(rule).append("every=").append(everyDays)
+                                 .append(";from=").append(formatDate(fromDay));
+            break;
+        case TAPER:
+            appendSeparator(rule).append("taper=").append(joinStages())
+                                 .append(";from=").append(formatDate(fromDay));
+            break;
+        default:
+            break;
+        }
+
+        return rule.toString();
+    }
+
+
+    /**
+     * Describes this recurrence in words, e.g. "Every 8 hours on Mon, Wed, Fri".
+     *
+     * @return the description
+     */
+    public String getDescription()
+    {
+        StringBuilder description = new StringBuilder(everyHours == 24 ? "Once a day"
+                : everyHours == 1 ? "Every hour" : "Every " + everyHours + " hours");
+
+        switch (dayRule)
+        {
+        case WEEKDAYS:
+            description.append(" on ").append(joinWeekdays(WEEKDAY_NAMES, ", "));
+            break;
+        case EVERY_N_DAYS:
+            description.append(everyDays == 2 ? ", every other day" : ", every " + everyDays + " days")
+                       .append(" from ").append(formatDate(fromDay));
+            break;
+        case TAPER:
+            description.append(", tapering from ").append(formatDate(fromDay)).append(": ");
+
+            for (int i = 0; i < taperIntervals.length; i++)
+            {
+                description.append(i > 0 ? ", then " : "")
+                           .append(taperIntervals[i] == 1 ? "every day"
+                                   : taperIntervals[i] == 2 ? "every other day"
+                                   : "every " + taperIntervals[i] + " days")
+                           .append(" for ").append(taperLengths[i]).append(taperLengths[i] == 1 ? " day" : " days");
+            }
+            break;
+        default:
+            break;
+        }
+
+        return description.toString();
+    }
+
+
+    /**
+     * Gets the epoch day, the number of days since 1970-01-01, of the date
+     * that the specified instant falls on in the specified zone.
+     *
+     * @param millis  the instant, in milliseconds
+     * @param timeZone  the zone whose calendar is used
+     * @return the epoch day
+     */
+    public static long toEpochDay(long millis, TimeZone timeZone)
+    {
+        return floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+
+    /**
+     * Formats an epoch day as yyyy-MM-dd, e.g. "2026-10-19".
+     *
+     * @param epochDay  the number of days since 1970-01-01
+     * @return the formatted date
+     */
+    public static String formatDate(long epochDay)
+    {
+        return createDateFormat().format(new Date(epochDay * MILLIS_PER_DAY));
+    }
+
+
+    /**
+     * Reads a date in the form yyyy-MM-dd, e.g. "2026-10-19".
+     *
+     * @param date  the date
+     * @return the number of days since 1970-01-01
+     * @throws IllegalArgumentException if the date is not valid
+     */
+    public static long parseDate(String date)
+    {
+        try
+        {
+            return floorDiv(createDateFormat().parse(date.trim()).getTime(), MILLIS_PER_DAY);
+        }
+        catch (ParseException e)
+        {
+            throw new IllegalArgumentException("\"" + date + "\" is not a date of the form yyyy-mm-dd.");
+        }
+    }
+
+
+    /**
+     * Divides, rounding towards negative infinity, so that times before 1970
+     * fall on the right day.
+     */
+    public static long floorDiv(long x, long y)
+    {
+        long quotient = x / y;
+
+        return (x % y != 0 && ((x < 0) != (y < 0))) ? quotient - 1 : quotient;
+    }
+
+
+    @Override
+    public boolean equals(Object other)
+    {
+        return other instanceof Recurrence && getRule().equals(((Recurrence) other).getRule());
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        return getRule().hashCode();
+    }
+
+
+    /**
+     * @return the rule, as returned by {@code getRule()}
+     */
+    @Override
+    public String toString()
+    {
+        return getRule();
+    }
+
+
+    private static void checkHours(int everyHours)
+    {
+        for (int hours : HOUR_INTERVALS)
+        {
+            if (hours == everyHours)
+            {
+                return;
+            }
+        }
+
+        throw new IllegalArgumentException("A supplement cannot be repeated every " + everyHours + " hours.");
+    }
+
+
+    private static int parseInt(String value)
+    {
+        try
+        {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("\"" + value + "\" is not a whole number.");
+        }
+    }
+
+
+    private static SimpleDateFormat createDateFormat()
+    {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        dateFormat.setLenient(false);
+
+        return dateFormat;
+    }
+
+
+    private static StringBuilder appendSeparator(StringBuilder rule)
+    {
+        return rule.length() > 0 ? rule.append(';') : rule;
+    }
+
+
+    private String joinWeekdays(String[] names, String separator)
+    {
+        StringBuilder days = new StringBuilder();
+
+        for (int i = 0; i < 7; i++)
+        {
+            if ((weekdays & (1 << i)) != 0)
+            {
+                days.append(days.length() > 0 ? separator : "").append(names[i]);
+            }
+        }
+
+        return days.toString();
+    }
+
+
+    private String joinStages()
+    {
+        StringBuilder stages = new StringBuilder();
+
+        for (int i = 0; i < taperIntervals.length; i++)
+        {
+            stages.append(i > 0 ? "," : "").append(taperIntervals[i]).append('x').append(taperLengths[i]);
+        }
+
+        return stages.toString();
+    }
+
+}  // end class Recurrence
@@ -7,14 +7,16 @@ import java.util.List;
 
 /**
  * A {@code Regimen} represents a group of {@code Supplement}s.  A {@code Regimen}
- * object keeps track of its name and notes.  It contains an {@code ArrayList} of
- * {@code Supplement} objects that are associated with this {@code Regimen}.
+ * object keeps track of its name and notes, and of the {@code Profile} that it
+ * belongs to.  It contains an {@code ArrayList} of {@code Supplement} objects
+ * that are associated with this {@code Regimen}.
  */
 public class Regimen implements Serializable
 {
     private static final long serialVersionUID = 1L;
 
     private int regimenID;
+    private int profileID;
     private String regimenName;
     private String regimenNotes;
     private List<Supplement> supplements;
@@ -24,6 +26,7 @@ public class Regimen implements Serializable
      * The default, no-argument constructor.  The default values are:
      * <ul>
      * <li>regimenID = 0</li>
+     * <li>profileID = 0</li>
      * <li>regimenName = ""</li>
      * <li>regimenNotes = ""</li>
      * <li>supplements = new ArrayList<Supplement>()</li>
@@ -32,6 +35,7 @@ public class Regimen implements Serializable
     public Regimen()
     {
         regimenID = 0;
+        profileID = 0;
         regimenName = "";
         regimenNotes = "";
         supplements = new ArrayList<Supplement>();
@@ -68,6 +72,18 @@ public class Regimen implements Serializable
     }
 
 
+    public void setProfileID(int profileID)
+    {
+        this.profileID = profileID;
+    }
+
+
+    public int getProfileID()
+    {
+        return profileID;
+    }
+
+
     public void setRegimenName(String regimenName)
     {
         this.regimenName = regimenName;
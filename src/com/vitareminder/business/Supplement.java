@@ -13,7 +13,8 @@ import java.util.Calendar;
  * supplement's basic characteristics such as its name, amount, units, time to
  * take and notes. It also contains {@code boolean} fields that specify whether
  * or not the user wants to receive a particular kind of reminder to take this
- * supplement.
+ * supplement, and a {@link Recurrence} that specifies on which days, and how
+ * many times on each of them, it is taken.
  */
 public class Supplement implements Serializable
 {
@@ -29,8 +30,10 @@ public class Supplement implements Serializable
     private boolean textEnabled;
     private boolean voiceEnabled;
     private String suppNotes;
+    private Recurrence recurrence;
 
-    private NumberFormat numberFormat = NumberFormat.getNumberInstance();;
+    // Created on first use, since most supplements read from the database are never formatted
+    private transient NumberFormat numberFormat = null;
 
     /**
      * The default, no-argument constructor. The default values are:
@@ -45,6 +48,7 @@ public class Supplement implements Serializable
      * <li>textEnabled = false</li>
      * <li>voiceEnabled = false</li>
      * <li>suppNotes = ""</li>
+     * <li>recurrence = Recurrence.DAILY</li>
      * </ul>
      */
     public Supplement()
@@ -59,6 +63,7 @@ public class Supplement implements Serializable
         textEnabled = false;
         voiceEnabled = false;
         suppNotes = "";
+        recurrence = Recurrence.DAILY;
     }
 
     /**
@@ -89,6 +94,8 @@ public class Supplement implements Serializable
      *            to recieve automated voice reminders
      * @param suppNotes
      *            the user-assigned notes for this supplement
+     * <p>
+     * The {@code recurrence} is set to {@code Recurrence.DAILY}.
      */
     public Supplement(int suppID, int regimenID, String suppName,
                       double suppAmount, String suppUnits, java.sql.Time suppTime,
@@ -105,6 +112,7 @@ public class Supplement implements Serializable
         this.textEnabled = textEnabled;
         this.voiceEnabled = voiceEnabled;
         this.suppNotes = suppNotes;
+        this.recurrence = Recurrence.DAILY;
     }
 
     public void setSuppID(int suppID)
@@ -160,6 +168,11 @@ public class Supplement implements Serializable
      */
     public String getFormattedAmount()
     {
+        if (numberFormat == null)
+        {
+            numberFormat = NumberFormat.getNumberInstance();
+        }
+
         numberFormat.setMinimumFractionDigits(0);
         numberFormat.setMaximumFractionDigits(2);
         numberFormat.setGroupingUsed(false);
@@ -245,6 +258,23 @@ public class Supplement implements Serializable
         return suppNotes;
     }
 
+    /**
+     * Sets the days on which this {@code Supplement} is taken, and how many
+     * times on each of them.
+     *
+     * @param recurrence
+     *            the recurrence, or <tt>null</tt> for {@code Recurrence.DAILY}
+     */
+    public void setRecurrence(Recurrence recurrence)
+    {
+        this.recurrence = recurrence == null ? Recurrence.DAILY : recurrence;
+    }
+
+    public Recurrence getRecurrence()
+    {
+        return recurrence;
+    }
+
     /**
      * Gets the hour to take this {@code Supplement} in 24-hour format. Called
      * by {@code ReminderManager} when creating the Quartz trigger for each
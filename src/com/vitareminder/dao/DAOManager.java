@@ -1,11 +1,22 @@
 package com.vitareminder.dao;
 
 import java.sql.Connection;
+import java.util.Set;
 
 import com.vitareminder.dao.impl.DbDAOImpl;
+import com.vitareminder.agenda.AgendaIndex;
+import com.vitareminder.business.Profile;
 import com.vitareminder.dao.impl.RegimenDAOImpl;
+import com.vitareminder.dao.impl.SettingsDAOImpl;
+import com.vitareminder.dao.impl.StatementCache;
 import com.vitareminder.dao.impl.SupplementDAOImpl;
+import com.vitareminder.db.AutosaveManager;
 import com.vitareminder.db.DataSource;
+import com.vitareminder.metrics.LatencyStats;
+import com.vitareminder.metrics.MetricsRegistry;
+import com.vitareminder.search.SearchIndex;
+import com.vitareminder.settings.SettingsListener;
+import com.vitareminder.settings.SettingsStore;
 
 
 /**
@@ -19,27 +30,46 @@ import com.vitareminder.db.DataSource;
  * {@code VitaReminderPanel}, {@code RegimenTableModel} and {@code SupplementTableModel}.
  * <p>
  * When {@code DAOManager} creates either a {@code RegimenDAO} or {@code SupplementDAO},
- * the same connection object is passed into each of their constructors.  This ensures
+ * the same {@code StatementCache}, and therefore the same connection object, is
+ * passed into each of their constructors.  This ensures
  * that the application only ever works with a single connection, and therefore a single
  * transaction.  This has the effect that the single {@code commitTransaction()} function
  * will commit the changes that were initiated by both the {@code RegimenDAO} and
  * {@code SupplementDAO} objects.
  * <p>
  * This class can also return a reference to a {@code DbDAO} object, which provides
- * facilities for backing up and restoring the database.
+ * facilities for backing up and restoring the database, and to the {@code AutosaveManager},
+ * which journals the uncommitted transaction so that it can be recovered after a crash.
+ * <p>
+ * The profiles and settings are the exception: the {@code SettingsDAO} works on a
+ * second connection, so that settings are saved as soon as they are changed, and
+ * they are read through the {@code SettingsStore}, which keeps them in memory.  Only
+ * the regimens of the store's active profile are returned by the {@code RegimenDAO}.
+ * <p>
+ * Each DAO is wrapped by the {@code MetricsRegistry}, which records the latency of
+ * every DAO method call, and the time taken by each commit is recorded as well.
  */
 public class DAOManager
 {
     private DataSource dataSource = null;
     private Connection connection = null;
+    private StatementCache statementCache = null;
+    private StatementCache settingsStatementCache = null;
+    private AutosaveManager autosaveManager = null;
+    private SearchIndex searchIndex = null;
+    private AgendaIndex agendaIndex = null;
+    private LatencyStats commitStats = null;
+    private SettingsStore settingsStore = null;
 
     private RegimenDAO regimenDAO = null;
     private SupplementDAO supplementDAO = null;
     private DbDAO dbDAO = null;
+    private SettingsDAO settingsDAO = null;
 
 
     /**
-     * The sole constructor.
+     * The sole constructor.  Brings the database schema up to date, and then
+     * reads the profiles and settings into the {@code SettingsStore}.
      *
      * @param dataSource  a {@code DataSource} object that maintains a connection to the database
      */
@@ -47,6 +77,33 @@ public class DAOManager
     {
         this.dataSource = dataSource;
         this.connection = this.dataSource.getConnection();
+        this.statementCache = new StatementCache(connection);
+        this.autosaveManager = new AutosaveManager(connection);
+        this.searchIndex = new SearchIndex();
+        this.agendaIndex = new AgendaIndex();
+        this.commitStats = MetricsRegistry.getInstance().getLatencyStats("Database", "commit");
+
+        getDbDAO().upgradeSchema();
+
+        this.settingsStatementCache = new StatementCache(this.dataSource.getSettingsConnection());
+        this.settingsStore = new SettingsStore(getSettingsDAO());
+
+        // The indexes only cover the active profile's regimens
+        this.settingsStore.addSettingsListener(new SettingsListener() {
+
+            @Override
+            public void settingsChanged(int profileID, Set<String> keys)
+            {
+
+            }
+
+            @Override
+            public void activeProfileChanged(Profile profile)
+            {
+                searchIndex.invalidate();
+                agendaIndex.invalidate();
+            }
+        });
     }
 
 
@@ -60,7 +117,9 @@ public class DAOManager
     {
         if (regimenDAO == null)
         {
-            regimenDAO = new RegimenDAOImpl(connection);
+            regimenDAO = MetricsRegistry.getInstance().instrument("DAO", RegimenDAO.class,
+                                                                  new RegimenDAOImpl(statementCache, searchIndex, agendaIndex,
+                                                                                     settingsStore));
         }
 
         return regimenDAO;
@@ -77,7 +136,9 @@ public class DAOManager
     {
         if (supplementDAO == null)
         {
-            supplementDAO = new SupplementDAOImpl(connection);
+            supplementDAO = MetricsRegistry.getInstance().instrument("DAO", SupplementDAO.class,
+                                                                     new SupplementDAOImpl(statementCache, searchIndex,
+                                                                                           agendaIndex, settingsStore));
         }
 
         return supplementDAO;
@@ -94,19 +155,102 @@ public class DAOManager
     {
         if (dbDAO == null)
         {
-            dbDAO = new DbDAOImpl(connection);
+            dbDAO = MetricsRegistry.getInstance().instrument("DAO", DbDAO.class,
+                                                             new DbDAOImpl(statementCache, searchIndex, agendaIndex));
         }
 
         return dbDAO;
     }
 
 
+    /**
+     * Gets a SettingsDAO object, which enables the client class to read and
+     * write the profiles and settings tables.  Most classes should use the
+     * {@code SettingsStore} instead.
+     *
+     * @return an implementation of the SettingsDAO interface
+     */
+    public SettingsDAO getSettingsDAO()
+    {
+        if (settingsDAO == null)
+        {
+            settingsDAO = MetricsRegistry.getInstance().instrument("DAO", SettingsDAO.class,
+                                                                   new SettingsDAOImpl(settingsStatementCache));
+        }
+
+        return settingsDAO;
+    }
+
+
+    /**
+     * Gets the {@code SettingsStore}, which holds the profiles, their settings,
+     * and which profile is active.
+     *
+     * @return the application's single {@code SettingsStore}
+     */
+    public SettingsStore getSettingsStore()
+    {
+        return settingsStore;
+    }
+
+
+    /**
+     * Gets the {@code AutosaveManager}, which journals the user's unsaved changes.
+     *
+     * @return the application's single {@code AutosaveManager}
+     */
+    public AutosaveManager getAutosaveManager()
+    {
+        return autosaveManager;
+    }
+
+
+    /**
+     * Gets the {@code SearchIndex} over the regimens and supplements, building it
+     * from the database the first time it is needed, and again after it has been
+     * invalidated by a restore or a rollback.  Between builds, it is kept up to
+     * date by the {@code RegimenDAO} and {@code SupplementDAO}.
+     *
+     * @return the application's single {@code SearchIndex}
+     */
+    public SearchIndex getSearchIndex()
+    {
+        if (!searchIndex.isBuilt())
+        {
+            searchIndex.build(getRegimenDAO());
+        }
+
+        return searchIndex;
+    }
+
+
+    /**
+     * Gets the {@code AgendaIndex} of when each supplement is next due, building
+     * it from the database the first time it is needed, and again after it has
+     * been invalidated, in the same way as the {@code SearchIndex}.
+     *
+     * @return the application's single {@code AgendaIndex}
+     */
+    public AgendaIndex getAgendaIndex()
+    {
+        if (!agendaIndex.isBuilt())
+        {
+            agendaIndex.build(getRegimenDAO());
+        }
+
+        return agendaIndex;
+    }
+
+
     /**
      * Closes the current database connection.  Called by the shutdown hook
      * in the {@code VitaReminder} class.
      */
     public void closeDatabaseConnection()
     {
+        autosaveManager.stop();
+        statementCache.clear();
+        settingsStatementCache.clear();
         dataSource.closeDatabaseConnection();
     }
 
@@ -115,11 +259,69 @@ public class DAOManager
      * Commits the current database transaction.  The connection's auto-commit
      * mode is set to false, so we must manually commit the transaction to
      * commit any changes to the actual database.  This is how the "save"
-     * functionality is implemented in this application.
+     * functionality is implemented in this application.  The recovery journal
+     * is no longer needed once the changes are committed, so it is deleted.
+     * If the commit fails, the journal is kept.
+     *
+     * @return <tt>true</tt> if the changes were committed, <tt>false</tt> otherwise
+     */
+    public boolean commitTransaction()
+    {
+        long start = System.nanoTime();
+        boolean success = dataSource.commitTransaction();
+        commitStats.record(System.nanoTime() - start);
+
+        if (success)
+        {
+            autosaveManager.markSaved();
+        }
+
+        return success;
+    }
+
+
+    /**
+     * Rolls back the current database transaction, discarding every change
+     * made since the user last saved, and deletes the recovery journal.
+     * Called when the user chooses not to save their changes on exit, and
+     * by the "Revert to Saved" menu item in {@code VitaReminderFrame}.
+     * If the rollback fails, the journal is kept.
+     *
+     * @return <tt>true</tt> if the changes were discarded, <tt>false</tt> otherwise
+     */
+    public boolean rollbackTransaction()
+    {
+        boolean success = dataSource.rollbackTransaction();
+
+        if (success)
+        {
+            autosaveManager.markSaved();
+        }
+
+        searchIndex.invalidate();
+        agendaIndex.invalidate();
+
+        return success;
+    }
+
+
+    /**
+     * Restores the changes that the previous session left in the recovery
+     * journal, and commits them.  Called by {@code VitaReminder} on startup
+     * if the user accepts the offer to recover their unsaved changes.
+     *
+     * @return <tt>true</tt> if the changes were restored, <tt>false</tt> otherwise
      */
-    public void commitTransaction()
+    public boolean recoverUnsavedChanges()
     {
-        dataSource.commitTransaction();
+        boolean success = getDbDAO().restoreDatabase(autosaveManager.getRecoveryJournal().getAbsolutePath());
+
+        if (success)
+        {
+            success = commitTransaction();
+        }
+
+        return success;
     }
 
 }  // end class DAOManager
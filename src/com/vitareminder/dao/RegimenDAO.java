@@ -1,5 +1,6 @@
 package com.vitareminder.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.vitareminder.business.Regimen;
@@ -12,8 +13,11 @@ import com.vitareminder.business.Regimen;
 public interface RegimenDAO
 {
     public List<Regimen> getRegimens();
+    public boolean visitRegimens(RegimenVisitor visitor);
     public Regimen addRegimen(Regimen regimen);
+    public boolean restoreRegimen(Regimen regimen);
     public boolean deleteRegimen(int regimenID);
+    public boolean deleteRegimens(Collection<Integer> regimenIDs);
     public boolean deleteAllRegimens();
     public boolean updateRegimen(int regimenID, String field, Object value);
 }
@@ -0,0 +1,23 @@
+package com.vitareminder.dao;
+
+import com.vitareminder.business.Regimen;
+
+
+/**
+ * A callback that receives the user's regimens one at a time from
+ * {@code RegimenDAO#visitRegimens()}, in ascending order by {@code regimenID}.
+ * Each {@code Regimen} is passed in with all of its {@code Supplement}s, and is
+ * not referenced by the DAO afterwards, so a visitor that does not keep the
+ * regimens needs only enough memory for one regimen at a time.
+ */
+public interface RegimenVisitor
+{
+    /**
+     * Called once for each regimen.
+     *
+     * @param regimen  the next regimen, containing its supplements in ascending
+     *                 order by {@code suppID}
+     * @return <tt>true</tt> to continue with the next regimen, <tt>false</tt> to stop
+     */
+    public boolean visitRegimen(Regimen regimen);
+}
@@ -0,0 +1,20 @@
+package com.vitareminder.dao;
+
+import java.util.List;
+import java.util.Map;
+
+import com.vitareminder.business.Profile;
+
+
+/**
+ * An interface in which the implementing class must provide functions to
+ * read and write the profiles and their settings.  Implemented by
+ * {@code SettingsDAOImpl}.
+ */
+public interface SettingsDAO
+{
+    public List<Profile> getProfiles();
+    public Profile addProfile(String profileName);
+    public Map<Integer, Map<String, String>> getAllSettings();
+    public boolean putSettings(int profileID, Map<String, String> settings);
+}
@@ -12,8 +12,9 @@ import com.vitareminder.business.Supplement;
 public interface SupplementDAO
 {
     public List<Supplement> getSupplements(int regimenID);
-    public List<Supplement> getSupplementsWithReminders();
+    public List<Supplement> getSupplementsWithReminders(int profileID);
     public Supplement addSupplement(Supplement supplement);
+    public boolean restoreSupplement(Supplement supplement);
     public boolean deleteSupplement(int suppID);
     public boolean deleteAllSupplements();
     public boolean updateSupplement(int suppID, String field, Object value);
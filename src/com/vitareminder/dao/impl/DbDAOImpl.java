@@ -3,21 +3,31 @@ package com.vitareminder.dao.impl;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import javax.swing.JOptionPane;
 
 import org.apache.log4j.Logger;
 
+import com.vitareminder.agenda.AgendaIndex;
 import com.vitareminder.dao.DbDAO;
+import com.vitareminder.search.SearchIndex;
 
 /**
  * This class implements the methods in the {@code DbDAO} interface. These
  * methods, {@code backupDatabase()} and {@code restoreDatabase()}, represent
  * high-level backup and restore operations.
+ * <p>
+ * Backups contain the regimens and supplements tables of every profile.  The
+ * profiles and settings tables are left out, so that restoring a backup
+ * replaces the regimens without undoing any change to the settings.
  */
 public class DbDAOImpl implements DbDAO
 {
     private Connection connection = null;
+    private StatementCache statementCache = null;
+    private SearchIndex searchIndex = null;
+    private AgendaIndex agendaIndex = null;
 
     private Logger logger = Logger.getLogger(DbDAOImpl.class);
 
@@ -25,17 +35,28 @@ public class DbDAOImpl implements DbDAO
      * The sole constructor. Uses a reference to the same connection object used
      * by {@code RegimenDAOImpl} and {@code SupplementDAOImpl}.
      *
-     * @param connection
-     *            a connection to the datasource, with auto-commit set to false
+     * @param statementCache
+     *            the statement cache shared with {@code RegimenDAOImpl} and
+     *            {@code SupplementDAOImpl}, which holds the connection to the
+     *            datasource, with auto-commit set to false
+     * @param searchIndex
+     *            the index over the regimens and supplements, which is
+     *            invalidated when the database is restored
+     * @param agendaIndex
+     *            the index of when each supplement is next due, which is
+     *            also invalidated when the database is restored
      */
-    public DbDAOImpl(Connection connection)
+    public DbDAOImpl(StatementCache statementCache, SearchIndex searchIndex, AgendaIndex agendaIndex)
     {
-        this.connection = connection;
+        this.connection = statementCache.getConnection();
+        this.statementCache = statementCache;
+        this.searchIndex = searchIndex;
+        this.agendaIndex = agendaIndex;
     }
 
     /**
      * Exports a SQL script that contains the commands to create and populate
-     * the current database tables. The DROP option is specified so that the SQL
+     * the regimens and supplements tables. The DROP option is specified so that the SQL
      * script contains the commands to drop any pre-existing tables prior to
      * recreating them.
      *
@@ -49,7 +70,7 @@ public class DbDAOImpl implements DbDAO
 
         try
         {
-            String backup = "SCRIPT DROP TO " + "'" + filePath + "'";
+            String backup = "SCRIPT DROP TO " + "'" + filePath + "' TABLE regimens, supplements";
 
             preparedStatement = connection.prepareStatement(backup);
             preparedStatement.execute();
@@ -88,6 +109,10 @@ public class DbDAOImpl implements DbDAO
     /**
      * Imports the SQL script specified by {@code filePath} and executes the
      * script, which creates and populates the regimens and supplements tables.
+     * The cached statements are discarded afterwards, since the tables they were
+     * prepared against have been dropped and recreated.  A backup made before
+     * there were profiles is then given to the default profile by
+     * {@code upgradeSchema()}.
      *
      * @param filePath
      *            the absolute path to the backup file that the user has
@@ -104,7 +129,12 @@ public class DbDAOImpl implements DbDAO
             preparedStatement = connection.prepareStatement(backup);
             preparedStatement.execute();
 
-            return true;
+            statementCache.clear();
+
+            searchIndex.invalidate();
+            agendaIndex.invalidate();
+
+            return upgradeSchema();
         }
         catch (SQLException e)
         {
@@ -138,4 +168,88 @@ public class DbDAOImpl implements DbDAO
         }
     }
 
+    /**
+     * Creates the profiles and settings tables if they do not exist yet, and
+     * adds the profile_id column to the regimens table and the supp_recurrence
+     * column to the supplements table if they are missing.  A supplement whose
+     * supp_recurrence is NULL is taken once a day, as every supplement was
+     * before the column was added.  The
+     * profiles table has no identity column, since H2 writes the sequence of
+     * every identity column into a backup, even one restricted to the regimens
+     * and supplements tables, and restoring it would then fail.  The
+     * default profile, whose {@code profileID} is 1, is created if there are no
+     * profiles, and any regimen that does not belong to an existing profile,
+     * such as one from a database or backup made before there were profiles,
+     * is given to the default profile.  Called by {@code DAOManager} on startup,
+     * and after a restore.
+     *
+     * @return <tt>true</tt> if the schema is up to date, <tt>false</tt> otherwise
+     */
+    public boolean upgradeSchema()
+    {
+        Statement statement = null;
+
+        try
+        {
+            statement = connection.createStatement();
+
+            statement.execute("CREATE TABLE IF NOT EXISTS profiles "
+                            + "("
+                            + "profile_id INTEGER NOT NULL, "
+                            + "profile_name VARCHAR(60) NOT NULL, "
+                            + "CONSTRAINT profiles_pk PRIMARY KEY (profile_id)"
+                            + ")");
+
+            statement.execute("CREATE TABLE IF NOT EXISTS settings "
+                            + "("
+                            + "profile_id INTEGER NOT NULL, "
+                            + "setting_key VARCHAR(60) NOT NULL, "
+                            + "setting_value VARCHAR(1024) DEFAULT NULL, "
+                            + "CONSTRAINT settings_pk PRIMARY KEY (profile_id, setting_key), "
+                            + "CONSTRAINT settings_profile_id_fk FOREIGN KEY (profile_id) "
+                            + "REFERENCES profiles(profile_id) ON DELETE CASCADE"
+                            + ")");
+
+            statement.execute("ALTER TABLE regimens ADD COLUMN IF NOT EXISTS "
+                            + "profile_id INTEGER NOT NULL DEFAULT 1");
+
+            statement.execute("ALTER TABLE supplements ADD COLUMN IF NOT EXISTS "
+                            + "supp_recurrence VARCHAR(255) DEFAULT NULL");
+
+            statement.execute("INSERT INTO profiles (profile_id, profile_name) "
+                            + "SELECT 1, 'Default' FROM DUAL "
+                            + "WHERE NOT EXISTS (SELECT * FROM profiles)");
+
+            statement.execute("UPDATE regimens SET profile_id = 1 "
+                            + "WHERE profile_id NOT IN (SELECT profile_id FROM profiles)");
+
+            connection.commit();
+
+            return true;
+        }
+        catch (SQLException e)
+        {
+            logger.error("Unable to upgrade the database schema.", e);
+            JOptionPane.showMessageDialog(null,
+                    "Sorry, a database error has occurred.",
+                    "Database Error", JOptionPane.ERROR_MESSAGE);
+
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                if (statement != null)
+                {
+                    statement.close();
+                }
+            }
+            catch (SQLException e)
+            {
+                logger.warn("A database error has occurred.", e);
+            }
+        }
+    }
+
 } // end class DbDAOImpl
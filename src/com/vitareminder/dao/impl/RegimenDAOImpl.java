@@ -1,133 +1,182 @@
 package com.vitareminder.dao.impl;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import javax.swing.JOptionPane;
 
 import org.apache.log4j.Logger;
 
+import com.vitareminder.agenda.AgendaIndex;
 import com.vitareminder.business.Regimen;
 import com.vitareminder.business.Supplement;
 import com.vitareminder.dao.RegimenDAO;
+import com.vitareminder.dao.RegimenVisitor;
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
+import com.vitareminder.search.SearchIndex;
+import com.vitareminder.settings.SettingsStore;
 
 
 /**
  * This class implements the methods defined in the {@code RegimenDAO} interface
  * by performing SQL queries on the regimens and supplements tables in the
- * vitareminder_db database.
+ * vitareminder_db database.  Only the regimens of the active profile are read,
+ * and new regimens are given to the active profile.
  */
 public class RegimenDAOImpl implements RegimenDAO
 {
-    private Connection connection = null;
+    private static final FlightEventType GET_REGIMENS_EVENT =
+            new FlightEventType("com.vitareminder.GetRegimens", "Get Regimens", "DAO",
+                                "int regimenCount", "int supplementCount", "boolean success");
+
+    private StatementCache statementCache = null;
+    private SearchIndex searchIndex = null;
+    private AgendaIndex agendaIndex = null;
+    private SettingsStore settingsStore = null;
 
     private Logger logger = Logger.getLogger(RegimenDAOImpl.class);
 
 
     /**
-     * The sole constructor.  Uses a reference to the same connection object used
-     * by {@code SupplementDAOImpl}.
+     * The sole constructor.  Uses the same statement cache, and therefore the
+     * same connection object, as {@code SupplementDAOImpl}.
      *
-     * @param connection  a connection to the datasource, with auto-commit
-     *                    set to false
+     * @param statementCache  the cache of statements prepared on the connection to
+     *                        the datasource, with auto-commit set to false
+     * @param searchIndex  the index that is updated after each successful change,
+     *                     shared with {@code SupplementDAOImpl}
+     * @param agendaIndex  the index of when each supplement is next due, from which
+     *                     the supplements of deleted regimens are removed
+     * @param settingsStore  holds the active profile, whose regimens are read
      */
-    public RegimenDAOImpl(Connection connection)
+    public RegimenDAOImpl(StatementCache statementCache, SearchIndex searchIndex, AgendaIndex agendaIndex,
+                          SettingsStore settingsStore)
     {
-        this.connection = connection;
+        this.statementCache = statementCache;
+        this.searchIndex = searchIndex;
+        this.agendaIndex = agendaIndex;
+        this.settingsStore = settingsStore;
     }
 
 
     /**
      * Gets a {@code List} of {@code Regimen} objects, where each {@code Regimen}
-     * contains a {@code List} of {@code Supplement} objects.
-     * <p>
-     * The operation performed on the database is a left outer join to ensure that only
-     * a single query is made to the database with each call to this method.  However,
-     * the resultset table that is returned requires some special processing.  This is
-     * because there is no way of knowing beforehand, as the cursor moves forward one row
-     * at a time, whether or not the next row will contain the same regimen or a different
-     * one.  We therefore have to store each unique {@code Regimen} in one {@code Map}
-     * mapped to its {@code regimenID}, and a separate {@code Map} will map each {@code regimenID}
-     * to its {@code Supplement}s.
-     * <p>
-     * Once we have these two {@code Map}s, we can reconstruct a {@code List} of
-     * {@code Regimen}s, and insert the appropriate list of {@code Supplement}s into the
-     * appropriate {@code Regimen}.
+     * contains a {@code List} of {@code Supplement} objects.  The regimens are
+     * collected from {@code visitRegimens()}.
      *
      * @return a {@code List} of {@code Regimen} objects, each containing a {@code List}
-     *         of its {@code Supplement}s
+     *         of its {@code Supplement}s, or <tt>null</tt> if a database error occurred
      */
     public List<Regimen> getRegimens()
     {
-        Map<Integer, ArrayList<Supplement>> supplements = new HashMap<>();
-        Map<Integer, Regimen> regimens = new TreeMap<>();  // regimens sorted by regimenID
+        FlightEvent event = GET_REGIMENS_EVENT.begin();
+
+        final List<Regimen> result = new ArrayList<>();
+        final int[] supplementCount = {0};
+
+        boolean success = visitRegimens(new RegimenVisitor() {
+
+            @Override
+            public boolean visitRegimen(Regimen regimen)
+            {
+                result.add(regimen);
+                supplementCount[0] += regimen.getSupplements().size();
+                return true;
+            }
+        });
+
+        event.set("regimenCount", result.size())
+             .set("supplementCount", supplementCount[0])
+             .set("success", success)
+             .commit();
+
+        return success ? result : null;
+    }
 
+
+    /**
+     * Passes each {@code Regimen} of the active profile, containing its
+     * {@code Supplement}s, to the specified visitor in ascending order by
+     * {@code regimenID}.
+     * <p>
+     * The operation performed on the database is a left outer join to ensure that only
+     * a single query is made to the database with each call to this method.  The join is
+     * ordered by {@code regimenID} and then by {@code suppID}, so all of the rows for one
+     * regimen arrive together.  As the cursor moves forward, supplements are added to the
+     * current regimen until a row with a different {@code regimenID} is reached.  The
+     * current regimen is then complete and is handed to the visitor before the next one
+     * is started.  Only one regimen is held in memory at a time.
+     *
+     * @param visitor  receives each regimen as soon as all of its supplements have been read
+     * @return <tt>true</tt> if every regimen was visited, or the visitor stopped early,
+     *         <tt>false</tt> if a database error occurred
+     */
+    public boolean visitRegimens(RegimenVisitor visitor)
+    {
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
-        String query = "SELECT r.regimen_id, r.regimen_name, r.regimen_notes, "
+        String query = "SELECT r.regimen_id, r.profile_id, r.regimen_name, r.regimen_notes, "
                      + "s.supp_id, s.supp_name, s.supp_amount, s.supp_units, "
                      + "s.supp_time, s.supp_email_enabled, s.supp_text_enabled, "
-                     + "s.supp_voice_enabled, s.supp_notes "
+                     + "s.supp_voice_enabled, s.supp_notes, s.supp_recurrence "
                      + "FROM regimens AS r LEFT JOIN supplements AS s "
-                     + "ON r.regimen_id = s.regimen_id";
+                     + "ON r.regimen_id = s.regimen_id "
+                     + "WHERE r.profile_id = ? "
+                     + "ORDER BY r.regimen_id ASC, s.supp_id ASC";
 
         try
         {
-            preparedStatement = connection.prepareStatement(query);
+            preparedStatement = statementCache.acquire(query);
+            preparedStatement.setInt(1, settingsStore.getActiveProfileID());
             resultSet = preparedStatement.executeQuery();
 
+            SupplementRowMapper rowMapper = new SupplementRowMapper(resultSet);
+            int regimenIDColumn = resultSet.findColumn("regimen_id");
+            int profileIDColumn = resultSet.findColumn("profile_id");
+            int regimenNameColumn = resultSet.findColumn("regimen_name");
+            int regimenNotesColumn = resultSet.findColumn("regimen_notes");
+
+            Regimen regimen = null;
+
             while (resultSet.next())
             {
-                Integer regimenID = resultSet.getInt("regimen_id");
-                Regimen regimen = regimens.get(regimenID);
-                if (regimen == null)
+                int regimenID = resultSet.getInt(regimenIDColumn);
+
+                if (regimen == null || regimen.getRegimenID() != regimenID)
                 {
+                    // The previous regimen has all of its supplements
+                    if (regimen != null && !visitor.visitRegimen(regimen))
+                    {
+                        return true;
+                    }
+
                     regimen = new Regimen();
                     regimen.setRegimenID(regimenID);
-                    regimen.setRegimenName(resultSet.getString("regimen_name"));
-                    regimen.setRegimenNotes(resultSet.getString("regimen_notes"));
-                    regimens.put(regimenID, regimen);
-                    supplements.put(regimenID, new ArrayList<Supplement>());
+                    regimen.setProfileID(resultSet.getInt(profileIDColumn));
+                    regimen.setRegimenName(resultSet.getString(regimenNameColumn));
+                    regimen.setRegimenNotes(resultSet.getString(regimenNotesColumn));
                 }
 
-                Integer supplementID = resultSet.getInt("supp_id");
+                resultSet.getInt(rowMapper.getSuppIDColumn());
 
                 if (!resultSet.wasNull())  // Is there a supplement on this row?
                 {
-                    List<Supplement> supplementsList = supplements.get(regimenID);
-                    Supplement supplement = new Supplement();
-                    supplement.setSuppID(supplementID);
-                    supplement.setRegimenID(resultSet.getInt("regimen_id"));
-                    supplement.setSuppName(resultSet.getString("supp_name"));
-                    supplement.setSuppAmount(resultSet.getDouble("supp_amount"));
-                    supplement.setSuppUnits(resultSet.getString("supp_units"));
-                    supplement.setSuppTime(resultSet.getTime("supp_time"));
-                    supplement.setEmailEnabled(resultSet.getBoolean("supp_email_enabled"));
-                    supplement.setTextEnabled(resultSet.getBoolean("supp_text_enabled"));
-                    supplement.setVoiceEnabled(resultSet.getBoolean("supp_voice_enabled"));
-                    supplement.setSuppNotes(resultSet.getString("supp_notes"));
-                    supplementsList.add(supplement);
+                    regimen.getSupplements().add(rowMapper.mapRow(resultSet));
                 }
             }
 
-            // Using the two Maps, build the list of Regimens, each containing
-            // its list of Supplements.
-            List<Regimen> result = new ArrayList<>();
-            for (Regimen r : regimens.values())
+            if (regimen != null)
             {
-                r.setSupplements(supplements.get(r.getRegimenID()));
-                result.add(r);
+                visitor.visitRegimen(regimen);
             }
 
-            return result;
+            return true;
         }
         catch (SQLException e)
         {
@@ -148,7 +197,7 @@ public class RegimenDAOImpl implements RegimenDAO
 
                 if (preparedStatement != null)
                 {
-                    preparedStatement.close();
+                    statementCache.release(preparedStatement);
                 }
             }
             catch (SQLException e)
@@ -161,12 +210,13 @@ public class RegimenDAOImpl implements RegimenDAO
             }
         }
 
-        return null;
+        return false;
     }
 
 
     /**
-     * Adds the specified {@code Regimen} to the regimens table.  After inserting
+     * Adds the specified {@code Regimen} to the regimens table, as one of the
+     * active profile's regimens.  After inserting
      * the new row, it queries the result set to retrieve the primary key of the
      * {@code Regimen} just inserted.  It then builds a complete {@code Regimen}
      * object that includes its {@code regimenID}.
@@ -182,12 +232,15 @@ public class RegimenDAOImpl implements RegimenDAO
 
         try
         {
-            String insert = "INSERT INTO regimens (regimen_name, regimen_notes) "
-                          + "VALUES (?, ?)";
+            String insert = "INSERT INTO regimens (profile_id, regimen_name, regimen_notes) "
+                          + "VALUES (?, ?, ?)";
+
+            int profileID = settingsStore.getActiveProfileID();
 
-            preparedStatement1 = connection.prepareStatement(insert, PreparedStatement.RETURN_GENERATED_KEYS);
-            preparedStatement1.setString(1, (String) regimen.getRegimenName());
-            preparedStatement1.setString(2, (String) regimen.getRegimenNotes());
+            preparedStatement1 = statementCache.acquire(insert, PreparedStatement.RETURN_GENERATED_KEYS);
+            preparedStatement1.setInt(1, profileID);
+            preparedStatement1.setString(2, (String) regimen.getRegimenName());
+            preparedStatement1.setString(3, (String) regimen.getRegimenNotes());
             preparedStatement1.executeUpdate();
 
             long primaryKey = -1;
@@ -198,6 +251,9 @@ public class RegimenDAOImpl implements RegimenDAO
             }
 
             regimen.setRegimenID((int) primaryKey);
+            regimen.setProfileID(profileID);
+
+            searchIndex.addRegimen(regimen);
 
             return regimen;
         }
@@ -220,7 +276,7 @@ public class RegimenDAOImpl implements RegimenDAO
 
             if (preparedStatement2 != null)
             {
-              preparedStatement2.close();
+              statementCache.release(preparedStatement2);
             }
 
             if (resultSet1 != null)
@@ -230,7 +286,7 @@ public class RegimenDAOImpl implements RegimenDAO
 
             if (preparedStatement1 != null)
             {
-              preparedStatement1.close();
+              statementCache.release(preparedStatement1);
             }
             }
             catch (SQLException e)
@@ -247,6 +303,59 @@ public class RegimenDAOImpl implements RegimenDAO
     }
 
 
+    /**
+     * Inserts the specified {@code Regimen} into the regimens table with the
+     * {@code regimenID} that it already has, rather than a newly generated one.
+     * Used to undo the deletion of a regimen, so that any other change that
+     * refers to the regimen by its {@code regimenID} can still be undone or
+     * redone.  The regimen is given back to the profile that it belonged to, or
+     * to the active profile if it does not have one.  The regimen's supplements
+     * are not inserted.
+     *
+     * @return <tt>true</tt> if the insert operation was successful, <tt>false</tt> otherwise
+     */
+    public boolean restoreRegimen(Regimen regimen)
+    {
+        PreparedStatement preparedStatement = null;
+
+        try
+        {
+            String insert = "INSERT INTO regimens (regimen_id, profile_id, regimen_name, regimen_notes) "
+                          + "VALUES (?, ?, ?, ?)";
+
+            if (regimen.getProfileID() == 0)
+            {
+                regimen.setProfileID(settingsStore.getActiveProfileID());
+            }
+
+            preparedStatement = statementCache.acquire(insert);
+            preparedStatement.setInt(1, regimen.getRegimenID());
+            preparedStatement.setInt(2, regimen.getProfileID());
+            preparedStatement.setString(3, regimen.getRegimenName());
+            preparedStatement.setString(4, regimen.getRegimenNotes());
+            preparedStatement.executeUpdate();
+
+            searchIndex.addRegimen(regimen);
+
+            return true;
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return false;
+        }
+        finally
+        {
+            statementCache.release(preparedStatement);
+        }
+    }
+
+
     /**
      * Deletes the {@code Regimen} with the specified {@code regimenID} from the
      * regimens table.
@@ -262,10 +371,13 @@ public class RegimenDAOImpl implements RegimenDAO
             String delete = "DELETE FROM regimens "
                           + "WHERE regimen_id = ?";
 
-            preparedStatement = connection.prepareStatement(delete);
+            preparedStatement = statementCache.acquire(delete);
             preparedStatement.setInt(1, regimenID);
             preparedStatement.executeUpdate();
 
+            searchIndex.removeRegimen(regimenID);
+            agendaIndex.removeRegimen(regimenID);
+
             return true;
         }
         catch (SQLException e)
@@ -280,27 +392,60 @@ public class RegimenDAOImpl implements RegimenDAO
         }
         finally
         {
-            try
-            {
-                if (preparedStatement != null)
-                {
-                    preparedStatement.close();
-                }
-            }
-            catch (SQLException e)
+            statementCache.release(preparedStatement);
+        }
+    }
+
+
+    /**
+     * Deletes the regimens with the specified {@code regimenID}s from the regimens
+     * table in a single statement.  Their supplements are deleted by the
+     * ON DELETE CASCADE on the supplements table's foreign key.  The IDs are
+     * passed as one array parameter, so that the same prepared statement is
+     * reused however many regimens are deleted.
+     *
+     * @return <tt>true</tt> if the delete operation was successful, <tt>false</tt> otherwise
+     */
+    public boolean deleteRegimens(Collection<Integer> regimenIDs)
+    {
+        PreparedStatement preparedStatement = null;
+
+        try
+        {
+            String delete = "DELETE FROM regimens "
+                          + "WHERE regimen_id IN (SELECT X FROM TABLE(X INT = ?))";
+
+            preparedStatement = statementCache.acquire(delete);
+            preparedStatement.setObject(1, regimenIDs.toArray());
+            preparedStatement.executeUpdate();
+
+            for (int regimenID : regimenIDs)
             {
-                logger.warn("A database error has occured.", e);
-                JOptionPane.showMessageDialog(null,
-                                              "Sorry, a database error has occurred.",
-                                              "Database Error",
-                                              JOptionPane.ERROR_MESSAGE);
+                searchIndex.removeRegimen(regimenID);
+                agendaIndex.removeRegimen(regimenID);
             }
+
+            return true;
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return false;
+        }
+        finally
+        {
+            statementCache.release(preparedStatement);
         }
     }
 
 
     /**
-     * Deletes all rows from the regimens table.
+     * Deletes all of the active profile's regimens from the regimens table.
      *
      * @return <tt>true</tt> if the delete operation was successful, <tt>false</tt> otherwise
      */
@@ -310,11 +455,16 @@ public class RegimenDAOImpl implements RegimenDAO
 
         try
         {
-            String delete = "DELETE FROM regimens";
+            String delete = "DELETE FROM regimens "
+                          + "WHERE profile_id = ?";
 
-            preparedStatement = connection.prepareStatement(delete);
+            preparedStatement = statementCache.acquire(delete);
+            preparedStatement.setInt(1, settingsStore.getActiveProfileID());
             preparedStatement.executeUpdate();
 
+            searchIndex.invalidate();
+            agendaIndex.invalidate();
+
             return true;
         }
         catch (SQLException e)
@@ -329,21 +479,7 @@ public class RegimenDAOImpl implements RegimenDAO
         }
         finally
         {
-            try
-            {
-                if (preparedStatement != null)
-                {
-                    preparedStatement.close();
-                }
-            }
-            catch (SQLException e)
-            {
-                logger.warn("A database error has occured.", e);
-                JOptionPane.showMessageDialog(null,
-                                              "Sorry, a database error has occurred.",
-                                              "Database Error",
-                                              JOptionPane.ERROR_MESSAGE);
-            }
+            statementCache.release(preparedStatement);
         }
     }
 
@@ -364,11 +500,13 @@ public class RegimenDAOImpl implements RegimenDAO
                           + field + " = ? "
                           + "WHERE regimen_id = ?";
 
-            preparedStatement = connection.prepareStatement(update);
+            preparedStatement = statementCache.acquire(update);
             preparedStatement.setObject(1, value);
             preparedStatement.setInt(2, regimenID);
             preparedStatement.executeUpdate();
 
+            searchIndex.updateRegimen(regimenID, field, value);
+
             return true;
         }
         catch (SQLException e)
@@ -383,21 +521,7 @@ public class RegimenDAOImpl implements RegimenDAO
         }
         finally
         {
-            try
-            {
-                if (preparedStatement != null)
-                {
-                    preparedStatement.close();
-                }
-            }
-            catch (SQLException e)
-            {
-                logger.warn("A database error has occured.", e);
-                JOptionPane.showMessageDialog(null,
-                                              "Sorry, a database error has occurred.",
-                                              "Database Error",
-                                              JOptionPane.ERROR_MESSAGE);
-            }
+            statementCache.release(preparedStatement);
         }
     }
 
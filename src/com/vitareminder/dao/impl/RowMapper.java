@@ -0,0 +1,25 @@
+package com.vitareminder.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+
+/**
+ * Builds an object from the current row of a {@code ResultSet}.  An
+ * implementation is created for one {@code ResultSet} and looks up the
+ * positions of the columns it needs once, in its constructor, so that
+ * mapping each row reads the columns by index rather than by name.
+ *
+ * @param <T>  the type of object built from each row
+ */
+interface RowMapper<T>
+{
+    /**
+     * Builds an object from the row that the {@code ResultSet}'s cursor is on.
+     *
+     * @param resultSet  the result set this mapper was created for
+     * @return the object built from the current row
+     * @throws SQLException if a column could not be read
+     */
+    public T mapRow(ResultSet resultSet) throws SQLException;
+}
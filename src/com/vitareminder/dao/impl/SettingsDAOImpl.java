@@ -0,0 +1,299 @@
+package com.vitareminder.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JOptionPane;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Profile;
+import com.vitareminder.dao.SettingsDAO;
+
+
+/**
+ * Implements the methods defined in the {@code SettingsDAO} interface by
+ * performing SQL queries on the profiles and settings tables in the
+ * vitareminder_db database.
+ * <p>
+ * Unlike the other DAOs, this one works on a connection of its own, so that
+ * a setting is saved as soon as it is changed, whether or not the user goes
+ * on to save their regimens, and is not thrown away when they revert them.
+ * Each method that makes changes commits them, or rolls them back, before
+ * it returns, so a group of settings is always saved together.
+ */
+public class SettingsDAOImpl implements SettingsDAO
+{
+    private Connection connection = null;
+    private StatementCache statementCache = null;
+
+    private Logger logger = Logger.getLogger(SettingsDAOImpl.class);
+
+
+    /**
+     * The sole constructor.
+     *
+     * @param statementCache  the cache of statements prepared on the settings connection,
+     *                        with auto-commit set to false
+     */
+    public SettingsDAOImpl(StatementCache statementCache)
+    {
+        this.connection = statementCache.getConnection();
+        this.statementCache = statementCache;
+    }
+
+
+    /**
+     * Gets every {@code Profile}, in ascending order by {@code profileID}.
+     *
+     * @return a {@code List} of {@code Profile} objects, or <tt>null</tt> if a
+     *         database error occurred
+     */
+    public List<Profile> getProfiles()
+    {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        List<Profile> profiles = new ArrayList<>();
+
+        String query = "SELECT profile_id, profile_name FROM profiles "
+                     + "ORDER BY profile_id ASC";
+
+        try
+        {
+            preparedStatement = statementCache.acquire(query);
+            resultSet = preparedStatement.executeQuery();
+
+            while (resultSet.next())
+            {
+                profiles.add(new Profile(resultSet.getInt(1), resultSet.getString(2)));
+            }
+
+            return profiles;
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return null;
+        }
+        finally
+        {
+            close(resultSet, preparedStatement);
+        }
+    }
+
+
+    /**
+     * Adds a profile with the specified name to the profiles table, and
+     * commits it.  The new profile is given the next {@code profileID} after
+     * the highest one in use.
+     *
+     * @param profileName  the user-assigned name for the new profile
+     * @return the {@code Profile} just inserted with its {@code profileID},
+     *         or <tt>null</tt> if a database error occurred
+     */
+    public Profile addProfile(String profileName)
+    {
+        PreparedStatement preparedStatement1 = null;
+        PreparedStatement preparedStatement2 = null;
+        ResultSet resultSet = null;
+
+        String insert = "INSERT INTO profiles (profile_id, profile_name) "
+                      + "SELECT COALESCE(MAX(profile_id), 0) + 1, ? FROM profiles";
+
+        String query = "SELECT MAX(profile_id) FROM profiles";
+
+        try
+        {
+            preparedStatement1 = statementCache.acquire(insert);
+            preparedStatement1.setString(1, profileName);
+            preparedStatement1.executeUpdate();
+
+            int profileID = -1;
+            preparedStatement2 = statementCache.acquire(query);
+            resultSet = preparedStatement2.executeQuery();
+            if (resultSet.next())
+            {
+                profileID = resultSet.getInt(1);
+            }
+
+            connection.commit();
+
+            return new Profile(profileID, profileName);
+        }
+        catch (SQLException e)
+        {
+            rollback();
+
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return null;
+        }
+        finally
+        {
+            statementCache.release(preparedStatement1);
+            close(resultSet, preparedStatement2);
+        }
+    }
+
+
+    /**
+     * Gets the settings of every profile.  Called by {@code SettingsStore} to
+     * fill its cache.
+     *
+     * @return a {@code Map} from each {@code profileID} to that profile's settings, keyed
+     *         by name, or <tt>null</tt> if a database error occurred.  A profile that has
+     *         no settings is left out.
+     */
+    public Map<Integer, Map<String, String>> getAllSettings()
+    {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        Map<Integer, Map<String, String>> allSettings = new HashMap<>();
+
+        String query = "SELECT profile_id, setting_key, setting_value FROM settings";
+
+        try
+        {
+            preparedStatement = statementCache.acquire(query);
+            resultSet = preparedStatement.executeQuery();
+
+            while (resultSet.next())
+            {
+                int profileID = resultSet.getInt(1);
+
+                Map<String, String> settings = allSettings.get(profileID);
+                if (settings == null)
+                {
+                    settings = new HashMap<>();
+                    allSettings.put(profileID, settings);
+                }
+
+                settings.put(resultSet.getString(2), resultSet.getString(3));
+            }
+
+            return allSettings;
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return null;
+        }
+        finally
+        {
+            close(resultSet, preparedStatement);
+        }
+    }
+
+
+    /**
+     * Inserts or replaces each of the specified settings of the specified
+     * profile, and commits them in a single transaction.  Either all of the
+     * settings are saved, or none of them are.
+     *
+     * @param profileID  the profile that the settings belong to
+     * @param settings  the values of the settings, keyed by name
+     * @return <tt>true</tt> if the settings were saved, <tt>false</tt> otherwise
+     */
+    public boolean putSettings(int profileID, Map<String, String> settings)
+    {
+        PreparedStatement preparedStatement = null;
+
+        String merge = "MERGE INTO settings (profile_id, setting_key, setting_value) "
+                     + "KEY (profile_id, setting_key) VALUES (?, ?, ?)";
+
+        try
+        {
+            preparedStatement = statementCache.acquire(merge);
+
+            for (Map.Entry<String, String> setting : settings.entrySet())
+            {
+                preparedStatement.setInt(1, profileID);
+                preparedStatement.setString(2, setting.getKey());
+                preparedStatement.setString(3, setting.getValue());
+                preparedStatement.executeUpdate();
+            }
+
+            connection.commit();
+
+            return true;
+        }
+        catch (SQLException e)
+        {
+            rollback();
+
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.\n"
+                                        + "Your settings have not been saved.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return false;
+        }
+        finally
+        {
+            statementCache.release(preparedStatement);
+        }
+    }
+
+
+    private void rollback()
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch (SQLException e)
+        {
+            logger.warn("Unable to roll back the settings transaction.", e);
+        }
+    }
+
+
+    private void close(ResultSet resultSet, PreparedStatement preparedStatement)
+    {
+        try
+        {
+            if (resultSet != null)
+            {
+                resultSet.close();
+            }
+
+            if (preparedStatement != null)
+            {
+                statementCache.release(preparedStatement);
+            }
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+}  // end class SettingsDAOImpl
@@ -0,0 +1,215 @@
+package com.vitareminder.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Keeps the {@code PreparedStatement}s created on the application's single
+ * connection so that each SQL string is only prepared once, instead of on
+ * every call to a DAO method.
+ * <p>
+ * A statement is taken out of the cache with {@code acquire()} and must be
+ * handed back with {@code release()} once its {@code ResultSet} has been
+ * closed, rather than being closed by the caller.  While a statement is
+ * checked out, no other caller can be given the same statement, so a DAO
+ * method running on a background thread (such as the Excel export) cannot
+ * have its parameters overwritten by one running on the Event Dispatch Thread.
+ * A second statement for the same SQL is simply prepared in that case.
+ * <p>
+ * A single instance is created by {@code DAOManager} and shared by
+ * {@code RegimenDAOImpl}, {@code SupplementDAOImpl} and {@code DbDAOImpl}.
+ */
+public class StatementCache
+{
+    /** the most idle statements kept for any one SQL string */
+    private static final int MAX_IDLE_PER_QUERY = 2;
+
+    private final Connection connection;
+    private final Map<String, Deque<PreparedStatement>> idleStatements = new HashMap<>();
+
+    /** the cache key of every statement that is currently checked out */
+    private final Map<PreparedStatement, String> checkedOut = new IdentityHashMap<>();
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    private Logger logger = Logger.getLogger(StatementCache.class);
+
+
+    /**
+     * The sole constructor.
+     *
+     * @param connection  the connection that the statements are prepared on
+     */
+    public StatementCache(Connection connection)
+    {
+        this.connection = connection;
+    }
+
+
+    /**
+     * @return the connection that the statements are prepared on
+     */
+    public Connection getConnection()
+    {
+        return connection;
+    }
+
+
+    /**
+     * Gets a prepared statement for the specified SQL, with its parameters cleared.
+     *
+     * @param sql  the SQL to prepare
+     * @return a statement that must be passed to {@code release()} when it is no longer needed
+     * @throws SQLException if the statement could not be prepared
+     */
+    public PreparedStatement acquire(String sql) throws SQLException
+    {
+        return acquire(sql, PreparedStatement.NO_GENERATED_KEYS);
+    }
+
+
+    /**
+     * Gets a prepared statement for the specified SQL, with its parameters cleared.
+     *
+     * @param sql  the SQL to prepare
+     * @param autoGeneratedKeys  {@code PreparedStatement.RETURN_GENERATED_KEYS} for an
+     *                           INSERT whose generated key is needed, otherwise
+     *                           {@code PreparedStatement.NO_GENERATED_KEYS}
+     * @return a statement that must be passed to {@code release()} when it is no longer needed
+     * @throws SQLException if the statement could not be prepared
+     */
+    public PreparedStatement acquire(String sql, int autoGeneratedKeys) throws SQLException
+    {
+        String key = autoGeneratedKeys + ":" + sql;
+
+        synchronized (idleStatements)
+        {
+            Deque<PreparedStatement> idle = idleStatements.get(key);
+
+            if (idle != null && !idle.isEmpty())
+            {
+                hitCount++;
+
+                PreparedStatement preparedStatement = idle.pop();
+                preparedStatement.clearParameters();
+                checkedOut.put(preparedStatement, key);
+
+                return preparedStatement;
+            }
+
+            missCount++;
+        }
+
+        PreparedStatement preparedStatement = connection.prepareStatement(sql, autoGeneratedKeys);
+
+        synchronized (idleStatements)
+        {
+            checkedOut.put(preparedStatement, key);
+        }
+
+        return preparedStatement;
+    }
+
+
+    /**
+     * Returns a statement obtained from {@code acquire()} to the cache.  Does
+     * nothing if {@code preparedStatement} is <tt>null</tt>, so it can be called
+     * unconditionally from a {@code finally} block.
+     *
+     * @param preparedStatement  the statement to return
+     */
+    public void release(PreparedStatement preparedStatement)
+    {
+        if (preparedStatement == null)
+        {
+            return;
+        }
+
+        synchronized (idleStatements)
+        {
+            String key = checkedOut.remove(preparedStatement);
+
+            if (key != null)
+            {
+                Deque<PreparedStatement> idle = idleStatements.get(key);
+
+                if (idle == null)
+                {
+                    idle = new ArrayDeque<>(MAX_IDLE_PER_QUERY);
+                    idleStatements.put(key, idle);
+                }
+
+                if (idle.size() < MAX_IDLE_PER_QUERY)
+                {
+                    idle.push(preparedStatement);
+                    return;
+                }
+            }
+        }
+
+        close(preparedStatement);
+    }
+
+
+    /**
+     * Closes and discards every idle statement.  Statements that are checked
+     * out are closed when they are released.  Called by {@code DbDAOImpl}
+     * after a restore has dropped and recreated the tables.
+     */
+    public void clear()
+    {
+        synchronized (idleStatements)
+        {
+            checkedOut.clear();
+
+            for (Deque<PreparedStatement> idle : idleStatements.values())
+            {
+                for (PreparedStatement preparedStatement : idle)
+                {
+                    close(preparedStatement);
+                }
+            }
+
+            idleStatements.clear();
+        }
+    }
+
+
+    /**
+     * Gets a summary of how often a statement was reused, e.g. "hits=120 misses=9".
+     *
+     * @return the summary {@code String}
+     */
+    @Override
+    public String toString()
+    {
+        synchronized (idleStatements)
+        {
+            return "hits=" + hitCount + " misses=" + missCount;
+        }
+    }
+
+
+    private void close(PreparedStatement preparedStatement)
+    {
+        try
+        {
+            preparedStatement.close();
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+        }
+    }
+
+}  // end class StatementCache
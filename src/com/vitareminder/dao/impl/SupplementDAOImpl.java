@@ -1,6 +1,5 @@
 package com.vitareminder.dao.impl;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -11,8 +10,13 @@ import javax.swing.JOptionPane;
 
 import org.apache.log4j.Logger;
 
+import com.vitareminder.agenda.AgendaIndex;
 import com.vitareminder.business.Supplement;
 import com.vitareminder.dao.SupplementDAO;
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
+import com.vitareminder.search.SearchIndex;
+import com.vitareminder.settings.SettingsStore;
 
 
 /**
@@ -22,21 +26,39 @@ import com.vitareminder.dao.SupplementDAO;
  */
 public class SupplementDAOImpl implements SupplementDAO
 {
-    private Connection connection = null;
+    private static final FlightEventType SUPPLEMENT_MUTATION_EVENT =
+            new FlightEventType("com.vitareminder.SupplementMutation", "Supplement Mutation", "DAO",
+                                "String operation", "int suppID", "int regimenID", "String field",
+                                "int rowCount", "boolean success");
+
+    private StatementCache statementCache = null;
+    private SearchIndex searchIndex = null;
+    private AgendaIndex agendaIndex = null;
+    private SettingsStore settingsStore = null;
 
     private Logger logger = Logger.getLogger(SupplementDAOImpl.class);
 
 
     /**
-     * The sole constructor.  Uses a reference to the same connection object used
-     * by {@code RegimenDAOImpl}.
+     * The sole constructor.  Uses the same statement cache, and therefore the
+     * same connection object, as {@code RegimenDAOImpl}.
      *
-     * @param connection  a connection to the datasource, with auto-commit set to
-     *                    false
+     * @param statementCache  the cache of statements prepared on the connection to
+     *                        the datasource, with auto-commit set to false
+     * @param searchIndex  the index that is updated after each successful change,
+     *                     shared with {@code RegimenDAOImpl}
+     * @param agendaIndex  the index of when each supplement is next due, which is
+     *                     also updated after each successful change
+     * @param settingsStore  holds the active profile, whose supplements are deleted
+     *                       by {@code deleteAllSupplements()}
      */
-    public SupplementDAOImpl(Connection connection)
+    public SupplementDAOImpl(StatementCache statementCache, SearchIndex searchIndex, AgendaIndex agendaIndex,
+                             SettingsStore settingsStore)
     {
-        this.connection = connection;
+        this.statementCache = statementCache;
+        this.searchIndex = searchIndex;
+        this.agendaIndex = agendaIndex;
+        this.settingsStore = settingsStore;
     }
 
 
@@ -59,26 +81,15 @@ public class SupplementDAOImpl implements SupplementDAO
 
         try
         {
-            preparedStatement = connection.prepareStatement(query);
+            preparedStatement = statementCache.acquire(query);
             preparedStatement.setInt(1, regimenID);
             resultSet = preparedStatement.executeQuery();
 
+            SupplementRowMapper rowMapper = new SupplementRowMapper(resultSet);
+
             while (resultSet.next())
             {
-                Supplement supplement = new Supplement();
-
-                supplement.setSuppID(resultSet.getInt("supp_id"));
-                supplement.setRegimenID(resultSet.getInt("regimen_id"));
-                supplement.setSuppName(resultSet.getString("supp_name"));
-                supplement.setSuppAmount(resultSet.getDouble("supp_amount"));
-                supplement.setSuppUnits(resultSet.getString("supp_units"));
-                supplement.setSuppTime(resultSet.getTime("supp_time"));
-                supplement.setEmailEnabled(resultSet.getBoolean("supp_email_enabled"));
-                supplement.setTextEnabled(resultSet.getBoolean("supp_text_enabled"));
-                supplement.setVoiceEnabled(resultSet.getBoolean("supp_voice_enabled"));
-                supplement.setSuppNotes(resultSet.getString("supp_notes"));
-
-                supplements.add(supplement);
+                supplements.add(rowMapper.mapRow(resultSet));
             }
 
             return supplements;
@@ -102,7 +113,7 @@ public class SupplementDAOImpl implements SupplementDAO
 
                 if (preparedStatement != null)
                 {
-                    preparedStatement.close();
+                    statementCache.release(preparedStatement);
                 }
             }
             catch (SQLException e)
@@ -120,48 +131,40 @@ public class SupplementDAOImpl implements SupplementDAO
 
 
     /**
-     * Gets a {@code List} of {@code Supplement} objects, in ascending
-     * order by {@code supplementID}.  Called by {@code ReminderManager}.
+     * Gets a {@code List} of the {@code Supplement} objects that have at least
+     * one type of reminder enabled, and that belong to the regimens of the
+     * specified profile, in ascending order by {@code supplementID}.  Called
+     * by {@code ReminderManager}.
      *
+     * @param profileID  the profile whose supplements are fetched
      * @return a {@code List} of {@code Supplement} objects
      */
-    public ArrayList<Supplement> getSupplementsWithReminders()
+    public ArrayList<Supplement> getSupplementsWithReminders(int profileID)
     {
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
 
         ArrayList<Supplement> reminderSupplements = new ArrayList<Supplement>();
 
-        String query = "SELECT * FROM supplements "
-                     + "WHERE supp_email_enabled = 1 OR supp_text_enabled = 1 OR supp_voice_enabled = 1 "
-                     + "ORDER BY supp_id ASC";
+        String query = "SELECT s.* FROM supplements AS s INNER JOIN regimens AS r "
+                     + "ON s.regimen_id = r.regimen_id "
+                     + "WHERE r.profile_id = ? "
+                     + "AND (s.supp_email_enabled = 1 OR s.supp_text_enabled = 1 OR s.supp_voice_enabled = 1) "
+                     + "ORDER BY s.supp_id ASC";
 
         try
         {
-            preparedStatement = connection.prepareStatement(query);
+            preparedStatement = statementCache.acquire(query);
+            preparedStatement.setInt(1, profileID);
             resultSet = preparedStatement.executeQuery();
 
+            SupplementRowMapper rowMapper = new SupplementRowMapper(resultSet);
+
             while (resultSet.next())
             {
-                Supplement supplement = new Supplement();
-
-                supplement.setSuppID(resultSet.getInt("supp_id"));
-                supplement.setRegimenID(resultSet.getInt("regimen_id"));
-                supplement.setSuppName(resultSet.getString("supp_name"));
-                supplement.setSuppAmount(resultSet.getDouble("supp_amount"));
-                supplement.setSuppUnits(resultSet.getString("supp_units"));
-                supplement.setSuppTime(resultSet.getTime("supp_time"));
-                supplement.setEmailEnabled(resultSet.getBoolean("supp_email_enabled"));
-                supplement.setTextEnabled(resultSet.getBoolean("supp_text_enabled"));
-                supplement.setVoiceEnabled(resultSet.getBoolean("supp_voice_enabled"));
-                supplement.setSuppNotes(resultSet.getString("supp_notes"));
-
-                reminderSupplements.add(supplement);
+                reminderSupplements.add(rowMapper.mapRow(resultSet));
             }
 
-            resultSet.close();
-            preparedStatement.close();
-
             return reminderSupplements;
         }
         catch (SQLException e)
@@ -185,7 +188,7 @@ public class SupplementDAOImpl implements SupplementDAO
 
                 if (preparedStatement != null)
                 {
-                    preparedStatement.close();
+                    statementCache.release(preparedStatement);
                 }
             }
             catch (SQLException e)
@@ -210,6 +213,10 @@ public class SupplementDAOImpl implements SupplementDAO
      */
     public Supplement addSupplement(Supplement supplement)
     {
+        FlightEvent event = SUPPLEMENT_MUTATION_EVENT.begin()
+                                                     .set("operation", "add")
+                                                     .set("regimenID", supplement.getRegimenID());
+
         PreparedStatement preparedStatement1 = null;
         ResultSet resultSet1 = null;
         PreparedStatement preparedStatement2 = null;
@@ -219,10 +226,10 @@ public class SupplementDAOImpl implements SupplementDAO
         {
             String insert = "INSERT INTO supplements (regimen_id, supp_name, supp_amount, supp_units,"
                           +                          "supp_time, supp_email_enabled, supp_text_enabled, "
-                          +                          "supp_voice_enabled, supp_notes) "
-                          +                          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                          +                          "supp_voice_enabled, supp_notes, supp_recurrence) "
+                          +                          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
 
-            preparedStatement1 = connection.prepareStatement(insert, PreparedStatement.RETURN_GENERATED_KEYS);
+            preparedStatement1 = statementCache.acquire(insert, PreparedStatement.RETURN_GENERATED_KEYS);
             preparedStatement1.setInt(1, (int) supplement.getRegimenID());
             preparedStatement1.setString(2, (String) supplement.getSuppName());
             preparedStatement1.setDouble(3, (double) supplement.getSuppAmount());
@@ -232,7 +239,8 @@ public class SupplementDAOImpl implements SupplementDAO
             preparedStatement1.setBoolean(7, (boolean) supplement.getTextEnabled());
             preparedStatement1.setBoolean(8, (boolean) supplement.getVoiceEnabled());
             preparedStatement1.setString(9, (String) supplement.getSuppNotes());
-            preparedStatement1.executeUpdate();
+            preparedStatement1.setString(10, supplement.getRecurrence().getRule());
+            int rowCount = preparedStatement1.executeUpdate();
 
             long primaryKey = -1;
             resultSet1 = preparedStatement1.getGeneratedKeys();
@@ -243,6 +251,13 @@ public class SupplementDAOImpl implements SupplementDAO
 
             supplement.setSuppID((int) primaryKey);
 
+            searchIndex.addSupplement(supplement);
+            agendaIndex.addSupplement(supplement);
+
+            event.set("suppID", supplement.getSuppID())
+                 .set("rowCount", rowCount)
+                 .set("success", true);
+
             return supplement;
         }
         catch (SQLException e)
@@ -264,7 +279,7 @@ public class SupplementDAOImpl implements SupplementDAO
 
                 if (preparedStatement2 != null)
                 {
-                    preparedStatement2.close();
+                    statementCache.release(preparedStatement2);
                 }
 
                 if (resultSet1 != null)
@@ -274,7 +289,7 @@ public class SupplementDAOImpl implements SupplementDAO
 
                 if (preparedStatement1 != null)
                 {
-                    preparedStatement1.close();
+                    statementCache.release(preparedStatement1);
                 }
             }
             catch (SQLException e)
@@ -285,12 +300,79 @@ public class SupplementDAOImpl implements SupplementDAO
                                               "Database Error",
                                               JOptionPane.ERROR_MESSAGE);
             }
+
+            event.commit();
         }
 
         return null;
     }
 
 
+    /**
+     * Inserts the specified {@code Supplement} into the supplements table with
+     * the {@code suppID} that it already has, rather than a newly generated one.
+     * Used to undo the deletion of a supplement or of its regimen, so that any
+     * other change that refers to the supplement by its {@code suppID} can
+     * still be undone or redone.
+     *
+     * @return <tt>true</tt> if the insert operation was successful, <tt>false</tt> otherwise
+     */
+    public boolean restoreSupplement(Supplement supplement)
+    {
+        FlightEvent event = SUPPLEMENT_MUTATION_EVENT.begin()
+                                                     .set("operation", "restore")
+                                                     .set("suppID", supplement.getSuppID())
+                                                     .set("regimenID", supplement.getRegimenID());
+
+        PreparedStatement preparedStatement = null;
+
+        try
+        {
+            String insert = "INSERT INTO supplements (supp_id, regimen_id, supp_name, supp_amount, "
+                          +                          "supp_units, supp_time, supp_email_enabled, "
+                          +                          "supp_text_enabled, supp_voice_enabled, supp_notes, "
+                          +                          "supp_recurrence) "
+                          +                          "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+            preparedStatement = statementCache.acquire(insert);
+            preparedStatement.setInt(1, supplement.getSuppID());
+            preparedStatement.setInt(2, supplement.getRegimenID());
+            preparedStatement.setString(3, supplement.getSuppName());
+            preparedStatement.setDouble(4, supplement.getSuppAmount());
+            preparedStatement.setString(5, supplement.getSuppUnits());
+            preparedStatement.setTime(6, supplement.getSuppTime());
+            preparedStatement.setBoolean(7, supplement.getEmailEnabled());
+            preparedStatement.setBoolean(8, supplement.getTextEnabled());
+            preparedStatement.setBoolean(9, supplement.getVoiceEnabled());
+            preparedStatement.setString(10, supplement.getSuppNotes());
+            preparedStatement.setString(11, supplement.getRecurrence().getRule());
+            int rowCount = preparedStatement.executeUpdate();
+
+            searchIndex.addSupplement(supplement);
+            agendaIndex.addSupplement(supplement);
+
+            event.set("rowCount", rowCount).set("success", true);
+
+            return true;
+        }
+        catch (SQLException e)
+        {
+            logger.warn("A database error has occured.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, a database error has occurred.",
+                                          "Database Error",
+                                          JOptionPane.ERROR_MESSAGE);
+
+            return false;
+        }
+        finally
+        {
+            statementCache.release(preparedStatement);
+            event.commit();
+        }
+    }
+
+
     /**
      * Deletes the {@code Supplement} with the specified {@code suppID} from the
      * supplements table.
@@ -299,6 +381,10 @@ public class SupplementDAOImpl implements SupplementDAO
      */
     public boolean deleteSupplement(int suppID)
     {
+        FlightEvent event = SUPPLEMENT_MUTATION_EVENT.begin()
+                                                     .set("operation", "delete")
+                                                     .set("suppID", suppID);
+
         PreparedStatement preparedStatement = null;
 
         try
@@ -306,9 +392,14 @@ public class SupplementDAOImpl implements SupplementDAO
             String delete = "DELETE FROM supplements "
                           + "WHERE supp_id = ?";
 
-            preparedStatement = connection.prepareStatement(delete);
+            preparedStatement = statementCache.acquire(delete);
             preparedStatement.setInt(1, suppID);
-            preparedStatement.executeUpdate();
+            int rowCount = preparedStatement.executeUpdate();
+
+            searchIndex.removeSupplement(suppID);
+            agendaIndex.removeSupplement(suppID);
+
+            event.set("rowCount", rowCount).set("success", true);
 
             return true;
         }
@@ -324,40 +415,36 @@ public class SupplementDAOImpl implements SupplementDAO
         }
         finally
         {
-            try
-            {
-                if (preparedStatement != null)
-                {
-                    preparedStatement.close();
-                }
-            }
-            catch (SQLException e)
-            {
-                logger.warn("A database error has occured.", e);
-                JOptionPane.showMessageDialog(null,
-                                              "Sorry, a database error has occurred.",
-                                              "Database Error",
-                                              JOptionPane.ERROR_MESSAGE);
-            }
+            statementCache.release(preparedStatement);
+            event.commit();
         }
     }
 
 
     /**
-     * Deletes all rows from the supplements table.
+     * Deletes all of the active profile's supplements from the supplements table.
      *
      * @return <tt>true</tt> if the delete operation was successful, <tt>false</tt> otherwise
      */
     public boolean deleteAllSupplements()
     {
+        FlightEvent event = SUPPLEMENT_MUTATION_EVENT.begin().set("operation", "deleteAll");
+
         PreparedStatement preparedStatement = null;
 
         try
         {
-            String delete = "DELETE FROM supplements";
+            String delete = "DELETE FROM supplements "
+                          + "WHERE regimen_id IN (SELECT regimen_id FROM regimens WHERE profile_id = ?)";
 
-            preparedStatement = connection.prepareStatement(delete);
-            preparedStatement.executeUpdate();
+            preparedStatement = statementCache.acquire(delete);
+            preparedStatement.setInt(1, settingsStore.getActiveProfileID());
+            int rowCount = preparedStatement.executeUpdate();
+
+            searchIndex.invalidate();
+            agendaIndex.invalidate();
+
+            event.set("rowCount", rowCount).set("success", true);
 
             return true;
         }
@@ -373,21 +460,8 @@ public class SupplementDAOImpl implements SupplementDAO
         }
         finally
         {
-            try
-            {
-                if (preparedStatement != null)
-                {
-                    preparedStatement.close();
-                }
-            }
-            catch (SQLException e)
-            {
-                logger.warn("A database error has occured.", e);
-                JOptionPane.showMessageDialog(null,
-                                              "Sorry, a database error has occurred.",
-                                              "Database Error",
-                                              JOptionPane.ERROR_MESSAGE);
-            }
+            statementCache.release(preparedStatement);
+            event.commit();
         }
     }
 
@@ -400,6 +474,11 @@ public class SupplementDAOImpl implements SupplementDAO
      */
     public boolean updateSupplement(int suppID, String field, Object value)
     {
+        FlightEvent event = SUPPLEMENT_MUTATION_EVENT.begin()
+                                                     .set("operation", "update")
+                                                     .set("suppID", suppID)
+                                                     .set("field", field);
+
         PreparedStatement preparedStatement = null;
 
         try
@@ -408,10 +487,15 @@ public class SupplementDAOImpl implements SupplementDAO
                           + field + " = ? "
                           + "WHERE supp_id = ?";
 
-            preparedStatement = connection.prepareStatement(update);
+            preparedStatement = statementCache.acquire(update);
             preparedStatement.setObject(1, value);
             preparedStatement.setInt(2, suppID);
-            preparedStatement.executeUpdate();
+            int rowCount = preparedStatement.executeUpdate();
+
+            searchIndex.updateSupplement(suppID, field, value);
+            agendaIndex.updateSupplement(suppID, field, value);
+
+            event.set("rowCount", rowCount).set("success", true);
 
             return true;
         }
@@ -427,21 +511,8 @@ public class SupplementDAOImpl implements SupplementDAO
         }
         finally
         {
-            try
-            {
-                if (preparedStatement != null)
-                {
-                    preparedStatement.close();
-                }
-            }
-            catch (SQLException e)
-            {
-                logger.warn("A database error has occured.", e);
-                JOptionPane.showMessageDialog(null,
-                                              "Sorry, a database error has occurred.",
-                                              "Database Error",
-                                              JOptionPane.ERROR_MESSAGE);
-            }
+            statementCache.release(preparedStatement);
+            event.commit();
         }
     }
 
@@ -0,0 +1,109 @@
+package com.vitareminder.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Recurrence;
+import com.vitareminder.business.Supplement;
+
+
+/**
+ * The single mapping from a row of the supplements table to a {@code Supplement}.
+ * It is used for both the queries on the supplements table in
+ * {@code SupplementDAOImpl} and the regimens/supplements join in
+ * {@code RegimenDAOImpl}, since both select the supplement columns by their
+ * column names.
+ */
+class SupplementRowMapper implements RowMapper<Supplement>
+{
+    private final int suppIDColumn;
+    private final int regimenIDColumn;
+    private final int suppNameColumn;
+    private final int suppAmountColumn;
+    private final int suppUnitsColumn;
+    private final int suppTimeColumn;
+    private final int emailEnabledColumn;
+    private final int textEnabledColumn;
+    private final int voiceEnabledColumn;
+    private final int suppNotesColumn;
+    private final int recurrenceColumn;
+
+    private Logger logger = Logger.getLogger(SupplementRowMapper.class);
+
+
+    /**
+     * Looks up the positions of the supplement columns in the specified result set.
+     *
+     * @param resultSet  the result set whose rows will be mapped
+     * @throws SQLException if one of the supplement columns is missing
+     */
+    SupplementRowMapper(ResultSet resultSet) throws SQLException
+    {
+        suppIDColumn = resultSet.findColumn("supp_id");
+        regimenIDColumn = resultSet.findColumn("regimen_id");
+        suppNameColumn = resultSet.findColumn("supp_name");
+        suppAmountColumn = resultSet.findColumn("supp_amount");
+        suppUnitsColumn = resultSet.findColumn("supp_units");
+        suppTimeColumn = resultSet.findColumn("supp_time");
+        emailEnabledColumn = resultSet.findColumn("supp_email_enabled");
+        textEnabledColumn = resultSet.findColumn("supp_text_enabled");
+        voiceEnabledColumn = resultSet.findColumn("supp_voice_enabled");
+        suppNotesColumn = resultSet.findColumn("supp_notes");
+        recurrenceColumn = resultSet.findColumn("supp_recurrence");
+    }
+
+
+    /**
+     * @return the index of the supp_id column, which is NULL on rows of the
+     *         regimens/supplements join for a regimen without supplements
+     */
+    int getSuppIDColumn()
+    {
+        return suppIDColumn;
+    }
+
+
+    @Override
+    public Supplement mapRow(ResultSet resultSet) throws SQLException
+    {
+        Supplement supplement = new Supplement();
+
+        supplement.setSuppID(resultSet.getInt(suppIDColumn));
+        supplement.setRegimenID(resultSet.getInt(regimenIDColumn));
+        supplement.setSuppName(resultSet.getString(suppNameColumn));
+        supplement.setSuppAmount(resultSet.getDouble(suppAmountColumn));
+        supplement.setSuppUnits(resultSet.getString(suppUnitsColumn));
+        supplement.setSuppTime(resultSet.getTime(suppTimeColumn));
+        supplement.setEmailEnabled(resultSet.getBoolean(emailEnabledColumn));
+        supplement.setTextEnabled(resultSet.getBoolean(textEnabledColumn));
+        supplement.setVoiceEnabled(resultSet.getBoolean(voiceEnabledColumn));
+        supplement.setSuppNotes(resultSet.getString(suppNotesColumn));
+        supplement.setRecurrence(mapRecurrence(resultSet.getString(recurrenceColumn), supplement));
+
+        return supplement;
+    }
+
+
+    /**
+     * Reads the supp_recurrence column.  A rule that cannot be read, which
+     * could only have been written by a later version or by hand, is treated
+     * as once a day, so that the supplement's reminders are still sent.
+     */
+    private Recurrence mapRecurrence(String rule, Supplement supplement)
+    {
+        try
+        {
+            return Recurrence.parse(rule);
+        }
+        catch (IllegalArgumentException e)
+        {
+            logger.warn("Unable to read the recurrence \"" + rule + "\" of supplement "
+                        + supplement.getSuppID() + ", it will be taken once a day. " + e.getMessage());
+
+            return Recurrence.DAILY;
+        }
+    }
+
+}  // end class SupplementRowMapper
@@ -0,0 +1,228 @@
+package com.vitareminder.db;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Periodically writes the user's unsaved changes to a recovery journal, so
+ * that they are not lost if the application or the computer crashes before
+ * the user presses Save.
+ * <p>
+ * The application keeps all of the user's edits in a single uncommitted
+ * transaction until Save is pressed.  Every {@code DBConstants.AUTOSAVE_INTERVAL_SECONDS},
+ * if anything has changed since the journal was last written, this class runs
+ * H2's SCRIPT command on the application's connection.  Because the command runs
+ * inside the same transaction, the script it produces includes the uncommitted
+ * changes.  Only the regimens and supplements tables are journaled, since
+ * changes to the settings are committed as soon as they are made.  The script
+ * is written to a temporary file that is then renamed over the journal, so a
+ * crash while writing never leaves a half-written journal.
+ * <p>
+ * The journal is deleted whenever the user saves or discards their changes.
+ * If it still exists when the application starts, the previous session ended
+ * with unsaved changes, and {@code VitaReminder} offers to restore them.
+ */
+public class AutosaveManager
+{
+    private final Connection connection;
+    private final File journalFile;
+    private final File tempFile;
+
+    private ScheduledExecutorService executor = null;
+
+    /** incremented every time the user makes a change */
+    private long changeCount = 0;
+
+    /** the value of changeCount when the journal was last written or deleted */
+    private long journaledChangeCount = 0;
+
+    private Logger logger = Logger.getLogger(AutosaveManager.class);
+
+
+    /**
+     * The sole constructor.  A single instance is created by {@code DAOManager}.
+     *
+     * @param connection  the application's connection, with auto-commit set to false
+     */
+    public AutosaveManager(Connection connection)
+    {
+        this.connection = connection;
+        this.journalFile = new File(DBConstants.RECOVERY_JOURNAL);
+        this.tempFile = new File(DBConstants.RECOVERY_JOURNAL + ".tmp");
+    }
+
+
+    /**
+     * Starts writing the journal in a background thread.  Called by
+     * {@code VitaReminder} once any journal left by the previous session
+     * has been dealt with.
+     */
+    public synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Autosave");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                writeJournal();
+            }
+        }, DBConstants.AUTOSAVE_INTERVAL_SECONDS, DBConstants.AUTOSAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        logger.info("Autosave started.");
+    }
+
+
+    /**
+     * Stops writing the journal.  Called by {@code DAOManager} before the
+     * connection is closed.  The journal itself is left in place.
+     */
+    public synchronized void stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+
+    /**
+     * Records that the user has made a change that has not been saved, so
+     * that the journal is rewritten at the next interval.  Called by
+     * {@code VitaReminderPanel}.
+     */
+    public synchronized void markChanged()
+    {
+        changeCount++;
+    }
+
+
+    /**
+     * Records that there are no longer any unsaved changes, because they have
+     * either been committed or rolled back, and deletes the journal.
+     */
+    public synchronized void markSaved()
+    {
+        journaledChangeCount = changeCount;
+
+        deleteJournal();
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the previous session left a journal of unsaved changes
+     */
+    public boolean hasRecoveryJournal()
+    {
+        return journalFile.isFile();
+    }
+
+
+    /**
+     * @return the journal of unsaved changes
+     */
+    public File getRecoveryJournal()
+    {
+        return journalFile;
+    }
+
+
+    /**
+     * Writes the journal if anything has changed since it was last written.
+     */
+    private synchronized void writeJournal()
+    {
+        if (changeCount == journaledChangeCount)
+        {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        PreparedStatement preparedStatement = null;
+
+        try
+        {
+            String script = "SCRIPT DROP TO '" + tempFile.getPath() + "' TABLE regimens, supplements";
+
+            preparedStatement = connection.prepareStatement(script);
+            preparedStatement.execute();
+
+            // File.renameTo() will not replace an existing file on Windows
+            if (journalFile.exists() && !journalFile.delete())
+            {
+                logger.warn("Unable to replace the recovery journal " + journalFile);
+                return;
+            }
+
+            if (!tempFile.renameTo(journalFile))
+            {
+                logger.warn("Unable to rename " + tempFile + " to " + journalFile);
+                return;
+            }
+
+            journaledChangeCount = changeCount;
+
+            logger.info("Unsaved changes written to the recovery journal in "
+                      + (System.currentTimeMillis() - startTime) + " ms.");
+        }
+        catch (SQLException e)
+        {
+            logger.warn("An error has occurred while writing the recovery journal.", e);
+        }
+        finally
+        {
+            try
+            {
+                if (preparedStatement != null)
+                {
+                    preparedStatement.close();
+                }
+            }
+            catch (SQLException e)
+            {
+                logger.warn("A database error has occurred.", e);
+            }
+        }
+    }
+
+
+    private void deleteJournal()
+    {
+        if (journalFile.exists() && !journalFile.delete())
+        {
+            logger.warn("Unable to delete the recovery journal " + journalFile);
+        }
+
+        if (tempFile.exists())
+        {
+            tempFile.delete();
+        }
+    }
+
+}  // end class AutosaveManager
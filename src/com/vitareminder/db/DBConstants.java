@@ -2,7 +2,9 @@ package com.vitareminder.db;
 
 /**
  * A central location for the constants used by the {@code DataSource}
- * class to create the JDBC database connection.
+ * class to create the JDBC database connection, by the
+ * {@code AutosaveManager} class to journal unsaved changes, and by the
+ * {@code QueryProfiler} class to log slow statements.
  */
 public class DBConstants
 {
@@ -10,4 +12,11 @@ public class DBConstants
     public static final String DATABASE_NAME = "vitareminder_db";
     public static final String USERNAME = "";
     public static final String PASSWORD = "";
+
+    public static final String RECOVERY_JOURNAL = "user/data/recovery.vrdata";
+    public static final int AUTOSAVE_INTERVAL_SECONDS = 60;
+
+    public static final int SLOW_QUERY_MILLIS = 100;
+    public static final int QUERY_REPORT_INTERVAL_MINUTES = 60;
+    public static final int QUERY_REPORT_SIZE = 20;
 }
@@ -8,6 +8,9 @@ import javax.swing.JOptionPane;
 
 import org.apache.log4j.Logger;
 
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
+
 
 /**
  * This clsas directly manages the JDBC connection to the database.
@@ -15,29 +18,59 @@ import org.apache.log4j.Logger;
  * auto-commit mode is set to false.  The current transaction is committed
  * only when the user presses the save button or clicks on the save
  * menu item.
+ * <p>
+ * A second connection is opened for the profiles and settings tables, which
+ * commits each change to the settings straight away, independently of the
+ * user's unsaved changes to their regimens.
+ * <p>
+ * Both connections are wrapped by a {@code QueryProfiler}, which times every
+ * statement and logs the slow ones to logs/query.log.
  */
 public class DataSource
 {
-    private String url = DBConstants.DATABASE_URL;
-    private String dbName = DBConstants.DATABASE_NAME;
+    private static final FlightEventType COMMIT_EVENT =
+            new FlightEventType("com.vitareminder.Commit", "Commit", "Database", "boolean success");
+
+    private String url;
+    private String dbName;
     private String username = DBConstants.USERNAME;
     private String password = DBConstants.PASSWORD;
 
     private Connection connection = null;
+    private Connection settingsConnection = null;
+    private QueryProfiler queryProfiler = null;
 
     private Logger logger = Logger.getLogger(DataSource.class);
 
 
     /**
-     * The sole constructor.  This establishes a connection to the
-     * vitareminder_db database and sets this connection's auto-commit
-     * mode to false.
+     * Establishes a connection to the application's vitareminder_db database
+     * and sets this connection's auto-commit mode to false.
      */
     public DataSource()
     {
+        this(DBConstants.DATABASE_URL, DBConstants.DATABASE_NAME);
+    }
+
+
+    /**
+     * Establishes a connection to the specified database and sets this
+     * connection's auto-commit mode to false.  Used by the tools in
+     * {@code com.vitareminder.tools} to work on a generated database
+     * rather than the user's own.
+     *
+     * @param url  the JDBC URL of the directory that holds the database, e.g. "jdbc:h2:file:scale/10000/"
+     * @param dbName  the name of the database
+     */
+    public DataSource(String url, String dbName)
+    {
+        this.url = url;
+        this.dbName = dbName;
+
         try
         {
-            connection = DriverManager.getConnection(url + dbName, username, password);
+            queryProfiler = new QueryProfiler(DBConstants.SLOW_QUERY_MILLIS, DBConstants.QUERY_REPORT_INTERVAL_MINUTES);
+            connection = queryProfiler.wrap(DriverManager.getConnection(url + dbName, username, password));
             connection.setAutoCommit(false);
 
             logger.info("Connected to database.");
@@ -74,15 +107,55 @@ public class DataSource
 
 
     /**
-     * Closes the database connection.  The shutdown hook in {@code VitaReminder}
+     * Gets the connection to the database that is used for the profiles and
+     * settings tables, opening it the first time it is needed.  Its auto-commit
+     * mode is also set to false, so that a group of settings can be saved in a
+     * single transaction, but it is committed by {@code SettingsDAOImpl} rather
+     * than when the user saves.
+     *
+     * @return the settings connection, or <tt>null</tt> if it could not be opened
+     */
+    public synchronized Connection getSettingsConnection()
+    {
+        if (settingsConnection == null && connection != null)
+        {
+            try
+            {
+                settingsConnection = queryProfiler.wrap(DriverManager.getConnection(url + dbName, username, password));
+                settingsConnection.setAutoCommit(false);
+            }
+            catch (SQLException e)
+            {
+                logger.error("There was an error opening the settings connection.", e);
+                JOptionPane.showMessageDialog(null,
+                                              "Sorry, there was an error connecting to the database.\n"
+                                            + "Your settings cannot be loaded.",
+                                              "Database Error",
+                                              JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        return settingsConnection;
+    }
+
+
+    /**
+     * Closes the database connections.  The shutdown hook in {@code VitaReminder}
      * calls this indirectly by calling {@code DAOManager#closeDatabaseConnection()}.
      */
     public void closeDatabaseConnection()
     {
         if (connection != null)
         {
+            queryProfiler.stop();
+
             try
             {
+                if (settingsConnection != null)
+                {
+                    settingsConnection.close();
+                }
+
                 connection.close();
 
                 logger.info("Disconnected from database.");
@@ -103,24 +176,70 @@ public class DataSource
      * Commits the current database transaction.  The {@code VitaReminderFrame}
      * and {@code VitaReminderPanel} classes call this indirectly by calling
      * {@code DAOManager#commitTransaction()}.
+     *
+     * @return <tt>true</tt> if the transaction was committed, <tt>false</tt> otherwise
      */
-    public void commitTransaction()
+    public boolean commitTransaction()
     {
         if (connection != null)
         {
+            FlightEvent event = COMMIT_EVENT.begin();
+
             try
             {
                 connection.commit();
+                event.set("success", true);
+
+                return true;
             }
             catch (SQLException e)
             {
+                event.set("success", false);
                 logger.warn("Error saving data to database.", e);
                 JOptionPane.showMessageDialog(null,
                                               "Sorry, there was an error saving to the database.",
                                               "Database Error",
                                               JOptionPane.ERROR_MESSAGE);
             }
+            finally
+            {
+                event.commit();
+            }
         }
+
+        return false;
+    }
+
+
+    /**
+     * Rolls back the current database transaction, discarding every change
+     * made since the user last saved.  The {@code VitaReminderFrame} and
+     * {@code VitaReminderPanel} classes call this indirectly by calling
+     * {@code DAOManager#rollbackTransaction()}.
+     *
+     * @return <tt>true</tt> if the transaction was rolled back, <tt>false</tt> otherwise
+     */
+    public boolean rollbackTransaction()
+    {
+        if (connection != null)
+        {
+            try
+            {
+                connection.rollback();
+
+                return true;
+            }
+            catch (SQLException e)
+            {
+                logger.warn("Error discarding changes to the database.", e);
+                JOptionPane.showMessageDialog(null,
+                                              "Sorry, there was an error discarding your changes.",
+                                              "Database Error",
+                                              JOptionPane.ERROR_MESSAGE);
+            }
+        }
+
+        return false;
     }
 
 }  // end class DataSource
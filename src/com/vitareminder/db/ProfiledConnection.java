@@ -0,0 +1,63 @@
+package com.vitareminder.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+
+/**
+ * The proxy for the database connection created by {@code QueryProfiler#wrap()}.
+ * Every {@code PreparedStatement} or {@code Statement} that the connection
+ * creates is wrapped in a {@code ProfiledStatement}; every other call goes
+ * straight to the connection.
+ */
+class ProfiledConnection implements InvocationHandler
+{
+    private final Connection connection;
+    private final QueryProfiler profiler;
+
+
+    ProfiledConnection(Connection connection, QueryProfiler profiler)
+    {
+        this.connection = connection;
+        this.profiler = profiler;
+    }
+
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        Object result;
+
+        try
+        {
+            result = method.invoke(connection, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+
+        String name = method.getName();
+
+        if (name.equals("prepareStatement"))
+        {
+            return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                          new Class<?>[] {PreparedStatement.class},
+                                          new ProfiledStatement(result, (String) args[0], connection, profiler));
+        }
+        else if (name.equals("createStatement"))
+        {
+            return Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                                          new Class<?>[] {Statement.class},
+                                          new ProfiledStatement(result, null, connection, profiler));
+        }
+
+        return result;
+    }
+
+}  // end class ProfiledConnection
@@ -0,0 +1,109 @@
+package com.vitareminder.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * The proxy for a statement created by a {@code ProfiledConnection}.  It
+ * remembers the parameters bound to the statement, and reports the time
+ * taken by each execution to the {@code QueryProfiler}.  A statement is only
+ * used by one thread at a time, so the parameters are not synchronized.
+ */
+class ProfiledStatement implements InvocationHandler
+{
+    private final Object statement;
+    private final QueryProfiler profiler;
+
+    /** the connection that created the statement, not profiled, on which a slow statement is explained */
+    private final Connection connection;
+
+    /** the SQL of a PreparedStatement, or null for a Statement, which is given its SQL when executed */
+    private final String preparedSql;
+
+    private final Map<Integer, Object> parameters = new TreeMap<>();
+
+
+    ProfiledStatement(Object statement, String preparedSql, Connection connection, QueryProfiler profiler)
+    {
+        this.statement = statement;
+        this.preparedSql = preparedSql;
+        this.connection = connection;
+        this.profiler = profiler;
+    }
+
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        String name = method.getName();
+
+        if (name.startsWith("execute"))
+        {
+            return execute(method, args);
+        }
+
+        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+        {
+            // e.g. setInt(1, regimenID) or setNull(5, Types.TIME)
+            parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+        }
+        else if (name.equals("clearParameters"))
+        {
+            parameters.clear();
+        }
+
+        return invokeStatement(method, args);
+    }
+
+
+    private Object execute(Method method, Object[] args) throws Throwable
+    {
+        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+
+        long start = System.nanoTime();
+        Object result = invokeStatement(method, args);
+        long nanos = System.nanoTime() - start;
+
+        int rowCount = -1;
+
+        if (result instanceof Integer)
+        {
+            rowCount = (Integer) result;
+        }
+        else if (result instanceof int[])
+        {
+            rowCount = 0;
+
+            for (int count : (int[]) result)
+            {
+                rowCount += Math.max(0, count);
+            }
+        }
+
+        if (sql != null)
+        {
+            profiler.record(connection, sql, nanos, rowCount, parameters);
+        }
+
+        return result;
+    }
+
+
+    private Object invokeStatement(Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(statement, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+}  // end class ProfiledStatement
@@ -0,0 +1,444 @@
+package com.vitareminder.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Times every SQL statement executed on the database connection, so that
+ * slow statements and missing indexes can be found in the field.
+ * <p>
+ * {@code DataSource} wraps its connections with {@code wrap()}, which returns
+ * a proxy whose statements report each execution here.  Every statement that
+ * takes longer than {@code DBConstants.SLOW_QUERY_MILLIS} is logged with its
+ * bound parameters and, the first time it is slow, with the plan that H2
+ * reports for it through EXPLAIN.  The totals for each distinct statement are
+ * kept as well, and the statements that took the most time in total are
+ * logged every {@code DBConstants.QUERY_REPORT_INTERVAL_MINUTES} and when
+ * the connection is closed.
+ * <p>
+ * Everything is logged by the logger of this class, which log4j.properties
+ * sends to logs/query.log.
+ */
+public class QueryProfiler
+{
+    /** statements beyond this many distinct ones are counted together, so the totals cannot grow without bound */
+    private static final int MAX_STATEMENTS = 500;
+    private static final String OTHER_STATEMENTS = "(other statements)";
+
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final long slowNanos;
+    private final Map<String, StatementStats> statementStats = new HashMap<>();
+    private final ScheduledExecutorService executor;
+
+    private Logger logger = Logger.getLogger(QueryProfiler.class);
+
+
+    /**
+     * Creates a profiler that logs the statements that are slower than the
+     * threshold, and reports the totals at the specified interval.
+     *
+     * @param slowMillis  statements that take at least this long are logged
+     * @param reportIntervalMinutes  how often the totals are logged, or 0 to only log them on {@code stop()}
+     */
+    public QueryProfiler(long slowMillis, int reportIntervalMinutes)
+    {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+
+        if (reportIntervalMinutes <= 0)
+        {
+            executor = null;
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "QueryProfiler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                logReport();
+            }
+        }, reportIntervalMinutes, reportIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+
+    /**
+     * Wraps a connection so that the statements it prepares or creates are profiled.
+     * More than one connection may be wrapped by the same profiler; the totals
+     * are kept together, and each slow statement is explained on the connection
+     * that executed it.
+     *
+     * @param connection  the connection to the database
+     * @return a proxy for the connection
+     */
+    public Connection wrap(Connection connection)
+    {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                                                   new Class<?>[] {Connection.class},
+                                                   new ProfiledConnection(connection, this));
+    }
+
+
+    /**
+     * Records one execution of a statement.  Called by {@code ProfiledStatement}.
+     *
+     * @param connection  the connection, not profiled, that executed the statement
+     * @param sql  the SQL that was executed, with its parameter markers
+     * @param nanos  how long the execution took
+     * @param rowCount  the number of rows updated, or -1 for a query
+     * @param parameters  the bound parameters, by index
+     */
+    void record(Connection connection, String sql, long nanos, int rowCount, Map<Integer, Object> parameters)
+    {
+        boolean slow = nanos >= slowNanos;
+        boolean explain = false;
+
+        synchronized (statementStats)
+        {
+            StatementStats stats = statementStats.get(sql);
+
+            if (stats == null)
+            {
+                String key = statementStats.size() < MAX_STATEMENTS ? sql : OTHER_STATEMENTS;
+                stats = statementStats.get(key);
+
+                if (stats == null)
+                {
+                    stats = new StatementStats(key);
+                    statementStats.put(key, stats);
+                }
+            }
+
+            stats.count++;
+            stats.totalNanos += nanos;
+            stats.maxNanos = Math.max(stats.maxNanos, nanos);
+
+            if (rowCount > 0)
+            {
+                stats.rowCount += rowCount;
+            }
+
+            if (slow)
+            {
+                stats.slowCount++;
+                explain = !stats.explained;
+                stats.explained = true;
+            }
+        }
+
+        if (!slow)
+        {
+            return;
+        }
+
+        StringBuilder message = new StringBuilder();
+        message.append("Slow statement (").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+
+        if (rowCount >= 0)
+        {
+            message.append(", ").append(rowCount).append(" rows");
+        }
+
+        message.append("): ").append(sql);
+
+        if (!parameters.isEmpty())
+        {
+            message.append("\n  Parameters: ").append(formatParameters(parameters));
+        }
+
+        if (explain)
+        {
+            message.append("\n  Plan: ").append(explain(connection, sql, parameters).replace("\n", "\n        "));
+        }
+
+        logger.warn(message);
+    }
+
+
+    /**
+     * Gets the plan that H2 would use for the statement, by running EXPLAIN on
+     * the connection that executed it, without profiling the EXPLAIN.  Only
+     * queries and data changes can be explained.
+     */
+    private String explain(Connection connection, String sql, Map<Integer, Object> parameters)
+    {
+        String verb = sql.trim().split("\\s+", 2)[0].toUpperCase(Locale.ENGLISH);
+
+        if (!verb.equals("SELECT") && !verb.equals("INSERT") && !verb.equals("UPDATE")
+            && !verb.equals("DELETE") && !verb.equals("MERGE"))
+        {
+            return "(not available for " + verb + ")";
+        }
+
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try
+        {
+            preparedStatement = connection.prepareStatement("EXPLAIN " + sql);
+
+            for (Map.Entry<Integer, Object> parameter : parameters.entrySet())
+            {
+                preparedStatement.setObject(parameter.getKey(), parameter.getValue());
+            }
+
+            resultSet = preparedStatement.executeQuery();
+
+            StringBuilder plan = new StringBuilder();
+
+            while (resultSet.next())
+            {
+                if (plan.length() > 0)
+                {
+                    plan.append('\n');
+                }
+
+                plan.append(resultSet.getString(1));
+            }
+
+            return plan.toString();
+        }
+        catch (SQLException e)
+        {
+            return "(not available: " + e.getMessage() + ")";
+        }
+        finally
+        {
+            try
+            {
+                if (resultSet != null)
+                {
+                    resultSet.close();
+                }
+
+                if (preparedStatement != null)
+                {
+                    preparedStatement.close();
+                }
+            }
+            catch (SQLException e)
+            {
+                logger.warn("Unable to close the EXPLAIN statement.", e);
+            }
+        }
+    }
+
+
+    private static String formatParameters(Map<Integer, Object> parameters)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (Map.Entry<Integer, Object> parameter : parameters.entrySet())
+        {
+            if (builder.length() > 0)
+            {
+                builder.append(", ");
+            }
+
+            Object value = parameter.getValue();
+            String text;
+
+            if (value instanceof String)
+            {
+                String string = (String) value;
+
+                if (string.length() > MAX_PARAMETER_LENGTH)
+                {
+                    string = string.substring(0, MAX_PARAMETER_LENGTH) + "...";
+                }
+
+                text = "'" + string + "'";
+            }
+            else
+            {
+                text = String.valueOf(value);
+            }
+
+            builder.append(parameter.getKey()).append('=').append(text);
+        }
+
+        return builder.toString();
+    }
+
+
+    /**
+     * Gets the totals for each distinct statement, the statement that took the
+     * most time in total first.
+     *
+     * @return a copy of the totals
+     */
+    public List<StatementStats> getStatementStats()
+    {
+        List<StatementStats> result = new ArrayList<>();
+
+        synchronized (statementStats)
+        {
+            for (StatementStats stats : statementStats.values())
+            {
+                result.add(stats.copy());
+            }
+        }
+
+        Collections.sort(result, new Comparator<StatementStats>() {
+
+            @Override
+            public int compare(StatementStats s1, StatementStats s2)
+            {
+                return Long.compare(s2.totalNanos, s1.totalNanos);
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Logs the totals of the statements that took the most time, since the
+     * connection was opened.
+     */
+    public void logReport()
+    {
+        List<StatementStats> stats = getStatementStats();
+
+        if (stats.isEmpty())
+        {
+            return;
+        }
+
+        StringBuilder report = new StringBuilder("Statements by total time since the connection was opened:\n");
+        report.append(String.format("%10s %8s %9s %9s %8s %6s  %s%n", "total ms", "count", "mean ms", "max ms", "rows", "slow", "statement"));
+
+        for (StatementStats s : stats.subList(0, Math.min(stats.size(), DBConstants.QUERY_REPORT_SIZE)))
+        {
+            report.append(String.format("%10d %8d %9.2f %9d %8d %6d  %s%n",
+                                        s.getTotalMillis(), s.getCount(), s.getMeanMillis(), s.getMaxMillis(),
+                                        s.getRowCount(), s.getSlowCount(), s.getSql()));
+        }
+
+        logger.info(report);
+    }
+
+
+    /**
+     * Stops the periodic report and logs the final totals.  Called when the
+     * connection is closed.
+     */
+    public void stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+
+        logReport();
+    }
+
+
+    /**
+     * The totals for one distinct SQL statement.
+     */
+    public static class StatementStats
+    {
+        private final String sql;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long rowCount = 0;
+        private long slowCount = 0;
+        private boolean explained = false;
+
+
+        StatementStats(String sql)
+        {
+            this.sql = sql;
+        }
+
+
+        StatementStats copy()
+        {
+            StatementStats copy = new StatementStats(sql);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.rowCount = rowCount;
+            copy.slowCount = slowCount;
+            copy.explained = explained;
+
+            return copy;
+        }
+
+
+        public String getSql()
+        {
+            return sql;
+        }
+
+
+        public long getCount()
+        {
+            return count;
+        }
+
+
+        public long getTotalMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        }
+
+
+        public double getMeanMillis()
+        {
+            return count == 0 ? 0.0 : totalNanos / (count * 1e6);
+        }
+
+
+        public long getMaxMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+
+        /**
+         * @return the number of rows changed by the statement's updates
+         */
+        public long getRowCount()
+        {
+            return rowCount;
+        }
+
+
+        public long getSlowCount()
+        {
+            return slowCount;
+        }
+    }
+
+}  // end class QueryProfiler
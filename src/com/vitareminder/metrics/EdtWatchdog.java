@@ -0,0 +1,501 @@
+package com.vitareminder.metrics;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Watches the Event Dispatch Thread for events that keep it busy for so long
+ * that the user interface stops responding.
+ * <p>
+ * {@code install()} pushes an {@code EventQueue} that times the dispatch of
+ * every event and records the times in the "type=EDT,name=dispatch" stats of
+ * the {@code MetricsRegistry}.  A watchdog thread checks the event being
+ * dispatched several times per stall threshold, and the first time it finds
+ * that the event has been running for longer than the threshold, it logs the
+ * Event Dispatch Thread's stack trace, which shows where the event is stuck.
+ * <p>
+ * Every stall is also counted against the first application method in its
+ * stack trace, e.g. {@code VitaReminderPanel.deleteSupplement()}, so that
+ * {@code ResponsivenessDialog} can show the worst offenders.
+ * <p>
+ * A modal dialog dispatches events of its own while the event that opened
+ * it is still being dispatched.  Neither the time spent in those nested
+ * events, nor the time spent waiting for them, is counted against the event
+ * that opened the dialog.
+ * <p>
+ * The threshold defaults to 250 ms, and can be changed with the system
+ * property vitareminder.edtStallMillis, e.g. -Dvitareminder.edtStallMillis=100.
+ */
+public class EdtWatchdog
+{
+    public static final int DEFAULT_STALL_MILLIS = 250;
+
+    private static final int MAX_OFFENDERS = 100;
+
+    private static EdtWatchdog instance = null;
+
+    private final long stallNanos;
+    private final LatencyStats dispatchStats;
+    private final Map<String, Offender> offenders = new HashMap<>();
+    private final ScheduledExecutorService executor;
+
+    private volatile Thread dispatchThread = null;
+
+    /** the innermost event being dispatched, or null if the Event Dispatch Thread is idle */
+    private volatile Dispatch current = null;
+
+    private long stallCount = 0;
+
+    private Logger logger = Logger.getLogger(EdtWatchdog.class);
+
+
+    private EdtWatchdog(int stallMillis)
+    {
+        this.stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+        this.dispatchStats = MetricsRegistry.getInstance().getLatencyStats("EDT", "dispatch");
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "EdtWatchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long sampleMillis = Math.max(10, stallMillis / 4);
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                try
+                {
+                    sample();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn("An error has occurred while sampling the Event Dispatch Thread.", e);
+                }
+            }
+        }, sampleMillis, sampleMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Starts watching the Event Dispatch Thread.  Called once by {@code VitaReminder}
+     * before the user interface is created; later calls do nothing.
+     */
+    public static synchronized void install()
+    {
+        if (instance != null)
+        {
+            return;
+        }
+
+        int stallMillis = Integer.getInteger("vitareminder.edtStallMillis", DEFAULT_STALL_MILLIS);
+
+        instance = new EdtWatchdog(Math.max(1, stallMillis));
+
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(instance.new MonitoredEventQueue());
+
+        instance.logger.info("Watching the Event Dispatch Thread for stalls longer than " + stallMillis + " ms.");
+    }
+
+
+    /**
+     * Gets the watchdog, if it has been installed.
+     *
+     * @return the {@code EdtWatchdog}, or <tt>null</tt> if {@code install()} has not been called
+     */
+    public static synchronized EdtWatchdog getInstance()
+    {
+        return instance;
+    }
+
+
+    /**
+     * @return the times taken to dispatch each event, excluding the events nested inside it
+     */
+    public LatencyStats getDispatchStats()
+    {
+        return dispatchStats;
+    }
+
+
+    public long getStallMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos);
+    }
+
+
+    public synchronized long getStallCount()
+    {
+        return stallCount;
+    }
+
+
+    /**
+     * Gets the operations that have stalled the Event Dispatch Thread, longest stall first.
+     *
+     * @return a copy of each {@code Offender}
+     */
+    public synchronized List<Offender> getOffenders()
+    {
+        List<Offender> result = new ArrayList<>();
+
+        for (Offender offender : offenders.values())
+        {
+            result.add(offender.copy());
+        }
+
+        Collections.sort(result, new Comparator<Offender>() {
+
+            @Override
+            public int compare(Offender o1, Offender o2)
+            {
+                return Long.compare(o2.maxNanos, o1.maxNanos);
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Clears the dispatch times, the stall count and the offenders.
+     */
+    public synchronized void reset()
+    {
+        dispatchStats.reset();
+        offenders.clear();
+        stallCount = 0;
+    }
+
+
+    /**
+     * Called periodically by the watchdog thread.  Logs the stack trace of the
+     * Event Dispatch Thread the first time that the current event passes the threshold.
+     */
+    private void sample()
+    {
+        Dispatch dispatch = current;
+        Thread thread = dispatchThread;
+
+        if (dispatch == null || thread == null || dispatch.stallStack != null)
+        {
+            return;
+        }
+
+        long elapsed = dispatch.getElapsedNanos(System.nanoTime());
+
+        if (elapsed < stallNanos)
+        {
+            return;
+        }
+
+        StackTraceElement[] stack = thread.getStackTrace();
+
+        // The event may have finished, or a modal dialog may have opened, while the stack was taken
+        if (current != dispatch)
+        {
+            return;
+        }
+
+        dispatch.stallStack = stack;
+
+        logger.warn("The Event Dispatch Thread has been busy for " + TimeUnit.NANOSECONDS.toMillis(elapsed)
+                  + " ms dispatching " + describe(dispatch.event) + ":\n" + formatStack(stack));
+    }
+
+
+    /**
+     * Records the time taken by an event once it has been dispatched.
+     */
+    private void finished(Dispatch dispatch)
+    {
+        dispatchStats.record(dispatch.ownNanos);
+
+        if (dispatch.ownNanos < stallNanos)
+        {
+            return;
+        }
+
+        StackTraceElement[] stack = dispatch.stallStack;
+        String operation = stack == null ? describe(dispatch.event) : getOperation(stack, describe(dispatch.event));
+
+        synchronized (this)
+        {
+            stallCount++;
+
+            Offender offender = offenders.get(operation);
+
+            if (offender == null)
+            {
+                if (offenders.size() >= MAX_OFFENDERS)
+                {
+                    return;
+                }
+
+                offender = new Offender(operation);
+                offenders.put(operation, offender);
+            }
+
+            offender.count++;
+            offender.totalNanos += dispatch.ownNanos;
+
+            if (dispatch.ownNanos > offender.maxNanos || offender.stack == null)
+            {
+                offender.maxNanos = Math.max(offender.maxNanos, dispatch.ownNanos);
+
+                if (stack != null)
+                {
+                    offender.stack = formatStack(stack);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Finds the first application method in the stack trace, skipping this class.
+     */
+    private static String getOperation(StackTraceElement[] stack, String description)
+    {
+        for (StackTraceElement element : stack)
+        {
+            String className = element.getClassName();
+
+            if (className.startsWith("com.vitareminder.") && !className.startsWith(EdtWatchdog.class.getName()))
+            {
+                String simpleName = className.substring(className.lastIndexOf('.') + 1);
+
+                return simpleName + "." + element.getMethodName() + "()";
+            }
+        }
+
+        return description;
+    }
+
+
+    private static String formatStack(StackTraceElement[] stack)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (StackTraceElement element : stack)
+        {
+            builder.append("\tat ").append(element).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+
+    private static String describe(AWTEvent event)
+    {
+        Object source = event.getSource();
+
+        return event.getClass().getSimpleName()
+             + (source == null ? "" : " on " + source.getClass().getSimpleName());
+    }
+
+
+    /**
+     * The operations that stalled the Event Dispatch Thread, as shown by
+     * {@code ResponsivenessDialog}.
+     */
+    public static class Offender
+    {
+        private final String operation;
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private String stack = null;
+
+
+        Offender(String operation)
+        {
+            this.operation = operation;
+        }
+
+
+        Offender copy()
+        {
+            Offender copy = new Offender(operation);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            copy.stack = stack;
+
+            return copy;
+        }
+
+
+        /**
+         * @return the first application method in the stall's stack trace, e.g.
+         *         "VitaReminderPanel.deleteSupplement()", or the event if no stack
+         *         trace was taken
+         */
+        public String getOperation()
+        {
+            return operation;
+        }
+
+
+        public long getCount()
+        {
+            return count;
+        }
+
+
+        public long getTotalMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+        }
+
+
+        public long getMaxMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+
+        /**
+         * @return the stack trace taken during the longest stall, or <tt>null</tt>
+         *         if the stalls were too short to be sampled
+         */
+        public String getStack()
+        {
+            return stack;
+        }
+    }
+
+
+    /**
+     * An event being dispatched.  Its own time stops while a nested event is
+     * being dispatched or waited for, and starts again once the nested event
+     * has finished.
+     */
+    private static class Dispatch
+    {
+        final AWTEvent event;
+
+        /** the time spent before the most recent pause, only written on the Event Dispatch Thread */
+        volatile long ownNanos = 0;
+
+        /** when this event started, or last resumed after a nested event */
+        volatile long resumedNanos;
+
+        volatile StackTraceElement[] stallStack = null;
+
+
+        Dispatch(AWTEvent event, long startNanos)
+        {
+            this.event = event;
+            this.resumedNanos = startNanos;
+        }
+
+
+        long getElapsedNanos(long now)
+        {
+            return ownNanos + (now - resumedNanos);
+        }
+
+
+        void pause(long now)
+        {
+            ownNanos += now - resumedNanos;
+        }
+    }
+
+
+    /**
+     * Times the dispatch of every event.
+     */
+    private class MonitoredEventQueue extends EventQueue
+    {
+        /**
+         * Waits for the next event.  When a modal dialog is waiting for events,
+         * the event that opened it is idle rather than stalled, so its time is
+         * paused and the watchdog is told that nothing is being dispatched.
+         */
+        @Override
+        public AWTEvent getNextEvent() throws InterruptedException
+        {
+            Dispatch waiting = current;
+
+            if (waiting == null || Thread.currentThread() != dispatchThread)
+            {
+                return super.getNextEvent();
+            }
+
+            waiting.pause(System.nanoTime());
+            current = null;
+
+            try
+            {
+                return super.getNextEvent();
+            }
+            finally
+            {
+                waiting.resumedNanos = System.nanoTime();
+                current = waiting;
+            }
+        }
+
+
+        @Override
+        protected void dispatchEvent(AWTEvent event)
+        {
+            dispatchThread = Thread.currentThread();
+
+            Dispatch outer = current;
+            long start = System.nanoTime();
+
+            if (outer != null)
+            {
+                outer.pause(start);
+            }
+
+            Dispatch dispatch = new Dispatch(event, start);
+            current = dispatch;
+
+            try
+            {
+                super.dispatchEvent(event);
+            }
+            finally
+            {
+                long end = System.nanoTime();
+                dispatch.ownNanos += end - dispatch.resumedNanos;
+
+                if (outer != null)
+                {
+                    outer.resumedNanos = end;
+                }
+
+                current = outer;
+
+                finished(dispatch);
+            }
+        }
+    }
+
+}  // end class EdtWatchdog
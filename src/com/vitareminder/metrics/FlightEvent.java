@@ -0,0 +1,55 @@
+package com.vitareminder.metrics;
+
+/**
+ * A single timed occurrence of a {@code FlightEventType}.  It is started by
+ * {@code FlightEventType#begin()}, its fields are filled in as the operation
+ * runs, and it is written to the recording by {@code commit()}.  An event
+ * must not be shared between threads.
+ */
+public class FlightEvent
+{
+    /** the event returned when Flight Recorder is not available, which ignores every call */
+    static final FlightEvent DISABLED = new FlightEvent(null, null);
+
+    private final FlightEventType type;
+    private final Object event;
+
+
+    FlightEvent(FlightEventType type, Object event)
+    {
+        this.type = type;
+        this.event = event;
+    }
+
+
+    /**
+     * Sets a field of the event.
+     *
+     * @param fieldName  the name of the field, as declared in the event's type
+     * @param value  the value, which must be of the field's declared type
+     * @return this event, so that calls can be chained
+     */
+    public FlightEvent set(String fieldName, Object value)
+    {
+        if (event != null)
+        {
+            type.set(event, fieldName, value);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Ends the event and writes it to the recording, if the event is enabled
+     * and took longer than its threshold.
+     */
+    public void commit()
+    {
+        if (event != null)
+        {
+            type.commit(event);
+        }
+    }
+
+}  // end class FlightEvent
@@ -0,0 +1,290 @@
+package com.vitareminder.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A custom Java Flight Recorder event type, such as "com.vitareminder.Commit",
+ * that lets a recording attribute time to the application's own operations.
+ * The settings for every event type are in res/jfr/vitareminder.jfc.
+ * <p>
+ * The application is compiled for Java 7, which has no {@code jdk.jfr} API,
+ * so the event types are defined at runtime through {@code jdk.jfr.EventFactory}
+ * by reflection.  On a runtime without Flight Recorder, or if the event type
+ * cannot be defined, {@code begin()} returns an event that does nothing.  It
+ * does the same while no recording has the event type enabled, so that the
+ * operations being profiled pay for one check when nothing is recording.
+ * <p>
+ * Each field is declared as its type and name, e.g. "int regimenID".  The
+ * types "int", "long", "boolean" and "String" are supported.  A typical use is:
+ * <pre>
+ * FlightEvent event = COMMIT_EVENT.begin();
+ * ...
+ * event.set("success", success).commit();
+ * </pre>
+ */
+public class FlightEventType
+{
+    private static Logger logger = Logger.getLogger(FlightEventType.class);
+
+    private final String name;
+    private final List<String> fieldNames = new ArrayList<>();
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+
+    /** the jdk.jfr.EventFactory for this type, or null if Flight Recorder is not available */
+    private final Object eventFactory;
+
+    /** the jdk.jfr.EventType of the factory's events, or null if Flight Recorder is not available */
+    private final Object eventType;
+
+
+    /**
+     * Defines and registers a new event type.
+     *
+     * @param name  the event name used in .jfc files, e.g. "com.vitareminder.Commit"
+     * @param label  the name shown in JDK Mission Control, e.g. "Commit"
+     * @param category  the category the event is listed under, e.g. "Database"
+     * @param fields  the declaration of each field, e.g. "int regimenID"
+     */
+    public FlightEventType(String name, String label, String category, String... fields)
+    {
+        this.name = name;
+
+        List<Class<?>> fieldTypes = new ArrayList<>();
+
+        for (String field : fields)
+        {
+            String[] parts = field.trim().split("\\s+");
+
+            if (parts.length != 2)
+            {
+                throw new IllegalArgumentException("Invalid field declaration: " + field);
+            }
+
+            fieldTypes.add(getFieldType(parts[0]));
+            fieldIndexes.put(parts[1], fieldNames.size());
+            fieldNames.add(parts[1]);
+        }
+
+        this.eventFactory = Jfr.AVAILABLE ? createEventFactory(label, category, fieldTypes) : null;
+        this.eventType = eventFactory != null ? getEventType(eventFactory) : null;
+    }
+
+
+    private static Class<?> getFieldType(String typeName)
+    {
+        switch (typeName)
+        {
+        case "int":
+            return int.class;
+        case "long":
+            return long.class;
+        case "boolean":
+            return boolean.class;
+        case "String":
+            return String.class;
+        default:
+            throw new IllegalArgumentException("Unsupported field type: " + typeName);
+        }
+    }
+
+
+    private Object createEventFactory(String label, String category, List<Class<?>> fieldTypes)
+    {
+        try
+        {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(Jfr.newAnnotation(Jfr.nameAnnotation, name));
+            annotations.add(Jfr.newAnnotation(Jfr.labelAnnotation, label));
+            annotations.add(Jfr.newAnnotation(Jfr.categoryAnnotation, new String[] {"VitaReminder", category}));
+
+            List<Object> fields = new ArrayList<>();
+
+            for (int i = 0; i < fieldNames.size(); i++)
+            {
+                List<Object> fieldAnnotations = Collections.singletonList(Jfr.newAnnotation(Jfr.labelAnnotation, fieldNames.get(i)));
+
+                fields.add(Jfr.valueDescriptorConstructor.newInstance(fieldTypes.get(i), fieldNames.get(i), fieldAnnotations));
+            }
+
+            // EventFactory.create() also registers the event type with Flight Recorder
+            return Jfr.createMethod.invoke(null, annotations, fields);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.warn("Unable to define the flight recorder event " + name + ".", e);
+            return null;
+        }
+    }
+
+
+    private Object getEventType(Object factory)
+    {
+        try
+        {
+            return Jfr.getEventTypeMethod.invoke(factory);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.warn("Unable to get the type of the flight recorder event " + name + ".", e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Starts timing an event of this type.  The event is recorded when
+     * {@code commit()} is called on it, provided that it is enabled in the
+     * current recording and took longer than its threshold.
+     *
+     * @return the new event, or an event that does nothing if Flight Recorder is not
+     *         available or no recording has this event type enabled
+     */
+    public FlightEvent begin()
+    {
+        if (eventType == null)
+        {
+            return FlightEvent.DISABLED;
+        }
+
+        try
+        {
+            // EventType.isEnabled() is false unless a running recording enables the event
+            if (!(Boolean) Jfr.isEnabledMethod.invoke(eventType))
+            {
+                return FlightEvent.DISABLED;
+            }
+
+            Object event = Jfr.newEventMethod.invoke(eventFactory);
+            Jfr.beginMethod.invoke(event);
+
+            return new FlightEvent(this, event);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.warn("Unable to begin the flight recorder event " + name + ".", e);
+            return FlightEvent.DISABLED;
+        }
+    }
+
+
+    void set(Object event, String fieldName, Object value)
+    {
+        Integer index = fieldIndexes.get(fieldName);
+
+        if (index == null)
+        {
+            throw new IllegalArgumentException(name + " has no field named " + fieldName);
+        }
+
+        try
+        {
+            Jfr.setMethod.invoke(event, index, value);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.warn("Unable to set " + fieldName + " on the flight recorder event " + name + ".", e);
+        }
+    }
+
+
+    void commit(Object event)
+    {
+        try
+        {
+            Jfr.commitMethod.invoke(event);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            logger.warn("Unable to commit the flight recorder event " + name + ".", e);
+        }
+    }
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * The reflective handles on the {@code jdk.jfr} API, looked up once.
+     */
+    private static class Jfr
+    {
+        static final boolean AVAILABLE;
+
+        static Class<?> nameAnnotation;
+        static Class<?> labelAnnotation;
+        static Class<?> categoryAnnotation;
+
+        static Constructor<?> annotationElementConstructor;
+        static Constructor<?> valueDescriptorConstructor;
+        static Method createMethod;
+        static Method newEventMethod;
+        static Method getEventTypeMethod;
+        static Method isEnabledMethod;
+        static Method beginMethod;
+        static Method setMethod;
+        static Method commitMethod;
+
+        static
+        {
+            boolean available;
+
+            try
+            {
+                nameAnnotation = Class.forName("jdk.jfr.Name");
+                labelAnnotation = Class.forName("jdk.jfr.Label");
+                categoryAnnotation = Class.forName("jdk.jfr.Category");
+
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+                Class<?> eventType = Class.forName("jdk.jfr.EventType");
+
+                annotationElementConstructor = annotationElement.getConstructor(Class.class, Object.class);
+                valueDescriptorConstructor = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+                createMethod = eventFactory.getMethod("create", List.class, List.class);
+                newEventMethod = eventFactory.getMethod("newEvent");
+                getEventTypeMethod = eventFactory.getMethod("getEventType");
+                isEnabledMethod = eventType.getMethod("isEnabled");
+                beginMethod = event.getMethod("begin");
+                setMethod = event.getMethod("set", int.class, Object.class);
+                commitMethod = event.getMethod("commit");
+
+                available = true;
+            }
+            catch (ReflectiveOperationException | LinkageError e)
+            {
+                logger.info("Java Flight Recorder is not available, so no application events will be recorded.");
+                available = false;
+            }
+
+            AVAILABLE = available;
+        }
+
+
+        static Object newAnnotation(Class<?> annotationType, Object value) throws ReflectiveOperationException
+        {
+            return annotationElementConstructor.newInstance(annotationType, value);
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return name + fieldNames;
+    }
+
+}  // end class FlightEventType
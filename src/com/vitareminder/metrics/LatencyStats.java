@@ -0,0 +1,208 @@
+package com.vitareminder.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Counts the calls to a single operation, the number of those calls that
+ * failed, and how long they took.  The times are kept in a histogram with
+ * fixed buckets, so that recording a time never allocates and the memory
+ * used does not grow with the number of calls.  The percentiles are
+ * estimated from the histogram, and are reported as the upper bound of
+ * the bucket that contains them.
+ * <p>
+ * Each {@code LatencyStats} is created and registered as an MBean by the
+ * {@code MetricsRegistry}.
+ */
+public class LatencyStats implements LatencyStatsMBean
+{
+    /** the upper bound of each bucket; times above the last bound go in an overflow bucket */
+    private static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500,
+                                                              1000, 2000, 5000, 10000, 30000, 60000};
+
+    private final long[] bucketCounts = new long[BUCKET_UPPER_BOUNDS_MILLIS.length + 1];
+
+    private long count = 0;
+    private long errorCount = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+
+    LatencyStats()
+    {
+
+    }
+
+
+    /**
+     * Records a successful call.
+     *
+     * @param nanos  how long the call took, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        record(nanos, false);
+    }
+
+
+    /**
+     * Records a call.
+     *
+     * @param nanos  how long the call took, in nanoseconds
+     * @param error  <tt>true</tt> if the call failed
+     */
+    public synchronized void record(long nanos, boolean error)
+    {
+        nanos = Math.max(0, nanos);
+
+        bucketCounts[getBucket(nanos)]++;
+
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+
+        if (error)
+        {
+            errorCount++;
+        }
+    }
+
+
+    private static int getBucket(long nanos)
+    {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+
+        while (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length && millis >= BUCKET_UPPER_BOUNDS_MILLIS[bucket])
+        {
+            bucket++;
+        }
+
+        return bucket;
+    }
+
+
+    @Override
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+
+    @Override
+    public synchronized long getErrorCount()
+    {
+        return errorCount;
+    }
+
+
+    @Override
+    public synchronized double getMeanMillis()
+    {
+        return count == 0 ? 0.0 : totalNanos / (count * 1e6);
+    }
+
+
+    @Override
+    public synchronized double getMaxMillis()
+    {
+        return maxNanos / 1e6;
+    }
+
+
+    @Override
+    public double get50thPercentileMillis()
+    {
+        return getPercentileMillis(0.50);
+    }
+
+
+    @Override
+    public double get95thPercentileMillis()
+    {
+        return getPercentileMillis(0.95);
+    }
+
+
+    @Override
+    public double get99thPercentileMillis()
+    {
+        return getPercentileMillis(0.99);
+    }
+
+
+    /**
+     * Estimates a percentile from the histogram.  Times in the overflow bucket
+     * are reported as the maximum time recorded.
+     *
+     * @param fraction  the percentile, between 0 and 1
+     * @return the upper bound of the bucket that contains the percentile, in milliseconds
+     */
+    public synchronized double getPercentileMillis(double fraction)
+    {
+        if (count == 0)
+        {
+            return 0.0;
+        }
+
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKET_UPPER_BOUNDS_MILLIS.length; bucket++)
+        {
+            seen += bucketCounts[bucket];
+
+            if (seen >= rank)
+            {
+                return Math.min(BUCKET_UPPER_BOUNDS_MILLIS[bucket], getMaxMillis());
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+
+    @Override
+    public long[] getBucketUpperBoundsMillis()
+    {
+        return BUCKET_UPPER_BOUNDS_MILLIS.clone();
+    }
+
+
+    /**
+     * @return the number of calls in each bucket, with one more element than
+     *         {@code getBucketUpperBoundsMillis()} for the overflow bucket
+     */
+    @Override
+    public synchronized long[] getBucketCounts()
+    {
+        return bucketCounts.clone();
+    }
+
+
+    @Override
+    public synchronized void reset()
+    {
+        Arrays.fill(bucketCounts, 0);
+        count = 0;
+        errorCount = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+
+    /**
+     * Gets a one-line summary, e.g. "count=12 errors=0 mean=3.1ms p50=5ms p99=20ms max=14.2ms".
+     *
+     * @return the summary {@code String}
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d errors=%d mean=%.1fms p50=%.0fms p99=%.0fms max=%.1fms",
+                             getCount(), getErrorCount(), getMeanMillis(),
+                             get50thPercentileMillis(), get99thPercentileMillis(), getMaxMillis());
+    }
+
+}  // end class LatencyStats
@@ -0,0 +1,28 @@
+package com.vitareminder.metrics;
+
+/**
+ * The management interface of a {@code LatencyStats}, as it appears in
+ * jconsole under the "com.vitareminder" domain.  All times are in milliseconds.
+ */
+public interface LatencyStatsMBean
+{
+    long getCount();
+
+    long getErrorCount();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double get50thPercentileMillis();
+
+    double get95thPercentileMillis();
+
+    double get99thPercentileMillis();
+
+    long[] getBucketUpperBoundsMillis();
+
+    long[] getBucketCounts();
+
+    void reset();
+}
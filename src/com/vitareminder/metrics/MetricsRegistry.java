@@ -0,0 +1,187 @@
+package com.vitareminder.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+
+
+/**
+ * Holds the application's metrics and exposes them as MBeans on the platform
+ * MBean server, so that a running instance can be watched with jconsole or
+ * any other JMX client.  Every MBean is registered under the "com.vitareminder"
+ * domain:
+ * <ul>
+ * <li>type=DAO: the latency and failures of each {@code RegimenDAO},
+ *     {@code SupplementDAO} and {@code DbDAO} method, e.g. name=SupplementDAO.addSupplement</li>
+ * <li>type=Database, name=commit: the time taken to commit the transaction</li>
+ * <li>type=Scheduler, name=jobs: the number of reminder jobs in each Quartz job group</li>
+ * <li>type=FireLag: how late each job group's jobs fire, i.e. the actual fire
+ *     time minus the scheduled fire time, e.g. name=email_group</li>
+ * <li>type=Delivery: how long each channel's provider takes to accept a message,
+ *     and how many messages it failed to accept, e.g. name=text</li>
+ * </ul>
+ * The metrics are kept in memory only, and are reset when the application restarts.
+ */
+public class MetricsRegistry
+{
+    public static final String DOMAIN = "com.vitareminder";
+
+    private static MetricsRegistry instance = null;
+
+    private final MBeanServer mBeanServer;
+    private final Map<String, LatencyStats> latencyStats = new TreeMap<>();
+
+    private Logger logger = Logger.getLogger(MetricsRegistry.class);
+
+
+    private MetricsRegistry()
+    {
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    }
+
+
+    /**
+     * Gets the single registry that is shared by the whole application.
+     *
+     * @return the {@code MetricsRegistry}
+     */
+    public static synchronized MetricsRegistry getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new MetricsRegistry();
+        }
+
+        return instance;
+    }
+
+
+    /**
+     * Gets the stats with the specified type and name, creating and
+     * registering them the first time they are asked for.
+     *
+     * @param type  the kind of operation being measured, e.g. "Delivery"
+     * @param name  the operation, e.g. "email"
+     * @return the {@code LatencyStats}
+     */
+    public LatencyStats getLatencyStats(String type, String name)
+    {
+        String key = "type=" + type + ",name=" + name;
+
+        synchronized (latencyStats)
+        {
+            LatencyStats stats = latencyStats.get(key);
+
+            if (stats == null)
+            {
+                stats = new LatencyStats();
+                latencyStats.put(key, stats);
+                register(key, stats);
+            }
+
+            return stats;
+        }
+    }
+
+
+    /**
+     * Wraps an object in a proxy that records the latency of every call made
+     * through the specified interface.  The stats for each method are named
+     * after the interface and the method, e.g. "SupplementDAO.addSupplement".
+     *
+     * @param type  the kind of object, e.g. "DAO"
+     * @param iface  the interface through which the object is used
+     * @param target  the object to instrument
+     * @return a proxy that implements {@code iface} and delegates to {@code target}
+     */
+    public <T> T instrument(String type, Class<T> iface, T target)
+    {
+        TimingInvocationHandler handler = new TimingInvocationHandler(target, type, iface.getSimpleName() + ".", this);
+
+        return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] {iface}, handler));
+    }
+
+
+    /**
+     * Registers the MBean that counts the scheduler's jobs.  Called by
+     * {@code ReminderManager} once the scheduler has started.
+     *
+     * @param scheduler  the application's Quartz scheduler
+     */
+    public void registerScheduler(Scheduler scheduler)
+    {
+        register("type=Scheduler,name=jobs", new SchedulerStats(scheduler));
+    }
+
+
+    /**
+     * Records how late a job fired, under the job's group.  Called by each
+     * reminder job as it starts to execute.
+     *
+     * @param context  the context of the executing job
+     */
+    public void recordFireLag(JobExecutionContext context)
+    {
+        if (context.getScheduledFireTime() == null)
+        {
+            return;
+        }
+
+        long lagMillis = context.getFireTime().getTime() - context.getScheduledFireTime().getTime();
+
+        getLatencyStats("FireLag", context.getJobDetail().getKey().getGroup()).record(lagMillis * 1000000L);
+    }
+
+
+    /**
+     * Gets a summary of every {@code LatencyStats} that has been created, one
+     * line each, for writing to the log.
+     *
+     * @return the summary {@code String}
+     */
+    public String getSummary()
+    {
+        StringBuilder builder = new StringBuilder();
+
+        synchronized (latencyStats)
+        {
+            for (Map.Entry<String, LatencyStats> entry : latencyStats.entrySet())
+            {
+                builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+        }
+
+        return builder.toString();
+    }
+
+
+    private void register(String keyProperties, Object mBean)
+    {
+        try
+        {
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + keyProperties);
+
+            if (mBeanServer.isRegistered(objectName))
+            {
+                mBeanServer.unregisterMBean(objectName);
+            }
+
+            mBeanServer.registerMBean(mBean, objectName);
+        }
+        catch (JMException e)
+        {
+            // The metrics are still recorded, they just can't be watched
+            logger.warn("Unable to register the MBean " + keyProperties + ".", e);
+        }
+    }
+
+}  // end class MetricsRegistry
@@ -0,0 +1,99 @@
+package com.vitareminder.metrics;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.impl.matchers.GroupMatcher;
+
+
+/**
+ * Reports how many reminder jobs are scheduled in each Quartz job group.
+ * The counts are read from the scheduler whenever they are asked for, so
+ * they never drift from what Quartz actually holds.  How late the jobs
+ * fire is recorded separately, by {@code MetricsRegistry#recordFireLag()}.
+ */
+public class SchedulerStats implements SchedulerStatsMBean
+{
+    private final Scheduler scheduler;
+
+    private Logger logger = Logger.getLogger(SchedulerStats.class);
+
+
+    SchedulerStats(Scheduler scheduler)
+    {
+        this.scheduler = scheduler;
+    }
+
+
+    @Override
+    public int getEmailJobCount()
+    {
+        return getJobCount("email_group");
+    }
+
+
+    @Override
+    public int getTextJobCount()
+    {
+        return getJobCount("text_group");
+    }
+
+
+    @Override
+    public int getVoiceJobCount()
+    {
+        return getJobCount("voice_group");
+    }
+
+
+    /**
+     * @param group  the name of a Quartz job group, e.g. "email_group"
+     * @return the number of jobs in the group, or -1 if the scheduler could not be queried
+     */
+    @Override
+    public int getJobCount(String group)
+    {
+        try
+        {
+            return scheduler.getJobKeys(GroupMatcher.jobGroupEquals(group)).size();
+        }
+        catch (SchedulerException e)
+        {
+            logger.warn("Unable to count the jobs in " + group + ".", e);
+            return -1;
+        }
+    }
+
+
+    @Override
+    public String[] getJobGroupNames()
+    {
+        try
+        {
+            List<String> groupNames = scheduler.getJobGroupNames();
+            return groupNames.toArray(new String[groupNames.size()]);
+        }
+        catch (SchedulerException e)
+        {
+            logger.warn("Unable to get the job group names.", e);
+            return new String[0];
+        }
+    }
+
+
+    @Override
+    public boolean isStarted()
+    {
+        try
+        {
+            return scheduler.isStarted() && !scheduler.isShutdown();
+        }
+        catch (SchedulerException e)
+        {
+            return false;
+        }
+    }
+
+}  // end class SchedulerStats
@@ -0,0 +1,20 @@
+package com.vitareminder.metrics;
+
+/**
+ * The management interface of the {@code SchedulerStats}, as it appears in
+ * jconsole under the "com.vitareminder" domain.
+ */
+public interface SchedulerStatsMBean
+{
+    int getEmailJobCount();
+
+    int getTextJobCount();
+
+    int getVoiceJobCount();
+
+    int getJobCount(String group);
+
+    String[] getJobGroupNames();
+
+    boolean isStarted();
+}
@@ -0,0 +1,75 @@
+package com.vitareminder.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Times every call made through a proxy and records it in the
+ * {@code LatencyStats} for the called method.  Created by
+ * {@code MetricsRegistry#instrument()}.
+ * <p>
+ * A call counts as an error if it throws, or if it returns a {@code boolean}
+ * <tt>false</tt>, since the DAO implementations catch their
+ * {@code SQLException}s and report failure by returning <tt>false</tt>.
+ */
+class TimingInvocationHandler implements InvocationHandler
+{
+    private final Object target;
+    private final String type;
+    private final String prefix;
+    private final MetricsRegistry registry;
+
+    /** the stats for each method, cached so that a call does not have to build the stats name */
+    private final ConcurrentMap<Method, LatencyStats> statsByMethod = new ConcurrentHashMap<>();
+
+
+    TimingInvocationHandler(Object target, String type, String prefix, MetricsRegistry registry)
+    {
+        this.target = target;
+        this.type = type;
+        this.prefix = prefix;
+        this.registry = registry;
+    }
+
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.getDeclaringClass() == Object.class)
+        {
+            return method.invoke(target, args);
+        }
+
+        LatencyStats stats = statsByMethod.get(method);
+
+        if (stats == null)
+        {
+            // Overloads of a method share the same stats
+            stats = registry.getLatencyStats(type, prefix + method.getName());
+            statsByMethod.put(method, stats);
+        }
+
+        long start = System.nanoTime();
+        boolean error = true;
+
+        try
+        {
+            Object result = method.invoke(target, args);
+            error = Boolean.FALSE.equals(result);
+            return result;
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            stats.record(System.nanoTime() - start, error);
+        }
+    }
+
+}  // end class TimingInvocationHandler
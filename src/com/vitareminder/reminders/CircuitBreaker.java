@@ -0,0 +1,188 @@
+package com.vitareminder.reminders;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A circuit breaker that stops sending to a delivery provider after repeated
+ * failures.  While the circuit is closed, every send is allowed.  Once
+ * {@code failureThreshold} sends have failed in a row, the circuit opens and
+ * sends are refused for {@code openMillis}.  After that time a single trial
+ * send is let through (the half-open state).  If it succeeds, the circuit
+ * closes again; if it fails, the circuit re-opens for another period.
+ * <p>
+ * This keeps a provider outage or an exceeded rate limit from being made
+ * worse by every reminder in the queue retrying against it.
+ */
+public class CircuitBreaker
+{
+    /** The states that a {@code CircuitBreaker} can be in. */
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ReminderClock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean trialInProgress = false;
+
+    private long rejectedCount = 0;
+    private long timesOpened = 0;
+
+    private Logger logger = Logger.getLogger(CircuitBreaker.class);
+
+
+    /**
+     * Creates a circuit breaker that times the open period with the computer's clock.
+     *
+     * @param name  the name used when logging state changes, e.g. "email"
+     * @param failureThreshold  the number of consecutive failures that opens the circuit
+     * @param openMillis  how long the circuit stays open before a trial send is allowed
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis)
+    {
+        this(name, failureThreshold, openMillis, ReminderClock.SYSTEM);
+    }
+
+
+    /**
+     * Creates a circuit breaker that times the open period with the specified clock.
+     *
+     * @param name  the name used when logging state changes, e.g. "email"
+     * @param failureThreshold  the number of consecutive failures that opens the circuit
+     * @param openMillis  how long the circuit stays open before a trial send is allowed
+     * @param clock  the source of the current time
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, ReminderClock clock)
+    {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+
+    /**
+     * Decides whether a send may go ahead.  Every call that returns <tt>true</tt>
+     * must be followed by a call to {@code recordSuccess()}, {@code recordFailure()}
+     * or, if the send is dropped before it is attempted, {@code cancelRequest()}.
+     *
+     * @return <tt>true</tt> if the send is allowed, <tt>false</tt> if the circuit is open
+     */
+    public synchronized boolean allowRequest()
+    {
+        if (state == State.OPEN)
+        {
+            if (clock.currentTimeMillis() - openedAt >= openMillis)
+            {
+                state = State.HALF_OPEN;
+                trialInProgress = false;
+
+                logger.info("Circuit for " + name + " delivery is half-open, allowing a trial send.");
+            }
+            else
+            {
+                rejectedCount++;
+                return false;
+            }
+        }
+
+        if (state == State.HALF_OPEN)
+        {
+            if (trialInProgress)
+            {
+                rejectedCount++;
+                return false;
+            }
+
+            trialInProgress = true;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Records that a send allowed by {@code allowRequest()} was dropped without
+     * being attempted, so that a half-open circuit allows another trial send.
+     */
+    public synchronized void cancelRequest()
+    {
+        if (state == State.HALF_OPEN)
+        {
+            trialInProgress = false;
+        }
+    }
+
+
+    /**
+     * Records a successful send, which closes the circuit.
+     */
+    public synchronized void recordSuccess()
+    {
+        if (state != State.CLOSED)
+        {
+            logger.info("Circuit for " + name + " delivery is closed again.");
+        }
+
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+
+    /**
+     * Records a failed send.  Opens the circuit if the failure threshold has
+     * been reached, or if the failed send was the half-open trial.
+     */
+    public synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold)
+        {
+            if (state != State.OPEN)
+            {
+                timesOpened++;
+            }
+
+            state = State.OPEN;
+            openedAt = clock.currentTimeMillis();
+            trialInProgress = false;
+
+            logger.warn("Circuit for " + name + " delivery opened after "
+                      + consecutiveFailures + " consecutive failures.");
+        }
+    }
+
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+
+    /**
+     * @return the number of sends refused because the circuit was open
+     */
+    public synchronized long getRejectedCount()
+    {
+        return rejectedCount;
+    }
+
+
+    /**
+     * @return the number of times the circuit has gone from closed to open
+     */
+    public synchronized long getTimesOpened()
+    {
+        return timesOpened;
+    }
+
+}  // end class CircuitBreaker
@@ -0,0 +1,286 @@
+package com.vitareminder.reminders;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vitareminder.business.Recurrence;
+
+
+/**
+ * A {@code Recurrence} at a supplement's time of day, compiled into two bit
+ * sets so that whether a reminder is due in a given minute is answered with
+ * two array lookups, however the recurrence was written:
+ * <ul>
+ * <li>A set of 1440 bits, one for each minute of the day, with a bit set for
+ * each time of day that the supplement is taken on the days it is due.</li>
+ * <li>A set of bits over a cycle of days, with a bit set for each day that
+ * the supplement is due.  The cycle is one day long for a supplement taken
+ * every day, seven days starting on a Monday for one taken on certain days of
+ * the week, and {@code N} days starting on the start date for one taken every
+ * {@code N} days.  The cycle of a taper is the whole taper, which is not
+ * repeated.</li>
+ * </ul>
+ * This keeps the schedule of even a three-hourly, every-other-day supplement
+ * down to a couple of hundred bytes, where a bit for every minute of a week
+ * would take over a kilobyte.
+ * <p>
+ * Times are counted in local epoch minutes: the number of minutes since
+ * 1970-01-01 00:00 on the wall clock, as if the zone had no daylight saving
+ * time.  Converting a local minute into an instant is left to
+ * {@code FireTimeSchedule}.
+ * <p>
+ * {@code CompiledSchedule}s are immutable, and are shared: {@code compile()}
+ * returns the same instance for every supplement with the same rule and time,
+ * so loading thousands of reminders compiles only a handful of schedules.
+ */
+public final class CompiledSchedule
+{
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    /** the epoch day of Monday 1970-01-05, from which the cycles of weekday schedules start */
+    private static final long FIRST_MONDAY = 4;
+
+    private static final Map<String, CompiledSchedule> cache = new HashMap<>();
+
+    private final Recurrence recurrence;
+    private final BitSet minutesOfDay;
+    private final int firstMinuteOfDay;
+    private final BitSet days;
+    private final int cycleDays;
+    private final long anchorDay;
+    private final long firstDay;
+    private final long endDay;
+    private final boolean repeating;
+
+
+    private CompiledSchedule(Recurrence recurrence, int hour, int minute)
+    {
+        this.recurrence = recurrence;
+
+        minutesOfDay = new BitSet(MINUTES_PER_DAY);
+
+        int step = recurrence.getEveryHours() * 60;
+
+        for (int minuteOfDay = hour * 60 + minute, i = 0; i < MINUTES_PER_DAY / step; i++)
+        {
+            minutesOfDay.set((minuteOfDay + i * step) % MINUTES_PER_DAY);
+        }
+
+        firstMinuteOfDay = minutesOfDay.nextSetBit(0);
+
+        switch (recurrence.getDayRule())
+        {
+        case WEEKDAYS:
+            cycleDays = 7;
+            days = BitSet.valueOf(new long[] {recurrence.getWeekdays()});
+            anchorDay = FIRST_MONDAY;
+            firstDay = Long.MIN_VALUE;
+            endDay = Long.MAX_VALUE;
+            repeating = true;
+            break;
+        case EVERY_N_DAYS:
+            cycleDays = recurrence.getEveryDays();
+            days = new BitSet(cycleDays);
+            days.set(0);
+            anchorDay = recurrence.getFromDay();
+            firstDay = anchorDay;
+            endDay = Long.MAX_VALUE;
+            repeating = true;
+            break;
+        case TAPER:
+        {
+            int[] intervals = recurrence.getTaperIntervals();
+            int[] lengths = recurrence.getTaperLengths();
+            int stageStart = 0;
+
+            days = new BitSet();
+
+            for (int i = 0; i < intervals.length; i++)
+            {
+                for (int day = stageStart; day < stageStart + lengths[i]; day += intervals[i])
+                {
+                    days.set(day);
+                }
+
+                stageStart += lengths[i];
+            }
+
+            cycleDays = stageStart;
+            anchorDay = recurrence.getFromDay();
+            firstDay = anchorDay;
+            endDay = anchorDay + cycleDays;
+            repeating = false;
+            break;
+        }
+        default:
+            cycleDays = 1;
+            days = new BitSet(1);
+            days.set(0);
+            anchorDay = 0;
+            firstDay = Long.MIN_VALUE;
+            endDay = Long.MAX_VALUE;
+            repeating = true;
+            break;
+        }
+    }
+
+
+    /**
+     * Gets the compiled form of the specified recurrence at the specified time
+     * of day, compiling it if no supplement has used it yet.
+     *
+     * @param recurrence  the days that the supplement is due, and how often on each of them
+     * @param hour  the hour of the day of the supplement's time, 0 - 23
+     * @param minute  the minute of the supplement's time, 0 - 59
+     * @return the shared {@code CompiledSchedule}
+     */
+    public static CompiledSchedule compile(Recurrence recurrence, int hour, int minute)
+    {
+        String key = recurrence.getRule() + "@" + (hour * 60 + minute);
+
+        synchronized (cache)
+        {
+            CompiledSchedule schedule = cache.get(key);
+
+            if (schedule == null)
+            {
+                schedule = new CompiledSchedule(recurrence, hour, minute);
+                cache.put(key, schedule);
+            }
+
+            return schedule;
+        }
+    }
+
+
+    /**
+     * Gets the compiled form of a supplement that is taken once every day.
+     *
+     * @param hour  the hour of the day, 0 - 23
+     * @param minute  the minute, 0 - 59
+     * @return the shared {@code CompiledSchedule}
+     */
+    public static CompiledSchedule daily(int hour, int minute)
+    {
+        return compile(Recurrence.DAILY, hour, minute);
+    }
+
+
+    public Recurrence getRecurrence()
+    {
+        return recurrence;
+    }
+
+
+    /**
+     * @return the number of times a day that the supplement is taken on the days it is due
+     */
+    public int getTimesPerDay()
+    {
+        return 24 / recurrence.getEveryHours();
+    }
+
+
+    /**
+     * @param localMinute  a local epoch minute
+     * @return <tt>true</tt> if the supplement is due in that minute, <tt>false</tt> otherwise
+     */
+    public boolean isDue(long localMinute)
+    {
+        long day = Recurrence.floorDiv(localMinute, MINUTES_PER_DAY);
+
+        return isDueOn(day) && minutesOfDay.get((int) (localMinute - day * MINUTES_PER_DAY));
+    }
+
+
+    /**
+     * @param epochDay  a day, as the number of days since 1970-01-01
+     * @return <tt>true</tt> if the supplement is due at least once on that day, <tt>false</tt> otherwise
+     */
+    public boolean isDueOn(long epochDay)
+    {
+        int index = getDayIndex(epochDay);
+
+        return index != -1 && days.get(index);
+    }
+
+
+    /**
+     * Finds the first minute after the specified one in which the supplement is due.
+     *
+     * @param localMinute  a local epoch minute
+     * @return the next local epoch minute in which the supplement is due, or -1 if
+     *         there is none, because a taper is over
+     */
+    public long next(long localMinute)
+    {
+        long day = Recurrence.floorDiv(localMinute, MINUTES_PER_DAY);
+        int minuteOfDay = (int) (localMinute - day * MINUTES_PER_DAY);
+
+        if (isDueOn(day))
+        {
+            int nextMinuteOfDay = minutesOfDay.nextSetBit(minuteOfDay + 1);
+
+            if (nextMinuteOfDay != -1)
+            {
+                return day * MINUTES_PER_DAY + nextMinuteOfDay;
+            }
+        }
+
+        long nextDay = nextDueDay(day + 1);
+
+        return nextDay == -1 ? -1 : nextDay * MINUTES_PER_DAY + firstMinuteOfDay;
+    }
+
+
+    /**
+     * Finds the first day, on or after the specified one, that the supplement is due.
+     *
+     * @param epochDay  a day, as the number of days since 1970-01-01
+     * @return the next day that the supplement is due, or -1 if there is none
+     */
+    public long nextDueDay(long epochDay)
+    {
+        long day = Math.max(epochDay, firstDay);
+
+        if (day >= endDay)
+        {
+            return -1;
+        }
+
+        int index = getDayIndex(day);
+        int nextIndex = days.nextSetBit(index);
+
+        if (nextIndex != -1 && nextIndex < cycleDays)
+        {
+            return day + (nextIndex - index);
+        }
+
+        if (!repeating)
+        {
+            return -1;
+        }
+
+        // Wrap round to the start of the next cycle
+        return day + (cycleDays - index) + days.nextSetBit(0);
+    }
+
+
+    /**
+     * @return the index in {@code days} of the specified day, or -1 if it is
+     *         before the start date or after the end of a taper
+     */
+    private int getDayIndex(long epochDay)
+    {
+        if (epochDay < firstDay || epochDay >= endDay)
+        {
+            return -1;
+        }
+
+        long offset = epochDay - anchorDay;
+
+        return (int) (offset - Recurrence.floorDiv(offset, cycleDays) * cycleDays);
+    }
+
+}  // end class CompiledSchedule
@@ -0,0 +1,250 @@
+package com.vitareminder.reminders;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.metrics.LatencyStats;
+import com.vitareminder.metrics.MetricsRegistry;
+
+
+/**
+ * Sits in front of the senders for one reminder channel ("email", "text" or
+ * "voice") and combines a {@code RateLimiter} with a {@code CircuitBreaker}.
+ * {@code HtmlEmail}, {@code TextMessage} and {@code VoiceMessage} call
+ * {@code tryAcquire()} before contacting the provider, and then report the
+ * outcome with {@code recordSuccess()} or {@code recordFailure()}.
+ * <p>
+ * There is a single guard per channel, shared by every reminder and by the
+ * verification messages in {@code ConfigureRemindersDialog}, since they all
+ * use the same Gmail account or Tropo token.  The limits for each channel
+ * are read from res/reminders/reminders.properties.
+ * <p>
+ * The time from {@code tryAcquire()} to the outcome being reported is recorded
+ * as the channel's delivery latency in the {@code MetricsRegistry}.  Each send
+ * runs on its own thread, so the start time is kept in a {@code ThreadLocal}.
+ */
+public class DeliveryGuard
+{
+    private static final String[] CHANNELS = {"email", "text", "voice"};
+
+    private static Map<String, DeliveryGuard> guards = null;
+
+    private final String channel;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final long maxWaitMillis;
+    private final LatencyStats deliveryStats;
+    private final ThreadLocal<Long> sendStartNanos = new ThreadLocal<>();
+
+    private long deliveredCount = 0;
+    private long failedCount = 0;
+
+    private Logger logger = Logger.getLogger(DeliveryGuard.class);
+
+
+    private DeliveryGuard(String channel)
+    {
+        String prefix = "delivery." + channel + ".";
+
+        int capacity = ReminderProperties.getInt(prefix + "capacity", 5);
+        int refillPerMinute = ReminderProperties.getInt(prefix + "refillPerMinute", 20);
+        int maxWaitSeconds = ReminderProperties.getInt(prefix + "maxWaitSeconds", 300);
+        int failureThreshold = ReminderProperties.getInt(prefix + "failureThreshold", 5);
+        int openSeconds = ReminderProperties.getInt(prefix + "openSeconds", 300);
+
+        this.channel = channel;
+        this.rateLimiter = new RateLimiter(capacity, refillPerMinute);
+        this.circuitBreaker = new CircuitBreaker(channel, failureThreshold, openSeconds * 1000L);
+        this.maxWaitMillis = maxWaitSeconds * 1000L;
+        this.deliveryStats = MetricsRegistry.getInstance().getLatencyStats("Delivery", channel);
+    }
+
+
+    /**
+     * Gets the guard for the specified channel.
+     *
+     * @param channel  "email", "text" or "voice"
+     * @return the shared guard for that channel
+     */
+    public static synchronized DeliveryGuard getGuard(String channel)
+    {
+        DeliveryGuard guard = getGuardMap().get(channel);
+
+        if (guard == null)
+        {
+            throw new IllegalArgumentException("Unknown reminder channel: " + channel);
+        }
+
+        return guard;
+    }
+
+
+    /**
+     * Gets the guards for all channels, in the order email, text, voice.
+     * Used to report the delivery metrics.
+     *
+     * @return a {@code List} containing every channel's guard
+     */
+    public static synchronized List<DeliveryGuard> getGuards()
+    {
+        return new ArrayList<DeliveryGuard>(getGuardMap().values());
+    }
+
+
+    private static Map<String, DeliveryGuard> getGuardMap()
+    {
+        if (guards == null)
+        {
+            guards = new LinkedHashMap<String, DeliveryGuard>();
+
+            for (String channel : CHANNELS)
+            {
+                guards.put(channel, new DeliveryGuard(channel));
+            }
+        }
+
+        return guards;
+    }
+
+
+    /**
+     * Waits for permission to send on this channel.  Blocks while the channel
+     * is being throttled, so it must never be called on the Event Dispatch Thread.
+     *
+     * @return <tt>true</tt> if the send may go ahead, <tt>false</tt> if it should be
+     *         dropped because the circuit is open or no token became available in time
+     */
+    public boolean tryAcquire()
+    {
+        // Check the circuit first, so that sends to a provider that is down are
+        // dropped at once instead of waiting for, and using up, rate limiter tokens
+        if (!circuitBreaker.allowRequest())
+        {
+            logger.warn("Dropped a " + channel + " reminder because the circuit is open.");
+            return false;
+        }
+
+        if (!rateLimiter.acquire(maxWaitMillis))
+        {
+            circuitBreaker.cancelRequest();
+
+            logger.warn("Dropped a " + channel + " reminder after waiting "
+                      + (maxWaitMillis / 1000) + " seconds for the rate limiter.");
+            return false;
+        }
+
+        sendStartNanos.set(System.nanoTime());
+
+        return true;
+    }
+
+
+    /**
+     * Records that the provider accepted the message.
+     */
+    public void recordSuccess()
+    {
+        synchronized (this)
+        {
+            deliveredCount++;
+        }
+
+        circuitBreaker.recordSuccess();
+        recordLatency(false);
+    }
+
+
+    /**
+     * Records that the provider could not be reached or rejected the message.
+     */
+    public void recordFailure()
+    {
+        synchronized (this)
+        {
+            failedCount++;
+        }
+
+        circuitBreaker.recordFailure();
+        recordLatency(true);
+    }
+
+
+    private void recordLatency(boolean error)
+    {
+        Long start = sendStartNanos.get();
+
+        if (start != null)
+        {
+            deliveryStats.record(System.nanoTime() - start, error);
+            sendStartNanos.remove();
+        }
+    }
+
+
+    public String getChannel()
+    {
+        return channel;
+    }
+
+
+    public CircuitBreaker.State getCircuitState()
+    {
+        return circuitBreaker.getState();
+    }
+
+
+    public long getThrottledCount()
+    {
+        return rateLimiter.getThrottledCount();
+    }
+
+
+    /**
+     * @return the number of sends dropped, either by the rate limiter or the circuit breaker
+     */
+    public long getDroppedCount()
+    {
+        return rateLimiter.getRejectedCount() + circuitBreaker.getRejectedCount();
+    }
+
+
+    public long getCircuitOpenedCount()
+    {
+        return circuitBreaker.getTimesOpened();
+    }
+
+
+    public synchronized long getDeliveredCount()
+    {
+        return deliveredCount;
+    }
+
+
+    public synchronized long getFailedCount()
+    {
+        return failedCount;
+    }
+
+
+    /**
+     * Gets a one-line summary of this channel's metrics, e.g.
+     * "email: circuit=CLOSED delivered=12 failed=0 throttled=3 dropped=0 opened=0".
+     *
+     * @return the summary {@code String}
+     */
+    @Override
+    public String toString()
+    {
+        return channel + ": circuit=" + getCircuitState()
+             + " delivered=" + getDeliveredCount()
+             + " failed=" + getFailedCount()
+             + " throttled=" + getThrottledCount()
+             + " dropped=" + getDroppedCount()
+             + " opened=" + getCircuitOpenedCount();
+    }
+
+}  // end class DeliveryGuard
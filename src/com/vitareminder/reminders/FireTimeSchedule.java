@@ -0,0 +1,498 @@
+package com.vitareminder.reminders;
+
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+
+import com.vitareminder.business.Recurrence;
+
+
+/**
+ * Precomputes the instants at which each reminder fires, in a single
+ * configurable time zone, and hands them to Quartz one at a time.  A reminder
+ * fires at each local minute in which its {@code CompiledSchedule} is due.
+ * <p>
+ * A Quartz cron trigger interprets a supplement's time in the JVM's default
+ * zone, and its behaviour around daylight saving time changes is hard to
+ * predict: a reminder set inside the hour that is skipped in spring may not
+ * fire at all, and one set inside the hour that is repeated in autumn may fire
+ * twice.  Instead, this class works out each fire time itself, as follows:
+ * <ul>
+ * <li>The supplement's hour and minute are a wall-clock time in the zone set by
+ * schedule.timeZone in res/reminders/reminders.properties, or in the default zone
+ * if none is set.  This lets a travelling user keep their reminders on home time.</li>
+ * <li>If the time falls in a gap, the reminder fires the same length of time after
+ * the gap, e.g. a 2:30 reminder fires at 3:30 on the night the clocks go forward.</li>
+ * <li>If the time falls in an overlap, the reminder fires once, at the first of
+ * the two occurrences.</li>
+ * <li>A reminder never fires twice at the same instant, so an hourly reminder
+ * fires once, not twice, in the hour after a gap.</li>
+ * </ul>
+ * <p>
+ * The fire times of the next schedule.precomputeDays days on which each loaded
+ * reminder is due are kept,
+ * both per reminder and in a {@code TreeMap} ordered by time, so that the next
+ * reminder due across all reminders is found in logarithmic time.  Each reminder
+ * has a single one-shot trigger at its next fire time.  When it fires, the job
+ * calls {@code scheduleNextFire()}, which adds a trigger for the following fire
+ * time and precomputes another one.  A reminder whose recurrence has ended,
+ * i.e. a taper that is over, has no more fire times, and is given no trigger.
+ */
+public class FireTimeSchedule
+{
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private static FireTimeSchedule instance = null;
+
+    private final TimeZone timeZone;
+    private final int precomputeDays;
+
+    /** the reminder's schedule, and its precomputed fire times in ascending order */
+    private final Map<JobKey, ReminderTimes> timesByJob = new HashMap<>();
+
+    /** every precomputed fire time, and the reminders that fire at it */
+    private final TreeMap<Long, Set<JobKey>> jobsByTime = new TreeMap<>();
+
+    private Logger logger = Logger.getLogger(FireTimeSchedule.class);
+
+
+    private static class ReminderTimes
+    {
+        final CompiledSchedule schedule;
+        final Deque<Long> fireTimes = new ArrayDeque<>();
+
+        ReminderTimes(CompiledSchedule schedule)
+        {
+            this.schedule = schedule;
+        }
+    }
+
+
+    /**
+     * Creates a schedule for the specified zone.  Used directly when simulating
+     * reminders in another zone; the application uses {@code getInstance()}.
+     *
+     * @param timeZone  the zone in which the supplements' times are interpreted
+     * @param precomputeDays  how many days' worth of fire times to keep for each reminder
+     */
+    public FireTimeSchedule(TimeZone timeZone, int precomputeDays)
+    {
+        this.timeZone = timeZone;
+        this.precomputeDays = Math.max(1, precomputeDays);
+    }
+
+
+    /**
+     * Gets the single schedule that is shared by {@code ReminderManager} and
+     * the reminder jobs, created from the settings in reminders.properties.
+     *
+     * @return the {@code FireTimeSchedule}
+     */
+    public static synchronized FireTimeSchedule getInstance()
+    {
+        if (instance == null)
+        {
+            String zoneID = ReminderProperties.getString("schedule.timeZone", "");
+            TimeZone timeZone = zoneID.isEmpty() ? TimeZone.getDefault() : TimeZone.getTimeZone(zoneID);
+
+            if (!zoneID.isEmpty() && !timeZone.getID().equals(zoneID))
+            {
+                // TimeZone.getTimeZone() falls back to GMT for an unknown ID
+                Logger.getLogger(FireTimeSchedule.class).warn("Unknown schedule.timeZone " + zoneID
+                                                              + ", using " + timeZone.getID() + ".");
+            }
+
+            instance = new FireTimeSchedule(timeZone, ReminderProperties.getInt("schedule.precomputeDays", 7));
+        }
+
+        return instance;
+    }
+
+
+    /**
+     * @return the zone in which the supplements' times are interpreted
+     */
+    public TimeZone getTimeZone()
+    {
+        return timeZone;
+    }
+
+
+    /**
+     * Precomputes the fire times of a reminder that fires every day at the
+     * specified wall-clock time, replacing any fire times it already has, and
+     * creates a one-shot trigger for the first of them.  Called by
+     * {@code ReminderManager} when it loads a reminder.
+     *
+     * @param jobKey  the key of the reminder's Quartz job
+     * @param hour  the hour of the day, 0 - 23
+     * @param minute  the minute, 0 - 59
+     * @param now  the current time, in milliseconds
+     * @return a trigger for the reminder's next fire time
+     */
+    public Trigger newFirstTrigger(JobKey jobKey, int hour, int minute, long now)
+    {
+        return newFirstTrigger(jobKey, CompiledSchedule.daily(hour, minute), now);
+    }
+
+
+    /**
+     * Precomputes the fire times of a reminder with the specified schedule,
+     * replacing any fire times it already has, and creates a one-shot trigger
+     * for the first of them.  Called by {@code ReminderManager} when it loads
+     * a reminder.
+     *
+     * @param jobKey  the key of the reminder's Quartz job
+     * @param schedule  the local minutes at which the reminder is due
+     * @param now  the current time, in milliseconds
+     * @return a trigger for the reminder's next fire time, or <tt>null</tt> if it
+     *         will not fire again
+     */
+    public Trigger newFirstTrigger(JobKey jobKey, CompiledSchedule schedule, long now)
+    {
+        long firstFireTime = schedule(jobKey, schedule, now);
+
+        if (firstFireTime == -1)
+        {
+            return null;
+        }
+
+        return newTrigger()
+                .startAt(new Date(firstFireTime))
+                .build();
+    }
+
+
+    /**
+     * Precomputes the fire times of a reminder that fires every day at the
+     * specified wall-clock time, replacing any fire times it already has.
+     *
+     * @param jobKey  the key of the reminder's Quartz job
+     * @param hour  the hour of the day, 0 - 23
+     * @param minute  the minute, 0 - 59
+     * @param now  the current time, in milliseconds
+     * @return the reminder's first fire time, in milliseconds
+     */
+    public long schedule(JobKey jobKey, int hour, int minute, long now)
+    {
+        return schedule(jobKey, CompiledSchedule.daily(hour, minute), now);
+    }
+
+
+    /**
+     * Precomputes the fire times of a reminder with the specified schedule,
+     * replacing any fire times it already has.
+     *
+     * @param jobKey  the key of the reminder's Quartz job
+     * @param schedule  the local minutes at which the reminder is due
+     * @param now  the current time, in milliseconds
+     * @return the reminder's first fire time, in milliseconds, or -1 if it will not fire again
+     */
+    public synchronized long schedule(JobKey jobKey, CompiledSchedule schedule, long now)
+    {
+        remove(jobKey);
+
+        ReminderTimes times = new ReminderTimes(schedule);
+
+        topUp(jobKey, times, now);
+
+        if (times.fireTimes.isEmpty())
+        {
+            return -1;
+        }
+
+        timesByJob.put(jobKey, times);
+
+        return times.fireTimes.peekFirst();
+    }
+
+
+    /**
+     * Discards the fire time that has just passed and schedules a one-shot
+     * trigger for the reminder's next fire time.  Called by {@code HtmlEmailJob},
+     * {@code TextMessageJob} and {@code VoiceMessageJob} each time they fire.
+     *
+     * @param context  the context of the job that has just fired
+     */
+    public void scheduleNextFire(JobExecutionContext context)
+    {
+        JobKey jobKey = context.getJobDetail().getKey();
+
+        // If the job fired late, e.g. because the computer was asleep, the fire
+        // times that were missed in the meantime are skipped.
+        long firedAt = Math.max(context.getScheduledFireTime().getTime(), context.getFireTime().getTime());
+        long nextFireTime = advance(jobKey, firedAt);
+
+        if (nextFireTime == -1)
+        {
+            // The reminder was unloaded while it was firing, or its recurrence has ended
+            return;
+        }
+
+        Trigger trigger = newTrigger()
+                .forJob(jobKey)
+                .startAt(new Date(nextFireTime))
+                .build();
+
+        try
+        {
+            context.getScheduler().scheduleJob(trigger);
+        }
+        catch (SchedulerException e)
+        {
+            logger.warn("An exception has occurred while attempting to schedule the next reminder for "
+                        + jobKey + ".", e);
+        }
+    }
+
+
+    /**
+     * Discards the reminder's fire times up to and including {@code firedAt},
+     * and precomputes more so that it still has {@code precomputeDays} days' worth of them.
+     *
+     * @param jobKey  the key of the reminder's Quartz job
+     * @param firedAt  the fire time that has just passed, in milliseconds
+     * @return the reminder's next fire time, or -1 if it is not loaded or will not fire again
+     */
+    public synchronized long advance(JobKey jobKey, long firedAt)
+    {
+        ReminderTimes times = timesByJob.get(jobKey);
+
+        if (times == null)
+        {
+            return -1;
+        }
+
+        while (!times.fireTimes.isEmpty() && times.fireTimes.peekFirst() <= firedAt)
+        {
+            unindex(times.fireTimes.pollFirst(), jobKey);
+        }
+
+        topUp(jobKey, times, firedAt);
+
+        if (times.fireTimes.isEmpty())
+        {
+            timesByJob.remove(jobKey);
+
+            return -1;
+        }
+
+        return times.fireTimes.peekFirst();
+    }
+
+
+    /**
+     * Forgets the fire times of the specified reminder.  Called by
+     * {@code ReminderManager} when it unloads a reminder.
+     *
+     * @param jobKey  the key of the reminder's Quartz job
+     */
+    public synchronized void remove(JobKey jobKey)
+    {
+        ReminderTimes times = timesByJob.remove(jobKey);
+
+        if (times != null)
+        {
+            for (long fireTime : times.fireTimes)
+            {
+                unindex(fireTime, jobKey);
+            }
+        }
+    }
+
+
+    /**
+     * Gets the earliest precomputed fire time after the specified time, across
+     * every loaded reminder.
+     *
+     * @param after  the time in milliseconds
+     * @return the next fire time, or -1 if no reminder is loaded
+     */
+    public synchronized long getNextFireTime(long after)
+    {
+        Long fireTime = jobsByTime.higherKey(after);
+
+        return fireTime == null ? -1 : fireTime;
+    }
+
+
+    /**
+     * Gets the reminders that fire at the specified time.
+     *
+     * @param fireTime  a fire time returned by {@code getNextFireTime()}
+     * @return a copy of the set of job keys, which is empty if none fire at that time
+     */
+    public synchronized Set<JobKey> getJobsAt(long fireTime)
+    {
+        Set<JobKey> jobKeys = jobsByTime.get(fireTime);
+
+        return jobKeys == null ? new HashSet<JobKey>() : new HashSet<>(jobKeys);
+    }
+
+
+    /**
+     * Computes the times at which a reminder set for the specified wall-clock
+     * time fires every day, resolving daylight saving time gaps and overlaps
+     * as described in the class comment.
+     *
+     * @param timeZone  the zone in which the wall-clock time is interpreted
+     * @param hour  the hour of the day, 0 - 23
+     * @param minute  the minute, 0 - 59
+     * @param after  only fire times strictly after this time are returned, in milliseconds
+     * @param count  the number of fire times to compute
+     * @return the fire times in ascending order, in milliseconds
+     */
+    public static long[] computeFireTimes(TimeZone timeZone, int hour, int minute, long after, int count)
+    {
+        return computeFireTimes(timeZone, CompiledSchedule.daily(hour, minute), after, count);
+    }
+
+
+    /**
+     * Computes the times at which a reminder with the specified schedule fires,
+     * resolving daylight saving time gaps and overlaps as described in the
+     * class comment.
+     *
+     * @param timeZone  the zone in which the schedule's local minutes are interpreted
+     * @param schedule  the local minutes at which the reminder is due
+     * @param after  only fire times strictly after this time are returned, in milliseconds
+     * @param count  the largest number of fire times to compute
+     * @return the fire times in strictly ascending order, in milliseconds, of which there
+     *         are fewer than {@code count} if the schedule ends first
+     */
+    public static long[] computeFireTimes(TimeZone timeZone, CompiledSchedule schedule, long after, int count)
+    {
+        long[] fireTimes = new long[count];
+
+        // The wall-clock time is expressed as if it were UTC, in whole minutes.
+        // This starts a day before the local minute that contains 'after', since
+        // a local minute on the day of an offset change may resolve to an instant
+        // either side of it.
+        long localAfter = after + timeZone.getOffset(after);
+        long localMinute = Recurrence.floorDiv(localAfter, MILLIS_PER_MINUTE) - CompiledSchedule.MINUTES_PER_DAY;
+
+        long lastFireTime = after;
+        int found = 0;
+
+        while (found < count)
+        {
+            localMinute = schedule.next(localMinute);
+
+            if (localMinute == -1)
+            {
+                return Arrays.copyOf(fireTimes, found);
+            }
+
+            long fireTime = resolve(timeZone, localMinute * MILLIS_PER_MINUTE);
+
+            // A time in a gap resolves to the same instant as the time the length
+            // of the gap later, so only the first of the two is kept.
+            if (fireTime > lastFireTime)
+            {
+                fireTimes[found++] = fireTime;
+                lastFireTime = fireTime;
+            }
+        }
+
+        return fireTimes;
+    }
+
+
+    /**
+     * Converts a wall-clock time, expressed as milliseconds as if it were UTC,
+     * into the instant at which it occurs in the specified zone.  Assumes that
+     * the zone's offset changes at most once within a day either side.
+     */
+    private static long resolve(TimeZone timeZone, long localMillis)
+    {
+        int offsetBefore = timeZone.getOffset(localMillis - MILLIS_PER_DAY);
+        int offsetAfter = timeZone.getOffset(localMillis + MILLIS_PER_DAY);
+
+        // The larger offset gives the earlier instant
+        int earlierOffset = Math.max(offsetBefore, offsetAfter);
+        int laterOffset = Math.min(offsetBefore, offsetAfter);
+
+        long earlier = localMillis - earlierOffset;
+        long later = localMillis - laterOffset;
+
+        if (timeZone.getOffset(earlier) == earlierOffset)
+        {
+            // The time occurs once, or twice in an overlap, in which case this is the first
+            return earlier;
+        }
+
+        if (timeZone.getOffset(later) == laterOffset)
+        {
+            return later;
+        }
+
+        // The time falls in a gap, so move it forward by the length of the gap
+        return localMillis - offsetBefore;
+    }
+
+
+    private void topUp(JobKey jobKey, ReminderTimes times, long now)
+    {
+        int missing = precomputeDays * times.schedule.getTimesPerDay() - times.fireTimes.size();
+
+        if (missing <= 0)
+        {
+            return;
+        }
+
+        long after = times.fireTimes.isEmpty() ? now : times.fireTimes.peekLast();
+
+        for (long fireTime : computeFireTimes(timeZone, times.schedule, after, missing))
+        {
+            times.fireTimes.addLast(fireTime);
+            index(fireTime, jobKey);
+        }
+    }
+
+
+    private void index(long fireTime, JobKey jobKey)
+    {
+        Set<JobKey> jobKeys = jobsByTime.get(fireTime);
+
+        if (jobKeys == null)
+        {
+            jobKeys = new HashSet<>();
+            jobsByTime.put(fireTime, jobKeys);
+        }
+
+        jobKeys.add(jobKey);
+    }
+
+
+    private void unindex(long fireTime, JobKey jobKey)
+    {
+        Set<JobKey> jobKeys = jobsByTime.get(fireTime);
+
+        if (jobKeys != null)
+        {
+            jobKeys.remove(jobKey);
+
+            if (jobKeys.isEmpty())
+            {
+                jobsByTime.remove(fireTime);
+            }
+        }
+    }
+
+}  // end class FireTimeSchedule
@@ -1,5 +1,8 @@
 package com.vitareminder.reminders;
 
+import java.awt.GraphicsEnvironment;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 import javax.mail.Message;
@@ -19,22 +22,29 @@ import org.apache.log4j.Logger;
  * {@code body} argument that is passed in to the constructor
  * is a {@code String} that contains an HTML document that was
  * generated using Velocity.
+ * <p>
+ * The SMTP server is set by provider.smtp.host and provider.smtp.port in
+ * res/reminders/reminders.properties, and defaults to Gmail.
+ * <p>
+ * An e-mail with several recipients is sent once, with the recipients in the
+ * Bcc field so that they do not see each other's addresses.
  */
 public class HtmlEmail
 {
     private String from;
     private String password;
-    private String to;
+    private List<String> to;
     private String subject;
     private String body;
-    private String host = "smtp.gmail.com";
+    private String host;
+    private int port;
 
     // This line pretty much sums up Java.
     private Logger logger = Logger.getLogger(HtmlEmail.class);
 
 
     /**
-     * The sole constructor.
+     * Creates an e-mail with a single recipient.
      *
      * @param from  the username, not including "@gmail.com"
      * @param password  the password for the sending account
@@ -44,19 +54,43 @@ public class HtmlEmail
      */
     public HtmlEmail(String from, String password, String to,
                      String subject, String body)
+    {
+        this(from, password, Collections.singletonList(to), subject, body);
+    }
+
+
+    /**
+     * Creates an e-mail that is sent to several recipients at once.
+     *
+     * @param from  the username, not including "@gmail.com"
+     * @param password  the password for the sending account
+     * @param to  the recipients' e-mail addresses
+     * @param subject  the e-mail subject
+     * @param body  the e-mail body
+     */
+    public HtmlEmail(String from, String password, List<String> to,
+                     String subject, String body)
     {
         this.from = from;
         this.password = password;
         this.to = to;
         this.subject = subject;
         this.body = body;
+
+        this.host = ReminderProperties.getString("provider.smtp.host", "smtp.gmail.com");
+        this.port = ReminderProperties.getInt("provider.smtp.port", 587);
     }
 
 
     /**
-     * Sends the e-mail with an HTML body over TLS.
+     * Sends the e-mail with an HTML body over TLS.  The e-mail channel's
+     * {@code DeliveryGuard} is consulted before connecting, so the send may
+     * be delayed by the rate limiter or dropped while the circuit is open.
+     *
+     * @return the thread that sends the e-mail, or <tt>null</tt> if the e-mail
+     *         could not be composed
      */
-    public void send()
+    public Thread send()
     {
         Properties properties = System.getProperties();
 
@@ -64,7 +98,7 @@ public class HtmlEmail
         properties.put("mail.smtp.host", host);
         properties.put("mail.smtp.user", from);
         properties.put("mail.smtp.password", password);
-        properties.put("mail.smtp.port", "587");
+        properties.put("mail.smtp.port", String.valueOf(port));
         properties.put("mail.smtp.auth", "true");
 
         Session session = Session.getDefaultInstance(properties);
@@ -74,8 +108,14 @@ public class HtmlEmail
         try
         {
             message.setFrom(new InternetAddress(from));
-            InternetAddress toAddress = new InternetAddress(to);
-            message.addRecipient(Message.RecipientType.TO, toAddress);
+            Message.RecipientType recipientType = to.size() == 1 ? Message.RecipientType.TO
+                                                                 : Message.RecipientType.BCC;
+
+            for (String address : to)
+            {
+                message.addRecipient(recipientType, new InternetAddress(address));
+            }
+
             message.setSubject(subject);
             message.setContent(body, "text/html");
 
@@ -85,28 +125,48 @@ public class HtmlEmail
             // can take a couple of seconds, and we don't want to freeze
             // the Swing components that are operating on the Event Dispatch
             // Thread.
-            new Thread(new Runnable() {
+            Thread thread = new Thread(new Runnable() {
 
                 @Override
                 public void run()
                 {
+                    DeliveryGuard guard = DeliveryGuard.getGuard("email");
+
+                    if (!guard.tryAcquire())
+                    {
+                        return;
+                    }
+
                     try
                     {
-                        transport.connect(host, from, password);
+                        transport.connect(host, port, from, password);
                         transport.sendMessage(message, message.getAllRecipients());
                         transport.close();
+
+                        guard.recordSuccess();
                     }
                     catch (MessagingException e)
                     {
+                        guard.recordFailure();
+
                         logger.warn("An error has occured sending e-mail.", e);
-                        JOptionPane.showMessageDialog(null,
-                                                  "<html>Sorry, an error has occurred while attempting to send the e-mail.<br><br>"
-                                                + "Please ensure that you are connected to the Internet.</html>",
-                                                  "E-Mail Error",
-                                                  JOptionPane.ERROR_MESSAGE);
+
+                        // There is no one to show the error to when running headless, e.g. under the load test
+                        if (!GraphicsEnvironment.isHeadless())
+                        {
+                            JOptionPane.showMessageDialog(null,
+                                                      "<html>Sorry, an error has occurred while attempting to send the e-mail.<br><br>"
+                                                    + "Please ensure that you are connected to the Internet.</html>",
+                                                      "E-Mail Error",
+                                                      JOptionPane.ERROR_MESSAGE);
+                        }
                     }
                 }
-            }).start();
+            });
+
+            thread.start();
+
+            return thread;
         }
         catch (AddressException e)
         {
@@ -125,6 +185,8 @@ public class HtmlEmail
                                           "E-Mail Error",
                                           JOptionPane.ERROR_MESSAGE);
         }
+
+        return null;
     }
 
 }  // end class HtmlEmail
@@ -5,11 +5,14 @@ import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 
+import com.vitareminder.metrics.MetricsRegistry;
+
 
 /**
  * A Quartz Job that sends an e-mail.  The {@code JobDataMap} parameters
  * are set in {@code ReminderManager#loadEmailReminder()} and then
- * extracted here to create a new {@code HtmlEmail} object.
+ * extracted here to create a new {@code PendingReminder}, which is
+ * handed to the {@code ReminderDispatcher} to be sent.
  */
 public class HtmlEmailJob implements Job
 {
@@ -23,29 +26,40 @@ public class HtmlEmailJob implements Job
 
 
     /**
-     * Executes this {@code HtmlEmailJob} by sending the actual e-mail.
-     * It extracts the job parameters that we placed in the {@code JobDataMap}
-     * when we created the job in {@code ReminderManager}.  It then uses
-     * these parameters to construct a new {@code HtmlEmail} object, and calls
-     * {@code HtmlEmail#send()}.
+     * Executes this {@code HtmlEmailJob} by submitting the e-mail to the
+     * {@code ReminderDispatcher}.  It extracts the job parameters that we placed
+     * in the {@code JobDataMap} when we created the job in {@code ReminderManager}.
+     * The dispatcher waits briefly for any other e-mail reminders due at the same
+     * minute, and then sends them all as one {@code HtmlEmail}.
      * <p>
      * Called automatically by Quartz scheduler at the time that is set in this
-     * job's trigger.
+     * job's trigger, which the {@code FireTimeSchedule} replaces with a trigger
+     * for the next fire time.
      */
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException
     {
+        // Each trigger fires once, so first set up the trigger for the next fire time
+        // of the supplement's recurrence, which may be later the same day, or never
+        // if the schedule has ended.
+        FireTimeSchedule.getInstance().scheduleNextFire(context);
+        MetricsRegistry.getInstance().recordFireLag(context);
+
         JobDataMap dataMap = context.getJobDetail().getJobDataMap();
 
         String from = dataMap.getString("from");
         String password = dataMap.getString("password");
         String to = dataMap.getString("to");
         String subject = dataMap.getString("subject");
-        String body = dataMap.getString("body");
+        String item = dataMap.getString("item");
+        String message = dataMap.getString("message");
 
-        HtmlEmail email = new HtmlEmail(from, password, to, subject, body);
+        PendingReminder reminder = new PendingReminder("email", ReminderRecipients.split(to),
+                                                       context.getScheduledFireTime().getTime(),
+                                                       item, message);
+        reminder.setEmailDetails(from, password, subject);
 
-        email.send();
+        ReminderDispatcher.getInstance().submit(reminder);
     }
 
 }  // end class HtmlEmailJob
@@ -0,0 +1,122 @@
+package com.vitareminder.reminders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A single reminder that has fired and is waiting in the {@code ReminderDispatcher}
+ * to be sent.  It is created by {@code HtmlEmailJob}, {@code TextMessageJob} and
+ * {@code VoiceMessageJob} from the parameters in their {@code JobDataMap}.  It is
+ * sent to every one of its recipients, i.e. the profile's own contact and any
+ * {@code ReminderRecipients}.
+ * <p>
+ * Reminders with the same channel and fire minute share a {@code getDigestKey()}.
+ * Each recipient is sent one digest of the reminders in the group that are
+ * addressed to them.
+ */
+public class PendingReminder
+{
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private String channel;
+    private List<String> recipients;
+    private long fireMinute;
+    private String item;
+    private String message;
+
+    // Only used by e-mail reminders
+    private String from;
+    private String password;
+    private String subject;
+
+
+    /**
+     * The constructor used for text message and automated voice reminders.
+     *
+     * @param channel  "email", "text" or "voice"
+     * @param recipients  the e-mail addresses or phone numbers that the reminder is sent to
+     * @param fireTime  the time that the reminder was scheduled to fire, in milliseconds
+     * @param item  the supplement being reminded about, e.g. "Vitamin C, 1000 mg"
+     * @param message  the complete message that is sent when no other reminder is
+     *                 due for the same recipient in the same minute
+     */
+    public PendingReminder(String channel, List<String> recipients, long fireTime,
+                           String item, String message)
+    {
+        this.channel = channel;
+        this.recipients = Collections.unmodifiableList(new ArrayList<>(recipients));
+        this.fireMinute = fireTime - (fireTime % MILLIS_PER_MINUTE);
+        this.item = item;
+        this.message = message;
+    }
+
+
+    /**
+     * Sets the sending account details that are only needed by e-mail reminders.
+     *
+     * @param from  the username of the sending Gmail account
+     * @param password  the password for the sending account
+     * @param subject  the e-mail subject
+     */
+    public void setEmailDetails(String from, String password, String subject)
+    {
+        this.from = from;
+        this.password = password;
+        this.subject = subject;
+    }
+
+
+    /**
+     * Gets the key that groups reminders into a digest, e.g.
+     * "text|1404558000000".
+     *
+     * @return the channel and fire minute joined into one {@code String}
+     */
+    public String getDigestKey()
+    {
+        return channel + "|" + fireMinute;
+    }
+
+    public String getChannel()
+    {
+        return channel;
+    }
+
+    public List<String> getRecipients()
+    {
+        return recipients;
+    }
+
+    public long getFireMinute()
+    {
+        return fireMinute;
+    }
+
+    public String getItem()
+    {
+        return item;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public String getFrom()
+    {
+        return from;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    public String getSubject()
+    {
+        return subject;
+    }
+
+}  // end class PendingReminder
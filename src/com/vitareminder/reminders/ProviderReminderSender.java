@@ -0,0 +1,120 @@
+package com.vitareminder.reminders;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Sends reminders through the real delivery providers: e-mail through Gmail
+ * using {@code HtmlEmail}, and text and voice messages through Tropo using
+ * {@code TextMessage} and {@code VoiceMessage}.  Each of these consults its
+ * channel's {@code DeliveryGuard} and sends on its own thread.
+ * <p>
+ * An e-mail goes to all of its recipients in one SMTP transaction, and so
+ * takes a single token from the rate limiter however many recipients it has.
+ * Tropo launches a session per phone number, so each number gets its own
+ * {@code TextMessage} or {@code VoiceMessage}.  These are launched in parallel,
+ * each waiting for its own token.
+ * <p>
+ * The send threads are kept until they finish, so that {@code awaitSends()}
+ * can wait for them when the application exits.
+ */
+public class ProviderReminderSender implements ReminderSender
+{
+    /** the threads that may still be sending, pruned whenever another is added */
+    private final List<Thread> sendThreads = new ArrayList<>();
+
+
+    @Override
+    public void sendEmail(String from, String password, List<String> to, String subject, String body)
+    {
+        track(new HtmlEmail(from, password, to, subject, body).send());
+    }
+
+
+    @Override
+    public void sendText(List<String> phoneNumbers, String message)
+    {
+        for (String phoneNumber : phoneNumbers)
+        {
+            track(new TextMessage(phoneNumber, message).send());
+        }
+    }
+
+
+    @Override
+    public void sendVoice(List<String> phoneNumbers, String message)
+    {
+        for (String phoneNumber : phoneNumbers)
+        {
+            track(new VoiceMessage(phoneNumber, message).send());
+        }
+    }
+
+
+    /**
+     * Waits for each send thread in turn until they have all finished or the
+     * time has run out.
+     */
+    @Override
+    public int awaitSends(long timeoutMillis)
+    {
+        List<Thread> threads;
+
+        synchronized (sendThreads)
+        {
+            threads = new ArrayList<>(sendThreads);
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        int unfinished = 0;
+
+        for (Thread thread : threads)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+
+            try
+            {
+                if (remaining > 0)
+                {
+                    thread.join(remaining);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if (thread.isAlive())
+            {
+                unfinished++;
+            }
+        }
+
+        return unfinished;
+    }
+
+
+    private void track(Thread thread)
+    {
+        if (thread == null)
+        {
+            return;  // The message could not be composed, and has already been reported
+        }
+
+        synchronized (sendThreads)
+        {
+            for (Iterator<Thread> it = sendThreads.iterator(); it.hasNext();)
+            {
+                if (!it.next().isAlive())
+                {
+                    it.remove();
+                }
+            }
+
+            sendThreads.add(thread);
+        }
+    }
+
+}  // end class ProviderReminderSender
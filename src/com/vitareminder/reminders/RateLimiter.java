@@ -0,0 +1,139 @@
+package com.vitareminder.reminders;
+
+
+/**
+ * A token bucket that limits how quickly reminders can be handed to a
+ * delivery provider.  The bucket holds at most {@code capacity} tokens and
+ * is refilled continuously at {@code refillPerMinute} tokens per minute.
+ * Every send takes one token.  When the bucket is empty, the sending thread
+ * waits until a token becomes available, up to a maximum wait time.
+ * <p>
+ * All reminders that are due at the same minute fire together, so without
+ * this limit a busy morning would reach the provider as a single burst.
+ */
+public class RateLimiter
+{
+    private final int capacity;
+    private final double tokensPerNano;
+
+    private double availableTokens;
+    private long lastRefillNanos;
+
+    private long acquiredCount = 0;
+    private long throttledCount = 0;
+    private long rejectedCount = 0;
+
+
+    /**
+     * The sole constructor.  The bucket starts out full.
+     *
+     * @param capacity  the maximum number of tokens, i.e. the largest burst allowed
+     * @param refillPerMinute  the number of tokens added to the bucket per minute
+     */
+    public RateLimiter(int capacity, int refillPerMinute)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = Math.max(1, refillPerMinute) / 60000000000.0;
+        this.availableTokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+
+    /**
+     * Takes a token from the bucket, waiting for one to become available if
+     * necessary.
+     *
+     * @param maxWaitMillis  the longest time to wait for a token
+     * @return <tt>true</tt> if a token was taken, <tt>false</tt> if no token became
+     *         available within {@code maxWaitMillis} or the thread was interrupted
+     */
+    public synchronized boolean acquire(long maxWaitMillis)
+    {
+        long deadline = System.nanoTime() + maxWaitMillis * 1000000L;
+        boolean throttled = false;
+
+        while (true)
+        {
+            refill();
+
+            if (availableTokens >= 1.0)
+            {
+                availableTokens -= 1.0;
+                acquiredCount++;
+
+                if (throttled)
+                {
+                    throttledCount++;
+                }
+
+                return true;
+            }
+
+            throttled = true;
+
+            long nanosUntilToken = (long) Math.ceil((1.0 - availableTokens) / tokensPerNano);
+            long nanosUntilDeadline = deadline - System.nanoTime();
+
+            if (nanosUntilDeadline <= 0 || nanosUntilToken > nanosUntilDeadline)
+            {
+                rejectedCount++;
+                return false;
+            }
+
+            try
+            {
+                // Waiting on this object releases the lock so that other
+                // senders can queue up behind us in the meantime.
+                long waitMillis = Math.max(1, nanosUntilToken / 1000000L);
+                wait(waitMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                rejectedCount++;
+                return false;
+            }
+        }
+    }
+
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        long elapsed = now - lastRefillNanos;
+
+        if (elapsed > 0)
+        {
+            availableTokens = Math.min(capacity, availableTokens + elapsed * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+
+
+    /**
+     * @return the number of tokens handed out since this limiter was created
+     */
+    public synchronized long getAcquiredCount()
+    {
+        return acquiredCount;
+    }
+
+
+    /**
+     * @return the number of sends that had to wait for a token
+     */
+    public synchronized long getThrottledCount()
+    {
+        return throttledCount;
+    }
+
+
+    /**
+     * @return the number of sends that gave up waiting for a token
+     */
+    public synchronized long getRejectedCount()
+    {
+        return rejectedCount;
+    }
+
+}  // end class RateLimiter
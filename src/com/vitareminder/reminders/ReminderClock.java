@@ -0,0 +1,28 @@
+package com.vitareminder.reminders;
+
+
+/**
+ * The source of the current time for the reminder engine.  The application
+ * uses {@code SYSTEM}, which reads the computer's clock.  The reminder replay
+ * tool uses a {@code SimulatedClock} instead, so that days of reminders can
+ * be fired in a few seconds.
+ */
+public interface ReminderClock
+{
+    /** the computer's clock */
+    ReminderClock SYSTEM = new ReminderClock() {
+
+        @Override
+        public long currentTimeMillis()
+        {
+            return System.currentTimeMillis();
+        }
+    };
+
+
+    /**
+     * @return the current time in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+}  // end interface ReminderClock
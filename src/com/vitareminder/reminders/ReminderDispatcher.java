@@ -0,0 +1,359 @@
+package com.vitareminder.reminders;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
+import com.vitareminder.reports.HtmlGenerator;
+
+
+/**
+ * Collects the reminders that fire at the same minute and sends them as
+ * digests.  Users commonly take several supplements at the same time, and
+ * without coalescing each of them would produce its own e-mail, text
+ * message and phone call.
+ * <p>
+ * The Quartz jobs hand each fired reminder to {@code submit()}.  The first
+ * reminder for a given channel and minute starts a short coalescing window
+ * (digest.windowSeconds in res/reminders/reminders.properties).  Every reminder
+ * with the same key that arrives within that window joins the group.
+ * <p>
+ * When the window closes, the group is fanned out to its recipients.  Each
+ * recipient is sent a single message covering the reminders addressed to
+ * them: the original message if there is one, or a digest listing every
+ * supplement otherwise.  Recipients who are due exactly the same reminders,
+ * such as a profile and its caregiver, are handed to the {@code ReminderSender}
+ * together, so that it can send them one message rather than one each.
+ */
+public class ReminderDispatcher
+{
+    private static final FlightEventType REMINDER_DIGEST_EVENT =
+            new FlightEventType("com.vitareminder.ReminderDigest", "Reminder Digest", "Reminders",
+                                "String channel", "int reminderCount", "int recipientCount",
+                                "boolean success");
+
+    private static ReminderDispatcher instance = null;
+
+    private final long windowMillis;
+    private final ReminderSender sender;
+    private final ScheduledExecutorService executor;
+    private final Map<String, List<PendingReminder>> pendingGroups = new HashMap<>();
+
+    private Logger logger = Logger.getLogger(ReminderDispatcher.class);
+
+
+    /**
+     * Creates a dispatcher with its own coalescing window and sender.  The
+     * application uses the shared dispatcher from {@code getInstance()}; this
+     * constructor is used by the reminder replay tool.
+     *
+     * @param windowMillis  how long the first reminder of a group waits for the others,
+     *                      or 0 if groups are only sent when {@code flushAll()} is called
+     * @param sender  delivers the composed messages
+     */
+    public ReminderDispatcher(long windowMillis, ReminderSender sender)
+    {
+        this.windowMillis = windowMillis;
+        this.sender = sender;
+
+        if (windowMillis <= 0)
+        {
+            executor = null;
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "ReminderDispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+
+    /**
+     * Gets the single dispatcher that is shared by all reminder jobs.
+     *
+     * @return the {@code ReminderDispatcher}
+     */
+    public static synchronized ReminderDispatcher getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new ReminderDispatcher(ReminderProperties.getInt("digest.windowSeconds", 5) * 1000L,
+                                              new ProviderReminderSender());
+        }
+
+        return instance;
+    }
+
+
+    /**
+     * Adds a fired reminder to its digest group, starting the group's
+     * coalescing window if it is the first reminder in the group.
+     *
+     * @param reminder  the reminder that has just fired
+     */
+    public void submit(PendingReminder reminder)
+    {
+        final String key = reminder.getDigestKey();
+        boolean newGroup = false;
+
+        synchronized (pendingGroups)
+        {
+            List<PendingReminder> group = pendingGroups.get(key);
+
+            if (group == null)
+            {
+                group = new ArrayList<>();
+                pendingGroups.put(key, group);
+                newGroup = true;
+            }
+
+            group.add(reminder);
+        }
+
+        if (newGroup && executor != null)
+        {
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run()
+                {
+                    flush(key);
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    /**
+     * Sends every group that is still waiting for its window to close,
+     * without waiting for the sends to finish.
+     */
+    public void flushAll()
+    {
+        List<String> keys;
+
+        synchronized (pendingGroups)
+        {
+            keys = new ArrayList<>(pendingGroups.keySet());
+        }
+
+        for (String key : keys)
+        {
+            flush(key);
+        }
+    }
+
+
+    /**
+     * Sends every group that is still waiting, as {@code flushAll()} does, and
+     * then waits for the sender to finish sending them and any earlier groups.
+     * Called by {@code ReminderManager#shutdownScheduler()}, since the JVM halts
+     * as soon as the shutdown hooks return.
+     *
+     * @param timeoutMillis  the longest time to wait for the sends to finish
+     * @return the number of sends still in progress when the time ran out
+     */
+    public int flushAllAndWait(long timeoutMillis)
+    {
+        flushAll();
+
+        return sender.awaitSends(timeoutMillis);
+    }
+
+
+    private void flush(String key)
+    {
+        List<PendingReminder> group;
+
+        synchronized (pendingGroups)
+        {
+            group = pendingGroups.remove(key);
+        }
+
+        if (group == null || group.isEmpty())
+        {
+            return;
+        }
+
+        Map<List<PendingReminder>, List<String>> recipientsByReminders = groupByRecipients(group);
+
+        FlightEvent event = REMINDER_DIGEST_EVENT.begin()
+                                                 .set("channel", group.get(0).getChannel())
+                                                 .set("reminderCount", group.size());
+
+        try
+        {
+            int recipientCount = 0;
+
+            for (Map.Entry<List<PendingReminder>, List<String>> entry : recipientsByReminders.entrySet())
+            {
+                send(entry.getKey(), entry.getValue());
+                recipientCount += entry.getValue().size();
+            }
+
+            event.set("recipientCount", recipientCount);
+            event.set("success", true);
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("An error has occurred while sending a reminder digest.", e);
+        }
+        finally
+        {
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Works out which reminders in a group are due to each recipient, and then
+     * gathers together the recipients who are due the same reminders.  A
+     * recipient who is written in different ways, e.g. with and without
+     * punctuation in a phone number, is only counted once.
+     *
+     * @param group  the reminders of one channel that fired in the same minute
+     * @return the recipients of each distinct set of reminders, in the order that
+     *         the reminders and recipients were first seen
+     */
+    private Map<List<PendingReminder>, List<String>> groupByRecipients(List<PendingReminder> group)
+    {
+        String channel = group.get(0).getChannel();
+
+        Map<String, String> recipients = new LinkedHashMap<>();
+        Map<String, List<PendingReminder>> remindersByRecipient = new LinkedHashMap<>();
+
+        for (PendingReminder reminder : group)
+        {
+            for (String recipient : reminder.getRecipients())
+            {
+                String key = ReminderRecipients.normalize(channel, recipient);
+
+                List<PendingReminder> reminders = remindersByRecipient.get(key);
+
+                if (reminders == null)
+                {
+                    reminders = new ArrayList<>();
+                    remindersByRecipient.put(key, reminders);
+                    recipients.put(key, recipient);
+                }
+
+                if (!reminders.contains(reminder))
+                {
+                    reminders.add(reminder);
+                }
+            }
+        }
+
+        // PendingReminder does not override equals(), so these lists are equal
+        // only if they hold the very same reminders in the same order.
+        Map<List<PendingReminder>, List<String>> recipientsByReminders = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<PendingReminder>> entry : remindersByRecipient.entrySet())
+        {
+            List<String> sameRecipients = recipientsByReminders.get(entry.getValue());
+
+            if (sameRecipients == null)
+            {
+                sameRecipients = new ArrayList<>();
+                recipientsByReminders.put(entry.getValue(), sameRecipients);
+            }
+
+            sameRecipients.add(recipients.get(entry.getKey()));
+        }
+
+        return recipientsByReminders;
+    }
+
+
+    private void send(List<PendingReminder> group, List<String> recipients)
+    {
+        PendingReminder first = group.get(0);
+        String channel = first.getChannel();
+
+        if (group.size() > 1)
+        {
+            logger.info("Coalesced " + group.size() + " " + channel + " reminders into one digest for "
+                      + recipients.size() + (recipients.size() == 1 ? " recipient." : " recipients."));
+        }
+
+        if (channel.equals("email"))
+        {
+            String body;
+
+            if (group.size() == 1)
+            {
+                body = HtmlGenerator.getHtmlForEmail(first.getMessage());
+            }
+            else
+            {
+                body = HtmlGenerator.getHtmlForEmailDigest("This is a reminder to take:", getItems(group));
+            }
+
+            sender.sendEmail(first.getFrom(), first.getPassword(), recipients, first.getSubject(), body);
+        }
+        else if (channel.equals("text"))
+        {
+            String message = group.size() == 1 ? first.getMessage()
+                                               : "This is a reminder to take: " + joinItems(group, "; ");
+
+            sender.sendText(recipients, message);
+        }
+        else if (channel.equals("voice"))
+        {
+            String message = group.size() == 1 ? first.getMessage()
+                                               : "Hello, this is a reminder to take the following. "
+                                               + joinItems(group, ". ") + ".";
+
+            sender.sendVoice(recipients, message);
+        }
+    }
+
+
+    private List<String> getItems(List<PendingReminder> group)
+    {
+        List<String> items = new ArrayList<>(group.size());
+
+        for (PendingReminder reminder : group)
+        {
+            items.add(reminder.getItem());
+        }
+
+        return items;
+    }
+
+
+    private String joinItems(List<PendingReminder> group, String separator)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (PendingReminder reminder : group)
+        {
+            if (builder.length() > 0)
+            {
+                builder.append(separator);
+            }
+
+            builder.append(reminder.getItem());
+        }
+
+        return builder.toString();
+    }
+
+}  // end class ReminderDispatcher
@@ -0,0 +1,68 @@
+package com.vitareminder.reminders;
+
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
+
+
+/**
+ * Records a Java Flight Recorder event for each execution of a reminder job,
+ * covering the time from just before the job starts until it finishes.  It is
+ * added to the scheduler by {@code ReminderManager}.  Quartz calls both methods
+ * on the thread that executes the job, so the event is simply carried in the
+ * job's {@code JobExecutionContext}.
+ */
+class ReminderJobEventListener implements JobListener
+{
+    private static final FlightEventType REMINDER_JOB_EVENT =
+            new FlightEventType("com.vitareminder.ReminderJob", "Reminder Job", "Reminders",
+                                "String jobName", "String jobGroup", "long fireLagMillis", "boolean success");
+
+    private static final String EVENT_KEY = "flightEvent";
+
+
+    @Override
+    public String getName()
+    {
+        return "ReminderJobEventListener";
+    }
+
+
+    @Override
+    public void jobToBeExecuted(JobExecutionContext context)
+    {
+        long fireLagMillis = context.getScheduledFireTime() == null
+                           ? 0
+                           : context.getFireTime().getTime() - context.getScheduledFireTime().getTime();
+
+        FlightEvent event = REMINDER_JOB_EVENT.begin()
+                                              .set("jobName", context.getJobDetail().getKey().getName())
+                                              .set("jobGroup", context.getJobDetail().getKey().getGroup())
+                                              .set("fireLagMillis", fireLagMillis);
+
+        context.put(EVENT_KEY, event);
+    }
+
+
+    @Override
+    public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException)
+    {
+        FlightEvent event = (FlightEvent) context.get(EVENT_KEY);
+
+        if (event != null)
+        {
+            event.set("success", jobException == null).commit();
+        }
+    }
+
+
+    @Override
+    public void jobExecutionVetoed(JobExecutionContext context)
+    {
+
+    }
+
+}  // end class ReminderJobEventListener
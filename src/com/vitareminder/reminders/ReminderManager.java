@@ -1,12 +1,11 @@
 package com.vitareminder.reminders;
 
-import static org.quartz.CronScheduleBuilder.dailyAtHourAndMinute;
 import static org.quartz.JobBuilder.newJob;
 import static org.quartz.JobKey.jobKey;
-import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.prefs.Preferences;
 
 import javax.swing.JOptionPane;
 
@@ -20,41 +19,71 @@ import org.quartz.Trigger;
 import org.quartz.impl.StdSchedulerFactory;
 import org.quartz.impl.matchers.GroupMatcher;
 
+import com.vitareminder.business.Profile;
 import com.vitareminder.business.Supplement;
 import com.vitareminder.dao.DAOManager;
-import com.vitareminder.reports.HtmlGenerator;
+import com.vitareminder.metrics.MetricsRegistry;
+import com.vitareminder.settings.ProfileSettings;
+import com.vitareminder.settings.SettingsStore;
 
 
 /**
  * Centrally handles the loading and unloading of all reminders, which
  * are implemented as Quartz jobs.  The static imports are necessary to
- * use the job and trigger builders in Quartz's DSL style.
+ * use the job builder in Quartz's DSL style.  The times at which each job
+ * fires are worked out from the supplement's time and {@code Recurrence} by
+ * the {@code FireTimeSchedule}, which handles time zones and daylight saving
+ * time.
+ * <p>
+ * The reminders of every profile are scheduled on the same scheduler, and
+ * are sent through the same transports, each to the address and phone number
+ * in its own profile's settings, and to any {@code ReminderRecipients} of the
+ * supplement or its regimen.  Each job records the {@code profileID} of
+ * its profile in its job data, so that one profile's reminders can be
+ * removed without touching the others'.
  */
 public class ReminderManager
 {
     private DAOManager daoManager;
     private List<Supplement> remindersFromDB = null;
     private Scheduler scheduler;
-    private Preferences userPreferences;
+    private SettingsStore settingsStore;
+    private ReminderClock clock;
 
     private Logger logger = Logger.getLogger(ReminderManager.class);
 
 
     /**
-     * The sole constructor.  Points Quartz to the quartz.properties file for
-     * proper initialization.  Creates and starts the scheduler.  A single
-     * instance of {@code ReminderManager} is created in {@code VitaReminderApp}.
+     * Creates a {@code ReminderManager} that schedules reminders from the
+     * computer's clock.  A single instance of {@code ReminderManager} is
+     * created in {@code VitaReminderApp}.
      *
      * @param daoManager  used to access the DAO layer in retrieving the {@code Supplement}s
      *                    from the database that have reminders set on them
      */
     public ReminderManager(DAOManager daoManager)
+    {
+        this(daoManager, ReminderClock.SYSTEM);
+    }
+
+
+    /**
+     * Points Quartz to the quartz.properties file for proper initialization.
+     * Creates and starts the scheduler.
+     *
+     * @param daoManager  used to access the DAO layer in retrieving the {@code Supplement}s
+     *                    from the database that have reminders set on them
+     * @param clock  the source of the current time, from which each reminder's first
+     *               fire time is worked out
+     */
+    public ReminderManager(DAOManager daoManager, ReminderClock clock)
     {
         System.setProperty("org.quartz.properties", "res/quartz/quartz.properties");
 
         this.daoManager = daoManager;
+        this.clock = clock;
 
-        userPreferences = Preferences.userRoot();
+        settingsStore = daoManager.getSettingsStore();
 
         try
         {
@@ -62,6 +91,9 @@ public class ReminderManager
             scheduler = schedulerFactory.getScheduler();
             scheduler.start();
 
+            scheduler.getListenerManager().addJobListener(new ReminderJobEventListener());
+            MetricsRegistry.getInstance().registerScheduler(scheduler);
+
             logger.info("Quartz Scheduler started.");
         }
         catch (SchedulerException e)
@@ -78,47 +110,23 @@ public class ReminderManager
     /**
      * Called on application startup from {@code VitaReminder} to load all
      * {@code Supplement}s from the database that have reminders set on them,
-     * and to create a new Quartz job for each one.  A reminder for a particular
-     * {@code Supplement} is only loaded provided that the user has this type
-     * of reminder globally enabled in {@code ConfigureRemindersDialog}, and the
-     * relevant contact method (e-mail or phone) has been verified.
+     * for every profile, and to create a new Quartz job for each one.  A reminder
+     * for a particular {@code Supplement} is only loaded provided that its profile
+     * has this type of reminder globally enabled in {@code ConfigureRemindersDialog},
+     * and the relevant contact method (e-mail or phone) has been verified.
+     * Also called after a backup has been imported.
      */
     public void loadStartupReminders()
     {
         logger.info("Loading startup reminders ...");
 
-        // Grab preferences from the current OS's backing store.
-        // This should be the registry in Windows,
-        // ~/Library/Preferences/com.apple.java.util.prefs.plist in OS X, and
-        // ~/.java/.userPrefs/ in Linux.
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-        boolean emailVerified = userPreferences.getBoolean("EMAIL_VERIFIED", false);
-        boolean phoneVerified = userPreferences.getBoolean("PHONE_VERIFIED", false);
-
-        if (emailRemindersEnabled)
+        for (Profile profile : settingsStore.getProfiles())
         {
-            if (emailVerified)
-            {
-                loadAllReminders("email");
-            }
-        }
-
-        if (textRemindersEnabled)
-        {
-            if (phoneVerified)
-            {
-                loadAllReminders("text");
-            }
-        }
+            ProfileSettings settings = settingsStore.getSettings(profile.getProfileID());
 
-        if (voiceRemindersEnabled)
-        {
-            if (phoneVerified)
-            {
-                loadAllReminders("voice");
-            }
+            loadAllReminders("email", settings);
+            loadAllReminders("text", settings);
+            loadAllReminders("voice", settings);
         }
 
         logger.info("Startup reminders successfully loaded.");
@@ -126,7 +134,8 @@ public class ReminderManager
 
 
     /**
-     * Loads all reminders from the database of the specified type.
+     * Loads all of the active profile's reminders from the database of the
+     * specified type.
      * <p>
      * Called from {@code ConfigureRemindersDialog} when the user
      * enables all reminders of a certain type.
@@ -135,13 +144,42 @@ public class ReminderManager
      */
     public void loadAllReminders(String type)
     {
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-        boolean emailVerified = userPreferences.getBoolean("EMAIL_VERIFIED", false);
-        boolean phoneVerified = userPreferences.getBoolean("PHONE_VERIFIED", false);
+        loadAllReminders(type, settingsStore.getSettings());
+    }
+
+
+    /**
+     * Loads all of the specified profile's reminders from the database of the
+     * specified type, provided that the profile has this type of reminder
+     * enabled and the relevant contact method verified.
+     *
+     * @param type  the type of reminder ("email", "text" or "voice")
+     * @param settings  the settings of the profile whose reminders are loaded
+     */
+    private void loadAllReminders(String type, ProfileSettings settings)
+    {
+        boolean emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        boolean textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        boolean voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
+        boolean emailVerified = settings.getBoolean("EMAIL_VERIFIED", false);
+        boolean phoneVerified = settings.getBoolean("PHONE_VERIFIED", false);
+
+        if (type.equals("email") && !(emailRemindersEnabled && emailVerified))
+        {
+            return;
+        }
+
+        if (type.equals("text") && !(textRemindersEnabled && phoneVerified))
+        {
+            return;
+        }
 
-        remindersFromDB = daoManager.getSupplementDAO().getSupplementsWithReminders();
+        if (type.equals("voice") && !(voiceRemindersEnabled && phoneVerified))
+        {
+            return;
+        }
+
+        remindersFromDB = daoManager.getSupplementDAO().getSupplementsWithReminders(settings.getProfileID());
 
         if (remindersFromDB != null)
         {
@@ -149,34 +187,19 @@ public class ReminderManager
             {
                 Supplement supplement = remindersFromDB.get(i);
 
-                if (type.equals("email"))
+                if (type.equals("email") && supplement.getEmailEnabled())
                 {
-                    if (supplement.getEmailEnabled() &&
-                        emailRemindersEnabled &&
-                        emailVerified)
-                    {
-                        loadEmailReminder(supplement);
-                    }
+                    loadEmailReminder(supplement, settings);
                 }
 
-                if (type.equals("text"))
+                if (type.equals("text") && supplement.getTextEnabled())
                 {
-                    if (supplement.getTextEnabled() &&
-                        textRemindersEnabled &&
-                        phoneVerified)
-                    {
-                        loadTextReminder(supplement);
-                    }
+                    loadTextReminder(supplement, settings);
                 }
 
-                if (type.equals("voice"))
+                if (type.equals("voice") && supplement.getVoiceEnabled())
                 {
-                    if (supplement.getVoiceEnabled() &&
-                        voiceRemindersEnabled &&
-                        phoneVerified)
-                    {
-                        loadVoiceReminder(supplement);
-                    }
+                    loadVoiceReminder(supplement, settings);
                 }
             }
         }
@@ -204,28 +227,36 @@ public class ReminderManager
      * {@code VitaReminderPanel#editSupplement()}.
      *
      * @param supplement  the supplement for which the e-mail reminder
-     *                    is being scheduled
+     *                    is being scheduled, which belongs to the active profile
      */
     public void loadEmailReminder(Supplement supplement)
     {
-        String emailAddress = userPreferences.get("EMAIL_ADDRESS", "");
+        loadEmailReminder(supplement, settingsStore.getSettings());
+    }
+
+
+    /**
+     * Loads an e-mail reminder that is sent to the e-mail address in the
+     * specified profile's settings, and to the supplement's other recipients.
+     *
+     * @param supplement  the supplement for which the e-mail reminder
+     *                    is being scheduled
+     * @param settings  the settings of the profile that the supplement belongs to
+     */
+    private void loadEmailReminder(Supplement supplement, ProfileSettings settings)
+    {
+        List<String> emailAddresses = new ReminderRecipients(settings).getRecipients(
+                supplement, "email", settings.get("EMAIL_ADDRESS", ""));
 
         String jobName = supplement.getJobName();  // "suppID_1_job"
         String groupName = "email_group";
         String from = System.getenv("VITAREMINDER_EMAIL_NAME");
         String password = System.getenv("VITAREMINDER_EMAIL_PASSWORD");
-        String to = emailAddress;
+        String to = ReminderRecipients.join(emailAddresses);
         String subject = "VitaReminder";
 
-        String message = "This is a reminder to take: "
-                       + supplement.getSuppName() + ", "
-                       + supplement.getFormattedAmount() + " "
-                       + supplement.getSuppUnits();
-
-        String body = HtmlGenerator.getHtmlForEmail(message);
-
-        int hour = supplement.getScheduledHourOfDay();
-        int minute = supplement.getScheduledMinute();
+        String item = getReminderItem(supplement);
+        String message = "This is a reminder to take: " + item;
 
         JobDetail job = newJob(HtmlEmailJob.class)
                 .withIdentity(jobName, groupName)
@@ -233,12 +264,17 @@ public class ReminderManager
                 .usingJobData("password", password)
                 .usingJobData("to", to)
                 .usingJobData("subject", subject)
-                .usingJobData("body", body)
+                .usingJobData("item", item)
+                .usingJobData("message", message)
+                .usingJobData("profileID", settings.getProfileID())
                 .build();
 
-        Trigger trigger = newTrigger()
-                .withSchedule(dailyAtHourAndMinute(hour, minute))
-                .build();
+        Trigger trigger = newFirstTrigger(job, supplement);
+
+        if (trigger == null)
+        {
+            return;
+        }
 
         // Schedule the job
         try
@@ -277,32 +313,46 @@ public class ReminderManager
      * {@code VitaReminderPanel#editSupplement()}.
      *
      * @param supplement  the supplement for which the text message reminder
-     *                    is being scheduled
+     *                    is being scheduled, which belongs to the active profile
      */
     public void loadTextReminder(Supplement supplement)
+    {
+        loadTextReminder(supplement, settingsStore.getSettings());
+    }
+
+
+    /**
+     * Loads a text message reminder that is sent to the phone number in the
+     * specified profile's settings, and to the supplement's other recipients.
+     *
+     * @param supplement  the supplement for which the text message reminder
+     *                    is being scheduled
+     * @param settings  the settings of the profile that the supplement belongs to
+     */
+    private void loadTextReminder(Supplement supplement, ProfileSettings settings)
     {
         String jobName = supplement.getJobName();  // "suppID_1_job"
         String groupName = "text_group";
-        String phoneNumber = userPreferences.get("PHONE_NUMBER", "");
+        List<String> phoneNumbers = new ReminderRecipients(settings).getRecipients(
+                supplement, "text", settings.get("PHONE_NUMBER", ""));
 
-        String amountString = supplement.getFormattedAmount();
-        String message = "This is a reminder to take "
-                       + supplement.getSuppName() + ", "
-                       + amountString + " "
-                       + supplement.getSuppUnits();
-
-        int hour = supplement.getScheduledHourOfDay();
-        int minute = supplement.getScheduledMinute();
+        String item = getReminderItem(supplement);
+        String message = "This is a reminder to take " + item;
 
         JobDetail job = newJob(TextMessageJob.class)
                 .withIdentity(jobName, groupName)
-                .usingJobData("phoneNumber", phoneNumber)
+                .usingJobData("phoneNumbers", ReminderRecipients.join(phoneNumbers))
+                .usingJobData("item", item)
                 .usingJobData("message", message)
+                .usingJobData("profileID", settings.getProfileID())
                 .build();
 
-        Trigger trigger = newTrigger()
-                .withSchedule(dailyAtHourAndMinute(hour, minute))
-                .build();
+        Trigger trigger = newFirstTrigger(job, supplement);
+
+        if (trigger == null)
+        {
+            return;
+        }
 
         // Schedule the job
         try
@@ -341,32 +391,46 @@ public class ReminderManager
      * {@code VitaReminderPanel#editSupplement()}.
      *
      * @param supplement  the supplement for which the automated voice reminder
-     *                    is being scheduled
+     *                    is being scheduled, which belongs to the active profile
      */
     public void loadVoiceReminder(Supplement supplement)
+    {
+        loadVoiceReminder(supplement, settingsStore.getSettings());
+    }
+
+
+    /**
+     * Loads an automated voice reminder that calls the phone number in the
+     * specified profile's settings, and the supplement's other recipients.
+     *
+     * @param supplement  the supplement for which the automated voice reminder
+     *                    is being scheduled
+     * @param settings  the settings of the profile that the supplement belongs to
+     */
+    private void loadVoiceReminder(Supplement supplement, ProfileSettings settings)
     {
         String jobName = supplement.getJobName();  // "suppID_1_job"
         String groupName = "voice_group";
-        String phoneNumber = userPreferences.get("PHONE_NUMBER", "");
-
-        String amountString = supplement.getFormattedAmount();
-        String message = "Hello, this is a reminder to take "
-                       + supplement.getSuppName() + ", "
-                       + amountString + " "
-                       + supplement.getSuppUnits();
+        List<String> phoneNumbers = new ReminderRecipients(settings).getRecipients(
+                supplement, "voice", settings.get("PHONE_NUMBER", ""));
 
-        int hour = supplement.getScheduledHourOfDay();
-        int minute = supplement.getScheduledMinute();
+        String item = getReminderItem(supplement);
+        String message = "Hello, this is a reminder to take " + item;
 
         JobDetail job = newJob(VoiceMessageJob.class)
                 .withIdentity(jobName, groupName)
-                .usingJobData("phoneNumber", phoneNumber)
+                .usingJobData("phoneNumbers", ReminderRecipients.join(phoneNumbers))
+                .usingJobData("item", item)
                 .usingJobData("message", message)
+                .usingJobData("profileID", settings.getProfileID())
                 .build();
 
-        Trigger trigger = newTrigger()
-                .withSchedule(dailyAtHourAndMinute(hour, minute))
-                .build();
+        Trigger trigger = newFirstTrigger(job, supplement);
+
+        if (trigger == null)
+        {
+            return;
+        }
 
         // Schedule the job
         try
@@ -384,6 +448,50 @@ public class ReminderManager
     }
 
 
+    /**
+     * Precomputes the fire times of a reminder from its supplement's time and
+     * recurrence, and creates a trigger for the first of them.
+     *
+     * @param job  the reminder's Quartz job
+     * @param supplement  the supplement being reminded about
+     * @return the trigger, or <tt>null</tt> if the supplement's recurrence has
+     *         ended, e.g. a taper that is over, in which case the job is not scheduled
+     */
+    private Trigger newFirstTrigger(JobDetail job, Supplement supplement)
+    {
+        CompiledSchedule schedule = CompiledSchedule.compile(supplement.getRecurrence(),
+                                                             supplement.getScheduledHourOfDay(),
+                                                             supplement.getScheduledMinute());
+
+        Trigger trigger = FireTimeSchedule.getInstance().newFirstTrigger(job.getKey(), schedule,
+                                                                         clock.currentTimeMillis());
+
+        if (trigger == null)
+        {
+            logger.info("Not scheduling " + job.getKey() + ", since its recurrence \""
+                        + supplement.getRecurrence().getDescription() + "\" has ended.");
+        }
+
+        return trigger;
+    }
+
+
+    /**
+     * Gets the description of a supplement that is used in its reminder
+     * messages, and that is listed in a digest when several reminders
+     * are due at the same time, e.g. "Vitamin C, 1000 mg".
+     *
+     * @param supplement  the supplement being reminded about
+     * @return the supplement's name, amount and units
+     */
+    private String getReminderItem(Supplement supplement)
+    {
+        return supplement.getSuppName() + ", "
+             + supplement.getFormattedAmount() + " "
+             + supplement.getSuppUnits();
+    }
+
+
     /**
      * Removes the specified reminder (Quartz job) with the specified
      * supplement ID and type.
@@ -407,6 +515,8 @@ public class ReminderManager
         String jobName = "suppID_" + suppID + "_job";
         String groupName = type + "_group";
 
+        FireTimeSchedule.getInstance().remove(jobKey(jobName, groupName));
+
         try
         {
             // Delete the job and all of its triggers
@@ -424,7 +534,51 @@ public class ReminderManager
 
 
     /**
-     * Removes all active reminders (Quartz jobs) of the specified type.
+     * Removes every type of reminder (Quartz job) for each of the specified
+     * supplements, in a single call to the scheduler.  Jobs that do not exist
+     * are ignored.  Called by {@code VitaReminderPanel} when regimens are
+     * deleted, taking all of their supplements with them.
+     *
+     * @param suppIDs  the supplement IDs of the supplements whose reminders
+     *                 should be removed
+     */
+    public void unloadReminders(Collection<Integer> suppIDs)
+    {
+        List<JobKey> jobKeys = new ArrayList<>(suppIDs.size() * 3);
+
+        for (int suppID : suppIDs)
+        {
+            String jobName = "suppID_" + suppID + "_job";
+
+            jobKeys.add(jobKey(jobName, "email_group"));
+            jobKeys.add(jobKey(jobName, "text_group"));
+            jobKeys.add(jobKey(jobName, "voice_group"));
+        }
+
+        for (JobKey key : jobKeys)
+        {
+            FireTimeSchedule.getInstance().remove(key);
+        }
+
+        try
+        {
+            // Delete the jobs and all of their triggers
+            scheduler.deleteJobs(jobKeys);
+        }
+        catch (SchedulerException e)
+        {
+            logger.warn("An exception has occurred while attempting to delete a job.", e);
+            JOptionPane.showMessageDialog(null,
+                                          "Sorry, an error has occurred while attempting to delete a job.",
+                                          "Scheduler Error",
+                                          JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+
+    /**
+     * Removes all of the active profile's reminders (Quartz jobs) of the
+     * specified type.  The other profiles' reminders are left scheduled.
      * Called by {@code ConfigureRemindersDialog} when the user globally
      * disables reminders of a specific type.
      * <p>
@@ -439,19 +593,55 @@ public class ReminderManager
      */
     public void unloadActiveReminders(String type)
     {
-        String jobName = "";
+        unloadReminders(type, settingsStore.getActiveProfileID());
+    }
+
+
+    /**
+     * Removes the reminders (Quartz jobs) of every profile.  Called by
+     * {@code VitaReminderFrame} when a backup has been imported, since the
+     * backup replaces the regimens of every profile.
+     */
+    public void unloadAllReminders()
+    {
+        unloadReminders("email", 0);
+        unloadReminders("text", 0);
+        unloadReminders("voice", 0);
+    }
+
 
+    /**
+     * Removes the reminders (Quartz jobs) of the specified type that belong
+     * to the specified profile.
+     *
+     * @param type  the type of reminder to remove
+     * @param profileID  the profile whose reminders are removed, or 0 for every profile
+     */
+    private void unloadReminders(String type, int profileID)
+    {
         String groupName = type + "_group";
 
         try
         {
-            for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.jobGroupEquals(groupName)))
+            List<JobKey> jobKeys = new ArrayList<>();
+
+            for (JobKey key : scheduler.getJobKeys(GroupMatcher.jobGroupEquals(groupName)))
             {
-                jobName = jobKey.getName();
+                JobDetail job = scheduler.getJobDetail(key);
 
-                // Delete the job and all of its triggers
-                scheduler.deleteJob(jobKey(jobName, groupName));
+                if (profileID == 0 || (job != null && job.getJobDataMap().getInt("profileID") == profileID))
+                {
+                    jobKeys.add(key);
+                }
             }
+
+            for (JobKey key : jobKeys)
+            {
+                FireTimeSchedule.getInstance().remove(key);
+            }
+
+            // Delete the jobs and all of their triggers
+            scheduler.deleteJobs(jobKeys);
         }
         catch (SchedulerException e)
         {
@@ -466,7 +656,12 @@ public class ReminderManager
 
     /**
      * Shuts down Quartz Scheduler.  It shuts down immediately, and does
-     * not wait for any currently executing jobs to finish.
+     * not wait for any currently executing jobs to finish.  Any reminders
+     * still waiting in the {@code ReminderDispatcher}'s coalescing window are
+     * sent, and the sends in progress are given up to digest.shutdownWaitSeconds
+     * to finish; any that have not finished by then are logged as possibly
+     * undelivered.  The delivery metrics of each channel's {@code DeliveryGuard}
+     * are then written to the log.
      * <p>
      * Called by the shutdown hook in {@code VitaReminderApp}.
      */
@@ -477,6 +672,20 @@ public class ReminderManager
             scheduler.shutdown(false);  // false = do not wait for executing jobs to finish
 
             logger.info("Quartz Scheduler shut down.");
+
+            long waitMillis = ReminderProperties.getInt("digest.shutdownWaitSeconds", 10) * 1000L;
+            int unfinished = ReminderDispatcher.getInstance().flushAllAndWait(waitMillis);
+
+            if (unfinished > 0)
+            {
+                logger.warn(unfinished + (unfinished == 1 ? " reminder was" : " reminders were")
+                          + " still being sent at exit, and may not have been delivered.");
+            }
+
+            for (DeliveryGuard guard : DeliveryGuard.getGuards())
+            {
+                logger.info("Delivery metrics for " + guard);
+            }
         }
         catch (SchedulerException e)
         {
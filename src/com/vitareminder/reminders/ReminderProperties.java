@@ -0,0 +1,144 @@
+package com.vitareminder.reminders;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Provides read-only access to the settings in the res/reminders/reminders.properties
+ * file, in the same way that Quartz reads res/quartz/quartz.properties.  The file is
+ * read once, the first time any setting is requested.  If the file is missing or a
+ * value cannot be parsed, the supplied default is used so that reminders keep working
+ * with sensible limits.
+ * <p>
+ * Individual settings can be overridden in memory with {@code setOverride()}.
+ * This is used by the load test in {@code com.vitareminder.tools}, which points
+ * the providers at local stand-in servers and lifts the delivery limits.
+ */
+public class ReminderProperties
+{
+    private static final String PROPERTIES_FILE = "res/reminders/reminders.properties";
+
+    private static Properties properties = null;
+    private static final Properties overrides = new Properties();
+
+    private static Logger logger = Logger.getLogger(ReminderProperties.class);
+
+
+    private ReminderProperties()
+    {
+
+    }
+
+
+    /**
+     * Gets the value of the specified key as a {@code String}.
+     *
+     * @param key  the property key, e.g. "delivery.email.capacity"
+     * @param defaultValue  the value to return if the key is not present
+     * @return the trimmed property value, or {@code defaultValue}
+     */
+    public static String getString(String key, String defaultValue)
+    {
+        String value;
+
+        synchronized (overrides)
+        {
+            value = overrides.getProperty(key);
+        }
+
+        if (value == null)
+        {
+            value = getProperties().getProperty(key);
+        }
+
+        return value == null ? defaultValue : value.trim();
+    }
+
+
+    /**
+     * Gets the value of the specified key as an {@code int}.
+     *
+     * @param key  the property key
+     * @param defaultValue  the value to return if the key is not present or is not a number
+     * @return the property value, or {@code defaultValue}
+     */
+    public static int getInt(String key, int defaultValue)
+    {
+        String value = getString(key, null);
+
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            logger.warn("Invalid value for " + key + " in " + PROPERTIES_FILE + ": " + value);
+            return defaultValue;
+        }
+    }
+
+
+    /**
+     * Replaces the value of the specified key for the rest of this run, without
+     * changing the file.  Settings that have already been read, such as those of
+     * a {@code DeliveryGuard} that has been created, are not affected.
+     *
+     * @param key  the property key
+     * @param value  the new value
+     */
+    public static void setOverride(String key, String value)
+    {
+        synchronized (overrides)
+        {
+            overrides.setProperty(key, value);
+        }
+    }
+
+
+    private static synchronized Properties getProperties()
+    {
+        if (properties == null)
+        {
+            properties = new Properties();
+
+            InputStream inputStream = null;
+
+            try
+            {
+                inputStream = new FileInputStream(PROPERTIES_FILE);
+                properties.load(inputStream);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to read " + PROPERTIES_FILE + ", using default reminder settings.", e);
+            }
+            finally
+            {
+                if (inputStream != null)
+                {
+                    try
+                    {
+                        inputStream.close();
+                    }
+                    catch (IOException e)
+                    {
+                        logger.warn("A file I/O error has occurred.", e);
+                    }
+                }
+            }
+        }
+
+        return properties;
+    }
+
+}  // end class ReminderProperties
@@ -0,0 +1,263 @@
+package com.vitareminder.reminders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.vitareminder.business.Supplement;
+import com.vitareminder.settings.ProfileSettings;
+
+
+/**
+ * The people who are sent a profile's reminders as well as the profile's
+ * own e-mail address and phone number, e.g. a caregiver.  Recipients can be
+ * added to a regimen, in which case they are sent the reminders for every
+ * supplement in it, or to a single supplement.  Each channel has its own
+ * list: e-mail addresses for "email", and phone numbers for "text" and
+ * "voice", so a caregiver can be sent texts without also being called.
+ * <p>
+ * The lists are kept in the profile's settings, under keys of the form
+ * RECIPIENTS.text.regimen.12, with the recipients separated by commas.  Like
+ * the rest of the settings, they are saved as soon as they are changed.
+ * <p>
+ * The recipients of a reminder are worked out when its Quartz job is
+ * scheduled by {@code ReminderManager}, and are kept in the job's
+ * {@code JobDataMap} as a single comma-separated {@code String}.
+ */
+public class ReminderRecipients
+{
+    /** the channels that recipients can be added to, in the order they are shown */
+    public static final String[] CHANNELS = {"email", "text", "voice"};
+
+    private static final String KEY_PREFIX = "RECIPIENTS.";
+
+    private ProfileSettings settings;
+
+
+    /**
+     * The sole constructor.
+     *
+     * @param settings  the settings of the profile whose recipients are read and written
+     */
+    public ReminderRecipients(ProfileSettings settings)
+    {
+        this.settings = settings;
+    }
+
+
+    /**
+     * Gets the extra recipients of every reminder for the supplements in the
+     * specified regimen.
+     *
+     * @param regimenID  the ID of the regimen
+     * @param channel  "email", "text" or "voice"
+     * @return the recipients, in the order they were entered
+     */
+    public List<String> getRegimenRecipients(int regimenID, String channel)
+    {
+        return split(settings.get(getKey(channel, "regimen", regimenID), ""));
+    }
+
+
+    /**
+     * Gets the extra recipients of the specified supplement's reminders.
+     *
+     * @param suppID  the ID of the supplement
+     * @param channel  "email", "text" or "voice"
+     * @return the recipients, in the order they were entered
+     */
+    public List<String> getSupplementRecipients(int suppID, String channel)
+    {
+        return split(settings.get(getKey(channel, "supplement", suppID), ""));
+    }
+
+
+    /**
+     * Replaces the extra recipients of the specified regimen.  All of the
+     * channels are saved together.
+     *
+     * @param regimenID  the ID of the regimen
+     * @param recipientsByChannel  the new recipients of each channel; a channel that
+     *                             is left out keeps its recipients
+     * @return <tt>true</tt> if the recipients were saved, <tt>false</tt> otherwise
+     */
+    public boolean setRegimenRecipients(int regimenID, Map<String, List<String>> recipientsByChannel)
+    {
+        return setRecipients("regimen", regimenID, recipientsByChannel);
+    }
+
+
+    /**
+     * Replaces the extra recipients of the specified supplement.  All of the
+     * channels are saved together.
+     *
+     * @param suppID  the ID of the supplement
+     * @param recipientsByChannel  the new recipients of each channel; a channel that
+     *                             is left out keeps its recipients
+     * @return <tt>true</tt> if the recipients were saved, <tt>false</tt> otherwise
+     */
+    public boolean setSupplementRecipients(int suppID, Map<String, List<String>> recipientsByChannel)
+    {
+        return setRecipients("supplement", suppID, recipientsByChannel);
+    }
+
+
+    /**
+     * Gets everyone who is sent the specified supplement's reminders on the
+     * specified channel: the profile's own contact first, then the recipients
+     * of the supplement's regimen, then those of the supplement itself.  A
+     * recipient who appears more than once is only included the first time.
+     *
+     * @param supplement  the supplement being reminded about
+     * @param channel  "email", "text" or "voice"
+     * @param ownContact  the profile's own e-mail address or phone number, or an
+     *                    empty {@code String} if it has none
+     * @return the recipients, without duplicates
+     */
+    public List<String> getRecipients(Supplement supplement, String channel, String ownContact)
+    {
+        Map<String, String> recipients = new LinkedHashMap<>();
+
+        List<String> candidates = new ArrayList<>();
+        candidates.addAll(split(ownContact));
+        candidates.addAll(getRegimenRecipients(supplement.getRegimenID(), channel));
+        candidates.addAll(getSupplementRecipients(supplement.getSuppID(), channel));
+
+        for (String recipient : candidates)
+        {
+            String key = normalize(channel, recipient);
+
+            if (!recipients.containsKey(key))
+            {
+                recipients.put(key, recipient);
+            }
+        }
+
+        return new ArrayList<>(recipients.values());
+    }
+
+
+    /**
+     * Joins recipients into the comma-separated form kept in the settings
+     * and in a reminder job's {@code JobDataMap}.
+     *
+     * @param recipients  the e-mail addresses or phone numbers
+     * @return the recipients separated by commas
+     */
+    public static String join(List<String> recipients)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (String recipient : recipients)
+        {
+            if (builder.length() > 0)
+            {
+                builder.append(',');
+            }
+
+            builder.append(recipient.trim());
+        }
+
+        return builder.toString();
+    }
+
+
+    /**
+     * Splits a comma-separated list of recipients, as written by {@code join()}.
+     *
+     * @param recipients  the recipients separated by commas, or <tt>null</tt>
+     * @return the recipients, leaving out any that are empty
+     */
+    public static List<String> split(String recipients)
+    {
+        if (recipients == null || recipients.trim().isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        List<String> list = new ArrayList<>();
+
+        for (String recipient : recipients.split(","))
+        {
+            if (!recipient.trim().isEmpty())
+            {
+                list.add(recipient.trim());
+            }
+        }
+
+        return list;
+    }
+
+
+    /**
+     * Gets the form of a recipient that is used to recognise the same person
+     * written in different ways: an e-mail address in lower case, or the digits
+     * of a phone number.  A leading "+" or "00" international prefix is dropped,
+     * as is the "1" country code of an eleven-digit North American number, so
+     * that "(555) 444-3333", "1-555-444-3333" and "+15554443333" are the same
+     * recipient.  Every other digit is kept, so that international numbers that
+     * only share their last digits are not taken for one another.
+     *
+     * @param channel  "email", "text" or "voice"
+     * @param recipient  the e-mail address or phone number
+     * @return the normalized recipient
+     */
+    public static String normalize(String channel, String recipient)
+    {
+        if (channel.equals("email"))
+        {
+            return recipient.trim().toLowerCase(Locale.ENGLISH);
+        }
+
+        String digits = recipient.replaceAll("[^0-9]", "");
+
+        if (!recipient.trim().startsWith("+") && digits.startsWith("00"))
+        {
+            digits = digits.substring(2);
+        }
+
+        if (digits.length() == 11 && digits.charAt(0) == '1')
+        {
+            digits = digits.substring(1);
+        }
+
+        return digits;
+    }
+
+
+    private boolean setRecipients(String owner, int ownerID, Map<String, List<String>> recipientsByChannel)
+    {
+        Map<String, String> values = new LinkedHashMap<>();
+
+        for (Map.Entry<String, List<String>> entry : recipientsByChannel.entrySet())
+        {
+            // Drop duplicates within the list, keeping the first of each
+            Set<String> seen = new LinkedHashSet<>();
+            List<String> recipients = new ArrayList<>();
+
+            for (String recipient : entry.getValue())
+            {
+                if (seen.add(normalize(entry.getKey(), recipient)))
+                {
+                    recipients.add(recipient.trim());
+                }
+            }
+
+            values.put(getKey(entry.getKey(), owner, ownerID), join(recipients));
+        }
+
+        return settings.putAll(values);
+    }
+
+
+    private static String getKey(String channel, String owner, int ownerID)
+    {
+        return KEY_PREFIX + channel + "." + owner + "." + ownerID;  // "RECIPIENTS.text.regimen.12"
+    }
+
+}  // end class ReminderRecipients
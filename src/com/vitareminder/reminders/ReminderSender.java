@@ -0,0 +1,57 @@
+package com.vitareminder.reminders;
+
+import java.util.List;
+
+
+/**
+ * Delivers the messages that the {@code ReminderDispatcher} has composed.
+ * The application uses a {@code ProviderReminderSender}, which sends them
+ * through Gmail and Tropo.  The reminder replay tool substitutes a sender
+ * that only records what would have been sent.
+ * <p>
+ * Each method is given every recipient of an identical message at once, so
+ * that a sender can deliver them in a batch rather than one at a time.
+ */
+public interface ReminderSender
+{
+    /**
+     * Sends an e-mail reminder as a single message addressed to every recipient.
+     *
+     * @param from  the username of the sending Gmail account
+     * @param password  the password for the sending account
+     * @param to  the recipients' e-mail addresses
+     * @param subject  the e-mail subject
+     * @param body  the HTML body
+     */
+    void sendEmail(String from, String password, List<String> to, String subject, String body);
+
+
+    /**
+     * Sends the same text message reminder to each of the specified phone numbers.
+     *
+     * @param phoneNumbers  the recipients' phone numbers, e.g. "+15554443333"
+     * @param message  the message content
+     */
+    void sendText(List<String> phoneNumbers, String message);
+
+
+    /**
+     * Places the same automated voice reminder to each of the specified phone numbers.
+     *
+     * @param phoneNumbers  the recipients' phone numbers, e.g. "+15554443333"
+     * @param message  the message that is spoken
+     */
+    void sendVoice(List<String> phoneNumbers, String message);
+
+
+    /**
+     * Waits for the messages already handed to this sender to be sent or
+     * dropped.  Called when the application exits, so that a send that is
+     * still in progress is not cut off.
+     *
+     * @param timeoutMillis  the longest time to wait
+     * @return the number of sends still in progress when the time ran out
+     */
+    int awaitSends(long timeoutMillis);
+
+}  // end interface ReminderSender
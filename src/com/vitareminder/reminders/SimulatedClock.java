@@ -0,0 +1,54 @@
+package com.vitareminder.reminders;
+
+
+/**
+ * A {@code ReminderClock} that only moves when it is told to.  Used to replay
+ * reminder schedules faster than real time.
+ */
+public class SimulatedClock implements ReminderClock
+{
+    private volatile long now;
+
+
+    /**
+     * @param startMillis  the time that the clock starts at, in milliseconds
+     */
+    public SimulatedClock(long startMillis)
+    {
+        this.now = startMillis;
+    }
+
+
+    @Override
+    public long currentTimeMillis()
+    {
+        return now;
+    }
+
+
+    /**
+     * Moves the clock forward to the specified time.  The clock never moves
+     * backwards, so earlier times are ignored.
+     *
+     * @param millis  the new time, in milliseconds
+     */
+    public synchronized void advanceTo(long millis)
+    {
+        if (millis > now)
+        {
+            now = millis;
+        }
+    }
+
+
+    /**
+     * Moves the clock forward by the specified amount.
+     *
+     * @param millis  the number of milliseconds to move forward by
+     */
+    public synchronized void advanceBy(long millis)
+    {
+        advanceTo(now + millis);
+    }
+
+}  // end class SimulatedClock
@@ -3,17 +3,23 @@ package com.vitareminder.reminders;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.log4j.Logger;
+
 import com.voxeo.tropo.Tropo;
+import com.voxeo.tropo.TropoLaunchResult;
 
 
 /**
- * An automated voice message that is sent using the Tropo API.
+ * An automated voice message that is sent using the Tropo API.  The address
+ * of the API is set by provider.tropo.baseUrl in res/reminders/reminders.properties.
  */
 public class VoiceMessage
 {
     private String phoneNumber;
     private String message;
 
+    private Logger logger = Logger.getLogger(VoiceMessage.class);
+
 
     /**
      * The sole constructor.
@@ -46,10 +52,16 @@ public class VoiceMessage
      * call(phoneNumber);
      * <br>
      * say(msg);
+     * <p>
+     * The voice channel's {@code DeliveryGuard} is consulted before the session is
+     * launched, so the send may be delayed by the rate limiter or dropped while the
+     * circuit is open.
+     *
+     * @return the thread that launches the session
      */
-    public void send()
+    public Thread send()
     {
-        new Thread(new Runnable() {
+        Thread thread = new Thread(new Runnable() {
 
             @Override
             public void run()
@@ -57,15 +69,46 @@ public class VoiceMessage
                 String token = System.getenv("TROPO_TOKEN_VOICE_MESSAGE");
 
                 Tropo tropo = new Tropo();
+                tropo.setBaseUrl(ReminderProperties.getString("provider.tropo.baseUrl", tropo.getBaseUrl()));
 
                 Map<String, String> params = new HashMap<String, String>();
 
                 params.put("phoneNumber", phoneNumber);
                 params.put("msg", message);
 
-                tropo.launchSession(token, params);
+                DeliveryGuard guard = DeliveryGuard.getGuard("voice");
+
+                if (!guard.tryAcquire())
+                {
+                    return;
+                }
+
+                try
+                {
+                    TropoLaunchResult result = tropo.launchSession(token, params);
+
+                    if (result != null && Boolean.FALSE.equals(result.getSuccess()))
+                    {
+                        guard.recordFailure();
+                        logger.warn("Tropo did not launch the voice message session.");
+                    }
+                    else
+                    {
+                        guard.recordSuccess();
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    // The Tropo API reports HTTP and connection errors as unchecked exceptions.
+                    guard.recordFailure();
+                    logger.warn("An error has occurred sending a voice message.", e);
+                }
             }
-        }).start();
+        });
+
+        thread.start();
+
+        return thread;
     }
 
 }  // end class VoiceMessage
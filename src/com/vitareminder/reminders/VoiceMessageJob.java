@@ -5,11 +5,14 @@ import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 
+import com.vitareminder.metrics.MetricsRegistry;
+
 
 /**
  * A Quartz Job that sends an automated voice message.  The {@code JobDataMap}
  * parameters are set in {@code ReminderManager#loadVoiceReminder()}
- * and then extracted here to create a new {@code VoiceMessage} object.
+ * and then extracted here to create a new {@code PendingReminder},
+ * which is handed to the {@code ReminderDispatcher} to be sent.
  */
 public class VoiceMessageJob implements Job
 {
@@ -23,26 +26,36 @@ public class VoiceMessageJob implements Job
 
 
     /**
-     * Executes this {@code VoiceMessageJob} by sending the actual text message.
-     * It extracts the job parameters that we placed in the {@code JobDataMap}
-     * when we created the job in {@code ReminderManager}).  It then uses
-     * these parameters to construct a new {@code VoiceMessage} object, and calls
-     * {@code VoiceMessage#send()}.
+     * Executes this {@code VoiceMessageJob} by submitting the automated voice message to the
+     * {@code ReminderDispatcher}.  It extracts the job parameters that we placed
+     * in the {@code JobDataMap} when we created the job (see {@code ReminderManager}).
+     * The dispatcher waits briefly for any other voice reminders due at the same
+     * minute, and then sends them all as one {@code VoiceMessage}.
      * <p>
      * Called automatically by Quartz scheduler at the time that is set in this
-     * job's trigger.
+     * job's trigger, which the {@code FireTimeSchedule} replaces with a trigger
+     * for the next fire time.
      */
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException
     {
+        // Each trigger fires once, so first set up the trigger for the next fire time
+        // of the supplement's recurrence, which may be later the same day, or never
+        // if the schedule has ended.
+        FireTimeSchedule.getInstance().scheduleNextFire(context);
+        MetricsRegistry.getInstance().recordFireLag(context);
+
         JobDataMap dataMap = context.getJobDetail().getJobDataMap();
 
-        String phoneNumber = dataMap.getString("phoneNumber");
+        String phoneNumbers = dataMap.getString("phoneNumbers");
+        String item = dataMap.getString("item");
         String message = dataMap.getString("message");
 
-        VoiceMessage voiceMessage = new VoiceMessage(phoneNumber, message);
+        PendingReminder reminder = new PendingReminder("voice", ReminderRecipients.split(phoneNumbers),
+                                                       context.getScheduledFireTime().getTime(),
+                                                       item, message);
 
-        voiceMessage.send();
+        ReminderDispatcher.getInstance().submit(reminder);
     }
 
 }  // end class VoiceMessageJob
@@ -1,7 +1,5 @@
 package com.vitareminder.reports;
 
-import java.util.List;
-
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -14,17 +12,32 @@ import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import com.vitareminder.business.Regimen;
 import com.vitareminder.business.Supplement;
+import com.vitareminder.dao.RegimenDAO;
+import com.vitareminder.dao.RegimenVisitor;
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
 
 /**
  * This class defines a single static method that generates an Excel
  * spreadsheet workbook using the Apache POI API.  The Excel workbook
  * that is generated can be saved as an Excel 2007 .xlsx file.
+ * <p>
+ * A new workbook is created for each report, so POI is only loaded when the
+ * user exports to Excel, and exporting more than once does not add rows to
+ * the workbook from the previous export.
  */
 public class ExcelGenerator
 {
-    private static XSSFWorkbook workbook = new XSSFWorkbook();
+    private static final FlightEventType EXCEL_EXPORT_EVENT =
+            new FlightEventType("com.vitareminder.ExcelExport", "Excel Export", "Reports",
+                                "int regimenCount", "int supplementCount", "int rowCount");
+
+    private static XSSFWorkbook workbook = null;
+
+    private static XSSFSheet sheet = null;
 
-    private static XSSFSheet sheet = workbook.createSheet("VitaReminder Report");
+    /** the next row of the sheet to be written */
+    private static int rowNum = 0;
 
     private static XSSFFont titleFont = null;
     private static XSSFFont regimenNameFont = null;
@@ -47,21 +60,29 @@ public class ExcelGenerator
 
     /**
      * Generates an Excel workbook report that contains the user's
-     * regimens and supplements.
+     * regimens and supplements.  The regimens are read from the database
+     * one at a time through {@code RegimenDAO#visitRegimens()} and written
+     * straight into the workbook, so the whole {@code List} of regimens
+     * never has to be held in memory alongside the workbook.
      *
-     * @param regimens  a {@code List} of all of the user's {@code Regimen}s, where
-     *                  each {@code Regimen} object contains a {@code List} of its
-     *                  associated {@code Supplement}s
+     * @param regimenDAO  the DAO that the regimens and their supplements are read from
      * @return a workbook in the Excel 2007 format that contains a formatted
      *         list of the user's regimens and their supplements
      */
-    public static XSSFWorkbook getExcelFile(List<Regimen> regimens)
+    public static synchronized XSSFWorkbook getExcelFile(RegimenDAO regimenDAO)
     {
+        FlightEvent event = EXCEL_EXPORT_EVENT.begin();
+
+        final int[] counts = {0, 0};
+
+        workbook = new XSSFWorkbook();
+        sheet = workbook.createSheet("VitaReminder Report");
+
         createFonts();
 
         createStyles();
 
-        int rowNum = 0;
+        rowNum = 0;
         Row row = sheet.createRow(rowNum);
 
         sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
@@ -75,141 +96,164 @@ public class ExcelGenerator
 
         rowNum++;
 
-        for (Regimen r : regimens)
+        regimenDAO.visitRegimens(new RegimenVisitor() {
+
+            @Override
+            public boolean visitRegimen(Regimen regimen)
+            {
+                addRegimen(regimen);
+
+                counts[0]++;
+                counts[1] += regimen.getSupplements().size();
+                return true;
+            }
+        });
+
+        // Make sure the column widths are automatically sized to fit the cell contents
+        for (int i = 0; i < supplementColumns.length; i++)
         {
-            row = sheet.createRow(rowNum);
+          sheet.autoSizeColumn(i, false);
+        }
+
+        sheet.setHorizontallyCenter(true);
+
+        event.set("regimenCount", counts[0])
+             .set("supplementCount", counts[1])
+             .set("rowCount", rowNum)
+             .commit();
+
+        return workbook;
+    }
 
+
+    /**
+     * Writes the rows for one regimen, and a row for each of its supplements,
+     * starting at {@code rowNum}.
+     */
+    private static void addRegimen(Regimen r)
+    {
+        Row row = sheet.createRow(rowNum);
+
+        sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
+
+        // Regimen name
+        Cell cell = row.createCell(0);
+        cell.setCellStyle(regimenNameStyle);
+        cell.setCellValue(r.getRegimenName());
+
+        // Display regimen notes if present
+        if (!r.getRegimenNotes().isEmpty())
+        {
+            rowNum++;
+            row = sheet.createRow(rowNum);
             sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
 
-            // Regimen name
             cell = row.createCell(0);
-            cell.setCellStyle(regimenNameStyle);
-            cell.setCellValue(r.getRegimenName());
+            cell.setCellStyle(regimenNotesStyle);
+            cell.setCellValue(r.getRegimenNotes());
 
-            // Display regimen notes if present
-            if (!r.getRegimenNotes().isEmpty())
-            {
-                rowNum++;
-                row = sheet.createRow(rowNum);
-                sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
+            rowNum++;
+            row = sheet.createRow(rowNum);
+            sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
+        }
 
-                cell = row.createCell(0);
-                cell.setCellStyle(regimenNotesStyle);
-                cell.setCellValue(r.getRegimenNotes());
+        // New row for headers
+        rowNum++;
+        row = sheet.createRow(rowNum);
 
-                rowNum++;
-                row = sheet.createRow(rowNum);
-                sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
-            }
+        int cellNum = 0;
 
-            // New row for headers
+        for (String columnName : supplementColumns)
+        {
+            cell = row.createCell(cellNum++);
+            cell.setCellStyle(supplementHeaderStyle);
+            cell.setCellValue(columnName);
+        }
+
+        for (Supplement s : r.getSupplements())
+        {
+            // Create the new row for this supplement
             rowNum++;
             row = sheet.createRow(rowNum);
 
-            int cellNum = 0;
+            // Supplement Name
+            cellNum = 0;
+            cell = row.createCell(cellNum);
+            cell.setCellStyle(supplementRowStyle);
+            cell.setCellValue(s.getSuppName());
+
+            // Amount
+            cellNum++;
+            cell = row.createCell(cellNum);
+            cell.setCellStyle(supplementRowStyle);
+            cell.setCellValue(s.getSuppAmount());
+
+            // Units
+            cellNum++;
+            cell = row.createCell(cellNum);
+            cell.setCellStyle(supplementRowStyle);
+            cell.setCellValue(s.getSuppUnits());
+
+            // Take at
+            cellNum++;
+            cell = row.createCell(cellNum);
+            cell.setCellStyle(supplementRowStyle);
+            cell.setCellValue(s.getFormattedTime());
+
+            // E-Mail
+            cellNum++;
+            cell = row.createCell(cellNum);
+            if (s.getEmailEnabled())
+            {
+                cell.setCellStyle(reminderStyle);
+                cell.setCellValue("x");
+            }
+            else
+            {
+                cell.setCellStyle(reminderStyle);
+                cell.setCellValue("");
+            }
 
-            for (String columnName : supplementColumns)
+            // Text
+            cellNum++;
+            cell = row.createCell(cellNum);
+            if (s.getTextEnabled())
+            {
+                cell.setCellStyle(reminderStyle);
+                cell.setCellValue("x");
+            }
+            else
             {
-                cell = row.createCell(cellNum++);
-                cell.setCellStyle(supplementHeaderStyle);
-                cell.setCellValue(columnName);
+                cell.setCellStyle(reminderStyle);
+                cell.setCellValue("");
             }
 
-            for (Supplement s : r.getSupplements())
+            // Voice
+            cellNum++;
+            cell = row.createCell(cellNum);
+            if (s.getVoiceEnabled())
+            {
+                cell.setCellStyle(reminderStyle);
+                cell.setCellValue("x");
+            }
+            else
             {
-                // Create the new row for this supplement
-                rowNum++;
-                row = sheet.createRow(rowNum);
-
-                // Supplement Name
-                cellNum = 0;
-                cell = row.createCell(cellNum);
-                cell.setCellStyle(supplementRowStyle);
-                cell.setCellValue(s.getSuppName());
-
-                // Amount
-                cellNum++;
-                cell = row.createCell(cellNum);
-                cell.setCellStyle(supplementRowStyle);
-                cell.setCellValue(s.getSuppAmount());
-
-                // Units
-                cellNum++;
-                cell = row.createCell(cellNum);
-                cell.setCellStyle(supplementRowStyle);
-                cell.setCellValue(s.getSuppUnits());
-
-                // Take at
-                cellNum++;
-                cell = row.createCell(cellNum);
-                cell.setCellStyle(supplementRowStyle);
-                cell.setCellValue(s.getFormattedTime());
-
-                // E-Mail
-                cellNum++;
-                cell = row.createCell(cellNum);
-                if (s.getEmailEnabled())
-                {
-                    cell.setCellStyle(reminderStyle);
-                    cell.setCellValue("x");
-                }
-                else
-                {
-                    cell.setCellStyle(reminderStyle);
-                    cell.setCellValue("");
-                }
-
-                // Text
-                cellNum++;
-                cell = row.createCell(cellNum);
-                if (s.getTextEnabled())
-                {
-                    cell.setCellStyle(reminderStyle);
-                    cell.setCellValue("x");
-                }
-                else
-                {
-                    cell.setCellStyle(reminderStyle);
-                    cell.setCellValue("");
-                }
-
-                // Voice
-                cellNum++;
-                cell = row.createCell(cellNum);
-                if (s.getVoiceEnabled())
-                {
-                    cell.setCellStyle(reminderStyle);
-                    cell.setCellValue("x");
-                }
-                else
-                {
-                    cell.setCellStyle(reminderStyle);
-                    cell.setCellValue("");
-                }
-
-                // Notes
-                cellNum++;
-
-                cell = row.createCell(cellNum);
-                cell.setCellStyle(supplementNotesStyle);
-                cell.setCellValue(s.getSuppNotes());
+                cell.setCellStyle(reminderStyle);
+                cell.setCellValue("");
             }
 
-            // Create extra space between regimens
-            rowNum++;
-            sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
-            rowNum++;
-        }
+            // Notes
+            cellNum++;
 
-        // Make sure the column widths are automatically sized to fit the cell contents
-        for (int i = 0; i < supplementColumns.length; i++)
-        {
-          sheet.autoSizeColumn(i, false);
+            cell = row.createCell(cellNum);
+            cell.setCellStyle(supplementNotesStyle);
+            cell.setCellValue(s.getSuppNotes());
         }
 
-        sheet.setHorizontallyCenter(true);
-
-        return workbook;
+        // Create extra space between regimens
+        rowNum++;
+        sheet.addMergedRegion(new CellRangeAddress(rowNum, rowNum, 0, supplementColumns.length-1));
+        rowNum++;
     }
 
 
@@ -1,12 +1,10 @@
 package com.vitareminder.reports;
 
-import java.util.List;
-
 import javax.swing.SwingWorker;
 
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import com.vitareminder.business.Regimen;
+import com.vitareminder.dao.RegimenDAO;
 
 
 /**
@@ -16,19 +14,18 @@ import com.vitareminder.business.Regimen;
  */
 public class ExcelWorker extends SwingWorker<XSSFWorkbook, String>
 {
-    List<Regimen> regimens;
+    RegimenDAO regimenDAO;
 
 
     /**
      * The sole constructor.
      *
-     * @param regimens  the regimens and supplements that are passed in
-     *                  to {@code ExcelGenerator#getExcelFile()} to generate
-     *                  the report
+     * @param regimenDAO  the DAO that is passed in to {@code ExcelGenerator#getExcelFile()}
+     *                    to read the regimens and supplements for the report
      */
-    public ExcelWorker(List<Regimen> regimens)
+    public ExcelWorker(RegimenDAO regimenDAO)
     {
-        this.regimens = regimens;
+        this.regimenDAO = regimenDAO;
     }
 
 
@@ -41,7 +38,7 @@ public class ExcelWorker extends SwingWorker<XSSFWorkbook, String>
     {
         Thread.sleep(1000);
 
-        XSSFWorkbook workbook = ExcelGenerator.getExcelFile(regimens);
+        XSSFWorkbook workbook = ExcelGenerator.getExcelFile(regimenDAO);
 
         return workbook;
     }
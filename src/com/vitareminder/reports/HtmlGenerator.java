@@ -3,36 +3,136 @@ package com.vitareminder.reports;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 
 import com.vitareminder.business.Regimen;
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
 
 
 /**
  * This class uses the Velocity templating engine to generate HTML documents
  * for physical printed reports, e-mail reminders, displaying the content
  * of the {@code AboutDialog}, displaying system information and displaying
- * all active reminders.  It uses five pre-defined templates located in the
+ * all active reminders.  It uses six pre-defined templates located in the
  * resources/templates directory:
  * <ul>
  * <li>{@code getHtmlForReport()} uses resources/templates/PrintableReportTemplate.vm</li>
  * <li>{@code getHtmlForEmail()} uses resources/templates/EmailTemplate.vm</li>
+ * <li>{@code getHtmlForEmailDigest()} uses resources/templates/EmailDigestTemplate.vm</li>
  * <li>{@code getHtmlForAboutDialog()} uses resources/templates/AboutTemplate.vm</li>
  * <li>{@code getHtmlForSystemInformation()} uses resources/templates/SystemInformationTemplate.vm</li>
  * <li>{@code getHtmlForActiveReminders()} uses resources/templates/ShowActiveRemindersTemplate.vm</li>
  * </ul>
+ * <p>
+ * Velocity is not initialized until the first document is generated.  Each
+ * template is parsed only once, the first time it is used, and the parsed
+ * {@code Template} is kept for the life of the application.  The templates are
+ * shipped with the application and never change while it is running, so
+ * Velocity's own resource cache is enabled and its modification checks are
+ * turned off.
  */
 public class HtmlGenerator
 {
-    private static VelocityEngine velocityEngine = new VelocityEngine();
+    // Most of the documents are a few kilobytes, the printable report is the largest
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
 
-    static
+    // Buffers that have grown beyond this size are not kept for reuse
+    private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+    private static final FlightEventType TEMPLATE_MERGE_EVENT =
+            new FlightEventType("com.vitareminder.TemplateMerge", "Template Merge", "Reports",
+                                "String template", "int outputLength");
+
+    private static Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    private static ThreadLocal<StringWriter> buffers = new ThreadLocal<StringWriter>() {
+
+        @Override
+        protected StringWriter initialValue()
+        {
+            return new StringWriter(INITIAL_BUFFER_SIZE);
+        }
+    };
+
+
+    /**
+     * Holds the {@code VelocityEngine}.  The engine is created and initialized
+     * when this class is first loaded, which the JVM only does the first time
+     * {@code getTemplate()} needs it, so Velocity is not loaded at startup.
+     */
+    private static class VelocityEngineHolder
     {
-        velocityEngine.setProperty("runtime.log.logsystem.log4j.logger", "velocity");
-        velocityEngine.init();
+        private static final VelocityEngine VELOCITY_ENGINE = createVelocityEngine();
+
+        private static VelocityEngine createVelocityEngine()
+        {
+            VelocityEngine velocityEngine = new VelocityEngine();
+            velocityEngine.setProperty("runtime.log.logsystem.log4j.logger", "velocity");
+            velocityEngine.setProperty("file.resource.loader.cache", "true");
+            velocityEngine.setProperty("file.resource.loader.modificationCheckInterval", "-1");
+            velocityEngine.init();
+
+            return velocityEngine;
+        }
+    }
+
+
+    /**
+     * Gets the parsed template with the specified name, parsing it the
+     * first time it is requested.
+     *
+     * @param templateName  the path of the template, e.g. "res/templates/EmailTemplate.vm"
+     * @return the parsed {@code Template}
+     */
+    private static Template getTemplate(String templateName)
+    {
+        Template template = templates.get(templateName);
+
+        if (template == null)
+        {
+            // Two threads may both parse the template here, which is harmless
+            template = VelocityEngineHolder.VELOCITY_ENGINE.getTemplate(templateName);
+            templates.put(templateName, template);
+        }
+
+        return template;
+    }
+
+
+    /**
+     * Merges the specified template with the context, using a buffer that is
+     * reused by each thread rather than a new {@code StringWriter} per document.
+     *
+     * @param templateName  the path of the template to merge
+     * @param context  the data to merge with the template
+     * @return the resulting HTML document
+     */
+    private static String render(String templateName, VelocityContext context)
+    {
+        FlightEvent event = TEMPLATE_MERGE_EVENT.begin().set("template", templateName);
+
+        Template template = getTemplate(templateName);
+
+        StringWriter writer = buffers.get();
+        writer.getBuffer().setLength(0);
+
+        template.merge(context, writer);
+
+        String html = writer.toString();
+
+        if (writer.getBuffer().capacity() > MAX_RETAINED_BUFFER_SIZE)
+        {
+            buffers.remove();
+        }
+
+        event.set("outputLength", html.length()).commit();
+
+        return html;
     }
 
 
@@ -48,24 +148,15 @@ public class HtmlGenerator
      */
     public static String getHtmlForReport(List<Regimen> regimens)
     {
-        Template template = velocityEngine.getTemplate("res/templates/PrintableReportTemplate.vm");
-
         VelocityContext context = new VelocityContext();
         context.put("regimensList", regimens);
 
-        StringWriter writer = new StringWriter();
-
-        // Merge the template with the context (which contains our regimens data)
-        // and send the output to writer.
-        template.merge(context, writer);
-
-        // Return the resulting HTML string
-        return writer.toString();
+        return render("res/templates/PrintableReportTemplate.vm", context);
     }
 
     /**
      * Gets a {@code String} containing an HTML document to send as an e-mail reminder.
-     * Called by {@code ReminderManager#loadEmailReminder()}.
+     * Called by {@code ReminderDispatcher} when a single e-mail reminder is sent.
      *
      * @param message  the message to be merged with the Velocity template and displayed
      *                 in the body of the HTML document
@@ -73,16 +164,29 @@ public class HtmlGenerator
      */
     public static String getHtmlForEmail(String message)
     {
-        Template template = velocityEngine.getTemplate("res/templates/EmailTemplate.vm");
-
         VelocityContext context = new VelocityContext();
         context.put("message", message);
 
-        StringWriter writer = new StringWriter();
+        return render("res/templates/EmailTemplate.vm", context);
+    }
+
 
-        template.merge(context, writer);
+    /**
+     * Gets a {@code String} containing an HTML document to send as a single e-mail
+     * reminder for several supplements that are due at the same time.
+     * Called by {@code ReminderDispatcher}.
+     *
+     * @param heading  the text displayed above the list of supplements
+     * @param items  the supplements to list, e.g. "Vitamin C, 1000 mg"
+     * @return the HTML document for the e-mail digest
+     */
+    public static String getHtmlForEmailDigest(String heading, List<String> items)
+    {
+        VelocityContext context = new VelocityContext();
+        context.put("heading", heading);
+        context.put("items", items);
 
-        return writer.toString();
+        return render("res/templates/EmailDigestTemplate.vm", context);
     }
 
 
@@ -95,15 +199,9 @@ public class HtmlGenerator
      */
     public static String getHtmlForAboutDialog(Map<String, Object> contextParams)
     {
-        Template template = velocityEngine.getTemplate("res/templates/AboutTemplate.vm");
-
         VelocityContext context = new VelocityContext(contextParams);
 
-        StringWriter writer = new StringWriter();
-
-        template.merge(context, writer);
-
-        return writer.toString();
+        return render("res/templates/AboutTemplate.vm", context);
     }
 
 
@@ -116,15 +214,9 @@ public class HtmlGenerator
      */
     public static String getHtmlForSystemInformation(Map<String, Object> contextParams)
     {
-        Template template = velocityEngine.getTemplate("res/templates/SystemInformationTemplate.vm");
-
         VelocityContext context = new VelocityContext(contextParams);
 
-        StringWriter writer = new StringWriter();
-
-        template.merge(context, writer);
-
-        return writer.toString();
+        return render("res/templates/SystemInformationTemplate.vm", context);
     }
 
 
@@ -137,16 +229,10 @@ public class HtmlGenerator
      */
     public static String getHtmlForActiveReminders(List<Regimen> regimens)
     {
-        Template template = velocityEngine.getTemplate("res/templates/ShowActiveRemindersTemplate.vm");
-
         VelocityContext context = new VelocityContext();
         context.put("regimensList", regimens);
 
-        StringWriter writer = new StringWriter();
-
-        template.merge(context, writer);
-
-        return writer.toString();
+        return render("res/templates/ShowActiveRemindersTemplate.vm", context);
     }
 
 }  // end class HtmlGenerator
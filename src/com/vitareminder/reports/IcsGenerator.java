@@ -0,0 +1,588 @@
+package com.vitareminder.reports;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Recurrence;
+import com.vitareminder.business.Regimen;
+import com.vitareminder.business.Supplement;
+import com.vitareminder.dao.RegimenDAO;
+import com.vitareminder.dao.RegimenVisitor;
+import com.vitareminder.metrics.FlightEvent;
+import com.vitareminder.metrics.FlightEventType;
+import com.vitareminder.reminders.CompiledSchedule;
+import com.vitareminder.reminders.FireTimeSchedule;
+
+
+/**
+ * Exports the schedules of every supplement of the active profile that has a
+ * reminder set on it to an iCalendar (.ics) file, so that they can be added
+ * to, or subscribed to from, a calendar application.  Each supplement becomes
+ * a repeating VEVENT with an alarm, whose RRULE is translated from its
+ * {@code Recurrence}: a taper becomes one VEVENT for each of its stages, since
+ * a single RRULE cannot change its interval.
+ * <p>
+ * The regimens are read from the database one at a time through
+ * {@code RegimenDAO#visitRegimens()}, and each event is written as soon as
+ * it is built, through a fixed-size buffer onto a {@code FileChannel}, so the
+ * memory used for the events does not grow with the size of the export.  The
+ * file is written under a temporary name and then moved over the old one, so
+ * that a calendar application that is subscribed to it never reads half of it.
+ * <p>
+ * Each event's UID is derived from the {@code suppID}, e.g.
+ * "supp-12@vitareminder", so it stays the same from one export to the next.
+ * A small state file is kept next to the .ics file, holding a checksum,
+ * SEQUENCE and DTSTAMP for each UID.  When the file is exported again, an
+ * event whose content has not changed is written with exactly the same bytes
+ * as before, and only changed events get a new SEQUENCE and DTSTAMP, so a
+ * subscribed calendar only updates the events that have changed.  Supplements
+ * that no longer have reminders are simply left out, which removes them from
+ * a subscribed calendar.
+ * <p>
+ * The times are written as floating local times, with no time zone, in the
+ * same way that a supplement's time is a wall-clock time.  A supplement that
+ * is taken every day, or on certain days of the week, repeats from the day
+ * that it was first exported.
+ */
+public class IcsGenerator
+{
+    private static final FlightEventType ICS_EXPORT_EVENT =
+            new FlightEventType("com.vitareminder.IcsExport", "Calendar Export", "Reports",
+                                "int regimenCount", "int eventCount", "int changedCount");
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** the longest line that RFC 5545 allows, in octets, not counting the line break */
+    private static final int MAX_LINE_OCTETS = 75;
+
+    private static final String UID_SUFFIX = "@vitareminder";
+
+    private final File file;
+    private final File stateFile;
+    private final long now;
+    private final TimeZone timeZone;
+
+    private final SimpleDateFormat localFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+    private final SimpleDateFormat utcFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel channel;
+
+    private Properties oldState = new Properties();
+    private Properties newState = new Properties();
+
+    private int regimenCount = 0;
+    private int eventCount = 0;
+    private int changedCount = 0;
+
+    private Logger logger = Logger.getLogger(IcsGenerator.class);
+
+
+    /**
+     * Creates a generator for the specified file.  Nothing is written until
+     * {@code export()} is called.
+     *
+     * @param file  the .ics file to write, which is replaced if it exists
+     * @param now  the current time in milliseconds, used as the DTSTAMP of new and changed events
+     */
+    public IcsGenerator(File file, long now)
+    {
+        this.file = file;
+        this.stateFile = new File(file.getPath() + ".state");
+        this.now = now;
+        this.timeZone = FireTimeSchedule.getInstance().getTimeZone();
+
+        // Local minutes are counted as if they were UTC, so they are formatted in UTC
+        localFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        utcFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+
+    /**
+     * Writes the .ics file and its state file.
+     *
+     * @param regimenDAO  the DAO that the regimens and their supplements are read from
+     * @throws IOException  if either file cannot be read or written, in which case
+     *                      the previous .ics file, if any, is left as it was
+     */
+    public synchronized void export(RegimenDAO regimenDAO) throws IOException
+    {
+        FlightEvent event = ICS_EXPORT_EVENT.begin();
+
+        loadState();
+
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+
+        try
+        {
+            channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            writeLine("BEGIN:VCALENDAR");
+            writeLine("VERSION:2.0");
+            writeLine("PRODID:-//VitaReminder//VitaReminder//EN");
+            writeLine("CALSCALE:GREGORIAN");
+            writeLine("METHOD:PUBLISH");
+            writeLine("X-WR-CALNAME:VitaReminder");
+
+            // The visitor cannot throw an IOException, so it hands it back here
+            final IOException[] failure = {null};
+
+            regimenDAO.visitRegimens(new RegimenVisitor() {
+
+                @Override
+                public boolean visitRegimen(Regimen regimen)
+                {
+                    try
+                    {
+                        writeRegimen(regimen);
+                        return true;
+                    }
+                    catch (IOException e)
+                    {
+                        failure[0] = e;
+                        return false;
+                    }
+                }
+            });
+
+            if (failure[0] != null)
+            {
+                throw failure[0];
+            }
+
+            writeLine("END:VCALENDAR");
+            flush();
+
+            channel.force(false);
+            channel.close();
+
+            try
+            {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            saveState();
+        }
+        finally
+        {
+            if (channel != null && channel.isOpen())
+            {
+                channel.close();
+            }
+
+            Files.deleteIfExists(temp);
+
+            event.set("regimenCount", regimenCount)
+                 .set("eventCount", eventCount)
+                 .set("changedCount", changedCount)
+                 .commit();
+        }
+
+        logger.info("Exported " + eventCount + " calendar events to " + file + ", of which "
+                    + changedCount + " were new or changed.");
+    }
+
+
+    /**
+     * @return the number of VEVENTs written by the last export
+     */
+    public int getEventCount()
+    {
+        return eventCount;
+    }
+
+
+    /**
+     * @return the number of VEVENTs that were new or had changed since the previous export
+     */
+    public int getChangedCount()
+    {
+        return changedCount;
+    }
+
+
+    private void writeRegimen(Regimen regimen) throws IOException
+    {
+        regimenCount++;
+
+        for (Supplement supplement : regimen.getSupplements())
+        {
+            boolean hasReminder = supplement.getEmailEnabled()
+                               || supplement.getTextEnabled()
+                               || supplement.getVoiceEnabled();
+
+            if (hasReminder && supplement.getSuppTime() != null)
+            {
+                writeSupplement(regimen, supplement);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the VEVENT, or one VEVENT for each stage of a taper, of a supplement.
+     */
+    private void writeSupplement(Regimen regimen, Supplement supplement) throws IOException
+    {
+        Recurrence recurrence = supplement.getRecurrence();
+        int hour = supplement.getScheduledHourOfDay();
+        int minute = supplement.getScheduledMinute();
+        CompiledSchedule schedule = CompiledSchedule.compile(recurrence, hour, minute);
+
+        String uid = "supp-" + supplement.getSuppID() + UID_SUFFIX;
+        String byTime = getByTime(recurrence, hour, minute);
+
+        switch (recurrence.getDayRule())
+        {
+        case WEEKDAYS:
+        {
+            StringBuilder byDay = new StringBuilder();
+
+            for (int i = 0; i < 7; i++)
+            {
+                if ((recurrence.getWeekdays() & (1 << i)) != 0)
+                {
+                    byDay.append(byDay.length() == 0 ? "" : ",").append(Recurrence.WEEKDAY_CODES[i]);
+                }
+            }
+
+            long anchorDay = getAnchorDay(uid);
+            writeEvent(uid, regimen, supplement, schedule.next(anchorDay * CompiledSchedule.MINUTES_PER_DAY - 1),
+                       "FREQ=WEEKLY;BYDAY=" + byDay + byTime, anchorDay);
+            break;
+        }
+        case EVERY_N_DAYS:
+            writeEvent(uid, regimen, supplement,
+                       schedule.next(recurrence.getFromDay() * CompiledSchedule.MINUTES_PER_DAY - 1),
+                       "FREQ=DAILY;INTERVAL=" + recurrence.getEveryDays() + byTime, -1);
+            break;
+        case TAPER:
+        {
+            int[] intervals = recurrence.getTaperIntervals();
+            int[] lengths = recurrence.getTaperLengths();
+            long stageStartDay = recurrence.getFromDay();
+
+            for (int i = 0; i < intervals.length; i++)
+            {
+                // Days are due from the start of the stage, every interval days
+                int count = (lengths[i] + intervals[i] - 1) / intervals[i] * schedule.getTimesPerDay();
+
+                writeEvent("supp-" + supplement.getSuppID() + "-stage-" + (i + 1) + UID_SUFFIX,
+                           regimen, supplement,
+                           schedule.next(stageStartDay * CompiledSchedule.MINUTES_PER_DAY - 1),
+                           "FREQ=DAILY" + (intervals[i] == 1 ? "" : ";INTERVAL=" + intervals[i])
+                           + ";COUNT=" + count + byTime, -1);
+
+                stageStartDay += lengths[i];
+            }
+
+            break;
+        }
+        default:
+        {
+            long anchorDay = getAnchorDay(uid);
+            writeEvent(uid, regimen, supplement, schedule.next(anchorDay * CompiledSchedule.MINUTES_PER_DAY - 1),
+                       "FREQ=DAILY" + byTime, anchorDay);
+            break;
+        }
+        }
+    }
+
+
+    /**
+     * Writes a single VEVENT, with the same SEQUENCE and DTSTAMP as in the
+     * previous export if its content has not changed.
+     *
+     * @param startMinute  the local epoch minute of the first occurrence
+     * @param anchorDay  the day from which the event repeats, which is kept in
+     *                   the state file, or -1 if it is part of the recurrence
+     */
+    private void writeEvent(String uid, Regimen regimen, Supplement supplement, long startMinute,
+                            String rrule, long anchorDay) throws IOException
+    {
+        String summary = "Take " + supplement.getSuppName() + ", " + supplement.getFormattedAmount()
+                       + " " + supplement.getSuppUnits();
+
+        StringBuilder description = new StringBuilder("Regimen: ").append(regimen.getRegimenName());
+
+        if (supplement.getSuppNotes() != null && !supplement.getSuppNotes().isEmpty())
+        {
+            description.append("\n").append(supplement.getSuppNotes());
+        }
+
+        List<String> body = new ArrayList<>();
+        body.add("DTSTART:" + localFormat.format(new Date(startMinute * 60 * 1000L)));
+        body.add("DURATION:PT15M");
+        body.add("RRULE:" + rrule);
+        body.add("SUMMARY:" + escape(summary));
+        body.add("DESCRIPTION:" + escape(description.toString()));
+        body.add("BEGIN:VALARM");
+        body.add("ACTION:DISPLAY");
+        body.add("TRIGGER:PT0S");
+        body.add("DESCRIPTION:" + escape(summary));
+        body.add("END:VALARM");
+
+        CRC32 crc = new CRC32();
+
+        for (String line : body)
+        {
+            crc.update(line.getBytes(UTF_8));
+            crc.update(CRLF);
+        }
+
+        // anchor day, sequence, DTSTAMP, checksum
+        long[] state = parseState(oldState.getProperty(uid));
+        long checksum = crc.getValue();
+
+        if (state == null || state[3] != checksum)
+        {
+            state = new long[] {anchorDay, state == null ? 0 : state[1] + 1, now, checksum};
+            changedCount++;
+        }
+
+        state[0] = anchorDay;
+        newState.setProperty(uid, state[0] + "," + state[1] + "," + state[2] + "," + state[3]);
+
+        String stamp = utcFormat.format(new Date(state[2]));
+
+        writeLine("BEGIN:VEVENT");
+        writeLine("UID:" + uid);
+        writeLine("DTSTAMP:" + stamp);
+        writeLine("LAST-MODIFIED:" + stamp);
+        writeLine("SEQUENCE:" + state[1]);
+
+        for (String line : body)
+        {
+            writeLine(line);
+        }
+
+        writeLine("END:VEVENT");
+
+        eventCount++;
+    }
+
+
+    /**
+     * @return the BYHOUR and BYMINUTE parts of an RRULE for a supplement taken
+     *         more than once a day, or an empty string, since DTSTART gives the
+     *         time of a supplement taken once a day
+     */
+    private static String getByTime(Recurrence recurrence, int hour, int minute)
+    {
+        int timesPerDay = 24 / recurrence.getEveryHours();
+
+        if (timesPerDay == 1)
+        {
+            return "";
+        }
+
+        int[] hours = new int[timesPerDay];
+
+        for (int i = 0; i < timesPerDay; i++)
+        {
+            hours[i] = (hour + i * recurrence.getEveryHours()) % 24;
+        }
+
+        Arrays.sort(hours);
+
+        StringBuilder byTime = new StringBuilder(";BYHOUR=");
+
+        for (int i = 0; i < hours.length; i++)
+        {
+            byTime.append(i == 0 ? "" : ",").append(hours[i]);
+        }
+
+        return byTime.append(";BYMINUTE=").append(minute).toString();
+    }
+
+
+    /**
+     * Gets the day from which an event that has no start date of its own
+     * repeats: the day it was first exported, or today if it is new.
+     */
+    private long getAnchorDay(String uid)
+    {
+        long[] state = parseState(oldState.getProperty(uid));
+
+        return state != null && state[0] >= 0 ? state[0] : Recurrence.toEpochDay(now, timeZone);
+    }
+
+
+    /**
+     * Escapes a TEXT value as RFC 5545 requires.
+     */
+    private static String escape(String text)
+    {
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+
+            switch (c)
+            {
+            case '\\':
+            case ';':
+            case ',':
+                escaped.append('\\').append(c);
+                break;
+            case '\n':
+                escaped.append("\\n");
+                break;
+            case '\r':
+                break;
+            default:
+                escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+
+
+    /**
+     * Writes a content line, folding it onto continuation lines that begin
+     * with a space so that no line is longer than 75 octets.  Lines are only
+     * folded between characters, never inside a multi-byte UTF-8 sequence.
+     */
+    private void writeLine(String line) throws IOException
+    {
+        int start = 0;
+        int octets = 0;
+        int limit = MAX_LINE_OCTETS;
+
+        for (int i = 0; i < line.length(); )
+        {
+            int codePoint = line.codePointAt(i);
+            int charCount = Character.charCount(codePoint);
+            int length = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+
+            if (octets + length > limit)
+            {
+                write(line.substring(start, i).getBytes(UTF_8));
+                write(CRLF);
+                write(new byte[] {' '});
+
+                start = i;
+                octets = 0;
+                limit = MAX_LINE_OCTETS - 1;  // The leading space counts towards the limit
+            }
+
+            octets += length;
+            i += charCount;
+        }
+
+        write(line.substring(start).getBytes(UTF_8));
+        write(CRLF);
+    }
+
+
+    private void write(byte[] bytes) throws IOException
+    {
+        if (bytes.length > buffer.remaining())
+        {
+            flush();
+        }
+
+        buffer.put(bytes);
+    }
+
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+
+    private void loadState() throws IOException
+    {
+        oldState = new Properties();
+        newState = new Properties();
+        regimenCount = 0;
+        eventCount = 0;
+        changedCount = 0;
+
+        if (stateFile.exists() && file.exists())
+        {
+            try (InputStream in = Files.newInputStream(stateFile.toPath()))
+            {
+                oldState.load(in);
+            }
+        }
+    }
+
+
+    private void saveState() throws IOException
+    {
+        try (OutputStream out = Files.newOutputStream(stateFile.toPath()))
+        {
+            newState.store(out, "VitaReminder calendar export: anchor day, sequence, stamp and checksum of each event");
+        }
+    }
+
+
+    /**
+     * @return the anchor day, sequence, stamp and checksum, or <tt>null</tt>
+     *         if there is no state for the event or it cannot be read
+     */
+    private static long[] parseState(String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        String[] parts = value.split(",");
+
+        if (parts.length != 4)
+        {
+            return null;
+        }
+
+        try
+        {
+            return new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                               Long.parseLong(parts[2]), Long.parseLong(parts[3])};
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+}  // end class IcsGenerator
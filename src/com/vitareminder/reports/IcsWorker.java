@@ -0,0 +1,47 @@
+package com.vitareminder.reports;
+
+import javax.swing.SwingWorker;
+
+import com.vitareminder.dao.RegimenDAO;
+
+
+/**
+ * The {@code SwingWorker} background thread that calls
+ * {@code IcsGenerator#export()} and waits for it to return, so that
+ * reading the regimens and writing the .ics file do not hold up the
+ * Event Dispatch Thread.  The caller overrides {@code done()} to report
+ * the result.
+ */
+public class IcsWorker extends SwingWorker<IcsGenerator, Void>
+{
+    IcsGenerator generator;
+    RegimenDAO regimenDAO;
+
+
+    /**
+     * The sole constructor.
+     *
+     * @param generator  the generator that writes the .ics file
+     * @param regimenDAO  the DAO that is passed in to {@code IcsGenerator#export()}
+     *                    to read the regimens and supplements for the export
+     */
+    public IcsWorker(IcsGenerator generator, RegimenDAO regimenDAO)
+    {
+        this.generator = generator;
+        this.regimenDAO = regimenDAO;
+    }
+
+
+    /**
+     * This method is executed in a background thread and
+     * writes the .ics file.
+     */
+    @Override
+    protected IcsGenerator doInBackground() throws Exception
+    {
+        generator.export(regimenDAO);
+
+        return generator;
+    }
+
+}  // end class IcsWorker
@@ -0,0 +1,673 @@
+package com.vitareminder.search;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Regimen;
+import com.vitareminder.business.Supplement;
+import com.vitareminder.dao.RegimenDAO;
+import com.vitareminder.dao.RegimenVisitor;
+
+
+/**
+ * An in-memory inverted index over the names, units and notes of every
+ * supplement and the names and notes of every regimen, used by the search
+ * box in {@code VitaReminderPanel}.
+ * <p>
+ * Every indexed regimen or supplement is given a document number, and the
+ * text of its fields is split into lower-case words.  Each distinct word
+ * maps to the list of documents that contain it, and the words are kept in
+ * sorted order so that all the words beginning with a search term can be found
+ * in one range lookup.  Each three-letter sequence (trigram) that occurs in a
+ * word also maps to the words that contain it, so that a term of three or more
+ * letters also matches inside words, e.g. "amin" finds "Vitamin".  Each term
+ * of a query gathers its documents into a {@code BitSet}, and a document is
+ * a hit if it matches every term.
+ * <p>
+ * The index is built from the database by {@code DAOManager} the first time
+ * it is needed, and is then kept up to date by {@code RegimenDAOImpl} and
+ * {@code SupplementDAOImpl} as they change the database.  Changing a document
+ * gives it a new document number and leaves the old one behind as a removed
+ * entry, which searches skip.  Once removed entries outnumber live ones, the
+ * word lists are rebuilt.  Anything that replaces the database wholesale, such
+ * as a restore or a rollback, calls {@code invalidate()}, and the index is
+ * rebuilt on the next search.
+ */
+public class SearchIndex
+{
+    public static final int DEFAULT_MAX_HITS = 50;
+
+    /** the number of removed entries that is tolerated before compacting */
+    private static final int MIN_REMOVED_BEFORE_COMPACT = 1000;
+
+    /** the documents, by document number, or <tt>null</tt> for removed entries */
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Integer, Integer> supplementDocs = new HashMap<>();
+    private final Map<Integer, Integer> regimenDocs = new HashMap<>();
+
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    private final Map<String, Set<String>> trigramWords = new HashMap<>();
+
+    private int removedCount = 0;
+    private boolean built = false;
+
+    private Logger logger = Logger.getLogger(SearchIndex.class);
+
+
+    /**
+     * A regimen or supplement that matched a search.
+     */
+    public static class Hit
+    {
+        private final boolean supplement;
+        private final int id;
+        private final int regimenID;
+        private final String name;
+        private final String regimenName;
+
+        Hit(boolean supplement, int id, int regimenID, String name, String regimenName)
+        {
+            this.supplement = supplement;
+            this.id = id;
+            this.regimenID = regimenID;
+            this.name = name;
+            this.regimenName = regimenName;
+        }
+
+        /**
+         * @return <tt>true</tt> if the hit is a supplement, <tt>false</tt> if it is a regimen
+         */
+        public boolean isSupplement()
+        {
+            return supplement;
+        }
+
+        /**
+         * @return the {@code suppID} of a supplement, or the {@code regimenID} of a regimen
+         */
+        public int getID()
+        {
+            return id;
+        }
+
+        public int getRegimenID()
+        {
+            return regimenID;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getRegimenName()
+        {
+            return regimenName;
+        }
+
+        /**
+         * @return e.g. "Vitamin C (My Current Regimen)" for a supplement,
+         *         or "My Current Regimen" for a regimen
+         */
+        @Override
+        public String toString()
+        {
+            return supplement ? name + " (" + regimenName + ")" : name;
+        }
+    }
+
+
+    /** an indexed regimen or supplement */
+    private static class Entry
+    {
+        final boolean supplement;
+        final int id;
+        final int regimenID;
+        final String[] fields;  // name, units and notes, or name and notes
+
+        Entry(boolean supplement, int id, int regimenID, String... fields)
+        {
+            this.supplement = supplement;
+            this.id = id;
+            this.regimenID = regimenID;
+            this.fields = fields;
+        }
+    }
+
+
+    /** a growable list of document numbers */
+    private static class IntList
+    {
+        int[] values = new int[2];
+        int size = 0;
+
+        void add(int value)
+        {
+            if (size == values.length)
+            {
+                int[] newValues = new int[size * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+
+            values[size++] = value;
+        }
+
+        void setBits(BitSet bitSet)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                bitSet.set(values[i]);
+            }
+        }
+    }
+
+
+    /**
+     * Indexes every regimen and supplement in the database, replacing anything
+     * already in the index.  The regimens are streamed from the database with
+     * {@code RegimenDAO#visitRegimens()}, so they are never all held in memory.
+     *
+     * @param regimenDAO  the DAO used to read the regimens and their supplements
+     */
+    public synchronized void build(RegimenDAO regimenDAO)
+    {
+        long startTime = System.currentTimeMillis();
+
+        clear();
+
+        regimenDAO.visitRegimens(new RegimenVisitor() {
+
+            @Override
+            public boolean visitRegimen(Regimen regimen)
+            {
+                addRegimen(regimen.getRegimenID(), regimen.getRegimenName(), regimen.getRegimenNotes());
+
+                for (Supplement supplement : regimen.getSupplements())
+                {
+                    add(supplement);
+                }
+
+                return true;
+            }
+        });
+
+        built = true;
+
+        logger.info("Search index built in " + (System.currentTimeMillis() - startTime) + " ms with "
+                  + entries.size() + " documents and " + postings.size() + " words.");
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the index has been built and not since invalidated
+     */
+    public synchronized boolean isBuilt()
+    {
+        return built;
+    }
+
+
+    /**
+     * Discards the index, so that it is rebuilt the next time it is needed.
+     * Called when the database has been replaced or rolled back, and the
+     * changes can no longer be applied one by one.
+     */
+    public synchronized void invalidate()
+    {
+        clear();
+        built = false;
+    }
+
+
+    /**
+     * Adds a regimen, but not its supplements, to the index.
+     *
+     * @param regimen  the regimen, with its {@code regimenID}
+     */
+    public synchronized void addRegimen(Regimen regimen)
+    {
+        if (built)
+        {
+            addRegimen(regimen.getRegimenID(), regimen.getRegimenName(), regimen.getRegimenNotes());
+        }
+    }
+
+
+    /**
+     * Adds a supplement to the index.
+     *
+     * @param supplement  the supplement, with its {@code suppID} and {@code regimenID}
+     */
+    public synchronized void addSupplement(Supplement supplement)
+    {
+        if (built)
+        {
+            add(supplement);
+        }
+    }
+
+
+    /**
+     * Updates a single field of a regimen in the index.
+     *
+     * @param regimenID  the regimen to update
+     * @param field  the name of the column in the regimens table, e.g. "regimen_name"
+     * @param value  the new value
+     */
+    public synchronized void updateRegimen(int regimenID, String field, Object value)
+    {
+        Integer doc = regimenDocs.get(regimenID);
+
+        if (!built || doc == null)
+        {
+            return;
+        }
+
+        String[] fields = entries.get(doc).fields.clone();
+
+        switch (field)
+        {
+        case "regimen_name":
+            fields[0] = (String) value;
+            break;
+        case "regimen_notes":
+            fields[1] = (String) value;
+            break;
+        default:
+            return;
+        }
+
+        remove(doc);
+        addRegimen(regimenID, fields[0], fields[1]);
+
+        // The old entry is left behind as a removed one, so edits alone can fill the index
+        compactIfNeeded();
+    }
+
+
+    /**
+     * Updates a single field of a supplement in the index.  Fields that are
+     * not indexed, such as the time, are ignored.
+     *
+     * @param suppID  the supplement to update
+     * @param field  the name of the column in the supplements table, e.g. "supp_name"
+     * @param value  the new value
+     */
+    public synchronized void updateSupplement(int suppID, String field, Object value)
+    {
+        Integer doc = supplementDocs.get(suppID);
+
+        if (!built || doc == null)
+        {
+            return;
+        }
+
+        Entry entry = entries.get(doc);
+        String[] fields = entry.fields.clone();
+
+        switch (field)
+        {
+        case "supp_name":
+            fields[0] = (String) value;
+            break;
+        case "supp_units":
+            fields[1] = (String) value;
+            break;
+        case "supp_notes":
+            fields[2] = (String) value;
+            break;
+        default:
+            return;
+        }
+
+        remove(doc);
+        add(new Entry(true, suppID, entry.regimenID, fields));
+
+        // As in updateRegimen(), the old entry still counts as removed
+        compactIfNeeded();
+    }
+
+
+    /**
+     * Removes a regimen and all of its supplements from the index, as the
+     * ON DELETE CASCADE does in the database.
+     *
+     * @param regimenID  the regimen to remove
+     */
+    public synchronized void removeRegimen(int regimenID)
+    {
+        Integer doc = regimenDocs.get(regimenID);
+
+        if (!built || doc == null)
+        {
+            return;
+        }
+
+        remove(doc);
+
+        List<Integer> suppIDs = new ArrayList<>();
+
+        for (Map.Entry<Integer, Integer> supplementDoc : supplementDocs.entrySet())
+        {
+            if (entries.get(supplementDoc.getValue()).regimenID == regimenID)
+            {
+                suppIDs.add(supplementDoc.getKey());
+            }
+        }
+
+        for (int suppID : suppIDs)
+        {
+            remove(supplementDocs.get(suppID));
+        }
+
+        compactIfNeeded();
+    }
+
+
+    /**
+     * Removes a supplement from the index.
+     *
+     * @param suppID  the supplement to remove
+     */
+    public synchronized void removeSupplement(int suppID)
+    {
+        Integer doc = supplementDocs.get(suppID);
+
+        if (built && doc != null)
+        {
+            remove(doc);
+            compactIfNeeded();
+        }
+    }
+
+
+    /**
+     * Finds the regimens and supplements that match every word of the query.
+     * A word matches if it begins any word in the indexed fields, or, if it
+     * is at least three letters long, if it occurs anywhere inside one.
+     * Matching ignores case.
+     *
+     * @param query  the text typed into the search box
+     * @param maxHits  the maximum number of hits to return
+     * @return the hits, regimens and supplements in the order they were indexed
+     */
+    public synchronized List<Hit> search(String query, int maxHits)
+    {
+        Set<String> terms = tokenize(query);
+
+        if (terms.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        BitSet matches = null;
+
+        for (String term : terms)
+        {
+            BitSet termMatches = new BitSet(entries.size());
+
+            for (IntList docs : postings.subMap(term, true, term + Character.MAX_VALUE, true).values())
+            {
+                docs.setBits(termMatches);
+            }
+
+            if (term.length() >= 3)
+            {
+                for (String word : getWordsContaining(term))
+                {
+                    postings.get(word).setBits(termMatches);
+                }
+            }
+
+            if (matches == null)
+            {
+                matches = termMatches;
+            }
+            else
+            {
+                matches.and(termMatches);
+            }
+
+            if (matches.isEmpty())
+            {
+                return Collections.emptyList();
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>();
+
+        for (int doc = matches.nextSetBit(0); doc >= 0 && hits.size() < maxHits; doc = matches.nextSetBit(doc + 1))
+        {
+            Entry entry = entries.get(doc);
+
+            if (entry != null)
+            {
+                hits.add(new Hit(entry.supplement, entry.id, entry.regimenID,
+                                 entry.fields[0], getRegimenName(entry.regimenID)));
+            }
+        }
+
+        return hits;
+    }
+
+
+    private void clear()
+    {
+        entries.clear();
+        supplementDocs.clear();
+        regimenDocs.clear();
+        postings.clear();
+        trigramWords.clear();
+        removedCount = 0;
+    }
+
+
+    private void addRegimen(int regimenID, String name, String notes)
+    {
+        add(new Entry(false, regimenID, regimenID, name, notes));
+    }
+
+
+    private void add(Supplement supplement)
+    {
+        add(new Entry(true, supplement.getSuppID(), supplement.getRegimenID(),
+                      supplement.getSuppName(), supplement.getSuppUnits(), supplement.getSuppNotes()));
+    }
+
+
+    private void add(Entry entry)
+    {
+        int doc = entries.size();
+        entries.add(entry);
+
+        if (entry.supplement)
+        {
+            supplementDocs.put(entry.id, doc);
+        }
+        else
+        {
+            regimenDocs.put(entry.id, doc);
+        }
+
+        Set<String> words = new HashSet<>();
+
+        for (String field : entry.fields)
+        {
+            words.addAll(tokenize(field));
+        }
+
+        for (String word : words)
+        {
+            IntList docs = postings.get(word);
+
+            if (docs == null)
+            {
+                docs = new IntList();
+                postings.put(word, docs);
+
+                addTrigrams(word);
+            }
+
+            docs.add(doc);
+        }
+    }
+
+
+    private void remove(int doc)
+    {
+        Entry entry = entries.set(doc, null);
+
+        if (entry.supplement)
+        {
+            supplementDocs.remove(entry.id);
+        }
+        else
+        {
+            regimenDocs.remove(entry.id);
+        }
+
+        removedCount++;
+    }
+
+
+    /**
+     * Rebuilds the word lists without the removed entries, once they
+     * outnumber the live ones.
+     */
+    private void compactIfNeeded()
+    {
+        int liveCount = entries.size() - removedCount;
+
+        if (removedCount < MIN_REMOVED_BEFORE_COMPACT || removedCount < liveCount)
+        {
+            return;
+        }
+
+        List<Entry> liveEntries = new ArrayList<>(liveCount);
+
+        for (Entry entry : entries)
+        {
+            if (entry != null)
+            {
+                liveEntries.add(entry);
+            }
+        }
+
+        clear();
+
+        for (Entry entry : liveEntries)
+        {
+            add(entry);
+        }
+    }
+
+
+    private void addTrigrams(String word)
+    {
+        for (int i = 0; i + 3 <= word.length(); i++)
+        {
+            String trigram = word.substring(i, i + 3);
+            Set<String> words = trigramWords.get(trigram);
+
+            if (words == null)
+            {
+                words = new HashSet<>();
+                trigramWords.put(trigram, words);
+            }
+
+            words.add(word);
+        }
+    }
+
+
+    /**
+     * Finds the indexed words that contain the term, by intersecting the
+     * words that contain each of its trigrams, starting with the rarest.
+     */
+    private List<String> getWordsContaining(String term)
+    {
+        Set<String> smallest = null;
+
+        for (int i = 0; i + 3 <= term.length(); i++)
+        {
+            Set<String> words = trigramWords.get(term.substring(i, i + 3));
+
+            if (words == null)
+            {
+                return Collections.emptyList();
+            }
+
+            if (smallest == null || words.size() < smallest.size())
+            {
+                smallest = words;
+            }
+        }
+
+        List<String> matches = new ArrayList<>();
+
+        for (String word : smallest)
+        {
+            // Words that start with the term have already been found by prefix
+            if (word.contains(term) && !word.startsWith(term))
+            {
+                matches.add(word);
+            }
+        }
+
+        return matches;
+    }
+
+
+    private String getRegimenName(int regimenID)
+    {
+        Integer doc = regimenDocs.get(regimenID);
+
+        return doc == null ? "" : entries.get(doc).fields[0];
+    }
+
+
+    /**
+     * Splits text into its distinct lower-case words, where a word is a run
+     * of letters and digits.
+     */
+    private static Set<String> tokenize(String text)
+    {
+        Set<String> words = new LinkedHashSet<>();
+
+        if (text == null)
+        {
+            return words;
+        }
+
+        int start = -1;
+
+        for (int i = 0; i <= text.length(); i++)
+        {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+            if (wordChar && start == -1)
+            {
+                start = i;
+            }
+            else if (!wordChar && start != -1)
+            {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+
+        return words;
+    }
+
+}  // end class SearchIndex
@@ -0,0 +1,162 @@
+package com.vitareminder.settings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The settings of a single {@code Profile}, such as the address that its
+ * e-mail reminders are sent to and which types of reminder are enabled.
+ * The methods follow those of {@code java.util.prefs.Preferences}, which
+ * held these settings before there were profiles.
+ * <p>
+ * The settings are read from an in-memory copy, so reading them costs no
+ * more than a map lookup.  A change is saved to the database by the
+ * {@code SettingsStore} before the copy is updated, and is not made at all
+ * if it cannot be saved.  Instances are obtained from the {@code SettingsStore}.
+ */
+public class ProfileSettings
+{
+    private final SettingsStore settingsStore;
+    private final int profileID;
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+
+    ProfileSettings(SettingsStore settingsStore, int profileID, Map<String, String> values)
+    {
+        this.settingsStore = settingsStore;
+        this.profileID = profileID;
+
+        for (Map.Entry<String, String> value : values.entrySet())
+        {
+            if (value.getValue() != null)
+            {
+                this.values.put(value.getKey(), value.getValue());
+            }
+        }
+    }
+
+
+    /**
+     * @return the ID of the profile that these settings belong to
+     */
+    public int getProfileID()
+    {
+        return profileID;
+    }
+
+
+    /**
+     * Gets the value of the specified setting.
+     *
+     * @param key  the name of the setting
+     * @param defaultValue  the value returned if the setting has never been saved
+     * @return the value of the setting, or {@code defaultValue}
+     */
+    public String get(String key, String defaultValue)
+    {
+        String value = values.get(key);
+
+        return value != null ? value : defaultValue;
+    }
+
+
+    /**
+     * Gets the value of the specified setting as a {@code boolean}.
+     *
+     * @param key  the name of the setting
+     * @param defaultValue  the value returned if the setting has never been saved,
+     *                      or is neither "true" nor "false"
+     * @return the value of the setting, or {@code defaultValue}
+     */
+    public boolean getBoolean(String key, boolean defaultValue)
+    {
+        String value = values.get(key);
+
+        if ("true".equalsIgnoreCase(value))
+        {
+            return true;
+        }
+        else if ("false".equalsIgnoreCase(value))
+        {
+            return false;
+        }
+
+        return defaultValue;
+    }
+
+
+    /**
+     * Saves the value of the specified setting.
+     *
+     * @param key  the name of the setting
+     * @param value  the new value of the setting, which may not be <tt>null</tt>
+     * @return <tt>true</tt> if the setting was saved, <tt>false</tt> otherwise
+     */
+    public boolean put(String key, String value)
+    {
+        return putAll(Collections.singletonMap(key, value));
+    }
+
+
+    /**
+     * Saves the value of the specified setting as "true" or "false".
+     *
+     * @param key  the name of the setting
+     * @param value  the new value of the setting
+     * @return <tt>true</tt> if the setting was saved, <tt>false</tt> otherwise
+     */
+    public boolean putBoolean(String key, boolean value)
+    {
+        return put(key, String.valueOf(value));
+    }
+
+
+    /**
+     * Saves the values of several settings in a single transaction, so that
+     * either all of them are changed or none of them are.  Settings that
+     * already have the specified values are left alone, and nothing is
+     * written if none of them would change.  The listeners of the
+     * {@code SettingsStore} are notified once, with every setting that
+     * was changed.
+     *
+     * @param settings  the new values of the settings, keyed by name, none of which
+     *                  may be <tt>null</tt>
+     * @return <tt>true</tt> if the settings were saved, <tt>false</tt> otherwise
+     */
+    public boolean putAll(Map<String, String> settings)
+    {
+        Map<String, String> changedSettings = new HashMap<>();
+
+        for (Map.Entry<String, String> setting : settings.entrySet())
+        {
+            if (setting.getKey() == null || setting.getValue() == null)
+            {
+                throw new NullPointerException("Settings may not have null names or values.");
+            }
+
+            if (!setting.getValue().equals(values.get(setting.getKey())))
+            {
+                changedSettings.put(setting.getKey(), setting.getValue());
+            }
+        }
+
+        if (changedSettings.isEmpty())
+        {
+            return true;
+        }
+
+        if (!settingsStore.save(profileID, changedSettings))
+        {
+            return false;
+        }
+
+        values.putAll(changedSettings);
+        settingsStore.fireSettingsChanged(profileID, changedSettings.keySet());
+
+        return true;
+    }
+
+}  // end class ProfileSettings
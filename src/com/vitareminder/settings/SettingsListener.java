@@ -0,0 +1,31 @@
+package com.vitareminder.settings;
+
+import java.util.EventListener;
+import java.util.Set;
+
+import com.vitareminder.business.Profile;
+
+
+/**
+ * The listener interface for receiving notice of changes to the settings
+ * held by the {@code SettingsStore}.  Listeners are notified on the thread
+ * that made the change, after the change has been saved to the database.
+ */
+public interface SettingsListener extends EventListener
+{
+    /**
+     * Invoked when some of the settings of a profile have been changed.
+     *
+     * @param profileID  the profile whose settings have been changed
+     * @param keys  the names of the settings that have been changed
+     */
+    public void settingsChanged(int profileID, Set<String> keys);
+
+
+    /**
+     * Invoked when a different profile has been made the active profile.
+     *
+     * @param profile  the new active profile
+     */
+    public void activeProfileChanged(Profile profile);
+}
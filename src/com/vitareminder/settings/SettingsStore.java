@@ -0,0 +1,389 @@
+package com.vitareminder.settings;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.prefs.Preferences;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Profile;
+import com.vitareminder.dao.SettingsDAO;
+
+
+/**
+ * Holds the profiles, the settings of each profile, and which profile is
+ * active, i.e. whose regimens are shown and edited.  The settings are kept
+ * in the settings table of the database, keyed by profile, and are all read
+ * into memory when the store is created, so the many reads made while the
+ * supplement table is painted never touch the database.  Objects that need
+ * to know when a setting changes, or when another profile is made active,
+ * register a {@code SettingsListener}.
+ * <p>
+ * The active profile is itself a setting of the default profile, so that
+ * the application starts with the profile that was last used.
+ * <p>
+ * The first time the store is created, the reminder settings that were
+ * kept in {@code java.util.prefs.Preferences}, and the column layout that
+ * was kept in user/data, are copied into the default profile.
+ * <p>
+ * A single instance is created by {@code DAOManager}.
+ */
+public class SettingsStore
+{
+    /** the profile that is created with the database, and that older regimens belong to */
+    public static final int DEFAULT_PROFILE_ID = 1;
+
+    private static final String ACTIVE_PROFILE = "ACTIVE_PROFILE";
+    private static final String LEGACY_SETTINGS_IMPORTED = "LEGACY_SETTINGS_IMPORTED";
+
+    private static final String[] LEGACY_PREFERENCE_KEYS = {"EMAIL_ADDRESS", "PHONE_NUMBER",
+                                                            "EMAIL_REMINDERS_ENABLED",
+                                                            "TEXT_REMINDERS_ENABLED",
+                                                            "VOICE_REMINDERS_ENABLED",
+                                                            "EMAIL_VERIFIED", "PHONE_VERIFIED"};
+
+    private SettingsDAO settingsDAO;
+
+    private volatile List<Profile> profiles = Collections.emptyList();
+    private final Map<Integer, ProfileSettings> settingsByProfile = new ConcurrentHashMap<>();
+    private volatile int activeProfileID = DEFAULT_PROFILE_ID;
+
+    private final List<SettingsListener> listeners = new CopyOnWriteArrayList<>();
+
+    private Logger logger = Logger.getLogger(SettingsStore.class);
+
+
+    /**
+     * The sole constructor.  Reads every profile and setting from the
+     * database.
+     *
+     * @param settingsDAO  used to read and write the profiles and settings tables
+     */
+    public SettingsStore(SettingsDAO settingsDAO)
+    {
+        this.settingsDAO = settingsDAO;
+
+        reload();
+        importLegacySettings();
+    }
+
+
+    /**
+     * Reads every profile and setting from the database again, replacing
+     * the ones held in memory.  If the profile that was active no longer
+     * exists, the default profile is made active.
+     */
+    public void reload()
+    {
+        List<Profile> loadedProfiles = settingsDAO.getProfiles();
+        Map<Integer, Map<String, String>> allSettings = settingsDAO.getAllSettings();
+
+        if (loadedProfiles == null || allSettings == null)
+        {
+            return;
+        }
+
+        settingsByProfile.clear();
+
+        for (Profile profile : loadedProfiles)
+        {
+            Map<String, String> values = allSettings.get(profile.getProfileID());
+
+            settingsByProfile.put(profile.getProfileID(),
+                                  new ProfileSettings(this, profile.getProfileID(),
+                                                      values != null ? values : new HashMap<String, String>()));
+        }
+
+        profiles = Collections.unmodifiableList(loadedProfiles);
+
+        int savedProfileID = DEFAULT_PROFILE_ID;
+
+        try
+        {
+            savedProfileID = Integer.parseInt(getSettings(DEFAULT_PROFILE_ID).get(ACTIVE_PROFILE,
+                                                                                 String.valueOf(DEFAULT_PROFILE_ID)));
+        }
+        catch (NumberFormatException e)
+        {
+            logger.warn("The saved active profile is not a number.", e);
+        }
+
+        activeProfileID = getProfile(savedProfileID) != null ? savedProfileID : DEFAULT_PROFILE_ID;
+    }
+
+
+    /**
+     * @return every profile, in ascending order by {@code profileID}
+     */
+    public List<Profile> getProfiles()
+    {
+        return profiles;
+    }
+
+
+    /**
+     * Gets the profile with the specified ID.
+     *
+     * @param profileID  the ID of the profile
+     * @return the profile, or <tt>null</tt> if there is no such profile
+     */
+    public Profile getProfile(int profileID)
+    {
+        for (Profile profile : profiles)
+        {
+            if (profile.getProfileID() == profileID)
+            {
+                return profile;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Adds a profile with the specified name.  The new profile has no settings,
+     * so all of its reminders are disabled until it is configured.
+     *
+     * @param profileName  the name of the new profile
+     * @return the new profile, or <tt>null</tt> if it could not be saved
+     */
+    public Profile addProfile(String profileName)
+    {
+        Profile profile = settingsDAO.addProfile(profileName);
+
+        if (profile != null)
+        {
+            settingsByProfile.put(profile.getProfileID(),
+                                  new ProfileSettings(this, profile.getProfileID(), new HashMap<String, String>()));
+
+            List<Profile> updatedProfiles = new ArrayList<>(profiles);
+            updatedProfiles.add(profile);
+            profiles = Collections.unmodifiableList(updatedProfiles);
+        }
+
+        return profile;
+    }
+
+
+    /**
+     * @return the ID of the profile whose regimens are shown and edited
+     */
+    public int getActiveProfileID()
+    {
+        return activeProfileID;
+    }
+
+
+    /**
+     * @return the profile whose regimens are shown and edited
+     */
+    public Profile getActiveProfile()
+    {
+        return getProfile(activeProfileID);
+    }
+
+
+    /**
+     * Makes the specified profile the active one, and remembers it for the
+     * next time the application starts.  The listeners are notified.  The
+     * caller is responsible for saving or discarding any unsaved changes to
+     * the previous profile's regimens first.
+     *
+     * @param profileID  the ID of the profile to make active
+     * @return <tt>true</tt> if the profile is now active, <tt>false</tt> if there is
+     *         no such profile
+     */
+    public boolean setActiveProfile(int profileID)
+    {
+        Profile profile = getProfile(profileID);
+
+        if (profile == null)
+        {
+            return false;
+        }
+
+        if (profileID != activeProfileID)
+        {
+            activeProfileID = profileID;
+            getSettings(DEFAULT_PROFILE_ID).put(ACTIVE_PROFILE, String.valueOf(profileID));
+
+            for (SettingsListener listener : listeners)
+            {
+                listener.activeProfileChanged(profile);
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @return the settings of the active profile
+     */
+    public ProfileSettings getSettings()
+    {
+        return getSettings(activeProfileID);
+    }
+
+
+    /**
+     * Gets the settings of the specified profile.  A profile that does not
+     * exist has no settings, and changes to them are not saved.
+     *
+     * @param profileID  the ID of the profile
+     * @return the settings of the profile
+     */
+    public ProfileSettings getSettings(int profileID)
+    {
+        ProfileSettings settings = settingsByProfile.get(profileID);
+
+        if (settings == null)
+        {
+            settings = new ProfileSettings(this, profileID, new HashMap<String, String>());
+        }
+
+        return settings;
+    }
+
+
+    public void addSettingsListener(SettingsListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    public void removeSettingsListener(SettingsListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Saves the specified settings to the database in a single transaction.
+     * Called by {@code ProfileSettings} before it updates its in-memory copy.
+     */
+    boolean save(int profileID, Map<String, String> settings)
+    {
+        if (!settingsByProfile.containsKey(profileID))
+        {
+            logger.warn("Settings " + settings.keySet() + " were not saved, as there is no profile " + profileID);
+            return false;
+        }
+
+        return settingsDAO.putSettings(profileID, settings);
+    }
+
+
+    /**
+     * Notifies the listeners that the specified settings have been changed.
+     * Called by {@code ProfileSettings} after a change has been saved.
+     */
+    void fireSettingsChanged(int profileID, Set<String> keys)
+    {
+        for (SettingsListener listener : listeners)
+        {
+            listener.settingsChanged(profileID, keys);
+        }
+    }
+
+
+    /**
+     * Copies the reminder settings from {@code java.util.prefs.Preferences}, and
+     * the supplement table's column order and widths from the properties files
+     * in user/data, into the default profile.  This is only done once, so that
+     * the user's settings carry over from a version without profiles.  The old
+     * settings are left where they were.
+     */
+    private void importLegacySettings()
+    {
+        ProfileSettings defaultSettings = getSettings(DEFAULT_PROFILE_ID);
+
+        if (defaultSettings.getBoolean(LEGACY_SETTINGS_IMPORTED, false))
+        {
+            return;
+        }
+
+        Map<String, String> legacySettings = new LinkedHashMap<>();
+
+        Preferences userPreferences = Preferences.userRoot();
+
+        for (String key : LEGACY_PREFERENCE_KEYS)
+        {
+            String value = userPreferences.get(key, null);
+
+            if (value != null)
+            {
+                legacySettings.put(key, value);
+            }
+        }
+
+        String columnOrder = readColumnProperties("user/data/columnorder.properties");
+        if (columnOrder != null)
+        {
+            legacySettings.put("SUPPLEMENT_COLUMN_ORDER", columnOrder);
+        }
+
+        String columnWidths = readColumnProperties("user/data/columnwidths.properties");
+        if (columnWidths != null)
+        {
+            legacySettings.put("SUPPLEMENT_COLUMN_WIDTHS", columnWidths);
+        }
+
+        legacySettings.put(LEGACY_SETTINGS_IMPORTED, "true");
+
+        if (defaultSettings.putAll(legacySettings))
+        {
+            logger.info("Imported " + (legacySettings.size() - 1) + " settings into the default profile.");
+        }
+    }
+
+
+    /**
+     * Reads a properties file of the form column0=..., column1=..., written
+     * by earlier versions of {@code VitaReminderPanel}.
+     *
+     * @param fileName  the path of the properties file
+     * @return the values in column order, separated by commas, or <tt>null</tt>
+     *         if the file does not exist or cannot be read
+     */
+    private String readColumnProperties(String fileName)
+    {
+        Properties properties = new Properties();
+
+        try (InputStream inputStream = new FileInputStream(fileName))
+        {
+            properties.load(inputStream);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        StringBuilder values = new StringBuilder();
+
+        for (int i = 0; properties.getProperty("column" + i) != null; i++)
+        {
+            if (i > 0)
+            {
+                values.append(',');
+            }
+
+            values.append(properties.getProperty("column" + i).trim());
+        }
+
+        return values.length() > 0 ? values.toString() : null;
+    }
+
+}  // end class SettingsStore
@@ -0,0 +1,431 @@
+package com.vitareminder.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.util.Random;
+
+import com.vitareminder.db.DBConstants;
+
+
+/**
+ * Generates synthetic regimens and supplements, so that the application can
+ * be tried with far more data than the sample database holds.
+ * <p>
+ * The data is either written straight into an H2 database with batched
+ * inserts, or written as a .vrdata script that can be imported through
+ * File -> Import.  Either way, the regimens and supplements tables are
+ * dropped and created again first, exactly as VitaReminder_Restore.sql does,
+ * so the regimens are numbered from 1.
+ * <p>
+ * The same seed always generates the same data.  Each supplement is given a
+ * time of day drawn from one of these distributions:
+ * <ul>
+ * <li>"uniform": any minute of the day</li>
+ * <li>"meals": around breakfast, lunch, dinner and bedtime, as most people take them</li>
+ * <li>"peak": 8:00 AM, so that every reminder fires at once</li>
+ * </ul>
+ * The specified fraction of the supplements have reminders enabled, each on
+ * a random, non-empty combination of e-mail, text message and voice.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp bin:lib/... com.vitareminder.tools.DataGenerator output [regimens]
+ *      [supplementsPerRegimen] [reminderRatio] [distribution] [seed]
+ * </pre>
+ * If the output ends in .vrdata, a script is written to that file; otherwise
+ * it is the directory of the database, which is created if necessary.  The
+ * defaults are 100 regimens, 100 supplements per regimen, a reminder ratio
+ * of 0.5, "meals" and a seed of 42.
+ */
+public class DataGenerator
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final int COMMIT_INTERVAL = 10000;
+
+    private static final String[] SUPPLEMENT_NAMES = {
+        "Multivitamin Mineral", "Vitamin A", "Vitamin B Complex", "Vitamin B12", "Vitamin C",
+        "Vitamin D3", "Vitamin E", "Vitamin K2", "Folic Acid", "Biotin", "Calcium Citrate",
+        "Magnesium Glycinate", "Zinc Picolinate", "Iron", "Selenium", "Potassium", "Iodine",
+        "Fish Oil", "Krill Oil", "Flaxseed Oil", "CoQ10", "Alpha Lipoic Acid", "L-Carnitine",
+        "L-Glutamine", "Creatine", "Whey Protein", "BCAA", "Probiotic", "Digestive Enzymes",
+        "Melatonin", "Glucosamine", "Chondroitin", "Turmeric", "Ginkgo Biloba", "Echinacea",
+        "Elderberry", "Lisinopril", "Metformin", "Atorvastatin", "Levothyroxine", "Aspirin"
+    };
+
+    private static final String[] UNITS = {"capsule", "tablet", "softgel", "mg", "mcg", "IU", "ml", "scoop"};
+
+    private static final String[] NOTES = {
+        "Take with food.",
+        "Take on an empty stomach.",
+        "Take with a full glass of water.",
+        "Do not take with calcium.",
+        "Refrigerate after opening."
+    };
+
+    /** the minutes of the day around which the "meals" distribution clusters */
+    private static final int[] MEAL_MINUTES = {7 * 60 + 30, 12 * 60, 18 * 60, 21 * 60 + 30};
+
+    private static final String CREATE_TABLES =
+            "DROP TABLE IF EXISTS regimens CASCADE;\n"
+          + "DROP TABLE IF EXISTS supplements CASCADE;\n"
+          + "\n"
+          + "CREATE TABLE regimens\n"
+          + "(\n"
+          + "  regimen_id INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),\n"
+          + "  regimen_name VARCHAR(60) NOT NULL,\n"
+          + "  regimen_notes VARCHAR(1024) DEFAULT NULL,\n"
+          + "  CONSTRAINT regimens_pk PRIMARY KEY (regimen_id)\n"
+          + ");\n"
+          + "\n"
+          + "CREATE TABLE supplements\n"
+          + "(\n"
+          + "  supp_id INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1),\n"
+          + "  regimen_id INTEGER NOT NULL,\n"
+          + "  supp_name VARCHAR(60) NOT NULL,\n"
+          + "  supp_amount DOUBLE DEFAULT NULL,\n"
+          + "  supp_units VARCHAR(30) DEFAULT NULL,\n"
+          + "  supp_time TIME DEFAULT NULL,\n"
+          + "  supp_email_enabled BOOLEAN NOT NULL,\n"
+          + "  supp_text_enabled BOOLEAN NOT NULL,\n"
+          + "  supp_voice_enabled BOOLEAN NOT NULL,\n"
+          + "  supp_notes VARCHAR(1024) DEFAULT NULL,\n"
+          + "  supp_recurrence VARCHAR(255) DEFAULT NULL,\n"
+          + "  CONSTRAINT supp_id_pk PRIMARY KEY (supp_id),\n"
+          + "  CONSTRAINT regimen_id_fk FOREIGN KEY (regimen_id) REFERENCES regimens(regimen_id)\n"
+          + "      ON UPDATE RESTRICT\n"
+          + "      ON DELETE CASCADE\n"
+          + ");\n";
+
+    private static final String INSERT_REGIMEN =
+            "INSERT INTO regimens (regimen_name, regimen_notes) VALUES (?, ?)";
+
+    private static final String INSERT_SUPPLEMENT =
+            "INSERT INTO supplements (regimen_id, supp_name, supp_amount, supp_units, supp_time, "
+          + "supp_email_enabled, supp_text_enabled, supp_voice_enabled, supp_notes) "
+          + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final int regimenCount;
+    private final int supplementsPerRegimen;
+    private final double reminderRatio;
+    private final String distribution;
+    private final long seed;
+
+
+    /**
+     * Creates a generator of {@code regimenCount * supplementsPerRegimen} supplements.
+     *
+     * @param regimenCount  the number of regimens
+     * @param supplementsPerRegimen  the number of supplements in each regimen
+     * @param reminderRatio  the fraction of the supplements that have reminders enabled, from 0 to 1
+     * @param distribution  the distribution of the supplements' times of day: "uniform", "meals" or "peak"
+     * @param seed  the seed of the random numbers
+     */
+    public DataGenerator(int regimenCount, int supplementsPerRegimen, double reminderRatio,
+                         String distribution, long seed)
+    {
+        if (!distribution.equals("uniform") && !distribution.equals("meals") && !distribution.equals("peak"))
+        {
+            throw new IllegalArgumentException("Unknown time distribution: " + distribution);
+        }
+
+        this.regimenCount = regimenCount;
+        this.supplementsPerRegimen = supplementsPerRegimen;
+        this.reminderRatio = reminderRatio;
+        this.distribution = distribution;
+        this.seed = seed;
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: DataGenerator output [regimens] [supplementsPerRegimen] "
+                             + "[reminderRatio] [uniform|meals|peak] [seed]");
+            System.exit(1);
+        }
+
+        String output = args[0];
+        int regimenCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int supplementsPerRegimen = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        double reminderRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        String distribution = args.length > 4 ? args[4] : "meals";
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+
+        DataGenerator generator = new DataGenerator(regimenCount, supplementsPerRegimen, reminderRatio,
+                                                    distribution, seed);
+
+        long start = System.nanoTime();
+
+        if (output.endsWith(".vrdata"))
+        {
+            generator.writeScript(new File(output));
+        }
+        else
+        {
+            generator.writeDatabase(new File(output));
+        }
+
+        System.out.printf("Generated %d regimens and %d supplements in %s in %.2f s%n",
+                          regimenCount, generator.getSupplementCount(), output,
+                          (System.nanoTime() - start) / 1e9);
+    }
+
+
+    public long getSupplementCount()
+    {
+        return (long) regimenCount * supplementsPerRegimen;
+    }
+
+
+    /**
+     * Writes the data into the vitareminder_db database in the specified
+     * directory, replacing its regimens and supplements.
+     *
+     * @param directory  the directory of the database, which is created if necessary
+     * @throws SQLException  if the data could not be written
+     */
+    public void writeDatabase(File directory) throws SQLException
+    {
+        directory.mkdirs();
+
+        String url = "jdbc:h2:file:" + directory.getPath().replace('\\', '/') + "/" + DBConstants.DATABASE_NAME;
+
+        try (Connection connection = DriverManager.getConnection(url, DBConstants.USERNAME, DBConstants.PASSWORD))
+        {
+            writeDatabase(connection);
+        }
+    }
+
+
+    /**
+     * Writes the data through the specified connection, replacing the
+     * regimens and supplements tables.  The inserts are sent in batches
+     * and committed every {@code COMMIT_INTERVAL} rows.
+     *
+     * @param connection  the connection to the database
+     * @throws SQLException  if the data could not be written
+     */
+    public void writeDatabase(Connection connection) throws SQLException
+    {
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement())
+        {
+            for (String sql : CREATE_TABLES.split(";"))
+            {
+                if (!sql.trim().isEmpty())
+                {
+                    statement.execute(sql);
+                }
+            }
+        }
+
+        Random random = new Random(seed);
+        int rows = 0;
+
+        try (PreparedStatement regimenStatement = connection.prepareStatement(INSERT_REGIMEN);
+             PreparedStatement supplementStatement = connection.prepareStatement(INSERT_SUPPLEMENT))
+        {
+            for (int r = 1; r <= regimenCount; r++)
+            {
+                regimenStatement.setString(1, getRegimenName(r));
+                regimenStatement.setString(2, getRegimenNotes(r));
+                regimenStatement.addBatch();
+            }
+
+            regimenStatement.executeBatch();
+
+            for (int r = 1; r <= regimenCount; r++)
+            {
+                for (int s = 0; s < supplementsPerRegimen; s++)
+                {
+                    SupplementRow row = nextSupplement(random);
+
+                    supplementStatement.setInt(1, r);
+                    supplementStatement.setString(2, row.name);
+                    supplementStatement.setDouble(3, row.amount);
+                    supplementStatement.setString(4, row.units);
+                    supplementStatement.setTime(5, Time.valueOf(row.getTime()));
+                    supplementStatement.setBoolean(6, row.emailEnabled);
+                    supplementStatement.setBoolean(7, row.textEnabled);
+                    supplementStatement.setBoolean(8, row.voiceEnabled);
+                    supplementStatement.setString(9, row.notes);
+                    supplementStatement.addBatch();
+
+                    rows++;
+
+                    if (rows % BATCH_SIZE == 0)
+                    {
+                        supplementStatement.executeBatch();
+                    }
+
+                    if (rows % COMMIT_INTERVAL == 0)
+                    {
+                        connection.commit();
+                    }
+                }
+            }
+
+            supplementStatement.executeBatch();
+        }
+
+        connection.commit();
+    }
+
+
+    /**
+     * Writes the data as a .vrdata script, which is run by
+     * {@code DbDAO#restoreDatabase()} when the file is imported.  The
+     * supplements are inserted {@code BATCH_SIZE} rows per statement.
+     *
+     * @param file  the script to write
+     * @throws IOException  if the file could not be written
+     */
+    public void writeScript(File file) throws IOException
+    {
+        Random random = new Random(seed);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                                       StandardCharsets.UTF_8)))
+        {
+            writer.write(CREATE_TABLES);
+
+            for (int r = 1; r <= regimenCount; r++)
+            {
+                writer.write(r % BATCH_SIZE == 1 ? "\nINSERT INTO regimens (regimen_name, regimen_notes) VALUES\n" : ",\n");
+                writer.write("(" + quote(getRegimenName(r)) + ", " + quote(getRegimenNotes(r)) + ")");
+
+                if (r % BATCH_SIZE == 0 || r == regimenCount)
+                {
+                    writer.write(";\n");
+                }
+            }
+
+            long rows = 0;
+            long total = getSupplementCount();
+
+            for (int r = 1; r <= regimenCount; r++)
+            {
+                for (int s = 0; s < supplementsPerRegimen; s++)
+                {
+                    SupplementRow row = nextSupplement(random);
+
+                    rows++;
+
+                    writer.write(rows % BATCH_SIZE == 1
+                                 ? "\nINSERT INTO supplements (regimen_id, supp_name, supp_amount, supp_units, supp_time, "
+                                 + "supp_email_enabled, supp_text_enabled, supp_voice_enabled, supp_notes) VALUES\n"
+                                 : ",\n");
+
+                    writer.write("(" + r + ", " + quote(row.name) + ", " + row.amount + ", " + quote(row.units)
+                               + ", '" + row.getTime() + "', " + toBit(row.emailEnabled) + ", " + toBit(row.textEnabled)
+                               + ", " + toBit(row.voiceEnabled) + ", " + quote(row.notes) + ")");
+
+                    if (rows % BATCH_SIZE == 0 || rows == total)
+                    {
+                        writer.write(";\n");
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static String getRegimenName(int r)
+    {
+        return "Regimen " + r;
+    }
+
+
+    private static String getRegimenNotes(int r)
+    {
+        return r % 3 == 0 ? null : "Generated regimen number " + r + ".";
+    }
+
+
+    private SupplementRow nextSupplement(Random random)
+    {
+        SupplementRow row = new SupplementRow();
+
+        row.name = SUPPLEMENT_NAMES[random.nextInt(SUPPLEMENT_NAMES.length)];
+        row.amount = 1 + random.nextInt(4) * (random.nextBoolean() ? 1 : 250);
+        row.units = UNITS[random.nextInt(UNITS.length)];
+        row.minuteOfDay = nextMinuteOfDay(random);
+        row.notes = random.nextInt(4) == 0 ? NOTES[random.nextInt(NOTES.length)] : null;
+
+        if (random.nextDouble() < reminderRatio)
+        {
+            // Any non-empty combination of e-mail, text message and voice
+            int channels = 1 + random.nextInt(7);
+
+            row.emailEnabled = (channels & 1) != 0;
+            row.textEnabled = (channels & 2) != 0;
+            row.voiceEnabled = (channels & 4) != 0;
+        }
+
+        return row;
+    }
+
+
+    private int nextMinuteOfDay(Random random)
+    {
+        switch (distribution)
+        {
+        case "uniform":
+            return random.nextInt(24 * 60);
+        case "meals":
+            int meal = MEAL_MINUTES[random.nextInt(MEAL_MINUTES.length)];
+            int minute = meal + (int) Math.round(random.nextGaussian() * 20);
+            return Math.max(0, Math.min(24 * 60 - 1, minute));
+        default:
+            return 8 * 60;
+        }
+    }
+
+
+    private static String quote(String value)
+    {
+        return value == null ? "NULL" : "'" + value.replace("'", "''") + "'";
+    }
+
+
+    private static int toBit(boolean value)
+    {
+        return value ? 1 : 0;
+    }
+
+
+    /**
+     * The values of one generated supplement.
+     */
+    private static class SupplementRow
+    {
+        String name;
+        double amount;
+        String units;
+        int minuteOfDay;
+        boolean emailEnabled;
+        boolean textEnabled;
+        boolean voiceEnabled;
+        String notes;
+
+
+        String getTime()
+        {
+            return String.format("%02d:%02d:00", minuteOfDay / 60, minuteOfDay % 60);
+        }
+    }
+
+}  // end class DataGenerator
@@ -0,0 +1,231 @@
+package com.vitareminder.tools;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import org.quartz.Job;
+import org.quartz.JobBuilder;
+import org.quartz.Scheduler;
+import org.quartz.impl.StdSchedulerFactory;
+
+import com.vitareminder.metrics.MetricsRegistry;
+import com.vitareminder.reminders.DeliveryGuard;
+import com.vitareminder.reminders.HtmlEmailJob;
+import com.vitareminder.reminders.ReminderDispatcher;
+import com.vitareminder.reminders.ReminderProperties;
+import com.vitareminder.reminders.TextMessageJob;
+import com.vitareminder.reminders.VoiceMessageJob;
+
+
+/**
+ * Measures how many reminders per second the delivery pipeline can sustain,
+ * from the Quartz scheduler all the way to the transport, without using the
+ * network.
+ * <p>
+ * The providers are replaced by a {@code FakeSmtpServer} and a
+ * {@code FakeTropoServer} with the specified latency and failure rate, and
+ * the channel's rate limit is lifted well above the target rate.  The circuit
+ * breaker keeps its configured settings, so a high failure rate shows how it
+ * sheds load.  A reminder job is then scheduled for each message, spread
+ * evenly over the test at the target rate.  Each job is the same as the
+ * application's, and each message goes to its own recipient so that no
+ * digests are formed.
+ * <p>
+ * Once every message has been accepted, rejected or dropped, the test reports
+ * the sustained rate at which the stand-in server accepted messages, and the
+ * latency from each job's scheduled fire time to its acceptance, which
+ * includes the digest window.
+ * <p>
+ * Usage, from the application directory:
+ * <pre>
+ * java -Djava.awt.headless=true -cp bin:lib/... com.vitareminder.tools.DeliveryLoadTest
+ *      [channel] [messagesPerSecond] [seconds] [latencyMillis] [failureRate]
+ * </pre>
+ * The defaults are "text", 50 messages per second, 30 seconds, 50 ms and 0.0.
+ */
+public class DeliveryLoadTest
+{
+    private DeliveryLoadTest()
+    {
+
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        String channel = args.length > 0 ? args[0] : "text";
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int latencyMillis = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        double failureRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.0;
+
+        int messageCount = rate * seconds;
+
+        // Start the stand-in for the channel's provider
+
+        StandInServer server;
+
+        if (channel.equals("email"))
+        {
+            FakeSmtpServer smtpServer = new FakeSmtpServer();
+            smtpServer.start();
+
+            ReminderProperties.setOverride("provider.smtp.host", "127.0.0.1");
+            ReminderProperties.setOverride("provider.smtp.port", String.valueOf(smtpServer.getPort()));
+
+            server = smtpServer;
+        }
+        else if (channel.equals("text") || channel.equals("voice"))
+        {
+            FakeTropoServer tropoServer = new FakeTropoServer();
+            tropoServer.start();
+
+            ReminderProperties.setOverride("provider.tropo.baseUrl", tropoServer.getBaseUrl());
+
+            server = tropoServer;
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown reminder channel: " + channel);
+        }
+
+        server.setLatencyMillis(latencyMillis);
+        server.setFailureRate(failureRate);
+
+        // These must be set before the DeliveryGuard and ReminderDispatcher are created
+        ReminderProperties.setOverride("delivery." + channel + ".capacity", String.valueOf(rate * 2));
+        ReminderProperties.setOverride("delivery." + channel + ".refillPerMinute", String.valueOf(rate * 120));
+        ReminderProperties.setOverride("digest.windowSeconds", "1");
+
+        System.out.println("Sending " + messageCount + " " + channel + " reminders at " + rate
+                           + " per second, with " + latencyMillis + " ms provider latency and a "
+                           + failureRate + " failure rate.");
+
+        // Schedule one job per message, as ReminderManager does
+
+        System.setProperty("org.quartz.properties", "res/quartz/quartz.properties");
+
+        Scheduler scheduler = new StdSchedulerFactory().getScheduler();
+        scheduler.start();
+
+        long start = System.currentTimeMillis() + 2000;
+        long[] fireTimes = new long[messageCount];
+
+        for (int i = 0; i < messageCount; i++)
+        {
+            fireTimes[i] = start + (i * 1000L) / rate;
+
+            String item = "Supplement [load " + i + "], 100 mg";
+
+            scheduler.scheduleJob(newLoadJob(channel, i, item).build(),
+                                  newTrigger().startAt(new Date(fireTimes[i])).build());
+        }
+
+        // Wait for every message to be accounted for
+
+        DeliveryGuard guard = DeliveryGuard.getGuard(channel);
+        long deadline = start + seconds * 1000L + 120000;
+
+        while (System.currentTimeMillis() < deadline
+               && server.getAcceptedCount() + server.getRejectedCount() + guard.getDroppedCount() < messageCount)
+        {
+            Thread.sleep(100);
+        }
+
+        scheduler.shutdown(false);
+        ReminderDispatcher.getInstance().flushAll();
+
+        // Report
+
+        Map<Integer, Long> acceptedTimes = server.getAcceptedTimes();
+        long[] latencies = new long[acceptedTimes.size()];
+        long firstAccepted = Long.MAX_VALUE;
+        long lastAccepted = Long.MIN_VALUE;
+        int n = 0;
+
+        for (Map.Entry<Integer, Long> entry : acceptedTimes.entrySet())
+        {
+            long acceptedAt = entry.getValue();
+
+            latencies[n++] = acceptedAt - fireTimes[entry.getKey()];
+            firstAccepted = Math.min(firstAccepted, acceptedAt);
+            lastAccepted = Math.max(lastAccepted, acceptedAt);
+        }
+
+        Arrays.sort(latencies);
+
+        double acceptSeconds = Math.max(1, lastAccepted - firstAccepted) / 1000.0;
+
+        System.out.println();
+        System.out.println("Accepted:    " + server.getAcceptedCount());
+        System.out.println("Rejected:    " + server.getRejectedCount());
+        System.out.println("Guard:       " + guard);
+        System.out.printf("Sustained:   %.1f messages per second accepted%n",
+                          n == 0 ? 0.0 : n / acceptSeconds);
+        System.out.printf("Latency:     p50 %d ms, p99 %d ms, max %d ms (from scheduled fire time)%n",
+                          percentile(latencies, 0.50), percentile(latencies, 0.99),
+                          n == 0 ? 0 : latencies[n - 1]);
+        System.out.println();
+        System.out.print(MetricsRegistry.getInstance().getSummary());
+
+        server.stop();
+        System.exit(0);
+    }
+
+
+    /**
+     * Builds a job with the same class and {@code JobDataMap} entries that
+     * {@code ReminderManager} gives a reminder of the specified channel.
+     */
+    private static JobBuilder newLoadJob(String channel, int i, String item)
+    {
+        Class<? extends Job> jobClass;
+
+        switch (channel)
+        {
+        case "email":
+            jobClass = HtmlEmailJob.class;
+            break;
+        case "voice":
+            jobClass = VoiceMessageJob.class;
+            break;
+        default:
+            jobClass = TextMessageJob.class;
+        }
+
+        JobBuilder job = newJob(jobClass)
+                .withIdentity("load_" + i + "_job", channel + "_group")
+                .usingJobData("item", item)
+                .usingJobData("message", "This is a reminder to take " + item);
+
+        if (channel.equals("email"))
+        {
+            job.usingJobData("from", "vitareminder")
+               .usingJobData("password", "")
+               .usingJobData("to", "user" + i + "@example.com")
+               .usingJobData("subject", "VitaReminder");
+        }
+        else
+        {
+            job.usingJobData("phoneNumbers", "+1555" + String.format("%07d", i));
+        }
+
+        return job;
+    }
+
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        if (sorted.length == 0)
+        {
+            return 0;
+        }
+
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+}  // end class DeliveryLoadTest
@@ -0,0 +1,219 @@
+package com.vitareminder.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * A minimal in-process SMTP server that accepts mail from {@code HtmlEmail}
+ * without delivering it anywhere.  It speaks just enough of the protocol for
+ * JavaMail: it does not offer STARTTLS or AUTH, so JavaMail sends in plain
+ * text without logging in.  Each message is accepted or rejected at the end
+ * of its DATA command, as decided by {@code StandInServer#receive()}.
+ */
+public class FakeSmtpServer extends StandInServer
+{
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    private Logger logger = Logger.getLogger(FakeSmtpServer.class);
+
+
+    @Override
+    public void start() throws IOException
+    {
+        serverSocket = new ServerSocket(0, 100, InetAddress.getByName("127.0.0.1"));
+
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "FakeSmtpServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                acceptConnections();
+            }
+        });
+    }
+
+
+    @Override
+    public void stop()
+    {
+        try
+        {
+            serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("An error has occurred while closing the fake SMTP server.", e);
+        }
+
+        executor.shutdownNow();
+    }
+
+
+    @Override
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+
+    private void acceptConnections()
+    {
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run()
+                    {
+                        handle(socket);
+                    }
+                });
+            }
+            catch (SocketException e)
+            {
+                // The server socket was closed by stop()
+                return;
+            }
+            catch (IOException e)
+            {
+                logger.warn("An error has occurred while accepting an SMTP connection.", e);
+            }
+        }
+    }
+
+
+    private void handle(Socket socket)
+    {
+        try
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+
+            reply(out, "220 localhost VitaReminder stand-in SMTP server");
+
+            String line;
+
+            while ((line = in.readLine()) != null)
+            {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+
+                switch (command)
+                {
+                case "EHLO":
+                    reply(out, "250-localhost\r\n250 8BITMIME");
+                    break;
+                case "HELO":
+                case "MAIL":
+                case "RCPT":
+                case "RSET":
+                case "NOOP":
+                    reply(out, "250 OK");
+                    break;
+                case "DATA":
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+
+                    if (receive(readData(in)))
+                    {
+                        reply(out, "250 OK");
+                    }
+                    else
+                    {
+                        reply(out, "451 Requested action aborted: local error in processing");
+                    }
+
+                    break;
+                case "QUIT":
+                    reply(out, "221 Bye");
+                    socket.close();
+                    return;
+                default:
+                    reply(out, "502 Command not implemented");
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            logger.debug("An SMTP connection was closed unexpectedly.", e);
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("An error has occurred while closing an SMTP connection.", e);
+            }
+        }
+    }
+
+
+    /**
+     * Reads the message up to the line containing a single ".", undoing the
+     * dot-stuffing and the soft line breaks of quoted-printable encoding so
+     * that markers are not split across lines.
+     */
+    private String readData(BufferedReader in) throws IOException
+    {
+        StringBuilder data = new StringBuilder();
+        String line;
+
+        while ((line = in.readLine()) != null && !line.equals("."))
+        {
+            if (line.startsWith(".."))
+            {
+                line = line.substring(1);
+            }
+
+            if (line.endsWith("="))
+            {
+                data.append(line, 0, line.length() - 1);
+            }
+            else
+            {
+                data.append(line).append('\n');
+            }
+        }
+
+        return data.toString();
+    }
+
+
+    private void reply(Writer out, String reply) throws IOException
+    {
+        out.write(reply);
+        out.write("\r\n");
+        out.flush();
+    }
+
+}  // end class FakeSmtpServer
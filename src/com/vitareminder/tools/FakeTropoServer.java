@@ -0,0 +1,143 @@
+package com.vitareminder.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A minimal in-process stand-in for the Tropo session API, which
+ * {@code TextMessage} and {@code VoiceMessage} call to send a reminder.  It
+ * answers every POST to sessions?action=create the way Tropo does: with a
+ * JSON result whose success field is true, or with an HTTP error if
+ * {@code StandInServer#receive()} rejects the request.  Point the reminders
+ * at it by setting provider.tropo.baseUrl to {@code getBaseUrl()}.
+ */
+public class FakeTropoServer extends StandInServer
+{
+    private HttpServer server;
+    private ExecutorService executor;
+    private final AtomicLong sessionIDs = new AtomicLong();
+
+
+    @Override
+    public void start() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 100);
+
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "FakeTropoServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleRequest(exchange);
+            }
+        });
+        server.start();
+    }
+
+
+    @Override
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    @Override
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * @return the value for provider.tropo.baseUrl, e.g. "http://127.0.0.1:51234/"
+     */
+    public String getBaseUrl()
+    {
+        return "http://127.0.0.1:" + getPort() + "/";
+    }
+
+
+    private void handleRequest(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String body = URLDecoder.decode(readBody(exchange.getRequestBody()), "UTF-8");
+
+            if (!exchange.getRequestMethod().equals("POST")
+                || !exchange.getRequestURI().getPath().endsWith("/sessions"))
+            {
+                respond(exchange, 404, "{\"success\":false}");
+            }
+            else if (receive(body))
+            {
+                respond(exchange, 200, "{\"success\":true,\"token\":\"stand-in\",\"id\":\""
+                                       + sessionIDs.incrementAndGet() + "\"}");
+            }
+            else
+            {
+                respond(exchange, 503, "{\"success\":false}");
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+
+    private String readBody(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+
+        while ((count = in.read(buffer)) != -1)
+        {
+            body.write(buffer, 0, count);
+        }
+
+        return body.toString("UTF-8");
+    }
+
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException
+    {
+        byte[] bytes = json.getBytes("UTF-8");
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+}  // end class FakeTropoServer
@@ -0,0 +1,101 @@
+package com.vitareminder.tools;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vitareminder.reminders.ReminderSender;
+
+
+/**
+ * A {@code ReminderSender} that sends nothing, and only counts the messages
+ * that it is given on each channel.  Used by {@code ReminderReplay} in place
+ * of Gmail and Tropo.
+ * <p>
+ * The messages are counted as the providers would receive them: an e-mail
+ * is one message however many recipients it has, whereas Tropo needs a
+ * session for each phone number.  The number of recipients reached is
+ * counted separately.
+ */
+public class RecordingReminderSender implements ReminderSender
+{
+    private final AtomicLong emailCount = new AtomicLong();
+    private final AtomicLong textCount = new AtomicLong();
+    private final AtomicLong voiceCount = new AtomicLong();
+    private final AtomicLong deliveryCount = new AtomicLong();
+    private final AtomicLong characterCount = new AtomicLong();
+
+
+    @Override
+    public void sendEmail(String from, String password, List<String> to, String subject, String body)
+    {
+        emailCount.incrementAndGet();
+        deliveryCount.addAndGet(to.size());
+        characterCount.addAndGet(body.length());
+    }
+
+
+    @Override
+    public void sendText(List<String> phoneNumbers, String message)
+    {
+        textCount.addAndGet(phoneNumbers.size());
+        deliveryCount.addAndGet(phoneNumbers.size());
+        characterCount.addAndGet((long) message.length() * phoneNumbers.size());
+    }
+
+
+    @Override
+    public void sendVoice(List<String> phoneNumbers, String message)
+    {
+        voiceCount.addAndGet(phoneNumbers.size());
+        deliveryCount.addAndGet(phoneNumbers.size());
+        characterCount.addAndGet((long) message.length() * phoneNumbers.size());
+    }
+
+
+    /**
+     * Nothing is ever in progress, since the messages are only counted.
+     *
+     * @return 0
+     */
+    @Override
+    public int awaitSends(long timeoutMillis)
+    {
+        return 0;
+    }
+
+
+    /**
+     * @return the number of messages recorded on all channels
+     */
+    public long getMessageCount()
+    {
+        return emailCount.get() + textCount.get() + voiceCount.get();
+    }
+
+
+    /**
+     * @return the number of recipients reached on all channels, counting each
+     *         recipient of a message once
+     */
+    public long getDeliveryCount()
+    {
+        return deliveryCount.get();
+    }
+
+
+    /**
+     * @return the total length of the messages recorded, in characters
+     */
+    public long getCharacterCount()
+    {
+        return characterCount.get();
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "email=" + emailCount.get() + " text=" + textCount.get() + " voice=" + voiceCount.get();
+    }
+
+}  // end class RecordingReminderSender
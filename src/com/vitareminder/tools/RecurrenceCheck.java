@@ -0,0 +1,480 @@
+package com.vitareminder.tools;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+import com.vitareminder.business.Recurrence;
+import com.vitareminder.reminders.CompiledSchedule;
+import com.vitareminder.reminders.FireTimeSchedule;
+
+
+/**
+ * Checks the {@code Recurrence} rules and their {@code CompiledSchedule}s
+ * against straightforward reference implementations, on random recurrences
+ * generated from a seed, and then measures how quickly the compiled
+ * schedules answer.
+ * <p>
+ * For each random recurrence and time of day it checks that:
+ * <ul>
+ * <li>the rule reads back as the same recurrence, and is written the same way again;</li>
+ * <li>{@code isDue()} agrees, minute by minute around the start date, with a
+ *     reference that works the answer out from the recurrence's fields;</li>
+ * <li>{@code next()} agrees with a brute-force search using the reference;</li>
+ * <li>in UTC, {@code FireTimeSchedule#computeFireTimes()} gives exactly the due
+ *     minutes, and in zones with daylight saving time, including one that
+ *     changes by half an hour, it gives strictly increasing times, each at a
+ *     due minute or moved forward by the length of a gap;</li>
+ * <li>for a supplement taken once a day, the fire times are the same as those
+ *     worked out the way they were before there were recurrences.</li>
+ * </ul>
+ * The benchmark then loads a recurrence for each of a number of synthetic
+ * supplements, and asks whether each one is due in every minute of a week.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp bin:lib/... com.vitareminder.tools.RecurrenceCheck [samples] [seed] [supplements]
+ * </pre>
+ * The defaults are 2000 samples, seed 42 and 10000 supplements.  The exit
+ * status is 1 if any check failed.
+ */
+public class RecurrenceCheck
+{
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final int MINUTES_PER_DAY = CompiledSchedule.MINUTES_PER_DAY;
+
+    /** the epoch day of Monday 1970-01-05 */
+    private static final long FIRST_MONDAY = 4;
+
+    /** 2026-01-01, around which the start dates are chosen */
+    private static final long BASE_DAY = 20454;
+
+    private static final String[] ZONES = {"America/New_York", "Europe/London", "Australia/Lord_Howe",
+                                           "Pacific/Chatham", "Asia/Kolkata"};
+
+    private static int failures = 0;
+
+
+    private RecurrenceCheck()
+    {
+
+    }
+
+
+    public static void main(String[] args)
+    {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        int supplementCount = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        System.out.println("Checking " + samples + " random recurrences with seed " + seed + ".");
+
+        Random random = new Random(seed);
+
+        for (int i = 0; i < samples && failures < 20; i++)
+        {
+            Recurrence recurrence = randomRecurrence(random);
+            int hour = random.nextInt(24);
+            int minute = random.nextInt(60);
+
+            checkRoundTrip(recurrence);
+            checkIsDue(recurrence, hour, minute, random);
+            checkNext(recurrence, hour, minute, random);
+            checkFireTimes(recurrence, hour, minute, random);
+        }
+
+        checkDailyMatchesLegacy(random, samples);
+
+        benchmark(new Random(seed), supplementCount);
+
+        System.out.println(failures == 0 ? "PASSED" : "FAILED with " + failures + " failures");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+
+    private static Recurrence randomRecurrence(Random random)
+    {
+        int everyHours = Recurrence.HOUR_INTERVALS[random.nextInt(Recurrence.HOUR_INTERVALS.length)];
+        long fromDay = BASE_DAY + random.nextInt(730) - 365;
+
+        switch (random.nextInt(4))
+        {
+        case 1:
+            return Recurrence.onWeekdays(everyHours, 1 + random.nextInt(127));
+        case 2:
+            return Recurrence.everyNDays(everyHours, 1 + random.nextInt(random.nextBoolean() ? 7 : 60), fromDay);
+        case 3:
+        {
+            int stages = 1 + random.nextInt(4);
+            int[] intervals = new int[stages];
+            int[] lengths = new int[stages];
+
+            for (int i = 0; i < stages; i++)
+            {
+                intervals[i] = 1 + random.nextInt(5);
+                lengths[i] = 1 + random.nextInt(30);
+            }
+
+            return Recurrence.taper(everyHours, intervals, lengths, fromDay);
+        }
+        default:
+            return Recurrence.everyDay(everyHours);
+        }
+    }
+
+
+    private static void checkRoundTrip(Recurrence recurrence)
+    {
+        String rule = recurrence.getRule();
+        Recurrence parsed = Recurrence.parse(rule);
+
+        if (!parsed.equals(recurrence) || !parsed.getRule().equals(rule)
+            || !parsed.getDescription().equals(recurrence.getDescription()))
+        {
+            fail("round trip", recurrence, "read back as \"" + parsed.getRule() + "\"");
+        }
+    }
+
+
+    private static void checkIsDue(Recurrence recurrence, int hour, int minute, Random random)
+    {
+        CompiledSchedule schedule = CompiledSchedule.compile(recurrence, hour, minute);
+        long start = (getReferenceDay(recurrence) - 10 - random.nextInt(10)) * MINUTES_PER_DAY;
+
+        for (long localMinute = start; localMinute < start + 60 * MINUTES_PER_DAY; localMinute++)
+        {
+            if (schedule.isDue(localMinute) != isDueReference(recurrence, hour, minute, localMinute))
+            {
+                fail("isDue", recurrence, "at " + hour + ":" + minute + ", local minute " + localMinute);
+                return;
+            }
+        }
+    }
+
+
+    private static void checkNext(Recurrence recurrence, int hour, int minute, Random random)
+    {
+        CompiledSchedule schedule = CompiledSchedule.compile(recurrence, hour, minute);
+        long localMinute = (getReferenceDay(recurrence) - 5) * MINUTES_PER_DAY + random.nextInt(MINUTES_PER_DAY);
+
+        for (int i = 0; i < 50; i++)
+        {
+            long expected = nextReference(recurrence, hour, minute, localMinute);
+            long actual = schedule.next(localMinute);
+
+            if (actual != expected)
+            {
+                fail("next", recurrence, "at " + hour + ":" + minute + " after local minute " + localMinute
+                     + ", expected " + expected + " but was " + actual);
+                return;
+            }
+
+            if (actual == -1)
+            {
+                return;
+            }
+
+            // Sometimes skip ahead, so that the search also starts between due minutes
+            localMinute = random.nextInt(4) == 0 ? actual + random.nextInt(3 * MINUTES_PER_DAY) : actual;
+        }
+    }
+
+
+    private static void checkFireTimes(Recurrence recurrence, int hour, int minute, Random random)
+    {
+        CompiledSchedule schedule = CompiledSchedule.compile(recurrence, hour, minute);
+        long after = getReferenceDay(recurrence) * MILLIS_PER_DAY - random.nextInt(20) * MILLIS_PER_DAY
+                   + random.nextInt((int) MILLIS_PER_DAY);
+
+        // In UTC, the fire times are exactly the due minutes
+        long[] fireTimes = FireTimeSchedule.computeFireTimes(TimeZone.getTimeZone("UTC"), schedule, after, 40);
+        long localMinute = Recurrence.floorDiv(after, MILLIS_PER_MINUTE);
+
+        for (int i = 0; i < 40; i++)
+        {
+            localMinute = nextReference(recurrence, hour, minute, localMinute);
+
+            if (localMinute == -1 ? i != fireTimes.length : i >= fireTimes.length
+                                                           || fireTimes[i] != localMinute * MILLIS_PER_MINUTE)
+            {
+                fail("fire times in UTC", recurrence, "at " + hour + ":" + minute + ", fire time " + i);
+                return;
+            }
+
+            if (localMinute == -1)
+            {
+                break;
+            }
+        }
+
+        for (String zoneID : ZONES)
+        {
+            TimeZone timeZone = TimeZone.getTimeZone(zoneID);
+            fireTimes = FireTimeSchedule.computeFireTimes(timeZone, schedule, after, 40);
+            long previous = after;
+
+            for (long fireTime : fireTimes)
+            {
+                long local = Recurrence.floorDiv(fireTime + timeZone.getOffset(fireTime), MILLIS_PER_MINUTE);
+                long gapMinutes = (timeZone.getOffset(fireTime) - timeZone.getOffset(fireTime - MILLIS_PER_DAY))
+                                  / MILLIS_PER_MINUTE;
+
+                boolean due = isDueReference(recurrence, hour, minute, local)
+                              || (gapMinutes > 0 && isDueReference(recurrence, hour, minute, local - gapMinutes));
+
+                if (fireTime <= previous || !due)
+                {
+                    fail("fire times in " + zoneID, recurrence, "at " + hour + ":" + minute + ", fire time "
+                         + fireTime + (fireTime <= previous ? " is not after the previous one" : " is not due"));
+                    return;
+                }
+
+                previous = fireTime;
+            }
+        }
+    }
+
+
+    private static void checkDailyMatchesLegacy(Random random, int samples)
+    {
+        for (int i = 0; i < samples; i++)
+        {
+            TimeZone timeZone = TimeZone.getTimeZone(ZONES[random.nextInt(ZONES.length)]);
+            int hour = random.nextInt(24);
+            int minute = random.nextInt(60);
+            long after = BASE_DAY * MILLIS_PER_DAY + (long) (random.nextDouble() * 730 * MILLIS_PER_DAY);
+
+            long[] actual = FireTimeSchedule.computeFireTimes(timeZone, hour, minute, after, 30);
+            long[] expected = computeLegacyFireTimes(timeZone, hour, minute, after, 30);
+
+            if (!Arrays.equals(actual, expected))
+            {
+                fail("daily matches legacy", Recurrence.DAILY, "at " + hour + ":" + minute + " in "
+                     + timeZone.getID() + " after " + after);
+                return;
+            }
+        }
+    }
+
+
+    private static void benchmark(Random random, int supplementCount)
+    {
+        CompiledSchedule[] schedules = new CompiledSchedule[supplementCount];
+        Set<CompiledSchedule> distinct = new HashSet<>();
+
+        long compileStart = System.nanoTime();
+
+        for (int i = 0; i < supplementCount; i++)
+        {
+            // Supplements are mostly taken at meal times and on simple schedules
+            int hour = 7 + 5 * random.nextInt(3);
+            int minute = 15 * random.nextInt(4);
+            Recurrence recurrence = random.nextInt(4) == 0 ? randomRecurrence(random) : Recurrence.DAILY;
+
+            schedules[i] = CompiledSchedule.compile(recurrence, hour, minute);
+            distinct.add(schedules[i]);
+        }
+
+        double compileSeconds = (System.nanoTime() - compileStart) / 1e9;
+
+        long start = BASE_DAY * MINUTES_PER_DAY;
+        long checks = 0;
+        long due = 0;
+
+        long isDueStart = System.nanoTime();
+
+        for (long localMinute = start; localMinute < start + 7 * MINUTES_PER_DAY; localMinute++)
+        {
+            for (CompiledSchedule schedule : schedules)
+            {
+                if (schedule.isDue(localMinute))
+                {
+                    due++;
+                }
+            }
+
+            checks += schedules.length;
+        }
+
+        double isDueSeconds = (System.nanoTime() - isDueStart) / 1e9;
+
+        long nextStart = System.nanoTime();
+        long nexts = 0;
+
+        for (CompiledSchedule schedule : schedules)
+        {
+            long localMinute = start;
+
+            for (int i = 0; i < 20 && localMinute != -1; i++)
+            {
+                localMinute = schedule.next(localMinute);
+                nexts++;
+            }
+        }
+
+        double nextSeconds = (System.nanoTime() - nextStart) / 1e9;
+
+        System.out.printf("Compile:  %d supplements in %.3f s, %d distinct schedules%n",
+                          supplementCount, compileSeconds, distinct.size());
+        System.out.printf("isDue:    %d checks in %.2f s, %.1f ns per check, %d due%n",
+                          checks, isDueSeconds, isDueSeconds * 1e9 / checks, due);
+        System.out.printf("next:     %d calls in %.2f s, %.1f ns per call%n",
+                          nexts, nextSeconds, nextSeconds * 1e9 / nexts);
+    }
+
+
+    /**
+     * @return a day near which the recurrence changes, its start date if it has one
+     */
+    private static long getReferenceDay(Recurrence recurrence)
+    {
+        return recurrence.getDayRule() == Recurrence.DayRule.EVERY_N_DAYS
+               || recurrence.getDayRule() == Recurrence.DayRule.TAPER ? recurrence.getFromDay() : BASE_DAY;
+    }
+
+
+    /**
+     * Works out whether a recurrence is due in a local minute directly from its
+     * fields, without the bit sets of {@code CompiledSchedule}.
+     */
+    private static boolean isDueReference(Recurrence recurrence, int hour, int minute, long localMinute)
+    {
+        long day = Recurrence.floorDiv(localMinute, MINUTES_PER_DAY);
+        long minuteOfDay = localMinute - day * MINUTES_PER_DAY;
+        long step = recurrence.getEveryHours() * 60;
+        long sinceFirst = minuteOfDay - (hour * 60 + minute);
+
+        if (((sinceFirst % step) + step) % step != 0)
+        {
+            return false;
+        }
+
+        switch (recurrence.getDayRule())
+        {
+        case WEEKDAYS:
+            return (recurrence.getWeekdays() & (1 << (int) (((day - FIRST_MONDAY) % 7 + 7) % 7))) != 0;
+        case EVERY_N_DAYS:
+            return day >= recurrence.getFromDay() && (day - recurrence.getFromDay()) % recurrence.getEveryDays() == 0;
+        case TAPER:
+        {
+            long stageStart = recurrence.getFromDay();
+            int[] intervals = recurrence.getTaperIntervals();
+            int[] lengths = recurrence.getTaperLengths();
+
+            for (int i = 0; i < intervals.length; i++)
+            {
+                if (day >= stageStart && day < stageStart + lengths[i])
+                {
+                    return (day - stageStart) % intervals[i] == 0;
+                }
+
+                stageStart += lengths[i];
+            }
+
+            return false;
+        }
+        default:
+            return true;
+        }
+    }
+
+
+    /**
+     * Finds the next due minute by trying each minute in turn, a day at a
+     * time once the current day is over.  Gives up after the longest cycle
+     * that a recurrence can have.
+     */
+    private static long nextReference(Recurrence recurrence, int hour, int minute, long localMinute)
+    {
+        long limit = localMinute + (Recurrence.MAX_TAPER_DAYS + Recurrence.MAX_EVERY_DAYS + 2L) * MINUTES_PER_DAY;
+        long day = Recurrence.floorDiv(localMinute, MINUTES_PER_DAY);
+
+        for (long candidate = localMinute + 1; candidate < (day + 1) * MINUTES_PER_DAY; candidate++)
+        {
+            if (isDueReference(recurrence, hour, minute, candidate))
+            {
+                return candidate;
+            }
+        }
+
+        for (long dayStart = (day + 1) * MINUTES_PER_DAY; dayStart < limit; dayStart += MINUTES_PER_DAY)
+        {
+            // The first dose of a due day is at or after midnight, within the first repeat interval
+            for (long candidate = dayStart; candidate < dayStart + recurrence.getEveryHours() * 60; candidate++)
+            {
+                if (isDueReference(recurrence, hour, minute, candidate))
+                {
+                    return candidate;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * The way the fire times of a daily reminder were worked out before there
+     * were recurrences, kept unchanged as a reference.
+     */
+    private static long[] computeLegacyFireTimes(TimeZone timeZone, int hour, int minute, long after, int count)
+    {
+        long[] fireTimes = new long[count];
+
+        long localAfter = after + timeZone.getOffset(after);
+        long localMidnight = localAfter - ((localAfter % MILLIS_PER_DAY) + MILLIS_PER_DAY) % MILLIS_PER_DAY;
+        long localMillis = localMidnight + (hour * 60 + minute) * 60 * 1000L;
+
+        int found = 0;
+
+        while (found < count)
+        {
+            long fireTime = resolveLegacy(timeZone, localMillis);
+
+            if (fireTime > after)
+            {
+                fireTimes[found++] = fireTime;
+            }
+
+            localMillis += MILLIS_PER_DAY;
+        }
+
+        return fireTimes;
+    }
+
+
+    private static long resolveLegacy(TimeZone timeZone, long localMillis)
+    {
+        int offsetBefore = timeZone.getOffset(localMillis - MILLIS_PER_DAY);
+        int offsetAfter = timeZone.getOffset(localMillis + MILLIS_PER_DAY);
+
+        int earlierOffset = Math.max(offsetBefore, offsetAfter);
+        int laterOffset = Math.min(offsetBefore, offsetAfter);
+
+        long earlier = localMillis - earlierOffset;
+        long later = localMillis - laterOffset;
+
+        if (timeZone.getOffset(earlier) == earlierOffset)
+        {
+            return earlier;
+        }
+
+        if (timeZone.getOffset(later) == laterOffset)
+        {
+            return later;
+        }
+
+        return localMillis - offsetBefore;
+    }
+
+
+    private static void fail(String check, Recurrence recurrence, String detail)
+    {
+        failures++;
+        System.out.println("FAILED " + check + ": \"" + recurrence.getRule() + "\" " + detail);
+    }
+
+}  // end class RecurrenceCheck
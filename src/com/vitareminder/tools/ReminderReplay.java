@@ -0,0 +1,239 @@
+package com.vitareminder.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.quartz.JobKey;
+
+import com.vitareminder.reminders.FireTimeSchedule;
+import com.vitareminder.reminders.PendingReminder;
+import com.vitareminder.reminders.ReminderDispatcher;
+import com.vitareminder.reminders.SimulatedClock;
+
+
+/**
+ * Replays the reminder schedules of many synthetic supplements over several
+ * days of simulated time, without Quartz and without sending anything.
+ * <p>
+ * Each supplement is given a random time of day and one of a fixed number of
+ * recipients, and optionally one of a fixed number of caregivers who are
+ * copied on its reminders, and is loaded into a {@code FireTimeSchedule}.  A
+ * {@code SimulatedClock} then jumps from one fire time to the next.  At each
+ * of these ticks, every reminder that is due is handed to a
+ * {@code ReminderDispatcher}, exactly as the Quartz jobs do, and the
+ * dispatcher's digest groups are closed at the end of the tick.  The messages
+ * are recorded by a {@code RecordingReminderSender}.
+ * <p>
+ * The replay then checks that every supplement fired at exactly the times
+ * that {@code FireTimeSchedule#computeFireTimes()} gives for it, and that every
+ * recipient and caregiver was reached once per tick, and reports the dispatch
+ * throughput and the latency of each tick.  The number of messages can be
+ * lower than the number of recipients reached, as an e-mail is sent once to
+ * everyone who is due the same digest.
+ * <p>
+ * Usage, from the application directory so that the templates can be found:
+ * <pre>
+ * java -cp bin:lib/... com.vitareminder.tools.ReminderReplay [supplements] [days] [recipients] [channel] [timeZone]
+ *      [caregivers]
+ * </pre>
+ * The defaults are 100000 supplements, 30 days, 1000 recipients, "text", the
+ * computer's time zone and no caregivers.
+ */
+public class ReminderReplay
+{
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+
+    private ReminderReplay()
+    {
+
+    }
+
+
+    public static void main(String[] args)
+    {
+        int supplementCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int days = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int recipientCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        String channel = args.length > 3 ? args[3] : "text";
+        TimeZone timeZone = args.length > 4 ? TimeZone.getTimeZone(args[4]) : TimeZone.getDefault();
+        int caregiverCount = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+
+        long start = System.currentTimeMillis();
+        long end = start + days * MILLIS_PER_DAY;
+
+        SimulatedClock clock = new SimulatedClock(start);
+        FireTimeSchedule schedule = new FireTimeSchedule(timeZone, 7);
+        RecordingReminderSender sender = new RecordingReminderSender();
+        ReminderDispatcher dispatcher = new ReminderDispatcher(0, sender);
+
+        System.out.println("Replaying " + supplementCount + " " + channel + " reminders for " + recipientCount
+                           + " recipients and " + caregiverCount + " caregivers over " + days + " days in "
+                           + timeZone.getID() + ".");
+
+        // Load the synthetic supplements
+
+        long setupStart = System.nanoTime();
+
+        Random random = new Random(42);
+        int[] minuteOfDay = new int[supplementCount];
+        List<List<String>> recipients = new ArrayList<>(supplementCount);
+        JobKey[] jobKeys = new JobKey[supplementCount];
+
+        for (int i = 0; i < supplementCount; i++)
+        {
+            minuteOfDay[i] = random.nextInt(24 * 60);
+            List<String> supplementRecipients = new ArrayList<>(2);
+            supplementRecipients.add(channel.equals("email") ? "user" + (i % recipientCount) + "@example.com"
+                                                             : "+1555" + String.format("%07d", i % recipientCount));
+
+            if (caregiverCount > 0)
+            {
+                supplementRecipients.add(channel.equals("email") ? "caregiver" + (i % caregiverCount) + "@example.com"
+                                                                 : "+1666" + String.format("%07d", i % caregiverCount));
+            }
+
+            recipients.add(supplementRecipients);
+            jobKeys[i] = JobKey.jobKey(String.valueOf(i), channel + "_group");
+
+            schedule.schedule(jobKeys[i], minuteOfDay[i] / 60, minuteOfDay[i] % 60, start);
+        }
+
+        // The expected fire times of each minute of the day, worked out independently of the schedule
+        long[][] expectedFireTimes = new long[24 * 60][];
+
+        for (int minute = 0; minute < expectedFireTimes.length; minute++)
+        {
+            expectedFireTimes[minute] = FireTimeSchedule.computeFireTimes(timeZone, minute / 60, minute % 60,
+                                                                          start, days + 1);
+        }
+
+        double setupSeconds = (System.nanoTime() - setupStart) / 1e9;
+
+        // Replay
+
+        int[] fireCounts = new int[supplementCount];
+
+        // The last tick at which each recipient and caregiver was due a message, to count the expected deliveries
+        int[] recipientLastTick = new int[recipientCount];
+        Arrays.fill(recipientLastTick, -1);
+        int[] caregiverLastTick = new int[Math.max(1, caregiverCount)];
+        Arrays.fill(caregiverLastTick, -1);
+
+        long wrongFireTimes = 0;
+        long fired = 0;
+        long expectedDeliveries = 0;
+        long[] tickNanos = new long[1024];
+        int ticks = 0;
+
+        long replayStart = System.nanoTime();
+        long fireTime;
+
+        while ((fireTime = schedule.getNextFireTime(clock.currentTimeMillis())) != -1 && fireTime <= end)
+        {
+            clock.advanceTo(fireTime);
+
+            long tickStart = System.nanoTime();
+
+            for (JobKey jobKey : schedule.getJobsAt(fireTime))
+            {
+                int i = Integer.parseInt(jobKey.getName());
+
+                if (expectedFireTimes[minuteOfDay[i]][fireCounts[i]] != fireTime)
+                {
+                    wrongFireTimes++;
+                }
+
+                fireCounts[i]++;
+                fired++;
+                if (recipientLastTick[i % recipientCount] != ticks)
+                {
+                    recipientLastTick[i % recipientCount] = ticks;
+                    expectedDeliveries++;
+                }
+
+                if (caregiverCount > 0 && caregiverLastTick[i % caregiverCount] != ticks)
+                {
+                    caregiverLastTick[i % caregiverCount] = ticks;
+                    expectedDeliveries++;
+                }
+
+                String item = "Supplement " + i + ", 100 mg";
+                PendingReminder reminder = new PendingReminder(channel, recipients.get(i), fireTime,
+                                                               item, "This is a reminder to take " + item);
+                reminder.setEmailDetails("vitareminder", "", "VitaReminder");
+
+                dispatcher.submit(reminder);
+                schedule.advance(jobKey, fireTime);
+            }
+
+            // Every reminder due at this tick has arrived, so close the coalescing windows
+            dispatcher.flushAll();
+
+            if (ticks == tickNanos.length)
+            {
+                tickNanos = Arrays.copyOf(tickNanos, ticks * 2);
+            }
+
+            tickNanos[ticks++] = System.nanoTime() - tickStart;
+        }
+
+        double replaySeconds = (System.nanoTime() - replayStart) / 1e9;
+
+        // Check the results
+
+        long missedFires = 0;
+
+        for (int i = 0; i < supplementCount; i++)
+        {
+            long[] expected = expectedFireTimes[minuteOfDay[i]];
+            int expectedCount = 0;
+
+            while (expectedCount < expected.length && expected[expectedCount] <= end)
+            {
+                expectedCount++;
+            }
+
+            missedFires += Math.abs(expectedCount - fireCounts[i]);
+        }
+
+        long[] sortedTicks = Arrays.copyOf(tickNanos, ticks);
+        Arrays.sort(sortedTicks);
+
+        System.out.println();
+        System.out.printf("Setup:       %.2f s%n", setupSeconds);
+        System.out.printf("Replay:      %.2f s for %d simulated days%n", replaySeconds, days);
+        System.out.printf("Fired:       %d reminders in %d ticks (%.0f per second)%n",
+                          fired, ticks, fired / replaySeconds);
+        System.out.printf("Sent:        %d messages to %d recipients, %s (%.0f per second)%n",
+                          sender.getMessageCount(), sender.getDeliveryCount(), sender,
+                          sender.getMessageCount() / replaySeconds);
+        System.out.printf("Tick time:   p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                          percentile(sortedTicks, 0.50) / 1e6, percentile(sortedTicks, 0.99) / 1e6,
+                          ticks == 0 ? 0 : sortedTicks[ticks - 1] / 1e6);
+        System.out.println();
+        System.out.println("Missed or extra fires:      " + missedFires);
+        System.out.println("Fires at the wrong time:    " + wrongFireTimes);
+        System.out.println("Reached vs. expected:       " + sender.getDeliveryCount() + " / " + expectedDeliveries);
+
+        boolean passed = missedFires == 0 && wrongFireTimes == 0 && sender.getDeliveryCount() == expectedDeliveries;
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        if (sorted.length == 0)
+        {
+            return 0;
+        }
+
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+}  // end class ReminderReplay
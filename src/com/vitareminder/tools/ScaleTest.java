@@ -0,0 +1,248 @@
+package com.vitareminder.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.quartz.Scheduler;
+import org.quartz.impl.StdSchedulerFactory;
+
+import com.vitareminder.business.Regimen;
+import com.vitareminder.business.Supplement;
+import com.vitareminder.dao.DAOManager;
+import com.vitareminder.db.DBConstants;
+import com.vitareminder.db.DataSource;
+import com.vitareminder.reminders.ReminderManager;
+import com.vitareminder.reports.ExcelGenerator;
+import com.vitareminder.reports.HtmlGenerator;
+
+
+/**
+ * Measures how the application copes as the number of supplements grows, by
+ * running the operations whose cost grows with the data against databases
+ * generated by {@code DataGenerator}.  For each size, a database is generated
+ * in its own directory, so the user's database is never touched, and then:
+ * <ul>
+ * <li>Startup: the database is opened and every regimen is read with its
+ *     supplements, as {@code VitaReminder} and {@code VitaReminderFrame} do,
+ *     and the heap in use afterwards is reported.</li>
+ * <li>HTML export: the printable report is generated from the regimens.</li>
+ * <li>Excel export: the Excel report is generated and written to the size's directory.</li>
+ * <li>Reminder loading: a Quartz job is scheduled for every enabled reminder
+ *     by the {@code ReminderManager}, as at startup.  The scheduler is put in
+ *     standby first, so that no reminder is sent.</li>
+ * </ul>
+ * A step that runs out of memory is reported as such and the test goes on to
+ * the next step.
+ * <p>
+ * Usage, from the application directory so that the templates can be found:
+ * <pre>
+ * java -Xmx1g -Djava.awt.headless=true -cp bin:lib/... com.vitareminder.tools.ScaleTest
+ *      [directory] [sizes] [supplementsPerRegimen]
+ * </pre>
+ * The defaults are "scale", "10000,100000,1000000" and 1000.  The databases
+ * are generated with a reminder ratio of 0.5 and the "meals" distribution.
+ */
+public class ScaleTest
+{
+    private ScaleTest()
+    {
+
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        File directory = new File(args.length > 0 ? args[0] : "scale");
+        String[] sizes = (args.length > 1 ? args[1] : "10000,100000,1000000").split(",");
+        int supplementsPerRegimen = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        System.out.printf("Maximum heap: %d MB%n", Runtime.getRuntime().maxMemory() / (1024 * 1024));
+
+        for (String size : sizes)
+        {
+            int supplementCount = Integer.parseInt(size.trim());
+            int regimenCount = Math.max(1, supplementCount / supplementsPerRegimen);
+
+            run(new File(directory, String.valueOf(supplementCount)), regimenCount,
+                Math.min(supplementCount, supplementsPerRegimen));
+        }
+
+        System.exit(0);
+    }
+
+
+    private static void run(File directory, int regimenCount, int supplementsPerRegimen) throws Exception
+    {
+        System.out.println();
+        System.out.printf("== %d supplements in %d regimens ==%n",
+                          (long) regimenCount * supplementsPerRegimen, regimenCount);
+
+        long start = System.nanoTime();
+
+        new DataGenerator(regimenCount, supplementsPerRegimen, 0.5, "meals", 42).writeDatabase(directory);
+
+        System.out.printf("Generate:          %.2f s%n", seconds(start));
+
+        DataSource dataSource = new DataSource("jdbc:h2:file:" + directory.getPath().replace('\\', '/') + "/",
+                                               DBConstants.DATABASE_NAME);
+
+        try
+        {
+            DAOManager daoManager = new DAOManager(dataSource);
+
+            List<Regimen> regimens = startup(daoManager);
+
+            if (regimens != null)
+            {
+                exportHtml(regimens);
+                regimens = null;
+            }
+
+            exportExcel(daoManager, new File(directory, "report.xlsx"));
+
+            loadReminders(daoManager);
+        }
+        finally
+        {
+            dataSource.closeDatabaseConnection();
+        }
+    }
+
+
+    private static List<Regimen> startup(DAOManager daoManager)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            List<Regimen> regimens = daoManager.getRegimenDAO().getRegimens();
+
+            System.out.printf("Startup:           %.2f s, %d MB of heap in use%n", seconds(start), usedHeapMegabytes());
+
+            return regimens;
+        }
+        catch (OutOfMemoryError e)
+        {
+            System.out.printf("Startup:           out of memory after %.2f s%n", seconds(start));
+
+            return null;
+        }
+    }
+
+
+    private static void exportHtml(List<Regimen> regimens)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            String html = HtmlGenerator.getHtmlForReport(regimens);
+
+            System.out.printf("HTML export:       %.2f s, %d KB%n", seconds(start), html.length() / 1024);
+        }
+        catch (OutOfMemoryError e)
+        {
+            System.out.printf("HTML export:       out of memory after %.2f s%n", seconds(start));
+        }
+    }
+
+
+    private static void exportExcel(DAOManager daoManager, File file)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            XSSFWorkbook workbook = ExcelGenerator.getExcelFile(daoManager.getRegimenDAO());
+
+            try (OutputStream out = new FileOutputStream(file))
+            {
+                workbook.write(out);
+            }
+
+            System.out.printf("Excel export:      %.2f s, %d KB%n", seconds(start), file.length() / 1024);
+        }
+        catch (OutOfMemoryError e)
+        {
+            System.out.printf("Excel export:      out of memory after %.2f s%n", seconds(start));
+        }
+        catch (LinkageError e)
+        {
+            System.out.println("Excel export:      skipped, Apache POI could not be loaded: " + e);
+        }
+        catch (Exception e)
+        {
+            System.out.println("Excel export:      failed: " + e);
+        }
+    }
+
+
+    private static void loadReminders(DAOManager daoManager) throws Exception
+    {
+        ReminderManager reminderManager = new ReminderManager(daoManager);
+
+        // The ReminderManager's scheduler, which has been started; keep it from sending anything
+        Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
+        scheduler.standby();
+
+        long start = System.nanoTime();
+        int jobs = 0;
+
+        try
+        {
+            List<Supplement> supplements = daoManager.getSupplementDAO().getSupplementsWithReminders(
+                    daoManager.getSettingsStore().getActiveProfileID());
+
+            for (Supplement supplement : supplements)
+            {
+                if (supplement.getEmailEnabled())
+                {
+                    reminderManager.loadEmailReminder(supplement);
+                    jobs++;
+                }
+
+                if (supplement.getTextEnabled())
+                {
+                    reminderManager.loadTextReminder(supplement);
+                    jobs++;
+                }
+
+                if (supplement.getVoiceEnabled())
+                {
+                    reminderManager.loadVoiceReminder(supplement);
+                    jobs++;
+                }
+            }
+
+            System.out.printf("Reminder loading:  %.2f s for %d jobs, %d MB of heap in use%n",
+                              seconds(start), jobs, usedHeapMegabytes());
+        }
+        catch (OutOfMemoryError e)
+        {
+            System.out.printf("Reminder loading:  out of memory after %d jobs%n", jobs);
+        }
+        finally
+        {
+            reminderManager.shutdownScheduler();
+        }
+    }
+
+
+    private static double seconds(long startNanos)
+    {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+
+    private static long usedHeapMegabytes()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+
+        return (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+    }
+
+}  // end class ScaleTest
@@ -0,0 +1,145 @@
+package com.vitareminder.tools;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * The common behaviour of the local stand-ins for the delivery providers,
+ * {@code FakeSmtpServer} and {@code FakeTropoServer}.  Every message they
+ * receive is delayed by {@code latencyMillis}, and then rejected with a
+ * probability of {@code failureRate}, so that the delivery pipeline can be
+ * load tested against a slow or unreliable provider.
+ * <p>
+ * Messages sent by {@code DeliveryLoadTest} contain markers of the form
+ * "[load 123]".  The time at which each marked message is accepted is
+ * recorded, so that the load test can work out the end-to-end latency.
+ */
+public abstract class StandInServer
+{
+    private static final Pattern MARKER = Pattern.compile("\\[load (\\d+)\\]");
+
+    private volatile int latencyMillis = 0;
+    private volatile double failureRate = 0.0;
+    private final Random random = new Random();
+
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** the time each marked message was accepted, keyed by its marker number */
+    private final Map<Integer, Long> acceptedTimes = new ConcurrentHashMap<>();
+
+
+    /**
+     * Starts listening on a free port on the loopback interface.
+     *
+     * @throws IOException  if the server socket cannot be opened
+     */
+    public abstract void start() throws IOException;
+
+
+    /**
+     * Stops listening.  Connections that are in progress may be cut off.
+     */
+    public abstract void stop();
+
+
+    /**
+     * @return the port that the server is listening on
+     */
+    public abstract int getPort();
+
+
+    /**
+     * @param latencyMillis  how long to hold each message before answering
+     */
+    public void setLatencyMillis(int latencyMillis)
+    {
+        this.latencyMillis = Math.max(0, latencyMillis);
+    }
+
+
+    /**
+     * @param failureRate  the probability, from 0.0 to 1.0, that a message is rejected
+     */
+    public void setFailureRate(double failureRate)
+    {
+        this.failureRate = failureRate;
+    }
+
+
+    public long getAcceptedCount()
+    {
+        return acceptedCount.get();
+    }
+
+
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+
+    /**
+     * @return the time in milliseconds at which each marked message was accepted,
+     *         keyed by its marker number
+     */
+    public Map<Integer, Long> getAcceptedTimes()
+    {
+        return acceptedTimes;
+    }
+
+
+    /**
+     * Applies the latency and failure rate to a message that has been received.
+     * Called by the subclasses on their connection threads.
+     *
+     * @param content  the message, which is searched for markers
+     * @return <tt>true</tt> if the message is accepted, <tt>false</tt> if it is rejected
+     */
+    protected boolean receive(String content)
+    {
+        if (latencyMillis > 0)
+        {
+            try
+            {
+                Thread.sleep(latencyMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        boolean rejected;
+
+        synchronized (random)
+        {
+            rejected = random.nextDouble() < failureRate;
+        }
+
+        if (rejected)
+        {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Matcher matcher = MARKER.matcher(content);
+
+        while (matcher.find())
+        {
+            acceptedTimes.put(Integer.valueOf(matcher.group(1)), now);
+        }
+
+        acceptedCount.incrementAndGet();
+        return true;
+    }
+
+}  // end class StandInServer
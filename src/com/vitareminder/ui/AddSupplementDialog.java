@@ -4,13 +4,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.prefs.Preferences;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
 import com.vitareminder.business.Supplement;
+import com.vitareminder.settings.ProfileSettings;
 
 
 /**
@@ -25,24 +25,25 @@ public class AddSupplementDialog extends SupplementDialog implements ActionListe
      * The sole constructor.  Calls the superclass {@code SupplementDialog},
      * which creates the modal {@code JDialog} that contains the input components.
      * This constructor modifies the dialog by adding a custom title and window
-     * icon.  It retrives the user's global preferences and either enables or disables
-     * the reminder radio buttons depending on these preferences.
+     * icon.  It reads the active profile's global reminder settings and either enables
+     * or disables the reminder radio buttons depending on these settings.
      *
      * @param frame  the owner of this dialog
      * @param regimenName  the name of the regimen that this supplement belongs to
+     * @param settings  the settings of the active profile, which determine whether
+     *                  each type of reminder can be turned on
      */
-    public AddSupplementDialog(JFrame frame, String regimenName)
+    public AddSupplementDialog(JFrame frame, String regimenName, ProfileSettings settings)
     {
         super(frame);
 
         titleLabel.setText("Add Supplement to \"" + regimenName + "\"");
 
-        Preferences userPreferences = Preferences.userRoot();
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
+        boolean emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        boolean textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        boolean voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
 
-        // Enable or disable the reminder radio buttons based on user preferences.
+        // Enable or disable the reminder radio buttons based on the profile's settings.
         emailOnRadioButton.setEnabled(emailRemindersEnabled);
         emailOffRadioButton.setEnabled(emailRemindersEnabled);
         textOnRadioButton.setEnabled(textRemindersEnabled);
@@ -141,10 +142,11 @@ public class AddSupplementDialog extends SupplementDialog implements ActionListe
 
                 suppNotesText = suppNotesTextArea.getText().trim();
 
-                // Validate name, amount and notes, then check if all four have been validated:
+                // Validate name, amount, notes and recurrence, then check if all four have been validated:
                 suppNameValidated = false;
                 suppAmountValidated = false;
                 suppNotesValidated = false;
+                recurrenceValidated = false;
 
                 suppNameValidated = validateSuppName();
 
@@ -162,6 +164,14 @@ public class AddSupplementDialog extends SupplementDialog implements ActionListe
                 if (suppNameValidated &&
                     suppAmountValidated &&
                     suppNotesValidated)
+                {
+                    recurrenceValidated = validateRecurrence();
+                }
+
+                if (suppNameValidated &&
+                    suppAmountValidated &&
+                    suppNotesValidated &&
+                    recurrenceValidated)
                 {
                     inputValidated = true;
 
@@ -174,6 +184,7 @@ public class AddSupplementDialog extends SupplementDialog implements ActionListe
                     newSupplement.setTextEnabled(textEnabled);
                     newSupplement.setVoiceEnabled(voiceEnabled);
                     newSupplement.setSuppNotes(suppNotesText);
+                    newSupplement.setRecurrence(recurrence);
 
                     dialog.dispose();
                 }
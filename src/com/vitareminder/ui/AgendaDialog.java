@@ -0,0 +1,263 @@
+package com.vitareminder.ui;
+
+import java.awt.Dimension;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com.vitareminder.agenda.AgendaIndex;
+import com.vitareminder.dao.DAOManager;
+import com.vitareminder.reminders.FireTimeSchedule;
+
+
+/**
+ * A modal dialog listing every dose of the active profile's supplements that
+ * is due in the next 24 hours or the next 7 days, in order of time, from the
+ * {@code AgendaIndex}.  Every supplement with a time is listed, whether or not
+ * it has reminders set on it.
+ */
+public class AgendaDialog implements PropertyChangeListener
+{
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000L;
+
+    private static final String[] RANGE_STRINGS = {"Next 24 hours", "Next 7 days"};
+    private static final int[] RANGE_HOURS = {24, 7 * 24};
+
+    private JDialog dialog;
+    private JOptionPane optionPane;
+    private JPanel panel;
+    private String[] buttonStrings = {"Refresh", "OK"};
+
+    private JComboBox<String> rangeComboBox;
+    private JLabel summaryLabel;
+    private DoseTableModel doseTableModel;
+
+    private DAOManager daoManager;
+
+
+    /**
+     * The sole constructor.  Creates and displays a new {@code JDialog}.
+     * It first creates a {@code JPanel} and then installs this panel in
+     * the {@code JOptionPane}.  The {@code JOptionPane} is then set as
+     * this dialog's content pane.
+     *
+     * @param frame  the owner of this dialog
+     * @param daoManager  used to get the {@code AgendaIndex}
+     */
+    public AgendaDialog(JFrame frame, DAOManager daoManager)
+    {
+        dialog = new JDialog(frame, true);
+
+        this.daoManager = daoManager;
+
+        createPanel();
+        refresh();
+
+        optionPane = new JOptionPane(panel, JOptionPane.PLAIN_MESSAGE, JOptionPane.OK_OPTION, null);
+        optionPane.setOptions(buttonStrings);
+        optionPane.addPropertyChangeListener(this);
+        dialog.setContentPane(optionPane);
+        dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+
+            @Override
+            public void windowClosing(WindowEvent we)
+            {
+                // When the user closes the window, update the JOptionPane's
+                // value to fire a propertyChangeEvent.
+                optionPane.setValue(new Integer(JOptionPane.CLOSED_OPTION));
+            }
+        });
+
+        dialog.setTitle("Agenda");
+        dialog.setResizable(false);
+        dialog.pack();
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+
+    /**
+     * Creates the range combo box, the summary label and the table of doses.
+     */
+    private void createPanel()
+    {
+        rangeComboBox = new JComboBox<>(RANGE_STRINGS);
+        rangeComboBox.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                refresh();
+            }
+        });
+
+        summaryLabel = new JLabel();
+
+        doseTableModel = new DoseTableModel(FireTimeSchedule.getInstance().getTimeZone());
+        JTable doseTable = new JTable(doseTableModel);
+        doseTable.setFocusable(false);
+        doseTable.setRowSelectionAllowed(false);
+        doseTable.getColumnModel().getColumn(2).setPreferredWidth(200);
+
+        JScrollPane doseScrollPane = new JScrollPane(doseTable);
+        doseScrollPane.setPreferredSize(new Dimension(500, 300));
+
+        panel = new JPanel(new GridBagLayout());
+        panel.add(new JLabel("Show:"), GBCFactory.getConstraints(0, 0, 1, 1, GridBagConstraints.EAST, GridBagConstraints.NONE));
+        panel.add(rangeComboBox, GBCFactory.getConstraints(1, 0, 1, 1, GridBagConstraints.WEST, GridBagConstraints.NONE));
+        panel.add(summaryLabel, GBCFactory.getConstraints(2, 0, 1, 1, GridBagConstraints.EAST, GridBagConstraints.NONE));
+        panel.add(doseScrollPane, GBCFactory.getConstraints(0, 1, 3, 1, GridBagConstraints.CENTER, GridBagConstraints.NONE));
+    }
+
+
+    /**
+     * Fills the table with the doses due from now until the end of the
+     * selected range.
+     */
+    private void refresh()
+    {
+        long now = System.currentTimeMillis();
+        long to = now + RANGE_HOURS[rangeComboBox.getSelectedIndex()] * MILLIS_PER_HOUR;
+
+        List<AgendaIndex.Dose> doses = daoManager.getAgendaIndex().upcoming(now, to);
+
+        Set<Integer> suppIDs = new HashSet<>();
+
+        for (AgendaIndex.Dose dose : doses)
+        {
+            suppIDs.add(dose.getSuppID());
+        }
+
+        doseTableModel.setDoses(doses);
+        summaryLabel.setText(doses.size() + (doses.size() == 1 ? " dose" : " doses") + " of "
+                           + suppIDs.size() + (suppIDs.size() == 1 ? " supplement" : " supplements"));
+    }
+
+
+    /**
+     * Refreshes the table when the user presses the "Refresh" button, and
+     * closes this dialog when the user closes the window or presses the "OK" button.
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent e)
+    {
+        String prop = e.getPropertyName();
+
+        if (dialog.isVisible() && (e.getSource() == optionPane) &&
+            (JOptionPane.VALUE_PROPERTY.equals(prop) ||
+             JOptionPane.INPUT_VALUE_PROPERTY.equals(prop)))
+        {
+            Object value = optionPane.getValue();
+
+            if (value == JOptionPane.UNINITIALIZED_VALUE)
+            {
+                return;  // Ignore reset.
+            }
+
+            // Reset the value of the JOptionPane to ensure that, when
+            // the user presses the same button again, a property change
+            // event will be fired.
+            optionPane.setValue(JOptionPane.UNINITIALIZED_VALUE);
+
+            if (buttonStrings[0].equals(value))
+            {
+                refresh();
+                return;
+            }
+
+            dialog.dispose();
+        }
+    }
+
+
+    /**
+     * A read-only table of doses, which formats each row only as it is
+     * displayed, so that a week of doses of a large regimen is shown at once.
+     */
+    @SuppressWarnings("serial")
+    private static class DoseTableModel extends AbstractTableModel
+    {
+        private final String[] columnNames = {"Day", "Time", "Supplement", "Amount"};
+        private final SimpleDateFormat dayFormat = new SimpleDateFormat("EEE d MMM");
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
+
+        private List<AgendaIndex.Dose> doses = Collections.emptyList();
+
+        DoseTableModel(TimeZone timeZone)
+        {
+            dayFormat.setTimeZone(timeZone);
+            timeFormat.setTimeZone(timeZone);
+        }
+
+
+        void setDoses(List<AgendaIndex.Dose> doses)
+        {
+            this.doses = doses;
+            fireTableDataChanged();
+        }
+
+
+        @Override
+        public int getRowCount()
+        {
+            return doses.size();
+        }
+
+
+        @Override
+        public int getColumnCount()
+        {
+            return columnNames.length;
+        }
+
+
+        @Override
+        public String getColumnName(int col)
+        {
+            return columnNames[col];
+        }
+
+
+        @Override
+        public Object getValueAt(int row, int col)
+        {
+            AgendaIndex.Dose dose = doses.get(row);
+
+            switch (col)
+            {
+            case 0:
+                return dayFormat.format(new Date(dose.getTime()));
+            case 1:
+                return timeFormat.format(new Date(dose.getTime()));
+            case 2:
+                return dose.getSuppName();
+            default:
+                return dose.getAmount();
+            }
+        }
+    }
+
+}  // end class AgendaDialog
@@ -18,8 +18,9 @@ import java.awt.event.WindowEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
-import java.util.prefs.Preferences;
 
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
@@ -46,6 +47,7 @@ import com.vitareminder.reminders.HtmlEmail;
 import com.vitareminder.reminders.ReminderManager;
 import com.vitareminder.reminders.TextMessage;
 import com.vitareminder.reports.HtmlGenerator;
+import com.vitareminder.settings.ProfileSettings;
 
 
 /**
@@ -111,36 +113,37 @@ public class ConfigureRemindersDialog implements PropertyChangeListener
 
     private ReminderManager reminderManager;
 
-    private Preferences userPreferences;
+    private ProfileSettings settings;
 
     private Logger logger = Logger.getLogger(ConfigureRemindersDialog.class);
 
 
     /**
      * The sole constructor.  Creates a modal dialog.  It stores the reminder data
-     * and preferences into local variables to represent the old values, which enables
+     * and settings into local variables to represent the old values, which enables
      * us to detect any changes to these values when the user exits the dialog.
      *
      * @param frame  the owner of this dialog
      * @param panel  the frame's panel, used to update the supplement table model
      * @param reminderManager  used to update any reminders if necessary
+     * @param settings  the settings of the active profile, which are shown and changed
      */
     public ConfigureRemindersDialog(JFrame frame, VitaReminderPanel panel,
-                                    ReminderManager reminderManager)
+                                    ReminderManager reminderManager, ProfileSettings settings)
     {
         this.panel = panel;
         this.reminderManager = reminderManager;
+        this.settings = settings;
 
         dialog = new JDialog(frame, true);
 
-        userPreferences = Preferences.userRoot();
-        String emailAddress = userPreferences.get("EMAIL_ADDRESS", "");
-        String phoneNumber = userPreferences.get("PHONE_NUMBER", "");
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-        boolean emailVerified = userPreferences.getBoolean("EMAIL_VERIFIED", false);
-        boolean phoneVerified = userPreferences.getBoolean("PHONE_VERIFIED", false);
+        String emailAddress = settings.get("EMAIL_ADDRESS", "");
+        String phoneNumber = settings.get("PHONE_NUMBER", "");
+        boolean emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        boolean textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        boolean voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
+        boolean emailVerified = settings.getBoolean("EMAIL_VERIFIED", false);
+        boolean phoneVerified = settings.getBoolean("PHONE_VERIFIED", false);
 
         oldEmail = emailAddress;
         if (emailVerified)
@@ -204,7 +207,7 @@ public class ConfigureRemindersDialog implements PropertyChangeListener
 
     /**
      * Creates the main panel for the {@code ConfigureRemindersDialog}.
-     * Uses the old reminder data and preferences to pre-fill the dialog
+     * Uses the old reminder data and settings to pre-fill the dialog
      * components.
      *
      * @return the {@code JPanel} that was just created
@@ -725,13 +728,20 @@ public class ConfigureRemindersDialog implements PropertyChangeListener
                     // All input validated, now see if any changes have been made.
                     if (changesMade())
                     {
-                        userPreferences.put("EMAIL_ADDRESS", currentEmail);
-                        userPreferences.put("PHONE_NUMBER", currentPhone);
-                        userPreferences.putBoolean("EMAIL_REMINDERS_ENABLED", currentEmailEnabled);
-                        userPreferences.putBoolean("TEXT_REMINDERS_ENABLED", currentTextEnabled);
-                        userPreferences.putBoolean("VOICE_REMINDERS_ENABLED", currentVoiceEnabled);
-                        userPreferences.putBoolean("EMAIL_VERIFIED", currentEmailVerified);
-                        userPreferences.putBoolean("PHONE_VERIFIED", currentPhoneVerified);
+                        Map<String, String> newSettings = new LinkedHashMap<>();
+                        newSettings.put("EMAIL_ADDRESS", currentEmail);
+                        newSettings.put("PHONE_NUMBER", currentPhone);
+                        newSettings.put("EMAIL_REMINDERS_ENABLED", String.valueOf(currentEmailEnabled));
+                        newSettings.put("TEXT_REMINDERS_ENABLED", String.valueOf(currentTextEnabled));
+                        newSettings.put("VOICE_REMINDERS_ENABLED", String.valueOf(currentVoiceEnabled));
+                        newSettings.put("EMAIL_VERIFIED", String.valueOf(currentEmailVerified));
+                        newSettings.put("PHONE_VERIFIED", String.valueOf(currentPhoneVerified));
+
+                        // Saved together, or not at all; leave the dialog open if not
+                        if (!settings.putAll(newSettings))
+                        {
+                            return;
+                        }
 
                         // We need to update active reminders if necessary:
                         boolean emailChanged = currentEmail != oldEmail;
@@ -905,7 +915,7 @@ public class ConfigureRemindersDialog implements PropertyChangeListener
 
 
     /**
-     * Checks to see if any changes have been made to the reminder preferences.
+     * Checks to see if any changes have been made to the reminder settings.
      *
      * @return  <tt>true</tt> if any changes have been made, <tt>false</tt> otherwise
      */
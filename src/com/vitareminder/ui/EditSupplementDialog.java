@@ -5,13 +5,14 @@ import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.text.DecimalFormat;
-import java.util.prefs.Preferences;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
+import com.vitareminder.business.Recurrence;
 import com.vitareminder.business.Supplement;
+import com.vitareminder.settings.ProfileSettings;
 
 
 /**
@@ -40,13 +41,14 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
     private boolean oldTextEnabled;
     private boolean oldVoiceEnabled;
     private String oldSuppNotes;
+    private Recurrence oldRecurrence;
 
 
     /**
      * The constructor for the {@code EditSupplementDialog}.
      * Calls the superclass {@code SupplementDialog} to build the main dialog,
-     * then modifies it by adding a custom title and window icon.  The user's
-     * reminder preferences are retrieved and used to set the initial state
+     * then modifies it by adding a custom title and window icon.  The active profile's
+     * reminder settings are retrieved and used to set the initial state
      * of the reminder radio buttons.  The old supplement values are also stored
      * in variables, which allows us to determine if the user has made any
      * actual changes.
@@ -54,8 +56,10 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
      * @param frame  the owner of this dialog
      * @param oldSupplement  contains the properties of the supplement prior to the user
      *                       opening this dialog
+     * @param settings  the settings of the active profile, which determine whether
+     *                  each type of reminder can be turned on
      */
-    public EditSupplementDialog(JFrame frame, Supplement oldSupplement)
+    public EditSupplementDialog(JFrame frame, Supplement oldSupplement, ProfileSettings settings)
     {
         super(frame);
 
@@ -69,14 +73,13 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
 
         titleLabel.setText("Edit Supplement \"" + suppName + "\"");
 
-        Preferences userPreferences = Preferences.userRoot();
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-        boolean emailVerified = userPreferences.getBoolean("EMAIL_VERIFIED", false);
-        boolean phoneVerified = userPreferences.getBoolean("PHONE_VERIFIED", false);
+        boolean emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        boolean textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        boolean voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
+        boolean emailVerified = settings.getBoolean("EMAIL_VERIFIED", false);
+        boolean phoneVerified = settings.getBoolean("PHONE_VERIFIED", false);
 
-        // Enable or disable the reminder radiobuttons based on the user preferences.
+        // Enable or disable the reminder radiobuttons based on the profile's settings.
         emailOnRadioButton.setEnabled(emailRemindersEnabled && emailVerified);
         emailOffRadioButton.setEnabled(emailRemindersEnabled && emailVerified);
         textOnRadioButton.setEnabled(textRemindersEnabled && phoneVerified);
@@ -103,6 +106,7 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
         this.oldTextEnabled = oldSupplement.getTextEnabled();
         this.oldVoiceEnabled = oldSupplement.getVoiceEnabled();
         this.oldSuppNotes = oldSupplement.getSuppNotes();
+        this.oldRecurrence = oldSupplement.getRecurrence();
 
         fillComponentsWithOldValues();
 
@@ -178,6 +182,8 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
         }
 
         suppNotesTextArea.setText(oldSuppNotes);
+
+        fillRepeatPanel(oldRecurrence);
     }
 
 
@@ -276,11 +282,12 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
 
                 suppNotesText = suppNotesTextArea.getText().trim();
 
-                // Validate name, amount, notes and units, then check if all four have been validated:
+                // Validate name, amount, notes and recurrence, then check if all four have been validated:
 
                 suppNameValidated = false;
                 suppAmountValidated = false;
                 suppNotesValidated = false;
+                recurrenceValidated = false;
 
                 // Validate name
                 suppNameValidated = validateSuppName();
@@ -298,10 +305,19 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
                     suppNotesValidated = validateSuppNotes();
                 }
 
-                // Check if everything has been validated
+                // If name, amount and notes validated, validate recurrence
                 if (suppNameValidated &&
                     suppAmountValidated &&
                     suppNotesValidated)
+                {
+                    recurrenceValidated = validateRecurrence();
+                }
+
+                // Check if everything has been validated
+                if (suppNameValidated &&
+                    suppAmountValidated &&
+                    suppNotesValidated &&
+                    recurrenceValidated)
                 {
                     inputValidated = true;
 
@@ -323,6 +339,7 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
                         newSupplement.setTextEnabled(textEnabled);
                         newSupplement.setVoiceEnabled(voiceEnabled);
                         newSupplement.setSuppNotes(suppNotesText);
+                        newSupplement.setRecurrence(recurrence);
 
                         dialog.dispose();
                     }
@@ -352,7 +369,8 @@ public class EditSupplementDialog extends SupplementDialog implements ActionList
             emailEnabled == oldEmailEnabled &&
             textEnabled == oldTextEnabled &&
             voiceEnabled == oldVoiceEnabled &&
-            suppNotesText.equals(oldSuppNotes))
+            suppNotesText.equals(oldSuppNotes) &&
+            recurrence.equals(oldRecurrence))
         {
             // If time is the same
             if (suppHours == oldSuppHours &&
@@ -5,7 +5,6 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.JDialog;
@@ -19,7 +18,7 @@ import javax.swing.SwingWorker.StateValue;
 import org.apache.log4j.Logger;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import com.vitareminder.business.Regimen;
+import com.vitareminder.dao.RegimenDAO;
 import com.vitareminder.reports.ExcelWorker;
 import com.vitareminder.ui.GBCFactory;
 
@@ -53,10 +52,10 @@ public class ExcelProgressDialog
      * of querying the POI subsystem for updates on its progress.
      *
      * @param frame  the owner of this dialog
-     * @param regimens  the user's regimens and supplements that are used to generate
-     *                  the Excel document
+     * @param regimenDAO  the DAO that the user's regimens and supplements are read from
+     *                    to generate the Excel document
      */
-    public ExcelProgressDialog(final JFrame frame, final List<Regimen> regimens)
+    public ExcelProgressDialog(final JFrame frame, final RegimenDAO regimenDAO)
     {
         progressDialog = new JDialog(frame, true);
         progressDialog.setResizable(false);
@@ -75,7 +74,7 @@ public class ExcelProgressDialog
         progressDialog.add(panel);
         progressDialog.setLocationRelativeTo(frame);
 
-        final ExcelWorker worker = new ExcelWorker(regimens);
+        final ExcelWorker worker = new ExcelWorker(regimenDAO);
 
         // Listen in on the state of the thread and wait for it to finish,
         // then retrieve the Excel document.
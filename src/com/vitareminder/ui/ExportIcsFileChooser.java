@@ -0,0 +1,139 @@
+package com.vitareminder.ui;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.dao.DAOManager;
+import com.vitareminder.reports.IcsGenerator;
+import com.vitareminder.reports.IcsWorker;
+
+/**
+ * Lets the user choose where to save the iCalendar (.ics) export of their
+ * reminders, and writes it with {@code IcsGenerator} on an {@code IcsWorker}
+ * thread, off the Event Dispatch Thread.  The default file name
+ * does not include the date, so that exporting again replaces the file that
+ * a calendar application may be subscribed to.
+ */
+public class ExportIcsFileChooser
+{
+    JFileChooser fileChooser;
+
+    private final JFrame frame;
+    private DAOManager daoManager;
+
+    private Logger logger = Logger.getLogger(ExportIcsFileChooser.class);
+
+    @SuppressWarnings("serial")
+    public ExportIcsFileChooser(final JFrame frame, DAOManager daoManager)
+    {
+        this.frame = frame;
+        this.daoManager = daoManager;
+
+        fileChooser = new JFileChooser() {
+
+            @Override
+            public void approveSelection()
+            {
+                File f = getSelectedFile();
+                if (f.exists())
+                {
+                    String[] options = {"YES", "NO"};
+                    int result = JOptionPane.showOptionDialog(frame,
+                            "This file already exists.\nDo you want to replace it?",
+                            "File already exists",
+                            JOptionPane.YES_NO_OPTION,
+                            JOptionPane.WARNING_MESSAGE,
+                            null,
+                            options,
+                            options[1]);
+
+                    switch (result)
+                    {
+                    case JOptionPane.YES_OPTION:
+                        super.approveSelection();
+                        return;
+                    case JOptionPane.NO_OPTION:
+                        return;
+                    case JOptionPane.CLOSED_OPTION:
+                        return;
+                    }
+                }
+
+                super.approveSelection();
+            }
+        };
+
+        fileChooser.setDialogTitle("Export to Calendar");
+
+        fileChooser.setSelectedFile(new File("VitaReminder.ics"));
+
+        // Set the file filter to only display .ics files
+        FileFilter filter = new FileNameExtensionFilter("iCalendar file (.ics)", "ics");
+        fileChooser.setFileFilter(filter);
+
+        display();
+    }
+
+    private void display()
+    {
+        // Display the save dialog and save the file if the user clicks "Save"
+        int option = fileChooser.showSaveDialog(frame);
+
+        if (option == JFileChooser.APPROVE_OPTION)
+        {
+            File file = fileChooser.getSelectedFile();
+
+            if (!file.getPath().matches(".*ics"))
+            {
+                file = new File(file.getPath() + ".ics");
+            }
+
+            IcsWorker worker = new IcsWorker(new IcsGenerator(file, System.currentTimeMillis()),
+                                             daoManager.getRegimenDAO()) {
+
+                @Override
+                protected void done()
+                {
+                    try
+                    {
+                        IcsGenerator generator = get();
+
+                        JOptionPane.showMessageDialog(frame,
+                                "Exported " + generator.getEventCount() + " reminder schedules, of which "
+                                + generator.getChangedCount() + " were new or changed.",
+                                "Export to Calendar",
+                                JOptionPane.INFORMATION_MESSAGE);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        logger.error("An error has occurred while saving the calendar file.", e);
+                        JOptionPane.showMessageDialog(frame,
+                                "Sorry, an error has occurred while saving the calendar file.",
+                                "Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                    catch (ExecutionException e)
+                    {
+                        logger.error("An error has occurred while saving the calendar file.", e.getCause());
+                        JOptionPane.showMessageDialog(frame,
+                                "Sorry, an error has occurred while saving the calendar file.",
+                                "Error",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            };
+
+            // The file is written in the background, and the result is shown when it is done
+            worker.execute();
+        }
+    }
+
+}  // end class ExportIcsFileChooser
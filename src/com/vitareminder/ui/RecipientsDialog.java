@@ -0,0 +1,312 @@
+package com.vitareminder.ui;
+
+import java.awt.Font;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+
+import com.vitareminder.reminders.ReminderRecipients;
+
+
+/**
+ * A modal dialog that allows the user to edit the other people, e.g. a
+ * caregiver, who are sent the reminders for a regimen or a supplement as
+ * well as the profile's own e-mail address and phone number.  Each channel
+ * has its own list, entered one recipient per line.  Phone numbers may be
+ * entered in any format, and are stored in the form "(###) ###-####" that
+ * {@code ConfigureRemindersDialog} uses.
+ */
+public class RecipientsDialog implements PropertyChangeListener
+{
+    private static final String[] CHANNEL_LABELS = {"E-mail addresses:", "Text message numbers:",
+                                                    "Voice call numbers:"};
+
+    private static final int MAX_RECIPIENTS = 20;
+
+    String[] buttonStrings = {"Apply Changes", "Cancel"};
+
+    private JDialog dialog;
+    private JOptionPane optionPane;
+    private JTextArea[] recipientTextAreas = new JTextArea[ReminderRecipients.CHANNELS.length];
+
+    private Map<String, List<String>> oldRecipients;
+    private Map<String, List<String>> newRecipients;
+
+    private boolean changesMade = false;
+
+
+    /**
+     * The sole constructor.
+     *
+     * @param frame  the owner of this dialog
+     * @param title  describes whose recipients are being edited, e.g. "Recipients for Regimen "Morning""
+     * @param oldRecipients  the current recipients of each channel, keyed by "email", "text" and "voice"
+     */
+    public RecipientsDialog(JFrame frame, String title, Map<String, List<String>> oldRecipients)
+    {
+        this.oldRecipients = oldRecipients;
+
+        dialog = new JDialog(frame, true);
+
+        optionPane = new JOptionPane(createPanel(title), JOptionPane.PLAIN_MESSAGE, JOptionPane.OK_CANCEL_OPTION,
+                                     null, buttonStrings);
+        optionPane.addPropertyChangeListener(this);
+
+        dialog.setContentPane(optionPane);
+        dialog.setResizable(false);
+        dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+
+            @Override
+            public void windowClosing(WindowEvent we)
+            {
+                optionPane.setValue(new Integer(JOptionPane.CLOSED_OPTION));
+            }
+        });
+
+        dialog.setTitle("Edit Recipients");
+        dialog.pack();
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+
+    private JPanel createPanel(String title)
+    {
+        JLabel titleLabel = new JLabel(title);
+        Font font = titleLabel.getFont();
+        titleLabel.setFont(new Font(font.getFontName(), Font.BOLD, font.getSize()));
+
+        JLabel hintLabel = new JLabel("<html>Enter one recipient per line.  They are sent these reminders<br>"
+                                    + "as well as your own e-mail address and phone number.</html>");
+
+        JPanel panel = new JPanel(new GridBagLayout());
+
+        panel.add(titleLabel, GBCFactory.getConstraints(0, 0, 2, 1, GridBagConstraints.CENTER, GridBagConstraints.NONE));
+        panel.add(hintLabel, GBCFactory.getConstraints(0, 1, 2, 1, GridBagConstraints.CENTER, GridBagConstraints.NONE));
+
+        for (int i = 0; i < ReminderRecipients.CHANNELS.length; i++)
+        {
+            recipientTextAreas[i] = new JTextArea(4, 24);
+
+            List<String> recipients = oldRecipients.get(ReminderRecipients.CHANNELS[i]);
+
+            if (recipients != null)
+            {
+                recipientTextAreas[i].setText(join(recipients));
+            }
+
+            panel.add(new JLabel(CHANNEL_LABELS[i]),
+                      GBCFactory.getConstraints(0, i + 2, 1, 1, GridBagConstraints.NORTHEAST, GridBagConstraints.NONE));
+            panel.add(new JScrollPane(recipientTextAreas[i]),
+                      GBCFactory.getConstraints(1, i + 2, 1, 1, GridBagConstraints.CENTER, GridBagConstraints.HORIZONTAL));
+        }
+
+        return panel;
+    }
+
+
+    /**
+     * After this dialog closes, called from {@code VitaReminderPanel} to
+     * determine whether the recipients should be saved.
+     *
+     * @return  <tt>true</tt> if the recipients were validated and changed, <tt>false</tt> otherwise
+     */
+    public boolean getChangesMade()
+    {
+        return changesMade;
+    }
+
+
+    /**
+     * After this dialog closes, called from {@code VitaReminderPanel} to get
+     * the recipients that the user has entered.
+     *
+     * @return  the recipients of each channel, keyed by "email", "text" and "voice"
+     */
+    public Map<String, List<String>> getNewRecipients()
+    {
+        return newRecipients;
+    }
+
+
+    /**
+     * Specifies the actions to take when the user presses "Apply Changes"
+     * or "Cancel", or closes the window.  If "Apply Changes" is pressed,
+     * every recipient is validated, and the dialog only closes if at least
+     * one list has changed.
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent e)
+    {
+        String prop = e.getPropertyName();
+
+        if (dialog.isVisible() && (e.getSource() == optionPane) &&
+            (JOptionPane.VALUE_PROPERTY.equals(prop) ||
+             JOptionPane.INPUT_VALUE_PROPERTY.equals(prop)))
+        {
+            Object value = optionPane.getValue();
+
+            if (value == JOptionPane.UNINITIALIZED_VALUE)
+            {
+                return;
+            }
+
+            optionPane.setValue(JOptionPane.UNINITIALIZED_VALUE);
+
+            // If the user pressed "Apply Changes"
+            if (value.equals(buttonStrings[0]))
+            {
+                Map<String, List<String>> recipients = new LinkedHashMap<>();
+
+                for (int i = 0; i < ReminderRecipients.CHANNELS.length; i++)
+                {
+                    List<String> channelRecipients = validateRecipients(i);
+
+                    if (channelRecipients == null)
+                    {
+                        return;
+                    }
+
+                    recipients.put(ReminderRecipients.CHANNELS[i], channelRecipients);
+                }
+
+                if (recipients.equals(oldRecipients))
+                {
+                    JOptionPane.showMessageDialog(dialog,
+                            "Please make a change or press Cancel.",
+                            "No changes detected",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+
+                newRecipients = recipients;
+                changesMade = true;
+                dialog.dispose();
+            }
+            else  // The user closed the dialog or clicked "Cancel".
+            {
+                dialog.dispose();
+            }
+        }
+    }
+
+
+    /**
+     * Checks each line of a channel's text area.  E-mail addresses must be of
+     * the form "user@host.domain", and phone numbers must have ten digits,
+     * optionally preceded by a 1.
+     *
+     * @param channelIndex  the index of the channel in {@code ReminderRecipients.CHANNELS}
+     * @return  the recipients, with the phone numbers formatted, or <tt>null</tt> if one
+     *          of them is invalid
+     */
+    private List<String> validateRecipients(int channelIndex)
+    {
+        String channel = ReminderRecipients.CHANNELS[channelIndex];
+        List<String> recipients = new ArrayList<>();
+
+        for (String line : recipientTextAreas[channelIndex].getText().split("\n"))
+        {
+            String recipient = line.trim();
+
+            if (recipient.isEmpty())
+            {
+                continue;
+            }
+
+            if (channel.equals("email"))
+            {
+                // The recipients are stored separated by commas, so a comma cannot be part of one
+                if (recipient.indexOf(',') != -1 || !isValidEmail(recipient))
+                {
+                    return invalidRecipient(channelIndex, "\"" + recipient + "\" is not a valid e-mail address.");
+                }
+
+                recipients.add(recipient);
+            }
+            else
+            {
+                String digits = recipient.replaceAll("[^0-9]", "");
+
+                if (digits.length() == 11 && digits.startsWith("1"))
+                {
+                    digits = digits.substring(1);
+                }
+
+                if (digits.length() != 10 || recipient.matches(".*[A-Za-z].*"))
+                {
+                    return invalidRecipient(channelIndex, "\"" + recipient + "\" is not a valid phone number.");
+                }
+
+                recipients.add("(" + digits.substring(0, 3) + ") " + digits.substring(3, 6) + "-" + digits.substring(6));
+            }
+        }
+
+        if (recipients.size() > MAX_RECIPIENTS)
+        {
+            return invalidRecipient(channelIndex, "Please enter no more than " + MAX_RECIPIENTS + " recipients.");
+        }
+
+        return recipients;
+    }
+
+
+    private boolean isValidEmail(String email)
+    {
+        try
+        {
+            new InternetAddress(email, true).validate();
+
+            return true;
+        }
+        catch (AddressException ae)
+        {
+            return false;
+        }
+    }
+
+
+    private List<String> invalidRecipient(int channelIndex, String message)
+    {
+        JOptionPane.showMessageDialog(dialog,
+                message,
+                "Invalid Data",
+                JOptionPane.ERROR_MESSAGE);
+
+        recipientTextAreas[channelIndex].requestFocusInWindow();
+
+        return null;
+    }
+
+
+    private String join(List<String> recipients)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        for (String recipient : recipients)
+        {
+            builder.append(recipient).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+}  // end class RecipientsDialog
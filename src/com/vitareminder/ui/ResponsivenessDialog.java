@@ -0,0 +1,274 @@
+package com.vitareminder.ui;
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.List;
+
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextArea;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.DefaultTableModel;
+
+import com.vitareminder.metrics.EdtWatchdog;
+import com.vitareminder.metrics.LatencyStats;
+
+
+/**
+ * A modal dialog that shows how responsive the user interface has been since
+ * the application started, from the times recorded by the {@code EdtWatchdog}:
+ * a summary of the event dispatch times, a histogram of them, and the
+ * operations that stalled the Event Dispatch Thread for longest.  Selecting
+ * an operation shows the stack trace taken during its longest stall.
+ */
+public class ResponsivenessDialog implements PropertyChangeListener
+{
+    private JDialog dialog;
+    private JOptionPane optionPane;
+    private JPanel panel;
+    private String[] buttonStrings = {"Reset", "OK"};
+
+    private JLabel summaryLabel;
+    private DefaultTableModel histogramTableModel;
+    private DefaultTableModel offenderTableModel;
+    private JTable offenderTable;
+    private JTextArea stackTextArea;
+
+    private List<EdtWatchdog.Offender> offenders;
+
+
+    /**
+     * The sole constructor.  Creates and displays a new {@code JDialog}.
+     * It first creates a {@code JPanel} and then installs this panel in
+     * the {@code JOptionPane}.  The {@code JOptionPane} is then set as
+     * this dialog's content pane.
+     *
+     * @param frame  the owner of this dialog
+     */
+    public ResponsivenessDialog(JFrame frame)
+    {
+        dialog = new JDialog(frame, true);
+
+        createPanel();
+        refresh();
+
+        optionPane = new JOptionPane(panel, JOptionPane.PLAIN_MESSAGE, JOptionPane.OK_OPTION, null);
+        optionPane.setOptions(buttonStrings);
+        optionPane.addPropertyChangeListener(this);
+        dialog.setContentPane(optionPane);
+        dialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+
+            @Override
+            public void windowClosing(WindowEvent we)
+            {
+                // When the user closes the window, update the JOptionPane's
+                // value to fire a propertyChangeEvent.
+                optionPane.setValue(new Integer(JOptionPane.CLOSED_OPTION));
+            }
+        });
+
+        dialog.setTitle("UI Responsiveness");
+        dialog.setResizable(false);
+        dialog.pack();
+        dialog.setLocationRelativeTo(frame);
+        dialog.setVisible(true);
+    }
+
+
+    /**
+     * Creates the summary label, the histogram and offender tables, and the
+     * text area that shows the selected offender's stack trace.
+     */
+    private void createPanel()
+    {
+        summaryLabel = new JLabel();
+
+        histogramTableModel = new ReadOnlyTableModel(new String[] {"Dispatch Time", "Events"});
+        JTable histogramTable = new JTable(histogramTableModel);
+        histogramTable.setFocusable(false);
+        histogramTable.setRowSelectionAllowed(false);
+
+        JScrollPane histogramScrollPane = new JScrollPane(histogramTable);
+        histogramScrollPane.setPreferredSize(new Dimension(220, 200));
+
+        offenderTableModel = new ReadOnlyTableModel(new String[] {"Operation", "Stalls", "Longest (ms)", "Total (ms)"});
+        offenderTable = new JTable(offenderTableModel);
+        offenderTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        offenderTable.getColumnModel().getColumn(0).setPreferredWidth(260);
+        offenderTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+
+            @Override
+            public void valueChanged(ListSelectionEvent e)
+            {
+                showSelectedStack();
+            }
+        });
+
+        JScrollPane offenderScrollPane = new JScrollPane(offenderTable);
+        offenderScrollPane.setPreferredSize(new Dimension(480, 200));
+
+        stackTextArea = new JTextArea(10, 60);
+        stackTextArea.setEditable(false);
+        stackTextArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+
+        JScrollPane stackScrollPane = new JScrollPane(stackTextArea);
+
+        panel = new JPanel(new GridBagLayout());
+        panel.add(summaryLabel, GBCFactory.getConstraints(0, 0, 2, 1, GridBagConstraints.WEST, GridBagConstraints.NONE));
+        panel.add(histogramScrollPane, GBCFactory.getConstraints(0, 1, 1, 1, GridBagConstraints.NORTH, GridBagConstraints.NONE));
+        panel.add(offenderScrollPane, GBCFactory.getConstraints(1, 1, 1, 1, GridBagConstraints.NORTH, GridBagConstraints.NONE));
+        panel.add(new JLabel("Stack trace of the selected operation's longest stall:"),
+                  GBCFactory.getConstraints(0, 2, 2, 1, GridBagConstraints.WEST, GridBagConstraints.NONE));
+        panel.add(stackScrollPane, GBCFactory.getConstraints(0, 3, 2, 1, GridBagConstraints.CENTER, GridBagConstraints.HORIZONTAL));
+    }
+
+
+    /**
+     * Fills the summary and the tables from the {@code EdtWatchdog}.
+     */
+    private void refresh()
+    {
+        EdtWatchdog watchdog = EdtWatchdog.getInstance();
+
+        histogramTableModel.setRowCount(0);
+        offenderTableModel.setRowCount(0);
+        stackTextArea.setText("");
+
+        if (watchdog == null)
+        {
+            summaryLabel.setText("The Event Dispatch Thread is not being monitored.");
+            return;
+        }
+
+        LatencyStats stats = watchdog.getDispatchStats();
+
+        summaryLabel.setText(String.format("<html>Events dispatched: %d<br>"
+                                         + "Mean: %.1f ms &nbsp; 50th: %.0f ms &nbsp; 95th: %.0f ms &nbsp; "
+                                         + "99th: %.0f ms &nbsp; Longest: %.0f ms<br>"
+                                         + "Stalls longer than %d ms: %d</html>",
+                                           stats.getCount(), stats.getMeanMillis(),
+                                           stats.get50thPercentileMillis(), stats.get95thPercentileMillis(),
+                                           stats.get99thPercentileMillis(), stats.getMaxMillis(),
+                                           watchdog.getStallMillis(), watchdog.getStallCount()));
+
+        long[] upperBounds = stats.getBucketUpperBoundsMillis();
+        long[] counts = stats.getBucketCounts();
+        long lowerBound = 0;
+
+        for (int i = 0; i < counts.length; i++)
+        {
+            String range = i < upperBounds.length ? lowerBound + " - " + upperBounds[i] + " ms"
+                                                  : "over " + lowerBound + " ms";
+
+            histogramTableModel.addRow(new Object[] {range, counts[i]});
+
+            if (i < upperBounds.length)
+            {
+                lowerBound = upperBounds[i];
+            }
+        }
+
+        offenders = watchdog.getOffenders();
+
+        for (EdtWatchdog.Offender offender : offenders)
+        {
+            offenderTableModel.addRow(new Object[] {offender.getOperation(), offender.getCount(),
+                                                    offender.getMaxMillis(), offender.getTotalMillis()});
+        }
+
+        if (!offenders.isEmpty())
+        {
+            offenderTable.setRowSelectionInterval(0, 0);
+        }
+    }
+
+
+    private void showSelectedStack()
+    {
+        int row = offenderTable.getSelectedRow();
+
+        if (row < 0 || offenders == null || row >= offenders.size())
+        {
+            stackTextArea.setText("");
+            return;
+        }
+
+        String stack = offenders.get(row).getStack();
+
+        stackTextArea.setText(stack == null ? "No stack trace was taken, as the stalls ended between samples." : stack);
+        stackTextArea.setCaretPosition(0);
+    }
+
+
+    /**
+     * Resets the recorded times when the user presses the "Reset" button, and
+     * closes this dialog when the user closes the window or presses the "OK" button.
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent e)
+    {
+        String prop = e.getPropertyName();
+
+        if (dialog.isVisible() && (e.getSource() == optionPane) &&
+            (JOptionPane.VALUE_PROPERTY.equals(prop) ||
+             JOptionPane.INPUT_VALUE_PROPERTY.equals(prop)))
+        {
+            Object value = optionPane.getValue();
+
+            if (value == JOptionPane.UNINITIALIZED_VALUE)
+            {
+                return;  // Ignore reset.
+            }
+
+            // Reset the value of the JOptionPane to ensure that, when
+            // the user presses the same button again, a property change
+            // event will be fired.
+            optionPane.setValue(JOptionPane.UNINITIALIZED_VALUE);
+
+            if (buttonStrings[0].equals(value))
+            {
+                if (EdtWatchdog.getInstance() != null)
+                {
+                    EdtWatchdog.getInstance().reset();
+                }
+
+                refresh();
+                return;
+            }
+
+            dialog.dispose();
+        }
+    }
+
+
+    @SuppressWarnings("serial")
+    private static class ReadOnlyTableModel extends DefaultTableModel
+    {
+        ReadOnlyTableModel(String[] columnNames)
+        {
+            super(columnNames, 0);
+        }
+
+
+        @Override
+        public boolean isCellEditable(int row, int column)
+        {
+            return false;
+        }
+    }
+
+}  // end class ResponsivenessDialog
@@ -1,5 +1,6 @@
 package com.vitareminder.ui;
 
+import java.awt.CardLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Font;
@@ -12,6 +13,7 @@ import java.awt.event.WindowEvent;
 
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComboBox;
 import javax.swing.JDialog;
@@ -25,7 +27,9 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.border.Border;
 
+import com.vitareminder.business.Recurrence;
 import com.vitareminder.business.Supplement;
+import com.vitareminder.reminders.FireTimeSchedule;
 
 
 /**
@@ -44,6 +48,8 @@ public class SupplementDialog implements SupplementInputValidator
         suppAmountPanel,
         emptyAmountPanel,
         timePanel,
+        repeatPanel,
+        repeatDaysPanel,
         remindersPanel,
         emailPanel,
         textPanel,
@@ -55,6 +61,7 @@ public class SupplementDialog implements SupplementInputValidator
         suppUnitsLabel,
         suppTimeLabel,
         suppNotesLabel,
+        repeatLabel,
         remindersLabel,
         emailLabel,
         textLabel,
@@ -63,15 +70,24 @@ public class SupplementDialog implements SupplementInputValidator
 
     protected JTextField suppNameTextField,
         suppAmountTextField,
-        suppUnitsTextField;
+        suppUnitsTextField,
+        everyDaysTextField,
+        everyDaysFromTextField,
+        taperStagesTextField,
+        taperFromTextField;
 
     protected Border timeBorder,
+        repeatBorder,
         remindersBorder;
 
     protected JComboBox<String> suppUnitsComboBox,
         hourComboBox,
         minuteComboBox,
-        amPMComboBox;
+        amPMComboBox,
+        repeatHoursComboBox,
+        repeatDaysComboBox;
+
+    protected JCheckBox[] weekdayCheckBoxes;
 
     protected DefaultComboBoxModel<String> units;
 
@@ -100,6 +116,7 @@ public class SupplementDialog implements SupplementInputValidator
     protected String suppUnitsText = "";
     protected String timeString = "";
     protected String suppNotesText = "";
+    protected Recurrence recurrence = Recurrence.DAILY;
 
     protected boolean emailEnabled = false;
     protected boolean textEnabled = false;
@@ -108,6 +125,7 @@ public class SupplementDialog implements SupplementInputValidator
     protected boolean suppNameValidated = false;
     protected boolean suppAmountValidated = false;
     protected boolean suppNotesValidated = false;
+    protected boolean recurrenceValidated = false;
 
     protected Supplement newSupplement;
 
@@ -126,6 +144,7 @@ public class SupplementDialog implements SupplementInputValidator
 
         createAmountPanel();
         createTimePanel();
+        createRepeatPanel();
         createRemindersPanel();
         createMainPanel();
 
@@ -209,6 +228,85 @@ public class SupplementDialog implements SupplementInputValidator
     }
 
 
+    /**
+     * Creates a {@code JPanel} with the {@code JComboBox}es that choose how often the
+     * supplement is repeated through the day, and on which days it is taken.  The
+     * controls for the chosen days, e.g. a check box for each day of the week, are
+     * placed in a {@code CardLayout} below them, which shows only the ones in use.
+     * The start dates are filled in with today's date.
+     */
+    private void createRepeatPanel()
+    {
+        repeatLabel = new JLabel("Repeat:");
+
+        String[] repeatHours = {"Once a day", "Every hour", "Every 2 hours", "Every 3 hours",
+                                "Every 4 hours", "Every 6 hours", "Every 8 hours", "Every 12 hours"};
+
+        String[] repeatDays = {"Every day", "On certain days", "Every few days", "Tapering"};
+
+        repeatHoursComboBox = new JComboBox<String>(repeatHours);
+        repeatDaysComboBox = new JComboBox<String>(repeatDays);
+
+        String today = Recurrence.formatDate(Recurrence.toEpochDay(System.currentTimeMillis(),
+                                             FireTimeSchedule.getInstance().getTimeZone()));
+
+        JPanel weekdaysPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        String[] weekdays = {"Mo", "Tu", "We", "Th", "Fr", "Sa", "Su"};
+        weekdayCheckBoxes = new JCheckBox[weekdays.length];
+
+        for (int i = 0; i < weekdays.length; i++)
+        {
+            weekdayCheckBoxes[i] = new JCheckBox(weekdays[i]);
+            weekdaysPanel.add(weekdayCheckBoxes[i]);
+        }
+
+        everyDaysTextField = new JTextField("2", 3);
+        everyDaysTextField.setHorizontalAlignment(JTextField.RIGHT);
+        everyDaysFromTextField = new JTextField(today, 8);
+
+        JPanel everyDaysPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        everyDaysPanel.add(new JLabel("Every"));
+        everyDaysPanel.add(everyDaysTextField);
+        everyDaysPanel.add(new JLabel("days, from"));
+        everyDaysPanel.add(everyDaysFromTextField);
+
+        taperStagesTextField = new JTextField("1x7, 2x14", 8);
+        taperStagesTextField.setToolTipText("<html>Each stage is written as NxM: every N days for M days.<br>"
+                                          + "1x7, 2x14 is every day for a week, then every other day for two weeks.</html>");
+        taperFromTextField = new JTextField(today, 8);
+
+        JPanel taperPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        taperPanel.add(new JLabel("Stages"));
+        taperPanel.add(taperStagesTextField);
+        taperPanel.add(new JLabel("from"));
+        taperPanel.add(taperFromTextField);
+
+        repeatDaysPanel = new JPanel(new CardLayout());
+        repeatDaysPanel.add(new JPanel(), repeatDays[0]);
+        repeatDaysPanel.add(weekdaysPanel, repeatDays[1]);
+        repeatDaysPanel.add(everyDaysPanel, repeatDays[2]);
+        repeatDaysPanel.add(taperPanel, repeatDays[3]);
+
+        repeatDaysComboBox.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                ((CardLayout) repeatDaysPanel.getLayout()).show(repeatDaysPanel,
+                        (String) repeatDaysComboBox.getSelectedItem());
+            }
+        });
+
+        repeatPanel = new JPanel(new GridBagLayout());
+        repeatBorder = BorderFactory.createEtchedBorder();
+        repeatPanel.setBorder(repeatBorder);
+
+        repeatPanel.add(repeatHoursComboBox, GBCFactory.getConstraints(0, 0, 1, 1, GridBagConstraints.WEST, GridBagConstraints.NONE));
+        repeatPanel.add(repeatDaysComboBox, GBCFactory.getConstraints(1, 0, 1, 1, GridBagConstraints.WEST, GridBagConstraints.NONE));
+        repeatPanel.add(repeatDaysPanel, GBCFactory.getConstraints(0, 1, 2, 1, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL));
+    }
+
+
     /**
      * Creates a {@JPanel} containing three radio button groups - one for
      * e-mail reminders, one for text message reminders and one for automated
@@ -275,8 +373,8 @@ public class SupplementDialog implements SupplementInputValidator
 
     /**
      * Creates the main {@JPanel} with the text input fields for the supplement
-     * name, amount, units and notes.  The {@code timePanel} and {@code remindersPanel}
-     * are added to this panel.  The components are placed in a {@code GridBayLayout}.
+     * name, amount, units and notes.  The {@code timePanel}, {@code repeatPanel} and
+     * {@code remindersPanel} are added to this panel.  The components are placed in a {@code GridBayLayout}.
      */
     private void createMainPanel()
     {
@@ -308,8 +406,10 @@ public class SupplementDialog implements SupplementInputValidator
         supplementPanel.add(suppNotesScrollPane, GBCFactory.getConstraints(1, 4, 1, 1, GridBagConstraints.WEST, GridBagConstraints.HORIZONTAL));
         supplementPanel.add(suppTimeLabel, GBCFactory.getConstraints(0, 5, 1, 1, GridBagConstraints.EAST, GridBagConstraints.NONE));
         supplementPanel.add(timePanel, GBCFactory.getConstraints(1, 5, 1, 1, GridBagConstraints.CENTER, GridBagConstraints.BOTH));
-        supplementPanel.add(remindersLabel, GBCFactory.getConstraints(0, 6, 1, 1, GridBagConstraints.EAST, GridBagConstraints.NONE));
-        supplementPanel.add(remindersPanel, GBCFactory.getConstraints(1, 6, 1, 1, GridBagConstraints.CENTER, GridBagConstraints.BOTH));
+        supplementPanel.add(repeatLabel, GBCFactory.getConstraints(0, 6, 1, 1, GridBagConstraints.EAST, GridBagConstraints.NONE));
+        supplementPanel.add(repeatPanel, GBCFactory.getConstraints(1, 6, 1, 1, GridBagConstraints.CENTER, GridBagConstraints.BOTH));
+        supplementPanel.add(remindersLabel, GBCFactory.getConstraints(0, 7, 1, 1, GridBagConstraints.EAST, GridBagConstraints.NONE));
+        supplementPanel.add(remindersPanel, GBCFactory.getConstraints(1, 7, 1, 1, GridBagConstraints.CENTER, GridBagConstraints.BOTH));
     }
 
 
@@ -441,6 +541,121 @@ public class SupplementDialog implements SupplementInputValidator
     }
 
 
+    /**
+     * Builds the {@code recurrence} from the repeat controls, checking that at
+     * least one day of the week is chosen, and that the number of days, the
+     * stages of a taper and the start dates can be read.
+     */
+    public boolean validateRecurrence()
+    {
+        int everyHours = Recurrence.HOUR_INTERVALS[repeatHoursComboBox.getSelectedIndex()];
+
+        try
+        {
+            switch (repeatDaysComboBox.getSelectedIndex())
+            {
+            case 1:  // On certain days
+            {
+                int weekdays = 0;
+
+                for (int i = 0; i < weekdayCheckBoxes.length; i++)
+                {
+                    if (weekdayCheckBoxes[i].isSelected())
+                    {
+                        weekdays |= 1 << i;
+                    }
+                }
+
+                recurrence = Recurrence.onWeekdays(everyHours, weekdays);
+                break;
+            }
+            case 2:  // Every few days
+                recurrence = Recurrence.parse("hours=" + everyHours
+                                            + ";every=" + everyDaysTextField.getText().trim()
+                                            + ";from=" + everyDaysFromTextField.getText().trim());
+                break;
+            case 3:  // Tapering
+                recurrence = Recurrence.parse("hours=" + everyHours
+                                            + ";taper=" + taperStagesTextField.getText().replace(" ", "")
+                                            + ";from=" + taperFromTextField.getText().trim());
+                break;
+            default:
+                recurrence = Recurrence.everyDay(everyHours);
+                break;
+            }
+
+            return true;
+        }
+        catch (IllegalArgumentException e)
+        {
+            JOptionPane.showMessageDialog(dialog,
+                    e.getMessage(),
+                    "Invalid Data",
+                    JOptionPane.ERROR_MESSAGE);
+
+            repeatDaysComboBox.requestFocusInWindow();
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Sets the state of the repeat controls from an existing recurrence.
+     * Called by {@code EditSupplementDialog}.
+     *
+     * @param recurrence  the supplement's recurrence before the user opened this dialog
+     */
+    protected void fillRepeatPanel(Recurrence recurrence)
+    {
+        for (int i = 0; i < Recurrence.HOUR_INTERVALS.length; i++)
+        {
+            if (Recurrence.HOUR_INTERVALS[i] == recurrence.getEveryHours())
+            {
+                repeatHoursComboBox.setSelectedIndex(i);
+            }
+        }
+
+        switch (recurrence.getDayRule())
+        {
+        case WEEKDAYS:
+            repeatDaysComboBox.setSelectedIndex(1);
+
+            for (int i = 0; i < weekdayCheckBoxes.length; i++)
+            {
+                weekdayCheckBoxes[i].setSelected((recurrence.getWeekdays() & (1 << i)) != 0);
+            }
+
+            break;
+        case EVERY_N_DAYS:
+            repeatDaysComboBox.setSelectedIndex(2);
+            everyDaysTextField.setText(Integer.toString(recurrence.getEveryDays()));
+            everyDaysFromTextField.setText(Recurrence.formatDate(recurrence.getFromDay()));
+            break;
+        case TAPER:
+        {
+            repeatDaysComboBox.setSelectedIndex(3);
+
+            int[] intervals = recurrence.getTaperIntervals();
+            int[] lengths = recurrence.getTaperLengths();
+            StringBuilder stages = new StringBuilder();
+
+            for (int i = 0; i < intervals.length; i++)
+            {
+                stages.append(i > 0 ? ", " : "").append(intervals[i]).append('x').append(lengths[i]);
+            }
+
+            taperStagesTextField.setText(stages.toString());
+            taperFromTextField.setText(Recurrence.formatDate(recurrence.getFromDay()));
+            break;
+        }
+        default:
+            repeatDaysComboBox.setSelectedIndex(0);
+            break;
+        }
+    }
+
+
     /**
      * Called by {@code VitaReminderPanel#addSupplement()} and {@code VitaReminderPanel#editSupplement()}
      * after this dialog returns.
@@ -37,4 +37,14 @@ public interface SupplementInputValidator
      * 			<tt>false</tt> otherwise
      */
     boolean validateSuppNotes();
+
+
+    /**
+     * This method should ensure that the days and times that the supplement
+     * is repeated on can be read, e.g. that a start date is a real date.
+     *
+     * @return  <tt>true</tt> if all the validation requirements are met,
+     * 			<tt>false</tt> otherwise
+     */
+    boolean validateRecurrence();
 }
@@ -23,25 +23,32 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 import javax.swing.UnsupportedLookAndFeelException;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.apache.log4j.Logger;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import com.vitareminder.business.Profile;
 import com.vitareminder.business.Regimen;
 import com.vitareminder.dao.DAOManager;
 import com.vitareminder.reminders.ReminderManager;
 import com.vitareminder.reports.HtmlGenerator;
 import com.vitareminder.reports.Printer;
+import com.vitareminder.settings.SettingsStore;
+import com.vitareminder.ui.command.CommandLog;
 
 
 /**
@@ -60,6 +67,9 @@ public class VitaReminderFrame
     private String operatingSystem;
     private boolean trayIconCreated = false;
     private JMenuItem saveMenuItem;
+    private JMenuItem undoMenuItem;
+    private JMenuItem redoMenuItem;
+    private JMenu profileMenu;
 
     private boolean isLinux = false;
     private boolean isMac = false;
@@ -165,7 +175,16 @@ public class VitaReminderFrame
         panel = new VitaReminderPanel(frame, saveMenuItem, regimens,
                                       daoManager, reminderManager);
 
-        frame.setTitle("VitaReminder");
+        panel.getCommandLog().addChangeListener(new ChangeListener() {
+
+            @Override
+            public void stateChanged(ChangeEvent e)
+            {
+                updateUndoRedoMenuItems();
+            }
+        });
+
+        updateFrameTitle();
         frame.setResizable(false);
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.add(panel);
@@ -175,7 +194,7 @@ public class VitaReminderFrame
         // set the frame size on Linux.
         if (isLinux)
         {
-            frame.setSize(new Dimension(850, 550));
+            frame.setSize(new Dimension(850, 590));
         }
         else
         {
@@ -436,7 +455,11 @@ public class VitaReminderFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                daoManager.commitTransaction();
+                if (!daoManager.commitTransaction())
+                {
+                    return;  // The changes are still unsaved
+                }
+
                 saveMenuItem.setEnabled(false);
 
                 panel.setSaveButtonEnabled(false);
@@ -445,6 +468,69 @@ public class VitaReminderFrame
         });
         fileMenu.add(saveMenuItem);
 
+        JMenuItem revertMenuItem = new JMenuItem("Revert to Saved");
+        revertMenuItem.setMnemonic(KeyEvent.VK_R);
+        revertMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                if (!panel.hasUnsavedChanges())
+                {
+                    JOptionPane.showMessageDialog(frame,
+                            "There are no unsaved changes.",
+                            "Revert to Saved",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+
+                int result = JOptionPane.showConfirmDialog(frame,
+                        "Discard all of the changes you have made since you last saved?",
+                        "Revert to Saved",
+                        JOptionPane.YES_NO_OPTION,
+                        JOptionPane.WARNING_MESSAGE);
+
+                if (result != JOptionPane.YES_OPTION)
+                {
+                    return;
+                }
+
+                // The active reminders may belong to supplements that are
+                // about to be discarded, so reload them as on import.
+                reminderManager.unloadActiveReminders("email");
+                reminderManager.unloadActiveReminders("text");
+                reminderManager.unloadActiveReminders("voice");
+
+                if (!daoManager.rollbackTransaction())
+                {
+                    // The changes are still there, so put the reminders back
+                    reminderManager.loadAllReminders("email");
+                    reminderManager.loadAllReminders("text");
+                    reminderManager.loadAllReminders("voice");
+                    return;
+                }
+
+                regimens = daoManager.getRegimenDAO().getRegimens();
+
+                panel.setRegimenTableModel(regimens);
+                panel.setSupplementTableModel(regimens);
+
+                panel.selectFirstRegimenRow();
+
+                saveMenuItem.setEnabled(false);
+                panel.setSaveButtonEnabled(false);
+
+                panel.setUnsavedChangesExist(false);
+                panel.clearCommandLog();
+
+                // Only the active profile can have unsaved changes
+                reminderManager.loadAllReminders("email");
+                reminderManager.loadAllReminders("text");
+                reminderManager.loadAllReminders("voice");
+            }
+        });
+        fileMenu.add(revertMenuItem);
+
         fileMenu.addSeparator();
 
         ImageIcon printIcon = new ImageIcon(getClass().getResource("resources/icons/print_icon_16x16.png"));
@@ -490,7 +576,11 @@ public class VitaReminderFrame
 
                     if (panel.hasUnsavedChanges())
                     {
-                        daoManager.commitTransaction();
+                        if (!daoManager.commitTransaction())
+                        {
+                            return;  // The changes are still unsaved
+                        }
+
                         panel.setUnsavedChangesExist(false);
                     }
 
@@ -544,12 +634,10 @@ public class VitaReminderFrame
                     // have been cleared and replaced with the imported data.
 
                     // Unload all reminders (these reminders were associated with
-                    // the old supplements).
+                    // the old supplements of every profile).
                     if (fileChooser.getImportSuccess())
                     {
-                        reminderManager.unloadActiveReminders("email");
-                        reminderManager.unloadActiveReminders("text");
-                        reminderManager.unloadActiveReminders("voice");
+                        reminderManager.unloadAllReminders();
                     }
 
                     // Retrieve the new regimens data structure that is built
@@ -567,6 +655,7 @@ public class VitaReminderFrame
                     panel.setSaveButtonEnabled(false);
 
                     panel.setUnsavedChangesExist(false);
+                    panel.clearCommandLog();
 
                     // Load any reminders that are associated with the newly
                     // imported supplements.
@@ -601,7 +690,7 @@ public class VitaReminderFrame
             public void actionPerformed(ActionEvent e)
             {
                 // Display a progress bar while the spreadsheet is generated in the background thread
-                ExcelProgressDialog excelProgressDialog = new ExcelProgressDialog(frame, regimens);
+                ExcelProgressDialog excelProgressDialog = new ExcelProgressDialog(frame, daoManager.getRegimenDAO());
 
                 // Retrieve the spreadsheet workbook that was just generated
                 XSSFWorkbook workbook = excelProgressDialog.getWorkbook();
@@ -612,6 +701,17 @@ public class VitaReminderFrame
         });
         fileMenu.add(excelMenuItem);
 
+        JMenuItem calendarMenuItem = new JMenuItem("Export to Calendar");
+        calendarMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                new ExportIcsFileChooser(frame, daoManager);
+            }
+        });
+        fileMenu.add(calendarMenuItem);
+
         fileMenu.addSeparator();
 
         ImageIcon exitIcon = new ImageIcon(getClass().getResource("resources/icons/exit_icon_16x16.png"));
@@ -639,6 +739,40 @@ public class VitaReminderFrame
         });
         fileMenu.add(exitMenuItem);
 
+        JMenu editMenu = new JMenu("Edit");
+        editMenu.setMnemonic(KeyEvent.VK_E);
+        menuBar.add(editMenu);
+
+        undoMenuItem = new JMenuItem("Undo");
+        undoMenuItem.setMnemonic(KeyEvent.VK_U);
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        undoMenuItem.setEnabled(false);
+        undoMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                panel.undo();
+            }
+        });
+        editMenu.add(undoMenuItem);
+
+        redoMenuItem = new JMenuItem("Redo");
+        redoMenuItem.setMnemonic(KeyEvent.VK_R);
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        redoMenuItem.setEnabled(false);
+        redoMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                panel.redo();
+            }
+        });
+        editMenu.add(redoMenuItem);
+
         JMenu remindersMenu = new JMenu("Reminders");
         remindersMenu.setMnemonic(KeyEvent.VK_R);
         menuBar.add(remindersMenu);
@@ -653,7 +787,8 @@ public class VitaReminderFrame
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                new ConfigureRemindersDialog(frame, panel, reminderManager);
+                new ConfigureRemindersDialog(frame, panel, reminderManager,
+                                             daoManager.getSettingsStore().getSettings());
             }
         });
         remindersMenu.add(configureRemindersMenuItem);
@@ -674,6 +809,26 @@ public class VitaReminderFrame
         });
         remindersMenu.add(showActiveRemindersMenuItem);
 
+        JMenuItem agendaMenuItem = new JMenuItem("Show Agenda");
+        agendaMenuItem.setMnemonic(KeyEvent.VK_G);
+        agendaMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        agendaMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                new AgendaDialog(frame, daoManager);
+            }
+        });
+        remindersMenu.add(agendaMenuItem);
+
+        profileMenu = new JMenu("Profile");
+        profileMenu.setMnemonic(KeyEvent.VK_P);
+        menuBar.add(profileMenu);
+
+        updateProfileMenu();
+
         JMenu helpMenu = new JMenu("Help");
         helpMenu.setMnemonic(KeyEvent.VK_H);
         menuBar.add(helpMenu);
@@ -728,6 +883,18 @@ public class VitaReminderFrame
         });
         helpMenu.add(systemInformationMenuItem);
 
+        JMenuItem responsivenessMenuItem = new JMenuItem("UI Responsiveness");
+        responsivenessMenuItem.setMnemonic(KeyEvent.VK_R);
+        responsivenessMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                new ResponsivenessDialog(frame);
+            }
+        });
+        helpMenu.add(responsivenessMenuItem);
+
         helpMenu.addSeparator();
 
         JMenuItem aboutMenuItem = new JMenuItem("About");
@@ -744,6 +911,204 @@ public class VitaReminderFrame
     }
 
 
+    /**
+     * Enables the {@code undoMenuItem} and {@code redoMenuItem} when there is a change
+     * to undo or redo, and names the change in the item's text, e.g. "Undo Delete Supplement".
+     * Called whenever the panel's {@code CommandLog} changes.
+     */
+    private void updateUndoRedoMenuItems()
+    {
+        CommandLog commandLog = panel.getCommandLog();
+
+        undoMenuItem.setEnabled(commandLog.canUndo());
+        undoMenuItem.setText(commandLog.canUndo() ? "Undo " + commandLog.getUndoDescription() : "Undo");
+
+        redoMenuItem.setEnabled(commandLog.canRedo());
+        redoMenuItem.setText(commandLog.canRedo() ? "Redo " + commandLog.getRedoDescription() : "Redo");
+    }
+
+
+    /**
+     * Fills the {@code profileMenu} with an item for each profile, the active one
+     * being checked, followed by the item that adds a new profile.  Called when
+     * the menu bar is created and whenever a profile is added.
+     */
+    private void updateProfileMenu()
+    {
+        final SettingsStore settingsStore = daoManager.getSettingsStore();
+
+        profileMenu.removeAll();
+
+        ButtonGroup profileGroup = new ButtonGroup();
+
+        for (final Profile profile : settingsStore.getProfiles())
+        {
+            JRadioButtonMenuItem profileMenuItem = new JRadioButtonMenuItem(profile.getProfileName());
+            profileMenuItem.setSelected(profile.getProfileID() == settingsStore.getActiveProfileID());
+            profileMenuItem.addActionListener(new ActionListener() {
+
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    switchProfile(profile);
+                }
+            });
+
+            profileGroup.add(profileMenuItem);
+            profileMenu.add(profileMenuItem);
+        }
+
+        profileMenu.addSeparator();
+
+        JMenuItem newProfileMenuItem = new JMenuItem("New Profile...");
+        newProfileMenuItem.setMnemonic(KeyEvent.VK_N);
+        newProfileMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                String profileName = JOptionPane.showInputDialog(frame,
+                        "Enter the name of the person for the new profile:",
+                        "New Profile",
+                        JOptionPane.QUESTION_MESSAGE);
+
+                if (profileName == null || profileName.trim().isEmpty())
+                {
+                    return;
+                }
+
+                if (profileName.trim().length() > 60)
+                {
+                    JOptionPane.showMessageDialog(frame,
+                            "Please enter a name of no more than 60 characters.",
+                            "Invalid Data",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                Profile profile = settingsStore.addProfile(profileName.trim());
+
+                if (profile != null)
+                {
+                    updateProfileMenu();
+                    switchProfile(profile);
+                }
+            }
+        });
+        profileMenu.add(newProfileMenuItem);
+    }
+
+
+    /**
+     * Shows the regimens of the specified profile in place of the active
+     * profile's.  The user is first asked whether to save any unsaved changes,
+     * and can cancel the switch.  The supplement table's column layout is
+     * saved to the profile being left, and the new profile's layout is
+     * applied by the panel.  The reminders of every profile stay scheduled
+     * whichever profile is shown.
+     *
+     * @param profile  the profile to switch to
+     */
+    private void switchProfile(Profile profile)
+    {
+        SettingsStore settingsStore = daoManager.getSettingsStore();
+
+        if (profile.getProfileID() == settingsStore.getActiveProfileID())
+        {
+            return;
+        }
+
+        if (panel.hasUnsavedChanges())
+        {
+            Object[] options = {"Yes", "No", "Cancel"};
+            int choice = JOptionPane.showOptionDialog(frame,
+                    "Save changes before switching to " + profile.getProfileName() + "?",
+                    "Save Changes",
+                    JOptionPane.YES_NO_CANCEL_OPTION,
+                    JOptionPane.QUESTION_MESSAGE,
+                    null,
+                    options,
+                    options[0]);
+
+            if (choice == 0)  // "Yes"
+            {
+                if (!daoManager.commitTransaction())
+                {
+                    updateProfileMenu();  // Stay on the active profile, with its changes unsaved
+                    return;
+                }
+            }
+            else if (choice == 1)  // "No"
+            {
+                // The active reminders may belong to supplements that are
+                // about to be discarded, so reload them as on revert.
+                reminderManager.unloadActiveReminders("email");
+                reminderManager.unloadActiveReminders("text");
+                reminderManager.unloadActiveReminders("voice");
+
+                boolean discarded = daoManager.rollbackTransaction();
+
+                reminderManager.loadAllReminders("email");
+                reminderManager.loadAllReminders("text");
+                reminderManager.loadAllReminders("voice");
+
+                if (!discarded)
+                {
+                    updateProfileMenu();  // Stay on the active profile, with its changes unsaved
+                    return;
+                }
+            }
+            else  // "Cancel" or closed
+            {
+                updateProfileMenu();  // Check the active profile again
+                return;
+            }
+        }
+
+        panel.saveColumnOrder();
+        panel.saveColumnWidths();
+
+        settingsStore.setActiveProfile(profile.getProfileID());
+
+        regimens = daoManager.getRegimenDAO().getRegimens();
+
+        panel.setRegimenTableModel(regimens);
+        panel.setSupplementTableModel(regimens);
+
+        panel.selectFirstRegimenRow();
+
+        saveMenuItem.setEnabled(false);
+        panel.setSaveButtonEnabled(false);
+
+        panel.setUnsavedChangesExist(false);
+        panel.clearCommandLog();
+
+        updateFrameTitle();
+
+        logger.info("Switched to profile " + profile.getProfileID() + ".");
+    }
+
+
+    /**
+     * Shows the name of the active profile in the frame's title, once there
+     * is more than one profile.
+     */
+    private void updateFrameTitle()
+    {
+        SettingsStore settingsStore = daoManager.getSettingsStore();
+        Profile activeProfile = settingsStore.getActiveProfile();
+
+        if (settingsStore.getProfiles().size() > 1 && activeProfile != null)
+        {
+            frame.setTitle("VitaReminder - " + activeProfile.getProfileName());
+        }
+        else
+        {
+            frame.setTitle("VitaReminder");
+        }
+    }
+
+
     /**
      * This method is called by this frame's window closing event handler, and is
      * also called by the {@code exitMenuItem}'s event handler.  It displays
@@ -764,11 +1129,15 @@ public class VitaReminderFrame
 
         if (choice == 0)  // "Yes"
         {
-            daoManager.commitTransaction();
-            System.exit(0);
+            // Stay open if the save failed, so that the changes are not lost
+            if (daoManager.commitTransaction())
+            {
+                System.exit(0);
+            }
         }
         else if (choice == 1)  // "No"
         {
+            daoManager.rollbackTransaction();
             System.exit(0);
         }
     }
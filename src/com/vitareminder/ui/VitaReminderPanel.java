@@ -3,6 +3,7 @@ package com.vitareminder.ui;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Rectangle;
@@ -10,19 +11,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
-import java.util.prefs.Preferences;
 
 import javax.swing.BorderFactory;
+import javax.swing.Box;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -34,8 +33,11 @@ import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.JTableHeader;
@@ -44,11 +46,21 @@ import javax.swing.table.TableColumnModel;
 
 import org.apache.log4j.Logger;
 
+import com.vitareminder.business.Profile;
+import com.vitareminder.business.Recurrence;
 import com.vitareminder.business.Regimen;
 import com.vitareminder.business.Supplement;
 import com.vitareminder.dao.DAOManager;
 import com.vitareminder.reminders.ReminderManager;
+import com.vitareminder.reminders.ReminderRecipients;
+import com.vitareminder.search.SearchIndex;
+import com.vitareminder.settings.ProfileSettings;
+import com.vitareminder.settings.SettingsListener;
+import com.vitareminder.settings.SettingsStore;
+import com.vitareminder.ui.command.CommandLog;
+import com.vitareminder.ui.command.EditCommand;
 import com.vitareminder.ui.model.RegimenTableModel;
+import com.vitareminder.ui.model.SupplementRowSorter;
 import com.vitareminder.ui.model.SupplementTableModel;
 
 
@@ -64,7 +76,14 @@ public class VitaReminderPanel extends JPanel
 {
 
     private JLabel regimenNotesLabel,
-        supplementNotesLabel;
+        supplementNotesLabel,
+        searchLabel,
+        filterLabel;
+
+    private JTextField searchTextField,
+        filterTextField;
+
+    private JPopupMenu searchResultsPopupMenu;
 
     private JTextArea regimenNotesTextArea,
         supplementNotesTextArea;
@@ -78,12 +97,15 @@ public class VitaReminderPanel extends JPanel
 
     private String[] supplementTableColumnNames = { "SuppID", "RegimenID", "Supplement", "Amount",
                                                     "Units", "Take at", "E-Mail", "Text", "Voice",
-                                                    "Notes" };
+                                                    "Notes", "Repeats" };
 
     private RegimenTableModel regimenTableModel;
 
     private SupplementTableModel supplementTableModel;
 
+    /** sorts and filters the {@code supplementTable} in the background */
+    private SupplementRowSorter supplementRowSorter;
+
     private JTable regimenTable,
         supplementTable;
 
@@ -103,7 +125,14 @@ public class VitaReminderPanel extends JPanel
 
     private boolean unsavedChangesExist = false;
 
-    Preferences userPreferences;
+    /** the history of the user's changes, used by the Undo and Redo menu items */
+    private CommandLog commandLog = new CommandLog();
+
+    /** holds the active profile's reminder settings and column layout */
+    private SettingsStore settingsStore;
+
+    /** the supplement table's column widths before any saved widths are applied, by model index */
+    private int[] defaultColumnWidths;
 
     private JFrame frame;
     private JMenuItem saveMenuItem;
@@ -147,10 +176,31 @@ public class VitaReminderPanel extends JPanel
         this.daoManager = daoManager;
         this.reminderManager = reminderManager;
 
-        userPreferences = Preferences.userRoot();
+        settingsStore = daoManager.getSettingsStore();
 
         createPanel();
 
+        settingsStore.addSettingsListener(new SettingsListener() {
+
+            @Override
+            public void settingsChanged(int profileID, Set<String> keys)
+            {
+                if (profileID == settingsStore.getActiveProfileID())
+                {
+                    supplementTableModel.refreshReminderPreferences();
+                    supplementTable.repaint();
+                }
+            }
+
+            @Override
+            public void activeProfileChanged(Profile profile)
+            {
+                supplementTableModel.refreshReminderPreferences();
+                loadColumnOrder();
+                loadColumnWidths();
+            }
+        });
+
         if (regimenTable.getRowCount() > 0)
         {
             regimenTable.setRowSelectionInterval(0, 0);
@@ -324,7 +374,11 @@ public class VitaReminderPanel extends JPanel
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                daoManager.commitTransaction();
+                if (!daoManager.commitTransaction())
+                {
+                    return;  // The changes are still unsaved
+                }
+
                 saveButton.setEnabled(false);
                 saveMenuItem.setEnabled(false);
                 unsavedChangesExist = false;
@@ -360,11 +414,15 @@ public class VitaReminderPanel extends JPanel
 
                     if (choice == 0)  // "Yes"
                     {
-                        daoManager.commitTransaction();
-                        System.exit(0);
+                        // Stay open if the save failed, so that the changes are not lost
+                        if (daoManager.commitTransaction())
+                        {
+                            System.exit(0);
+                        }
                     }
                     else  // "No"
                     {
+                        daoManager.rollbackTransaction();
                         System.exit(0);
                     }
                 }
@@ -380,6 +438,84 @@ public class VitaReminderPanel extends JPanel
         saveExitButtonPanel.add(saveButton);
         saveExitButtonPanel.add(exitButton);
 
+        searchLabel = new JLabel("Search");
+
+        searchTextField = new JTextField(25);
+        searchTextField.setToolTipText("Search the names, units and notes of your regimens and supplements");
+        searchTextField.getDocument().addDocumentListener(new DocumentListener() {
+
+            @Override
+            public void insertUpdate(DocumentEvent e)
+            {
+                showSearchResults();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e)
+            {
+                showSearchResults();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e)
+            {
+                showSearchResults();
+            }
+        });
+        searchTextField.addActionListener(new ActionListener() {
+
+            // Pressing Enter goes to the first result.
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                List<SearchIndex.Hit> hits = daoManager.getSearchIndex().search(searchTextField.getText(), 1);
+
+                if (!hits.isEmpty())
+                {
+                    showSearchHit(hits.get(0));
+                }
+            }
+        });
+
+        // The popup must not take the focus, so that the user can keep typing.
+        searchResultsPopupMenu = new JPopupMenu();
+        searchResultsPopupMenu.setFocusable(false);
+
+        filterLabel = new JLabel("Filter supplements");
+
+        filterTextField = new JTextField(15);
+        filterTextField.setToolTipText("Show only the supplements whose name, units or notes contain this text");
+        filterTextField.getDocument().addDocumentListener(new DocumentListener() {
+
+            // The supplementRowSorter waits for the user to stop typing before filtering.
+
+            @Override
+            public void insertUpdate(DocumentEvent e)
+            {
+                supplementRowSorter.setFilterText(filterTextField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e)
+            {
+                supplementRowSorter.setFilterText(filterTextField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e)
+            {
+                supplementRowSorter.setFilterText(filterTextField.getText());
+            }
+        });
+
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        searchPanel.add(searchLabel);
+        searchPanel.add(searchTextField);
+        searchPanel.add(Box.createHorizontalStrut(15));
+        searchPanel.add(filterLabel);
+        searchPanel.add(filterTextField);
+
         setLayout(new GridBagLayout());
 
         add(regimenTableScrollPane, GBCFactory.getConstraints(0, 0, 3, 3, GridBagConstraints.NORTH, GridBagConstraints.HORIZONTAL));
@@ -395,19 +531,22 @@ public class VitaReminderPanel extends JPanel
         add(addSupplementButton, GBCFactory.getConstraints(10, 0, 1, 1, GridBagConstraints.NORTH, GridBagConstraints.NONE));
         add(deleteSupplementButton, GBCFactory.getConstraints(10, 1, 1, 1, GridBagConstraints.NORTH, GridBagConstraints.NONE));
         add(editSupplementButton, GBCFactory.getConstraints(10, 2, 1, 1, GridBagConstraints.NORTH, GridBagConstraints.NONE));
+        add(searchPanel, GBCFactory.getConstraints(0, 5, 11, 1, GridBagConstraints.WEST, GridBagConstraints.NONE));
         add(saveExitButtonPanel, GBCFactory.getConstraints(0, 6, 11, 1, GridBagConstraints.CENTER, GridBagConstraints.HORIZONTAL));
 
         // Create visual space around the panel.
         this.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
 
         // Set the tab order.
-        Vector<Component> order = new Vector<Component>(7);
+        Vector<Component> order = new Vector<Component>(10);
         order.add(addRegimenButton);
         order.add(deleteRegimenButton);
         order.add(editRegimenButton);
         order.add(addSupplementButton);
         order.add(deleteSupplementButton);
         order.add(editSupplementButton);
+        order.add(searchTextField);
+        order.add(filterTextField);
         order.add(saveButton);
         order.add(exitButton);
         PanelFocusTraversalPolicy newPolicy = new PanelFocusTraversalPolicy(order);
@@ -500,6 +639,7 @@ public class VitaReminderPanel extends JPanel
         JMenuItem addRegimenMenuItem = new JMenuItem("Add New Regimen");
         JMenuItem deleteRegimenMenuItem = new JMenuItem("Delete Regimen");
         JMenuItem editRegimenMenuItem = new JMenuItem("Edit Regimen");
+        JMenuItem regimenRecipientsMenuItem = new JMenuItem("Edit Recipients...");
 
         addRegimenMenuItem.addActionListener(new ActionListener() {
 
@@ -528,9 +668,20 @@ public class VitaReminderPanel extends JPanel
             }
         });
 
+        regimenRecipientsMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                editRegimenRecipients();
+            }
+        });
+
         regimenTablePopupMenu.add(addRegimenMenuItem);
         regimenTablePopupMenu.add(deleteRegimenMenuItem);
         regimenTablePopupMenu.add(editRegimenMenuItem);
+        regimenTablePopupMenu.addSeparator();
+        regimenTablePopupMenu.add(regimenRecipientsMenuItem);
 
         regimenTable.addMouseListener(new MouseAdapter() {
 
@@ -594,6 +745,13 @@ public class VitaReminderPanel extends JPanel
 
         supplementTable = new JTable(supplementTableModel);
 
+        // Clicking a column header sorts the rows by that column.  The view's rows
+        // no longer match the model's, so every row index taken from or passed to
+        // the supplementTable must be converted, see getSelectedSupplementRow()
+        // and selectSupplementRow().
+        supplementRowSorter = new SupplementRowSorter(supplementTableModel);
+        supplementTable.setRowSorter(supplementRowSorter);
+
         JTableHeader supplementTableHeader = supplementTable.getTableHeader();
         supplementTableHeader.setDefaultRenderer(new CenterHeaderRenderer(supplementTable));
 
@@ -629,10 +787,10 @@ public class VitaReminderPanel extends JPanel
                     return;
                 }
 
-                if (supplementTable.getSelectedRow() != -1)
-                {
-                    int selectedRow = supplementTable.getSelectedRow();
+                int selectedRow = getSelectedSupplementRow();
 
+                if (selectedRow != -1)
+                {
                     // Get the notes from the hidden column.
                     String notes = (String) supplementTableModel.getValueAt(selectedRow, 9);
 
@@ -654,10 +812,14 @@ public class VitaReminderPanel extends JPanel
         // Make Notes column invisible.
         supplementTable.removeColumn(supplementTable.getColumnModel().getColumn(7));
 
+        // Make Repeats column invisible.
+        supplementTable.removeColumn(supplementTable.getColumnModel().getColumn(7));
+
         supplementTablePopupMenu = new JPopupMenu();
         JMenuItem addSupplementMenuItem = new JMenuItem("Add Supplement");
         JMenuItem deleteSupplementMenuItem = new JMenuItem("Delete Supplement");
         JMenuItem editSupplementMenuItem = new JMenuItem("Edit Supplement");
+        JMenuItem supplementRecipientsMenuItem = new JMenuItem("Edit Recipients...");
 
         addSupplementMenuItem.addActionListener(new ActionListener() {
 
@@ -686,9 +848,20 @@ public class VitaReminderPanel extends JPanel
             }
         });
 
+        supplementRecipientsMenuItem.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                editSupplementRecipients();
+            }
+        });
+
         supplementTablePopupMenu.add(addSupplementMenuItem);
         supplementTablePopupMenu.add(deleteSupplementMenuItem);
         supplementTablePopupMenu.add(editSupplementMenuItem);
+        supplementTablePopupMenu.addSeparator();
+        supplementTablePopupMenu.add(supplementRecipientsMenuItem);
 
         supplementTable.addMouseListener(new MouseAdapter() {
 
@@ -747,6 +920,14 @@ public class VitaReminderPanel extends JPanel
             }
         });
 
+        // Remember the widths set above, for profiles that have not saved their own
+        defaultColumnWidths = new int[supplementTable.getColumnModel().getColumnCount()];
+
+        for (int i = 0; i < defaultColumnWidths.length; i++)
+        {
+            defaultColumnWidths[i] = supplementTable.getColumnModel().getColumn(i).getPreferredWidth();
+        }
+
         loadColumnOrder();
         loadColumnWidths();
     }
@@ -758,135 +939,84 @@ public class VitaReminderPanel extends JPanel
      * the {@code getColumns()} method of {@code TableColumnModel} to
      * retrieve an enumeration of the columns in the order in which they appear
      * in the table.  It uses this enumeration to store the index of each column
-     * in the order in which it currently appears in the table. This data is then
-     * stored in a {@code Properties} object, and these properties are then
-     * saved in the columnorder.properties file so they can be read back on the
-     * next application startup.
+     * in the order in which it currently appears in the table.  The indexes are
+     * saved, separated by commas, in the active profile's SUPPLEMENT_COLUMN_ORDER
+     * setting so they can be read back on the next application startup.
      */
     public void saveColumnOrder()
     {
         TableColumnModel columnModel = supplementTable.getColumnModel();
 
-        List<Integer> order = new ArrayList<Integer>();
+        StringBuilder order = new StringBuilder();
 
         Enumeration<TableColumn> columns = columnModel.getColumns();
         while (columns.hasMoreElements())
         {
             TableColumn column = columns.nextElement();
-            Integer modelIndex = new Integer(column.getModelIndex());
-
-            // Subtract two because the first two columns are hidden.
-            order.add(modelIndex - 2);
-        }
-
-        Properties properties = new Properties();
-        OutputStream outputStream = null;
-        int columnCount = columnModel.getColumnCount();
 
-        try
-        {
-            for (int i = 0; i < columnCount; i++)
+            if (order.length() > 0)
             {
-                // format: columnX=modelIndex, where X is 0-6
-                properties.setProperty("column"+(i), order.get(i).toString());
+                order.append(',');
             }
 
-            outputStream = new FileOutputStream("user/data/columnorder.properties");
-            properties.store(outputStream, null);
-        }
-        catch (IOException e)
-        {
-            logger.warn("A file I/O error has occured.", e);
-            JOptionPane.showMessageDialog(null,
-                    "Sorry, there was an error saving the user column preferences.",
-                    "I/O Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
-        finally
-        {
-            if (outputStream != null)
-            {
-                try
-                {
-                    outputStream.close();
-                }
-                catch (IOException e)
-                {
-                    logger.warn("A file I/O error has occured.", e);
-                    JOptionPane.showMessageDialog(null,
-                            "Sorry, there was an error saving the user column preferences.",
-                            "I/O Error",
-                            JOptionPane.ERROR_MESSAGE);
-                }
-            }
+            // Subtract two because the first two columns are hidden.
+            order.append(column.getModelIndex() - 2);
         }
+
+        settingsStore.getSettings().put("SUPPLEMENT_COLUMN_ORDER", order.toString());
     }
 
 
     /**
      * Loads the column order for the supplement table that is stored in the
-     * columnorder.properties file.  It stores the actual columns in their
-     * default order in {@code defaultColumns}.  It then removes all columns
-     * from the table before adding them back in one by one in the order
-     * saved in columnorder.properties.
+     * active profile's SUPPLEMENT_COLUMN_ORDER setting.  It stores the actual
+     * columns in their default order in {@code defaultColumns}, by their index
+     * in the model, so that it does not matter what order they are in now.  It
+     * then removes all columns from the table before adding them back in one
+     * by one in the saved order.  If the profile has not saved an order, the
+     * columns are put back in their default order.
      */
     private void loadColumnOrder()
     {
-        Properties properties = new Properties();
-        InputStream inputStream = null;
+        TableColumnModel columnModel = supplementTable.getColumnModel();
 
-        try
+        TableColumn[] defaultColumns = new TableColumn[columnModel.getColumnCount()];
+
+        for (int i = 0; i < defaultColumns.length; i++)
         {
-            inputStream = new FileInputStream("user/data/columnorder.properties");
-            properties.load(inputStream);
+            TableColumn column = columnModel.getColumn(i);
 
-            TableColumnModel columnModel = supplementTable.getColumnModel();
+            // Subtract two because the first two columns are hidden.
+            defaultColumns[column.getModelIndex() - 2] = column;
+        }
 
-            TableColumn[] defaultColumns = new TableColumn[7];
+        int[] order = parseColumnSetting("SUPPLEMENT_COLUMN_ORDER", defaultColumns.length);
 
-            for (int i = 0; i < defaultColumns.length; i++)
-            {
-                defaultColumns[i] = columnModel.getColumn(i);
-            }
+        if (order != null)
+        {
+            boolean[] seen = new boolean[defaultColumns.length];
 
-            while (columnModel.getColumnCount() > 0)
+            for (int index : order)
             {
-                columnModel.removeColumn(columnModel.getColumn(0));
-            }
-
-            int index = 0;
+                if (index < 0 || index >= defaultColumns.length || seen[index])
+                {
+                    logger.warn("Ignoring the saved column order, which is not valid.");
+                    order = null;
+                    break;
+                }
 
-            for (int i = 0; i < defaultColumns.length; i++)
-            {
-                index = Integer.parseInt(properties.getProperty("column"+i));
-                columnModel.addColumn(defaultColumns[index]);
+                seen[index] = true;
             }
         }
-        catch (IOException e)
+
+        while (columnModel.getColumnCount() > 0)
         {
-            logger.warn("A file I/O error has occured.", e);
-            JOptionPane.showMessageDialog(null,
-                    "Sorry, there was an error reading the saved column order.",
-                    "I/O Error",
-                    JOptionPane.ERROR_MESSAGE);
+            columnModel.removeColumn(columnModel.getColumn(0));
         }
-        finally
+
+        for (int i = 0; i < defaultColumns.length; i++)
         {
-            if (inputStream != null)
-            {
-                try
-                {
-                    inputStream.close();
-                }
-                catch (IOException e)
-                {
-                    logger.warn("A file I/O error has occured.", e);
-                    JOptionPane.showMessageDialog(null,
-                            "Sorry, there was an error reading the saved column order.",
-                            "I/O Error",
-                            JOptionPane.ERROR_MESSAGE);
-                }
-            }
+            columnModel.addColumn(defaultColumns[order != null ? order[i] : i]);
         }
     }
 
@@ -897,118 +1027,104 @@ public class VitaReminderPanel extends JPanel
      * {@code getColumns()} method of TableColumnModel to retrieve an
      * enumeration of the columns in the order in which they appear in the
      * table.  It then iterates through this enumeration and stores the width
-     * of each column.  It then stores these widths in a {@code Properties}
-     * object and then saves these properties in the columnwidths.properties file
-     * so they can be read back in on next application startup.
+     * of each column, separated by commas, in the active profile's
+     * SUPPLEMENT_COLUMN_WIDTHS setting so they can be read back in on next
+     * application startup.
      */
     public void saveColumnWidths()
     {
         TableColumnModel columnModel = supplementTable.getColumnModel();
 
-        List<Integer> widths = new ArrayList<Integer>();
+        StringBuilder widths = new StringBuilder();
 
         Enumeration<TableColumn> columns = columnModel.getColumns();
         while (columns.hasMoreElements())
         {
             TableColumn column = columns.nextElement();
-            Integer width = new Integer(column.getPreferredWidth());
-            widths.add(width);
+
+            if (widths.length() > 0)
+            {
+                widths.append(',');
+            }
+
+            widths.append(column.getPreferredWidth());
         }
 
-        Properties properties = new Properties();
-        OutputStream outputStream = null;
+        settingsStore.getSettings().put("SUPPLEMENT_COLUMN_WIDTHS", widths.toString());
+    }
+
+
+    /**
+     * Sets the column widths of the supplement table to the widths
+     * stored in the active profile's SUPPLEMENT_COLUMN_WIDTHS setting,
+     * or to their default widths if the profile has not saved any.
+     */
+    private void loadColumnWidths()
+    {
+        TableColumnModel columnModel = supplementTable.getColumnModel();
         int columnCount = columnModel.getColumnCount();
 
-        try
+        int[] widths = parseColumnSetting("SUPPLEMENT_COLUMN_WIDTHS", columnCount);
+
+        for (int i = 0; i < columnCount; i++)
         {
-            for (int i = 0; i < columnCount; i++)
+            TableColumn column = columnModel.getColumn(i);
+
+            if (widths != null)
             {
-                // format: columnX=width, where X = 0-6
-                properties.setProperty("column"+(i), widths.get(i).toString());
+                column.setPreferredWidth(widths[i]);
             }
-
-            outputStream = new FileOutputStream("user/data/columnwidths.properties");
-            properties.store(outputStream, null);
-        }
-        catch (IOException e)
-        {
-            logger.warn("A file I/O error has occured.", e);
-            JOptionPane.showMessageDialog(null,
-                    "Sorry, there was an error saving the column widths.",
-                    "I/O Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
-        finally
-        {
-            if (outputStream != null)
+            else
             {
-                try
-                {
-                    outputStream.close();
-                }
-                catch (IOException e)
-                {
-                    logger.warn("A file I/O error has occured.", e);
-                    JOptionPane.showMessageDialog(null,
-                            "Sorry, there was an error saving the column widths.",
-                            "I/O Error",
-                            JOptionPane.ERROR_MESSAGE);
-                }
+                column.setPreferredWidth(defaultColumnWidths[column.getModelIndex() - 2]);
             }
         }
     }
 
 
     /**
-     * Sets the column widths of the supplement table to the widths
-     * stored in the columnwidths.properties file.
+     * Reads one of the active profile's column settings, which holds a
+     * number for each visible column of the supplement table, separated
+     * by commas.
+     *
+     * @param key  the name of the setting
+     * @param columnCount  the number of visible columns
+     * @return the numbers, or <tt>null</tt> if the setting has not been saved,
+     *         or does not hold a number for each column
      */
-    private void loadColumnWidths()
+    private int[] parseColumnSetting(String key, int columnCount)
     {
-        Properties properties = new Properties();
-        InputStream inputStream = null;
+        String value = settingsStore.getSettings().get(key, null);
 
-        try
+        if (value == null)
         {
-            inputStream = new FileInputStream("user/data/columnwidths.properties");
-            properties.load(inputStream);
+            return null;
+        }
 
-            TableColumnModel columnModel = supplementTable.getColumnModel();
-            int columnCount = columnModel.getColumnCount();
-            int width = 0;
+        String[] parts = value.split(",");
 
-            for (int i = 0; i < columnCount; i++)
-            {
-                width = Integer.parseInt(properties.getProperty("column"+i));
-                columnModel.getColumn(i).setPreferredWidth(width);
-            }
-        }
-        catch (IOException e)
+        if (parts.length != columnCount)
         {
-            logger.warn("A file I/O error has occured.", e);
-            JOptionPane.showMessageDialog(null,
-                    "Sorry, there was an error restoring the column widths.",
-                    "I/O Error",
-                    JOptionPane.ERROR_MESSAGE);
+            logger.warn("Ignoring the " + key + " setting, which does not have " + columnCount + " columns.");
+            return null;
         }
-        finally
+
+        int[] numbers = new int[columnCount];
+
+        try
         {
-            if (inputStream != null)
+            for (int i = 0; i < columnCount; i++)
             {
-                try
-                {
-                    inputStream.close();
-                }
-                catch (IOException e)
-                {
-                    logger.warn("A file I/O error has occured.", e);
-                    JOptionPane.showMessageDialog(null,
-                            "Sorry, there was an error restoring the column widths.",
-                            "I/O Error",
-                            JOptionPane.ERROR_MESSAGE);
-                }
+                numbers[i] = Integer.parseInt(parts[i].trim());
             }
         }
+        catch (NumberFormatException e)
+        {
+            logger.warn("Ignoring the " + key + " setting, which is not valid.", e);
+            return null;
+        }
+
+        return numbers;
     }
 
 
@@ -1037,12 +1153,19 @@ public class VitaReminderPanel extends JPanel
 
         if (addRegimenDialog.isInputValidated())
         {
+            int numRows = regimenTableModel.getRowCount();
+
             regimenTableModel.addRow(addRegimenDialog.getNewRegimen());
 
+            if (regimenTableModel.getRowCount() > numRows)
+            {
+                commandLog.record(new RegimenAddedCommand(regimenTableModel.getRegimen(numRows)));
+            }
+
             saveButton.setEnabled(true);
             saveMenuItem.setEnabled(true);
 
-            unsavedChangesExist = true;
+            setUnsavedChangesExist(true);
 
             int lastRow = regimenTable.getRowCount() - 1;
             regimenTable.setRowSelectionInterval(lastRow, lastRow);
@@ -1056,6 +1179,8 @@ public class VitaReminderPanel extends JPanel
      * Deletes the {@code Regimen} object represented by the currently
      * selected row in the {@code regimenTable}.  It is called by either the
      * {@code deleteRegimenButton} or the {@code deleteRegimenMenuItem}.
+     * The regimen's supplements are deleted with it, and any reminders for
+     * those supplements are unloaded.
      * <p>
      * It enables the {@code saveButton} and {@code saveMenuItem} to indicate
      * to the user that unsaved changes now exist.
@@ -1090,47 +1215,16 @@ public class VitaReminderPanel extends JPanel
                     options[1]);
             if (choice == 0)  // Yes
             {
-                saveButton.setEnabled(true);
-                saveMenuItem.setEnabled(true);
-                unsavedChangesExist = true;
-
-                regimenNotesTextArea.setText("");
-
-                int numRows = regimenTable.getRowCount();
-
-                // If there is more than 1 row left
-                if (numRows > 1)
-                {
-                    regimenTableModel.removeRow(selectedRow);
+                Regimen regimen = regimenTableModel.getRegimen(selectedRow);
 
-                    // If they deleted bottom row
-                    if (selectedRow == numRows-1)
-                    {
-                        // Select row above
-                        // (get the index of the row above the one just deleted)
-                        int rowAbove = selectedRow - 1;
-                        regimenTable.setRowSelectionInterval(rowAbove, rowAbove);
-                    }
-                    // If they deleted any other row
-                    else
-                    {
-                        // Select that row
-                        regimenTable.setRowSelectionInterval(selectedRow, selectedRow);
-                    }
-                }
-                else if (numRows == 1)  // Delete last row
+                // Only a deletion that succeeded can be undone
+                if (removeRegimens(Collections.singletonList(regimen), selectedRow))
                 {
-                    // First manually remove all rows from supplementTableModel if rows are still present
-                    if (supplementTableModel.getRowCount() > 0)
-                    {
-                        for (int i = supplementTableModel.getRowCount() - 1; i > -1; i--)
-                        {
-                            supplementTableModel.removeRow(i);
-                        }
-                    }
+                    commandLog.record(new RegimenDeletedCommand(selectedRow, regimen));
 
-                    // Then remove the regimen row
-                    regimenTableModel.removeRow(selectedRow);
+                    saveButton.setEnabled(true);
+                    saveMenuItem.setEnabled(true);
+                    setUnsavedChangesExist(true);
                 }
             }
         }
@@ -1144,6 +1238,60 @@ public class VitaReminderPanel extends JPanel
     }
 
 
+    /**
+     * Removes the specified regimens and all of their supplements from the
+     * database and the table models, and unloads every reminder that belongs
+     * to those supplements.  The regimens are deleted in one statement, relying
+     * on the ON DELETE CASCADE of the supplements table to delete the supplements,
+     * and their reminders are unloaded in one call to the scheduler.  Finally, the
+     * row nearest to {@code selectedRow} is selected, if any rows are left.
+     *
+     * @param regimensToRemove  the regimens to remove, including their supplements
+     * @param selectedRow  the row that was selected before the regimens were removed
+     * @return <tt>true</tt> if the regimens were removed, <tt>false</tt> if the
+     *         database operation failed, in which case nothing is changed
+     */
+    private boolean removeRegimens(List<Regimen> regimensToRemove, int selectedRow)
+    {
+        List<Integer> regimenIDs = new ArrayList<>(regimensToRemove.size());
+        List<Integer> suppIDs = new ArrayList<>();
+
+        for (Regimen regimen : regimensToRemove)
+        {
+            regimenIDs.add(regimen.getRegimenID());
+
+            for (Supplement supplement : regimen.getSupplements())
+            {
+                suppIDs.add(supplement.getSuppID());
+            }
+        }
+
+        if (!regimenTableModel.removeRows(regimenIDs))
+        {
+            return false;
+        }
+
+        reminderManager.unloadReminders(suppIDs);
+
+        regimenNotesTextArea.setText("");
+
+        int numRows = regimenTable.getRowCount();
+
+        if (numRows > 0)
+        {
+            int row = Math.min(selectedRow, numRows - 1);
+            regimenTable.setRowSelectionInterval(row, row);
+        }
+        else
+        {
+            // No regimen is left to select, so empty the supplementTable
+            supplementTableModel.setCurrentRegimenID(-1);
+        }
+
+        return true;
+    }
+
+
     /**
      * Edits the {@code Regimen} object represented by the currently selected row
      * in the {@code regimenTable}. It is called by either the {@code editRegimenButton}
@@ -1203,9 +1351,13 @@ public class VitaReminderPanel extends JPanel
                     if (!newRegimenNotes.equals(oldRegimenNotes))
                         regimenTableModel.setValueAt(newRegimenNotes, selectedRow, 2);
 
+                    commandLog.record(new RegimenEditedCommand((int) regimenTableModel.getValueAt(selectedRow, 0),
+                                                               oldRegimenName, oldRegimenNotes,
+                                                               newRegimenName, newRegimenNotes));
+
                     saveButton.setEnabled(true);
                     saveMenuItem.setEnabled(true);
-                    unsavedChangesExist = true;
+                    setUnsavedChangesExist(true);
 
                     String regimenNotes = (String) regimenTableModel.getValueAt(selectedRow, 2);
                     regimenNotesTextArea.setText(regimenNotes);
@@ -1243,11 +1395,13 @@ public class VitaReminderPanel extends JPanel
      */
     private void addSupplement()
     {
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-        boolean emailVerified = userPreferences.getBoolean("EMAIL_VERIFIED", false);
-        boolean phoneVerified = userPreferences.getBoolean("PHONE_VERIFIED", false);
+        ProfileSettings settings = settingsStore.getSettings();
+
+        boolean emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        boolean textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        boolean voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
+        boolean emailVerified = settings.getBoolean("EMAIL_VERIFIED", false);
+        boolean phoneVerified = settings.getBoolean("PHONE_VERIFIED", false);
 
         AddSupplementDialog addSupplementDialog;
 
@@ -1261,25 +1415,30 @@ public class VitaReminderPanel extends JPanel
             // foreign key column and be associated with that regimen.
             int regimenID = (int) regimenTableModel.getValueAt(selectedRow, 0);
 
-            addSupplementDialog = new AddSupplementDialog(frame, regimenName);
+            addSupplementDialog = new AddSupplementDialog(frame, regimenName, settings);
 
             if (addSupplementDialog.isInputValidated())
             {
                 Supplement newSupplement = addSupplementDialog.getNewSupplement();
                 newSupplement.setRegimenID(regimenID);
 
+                int numRows = supplementTableModel.getRowCount();
+
                 supplementTableModel.addRow(newSupplement);
 
+                if (supplementTableModel.getRowCount() > numRows)
+                {
+                    commandLog.record(new SupplementAddedCommand(supplementTableModel.getSupplement(numRows)));
+                }
+
                 saveButton.setEnabled(true);
                 saveMenuItem.setEnabled(true);
-                unsavedChangesExist = true;
+                setUnsavedChangesExist(true);
 
-                // Select last row of supplement table - the row that was just added
-                int lastRow = supplementTable.getRowCount() - 1;
-                supplementTable.setRowSelectionInterval(lastRow, lastRow);
-
-                // Scroll table to this row to make it visible
-                supplementTable.scrollRectToVisible(new Rectangle(supplementTable.getCellRect(lastRow, 0, true)));
+                // Select last row of supplement table model - the row that was just added -
+                // and scroll the table to this row to make it visible
+                int lastRow = supplementTableModel.getRowCount() - 1;
+                selectSupplementRow(lastRow);
 
                 // Do we have to load a new reminder into memory?
 
@@ -1344,7 +1503,7 @@ public class VitaReminderPanel extends JPanel
      */
     private void deleteSupplement()
     {
-        int selectedRow = supplementTable.getSelectedRow();
+        int selectedRow = getSelectedSupplementRow();
 
         // If a row is actually selected in the supplementTable
         if (selectedRow != -1)
@@ -1364,42 +1523,37 @@ public class VitaReminderPanel extends JPanel
 
             if (choice == 0)  // Yes
             {
-                // First check if it has any active reminders and cancel them
-                boolean emailEnabled = (boolean) supplementTableModel.getValueAt(selectedRow, 6);
-                boolean textEnabled = (boolean) supplementTableModel.getValueAt(selectedRow, 7);
+                Supplement supplement = supplementTableModel.getSupplement(selectedRow);
 
-                // If either e-mail or text messages are enabled, cancel reminders
-                if (emailEnabled)
-                {
-                    int suppID = (int) supplementTableModel.getValueAt(selectedRow, 0);
+                // The rows are sorted and filtered, so the row that takes the
+                // deleted row's place is found in the view rather than the model.
+                int selectedViewRow = supplementTable.getSelectedRow();
+                int numRows = supplementTable.getRowCount();
 
-                    reminderManager.unloadReminder(suppID, "email");
+                // Only a deletion that succeeded can be undone, and only then
+                // are the supplement's reminders cancelled
+                if (!supplementTableModel.removeRow(selectedRow))
+                {
+                    return;
                 }
 
-                if (textEnabled)
-                {
-                    int suppID = (int) supplementTableModel.getValueAt(selectedRow, 0);
+                commandLog.record(new SupplementDeletedCommand(selectedRow, supplement));
 
-                    reminderManager.unloadReminder(suppID, "text");
-                }
+                unloadReminders(supplement);
 
                 saveButton.setEnabled(true);
                 saveMenuItem.setEnabled(true);
-                unsavedChangesExist = true;
-
-                int numRows = supplementTable.getRowCount();
+                setUnsavedChangesExist(true);
 
-                // There is more than 1 row left
+                // There was more than 1 row
                 if (numRows > 1)
                 {
-                    supplementTableModel.removeRow(selectedRow);
-
                     // If they deleted bottom row
-                    if (selectedRow == numRows-1)
+                    if (selectedViewRow == numRows-1)
                     {
                         // Select row above
                         // (get the index of the row above the one just deleted)
-                        int rowAbove = selectedRow - 1;
+                        int rowAbove = selectedViewRow - 1;
 
                         // Select that row
                         supplementTable.setRowSelectionInterval(rowAbove, rowAbove);
@@ -1408,14 +1562,9 @@ public class VitaReminderPanel extends JPanel
                     else
                     {
                         // Select that row
-                        supplementTable.setRowSelectionInterval(selectedRow, selectedRow);
+                        supplementTable.setRowSelectionInterval(selectedViewRow, selectedViewRow);
                     }
                 }
-                else if (numRows == 1)
-                {
-                    // Delete last row
-                    supplementTableModel.removeRow(selectedRow);
-                }
             }
         }
         else  // A row is not selected
@@ -1454,11 +1603,13 @@ public class VitaReminderPanel extends JPanel
      */
     private void editSupplement()
     {
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-        boolean emailVerified = userPreferences.getBoolean("EMAIL_VERIFIED", false);
-        boolean phoneVerified = userPreferences.getBoolean("PHONE_VERIFIED", false);
+        ProfileSettings settings = settingsStore.getSettings();
+
+        boolean emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        boolean textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        boolean voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
+        boolean emailVerified = settings.getBoolean("EMAIL_VERIFIED", false);
+        boolean phoneVerified = settings.getBoolean("PHONE_VERIFIED", false);
 
         EditSupplementDialog editSupplementDialog;
 
@@ -1477,9 +1628,10 @@ public class VitaReminderPanel extends JPanel
         boolean oldTextEnabled = false;
         boolean oldVoiceEnabled = false;
         String oldSuppNotes = "";
+        Recurrence oldRecurrence = Recurrence.DAILY;
 
         // First check that a supplement is selected
-        int selectedSuppRow = supplementTable.getSelectedRow();
+        int selectedSuppRow = getSelectedSupplementRow();
 
         if (selectedSuppRow != -1)
         {
@@ -1507,6 +1659,7 @@ public class VitaReminderPanel extends JPanel
             oldVoiceEnabled = (boolean) supplementTableModel.getValueAtUnfiltered(selectedSuppRow, 8);
 
             oldSuppNotes = (String) supplementTableModel.getValueAt(selectedSuppRow, 9);
+            oldRecurrence = (Recurrence) supplementTableModel.getValueAt(selectedSuppRow, 10);
 
             // Build oldSupplement object to pass in to the EditSupplementDialog constructor
             Supplement oldSupplement = new Supplement();
@@ -1520,8 +1673,9 @@ public class VitaReminderPanel extends JPanel
             oldSupplement.setTextEnabled(oldTextEnabled);
             oldSupplement.setVoiceEnabled(oldVoiceEnabled);
             oldSupplement.setSuppNotes(oldSuppNotes);
+            oldSupplement.setRecurrence(oldRecurrence);
 
-            editSupplementDialog = new EditSupplementDialog(frame, oldSupplement);
+            editSupplementDialog = new EditSupplementDialog(frame, oldSupplement, settings);
 
             if (editSupplementDialog.isInputValidated())
             {
@@ -1540,6 +1694,12 @@ public class VitaReminderPanel extends JPanel
                     boolean newTextEnabled = newSupplement.getTextEnabled();
                     boolean newVoiceEnabled = newSupplement.getVoiceEnabled();
                     String newSuppNotes = newSupplement.getSuppNotes();
+                    Recurrence newRecurrence = newSupplement.getRecurrence();
+
+                    // A reminder whose time or recurrence has changed is loaded again
+                    // so that its fire times are worked out afresh.
+                    boolean scheduleChanged = !newTimeString.equals(oldTimeString) ||
+                                              !newRecurrence.equals(oldRecurrence);
 
                     // Only update the following fields if the value has changed.
                     if (!newSuppName.equals(oldSuppName))
@@ -1566,6 +1726,11 @@ public class VitaReminderPanel extends JPanel
                     if (!newSuppNotes.equals(oldSuppNotes))
                         supplementTableModel.setValueAt(newSuppNotes, selectedSuppRow, 9);
 
+                    if (!newRecurrence.equals(oldRecurrence))
+                        supplementTableModel.setValueAt(newRecurrence, selectedSuppRow, 10);
+
+                    commandLog.record(new SupplementEditedCommand(oldSupplement, newSupplement));
+
                     // Check if user has canceled any reminders
 
                     // If they disabled email reminders
@@ -1669,13 +1834,13 @@ public class VitaReminderPanel extends JPanel
                         }
                     }
 
-                    // Check if the user has just changed the time on a pre-existing reminder.
+                    // Check if the user has just changed the time or recurrence on a pre-existing reminder.
                     // These are special cases because we have to remove the old reminder
                     // and then create a new one.
 
                     if (oldEmailEnabled &&
                         newEmailEnabled &&
-                        !newTimeString.equals(oldTimeString))
+                        scheduleChanged)
                     {
                         if (emailRemindersEnabled &&
                             emailVerified)
@@ -1687,7 +1852,7 @@ public class VitaReminderPanel extends JPanel
 
                     if (oldTextEnabled &&
                         newTextEnabled &&
-                        !newTimeString.equals(oldTimeString))
+                        scheduleChanged)
                     {
                         if (textRemindersEnabled &&
                             phoneVerified)
@@ -1699,7 +1864,7 @@ public class VitaReminderPanel extends JPanel
 
                     if (oldVoiceEnabled &&
                         newVoiceEnabled &&
-                        !newTimeString.equals(oldTimeString))
+                        scheduleChanged)
                     {
                         if (voiceRemindersEnabled &&
                             phoneVerified)
@@ -1711,9 +1876,9 @@ public class VitaReminderPanel extends JPanel
 
                     saveButton.setEnabled(true);
                     saveMenuItem.setEnabled(true);
-                    unsavedChangesExist = true;
+                    setUnsavedChangesExist(true);
 
-                    supplementTable.setRowSelectionInterval(selectedSuppRow, selectedSuppRow);
+                    selectSupplementRow(selectedSuppRow);
 
                     // Display new notes because they're in a hidden column.
                     String notes = (String) supplementTableModel.getValueAt(selectedSuppRow, 9);
@@ -1745,7 +1910,9 @@ public class VitaReminderPanel extends JPanel
 
 
     /**
-     * Called from {@code VitaReminderFrame} when the user clicks the {@code saveMenuItem}.
+     * Called from {@code VitaReminderFrame} when the user clicks the {@code saveMenuItem},
+     * and from this panel whenever the user makes a change.  Each change is passed on
+     * to the {@code AutosaveManager}, so that it is written to the recovery journal.
      *
      * @param unsavedChangesExist  the value that reflects whether or not there
      *                             are unsaved changes that the user can save
@@ -1753,6 +1920,11 @@ public class VitaReminderPanel extends JPanel
     public void setUnsavedChangesExist(boolean unsavedChangesExist)
     {
         this.unsavedChangesExist = unsavedChangesExist;
+
+        if (unsavedChangesExist)
+        {
+            daoManager.getAutosaveManager().markChanged();
+        }
     }
 
 
@@ -1763,6 +1935,7 @@ public class VitaReminderPanel extends JPanel
      */
     public void fireSupplementTableModelUpdates()
     {
+        supplementTableModel.refreshReminderPreferences();
         supplementTableModel.fireTableDataChanged();
 
         if (supplementTable.getRowCount() > 0)
@@ -1804,11 +1977,735 @@ public class VitaReminderPanel extends JPanel
      * Called by the {@code importMenuItem}'s {@code ActionListener}
      * in {@code VitaReminderFrame} to programatically select the
      * first row in the regimens table after the user imports
-     * data from a backup.
+     * data from a backup, or switches to another profile.  Nothing is
+     * selected if there are no regimens.
      */
     public void selectFirstRegimenRow()
     {
-        regimenTable.setRowSelectionInterval(0, 0);
+        if (regimenTable.getRowCount() > 0)
+        {
+            regimenTable.setRowSelectionInterval(0, 0);
+        }
+    }
+
+
+    /**
+     * Searches the regimens and supplements for the text in the {@code searchTextField}
+     * as the user types, and lists the matches in the {@code searchResultsPopupMenu}.
+     * Choosing a match selects it in the tables.  The {@code SearchIndex} is built
+     * the first time this is called.
+     */
+    private void showSearchResults()
+    {
+        searchResultsPopupMenu.setVisible(false);
+        searchResultsPopupMenu.removeAll();
+
+        String query = searchTextField.getText();
+
+        if (query.trim().isEmpty())
+        {
+            return;
+        }
+
+        List<SearchIndex.Hit> hits = daoManager.getSearchIndex().search(query, SearchIndex.DEFAULT_MAX_HITS);
+
+        if (hits.isEmpty())
+        {
+            JMenuItem noMatchesMenuItem = new JMenuItem("No matches");
+            noMatchesMenuItem.setEnabled(false);
+            searchResultsPopupMenu.add(noMatchesMenuItem);
+        }
+
+        for (final SearchIndex.Hit hit : hits)
+        {
+            JMenuItem hitMenuItem = new JMenuItem(hit.toString());
+            hitMenuItem.addActionListener(new ActionListener() {
+
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    showSearchHit(hit);
+                }
+            });
+            searchResultsPopupMenu.add(hitMenuItem);
+        }
+
+        searchResultsPopupMenu.show(searchTextField, 0, searchTextField.getHeight());
+        searchTextField.requestFocusInWindow();
+    }
+
+
+    /**
+     * Selects the regimen, and the supplement if there is one, of a search result.
+     */
+    private void showSearchHit(SearchIndex.Hit hit)
+    {
+        searchResultsPopupMenu.setVisible(false);
+
+        if (selectRegimen(hit.getRegimenID()) != -1 && hit.isSupplement())
+        {
+            selectSupplement(hit.getID());
+        }
+    }
+
+
+    /**
+     * Undoes the user's most recent change.  Called by the {@code undoMenuItem}
+     * in {@code VitaReminderFrame}.
+     */
+    public void undo()
+    {
+        if (commandLog.undo())
+        {
+            saveButton.setEnabled(true);
+            saveMenuItem.setEnabled(true);
+            setUnsavedChangesExist(true);
+        }
+    }
+
+
+    /**
+     * Redoes the user's most recently undone change.  Called by the
+     * {@code redoMenuItem} in {@code VitaReminderFrame}.
+     */
+    public void redo()
+    {
+        if (commandLog.redo())
+        {
+            saveButton.setEnabled(true);
+            saveMenuItem.setEnabled(true);
+            setUnsavedChangesExist(true);
+        }
+    }
+
+
+    /**
+     * Called by {@code VitaReminderFrame} to update the Edit menu whenever
+     * the history changes.
+     *
+     * @return the history of the user's changes
+     */
+    public CommandLog getCommandLog()
+    {
+        return commandLog;
+    }
+
+
+    /**
+     * Discards the history of the user's changes.  Called by {@code VitaReminderFrame}
+     * after the user imports a backup or reverts to the last save, since the rows
+     * that the history refers to no longer exist.
+     */
+    public void clearCommandLog()
+    {
+        commandLog.clear();
+    }
+
+
+    /**
+     * Selects the row in the {@code regimenTable} that displays the specified
+     * regimen, which also displays its supplements in the {@code supplementTable}.
+     *
+     * @return the row that was selected, or -1 if there is no such regimen
+     */
+    private int selectRegimen(int regimenID)
+    {
+        int row = regimenTableModel.findRow(regimenID);
+
+        if (row != -1)
+        {
+            if (regimenTable.getSelectedRow() != row)
+            {
+                regimenTable.setRowSelectionInterval(row, row);
+            }
+
+            regimenTable.scrollRectToVisible(new Rectangle(regimenTable.getCellRect(row, 0, true)));
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Selects the row in the {@code supplementTable} that displays the specified
+     * supplement.  Its regimen must already be selected.
+     *
+     * @return the row that was selected, or -1 if there is no such supplement
+     */
+    private int selectSupplement(int suppID)
+    {
+        int row = supplementTableModel.findRow(suppID);
+
+        if (row != -1)
+        {
+            selectSupplementRow(row);
+        }
+
+        return row;
+    }
+
+
+    /**
+     * Lets the user choose who else is sent the reminders for every supplement
+     * in the currently selected regimen, e.g. a caregiver.  It is called by the
+     * {@code regimenRecipientsMenuItem}.  The recipients are saved to the profile's
+     * settings straight away, like the rest of the reminder settings, and the
+     * regimen's reminders are reloaded so that they are sent to the new recipients.
+     */
+    private void editRegimenRecipients()
+    {
+        int selectedRow = regimenTable.getSelectedRow();
+
+        if (selectedRow == -1)
+        {
+            JOptionPane.showMessageDialog(frame,
+                    "No regimen selected.",
+                    "Select a Regimen",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        Regimen regimen = regimenTableModel.getRegimen(selectedRow);
+        ReminderRecipients recipients = new ReminderRecipients(settingsStore.getSettings());
+
+        Map<String, List<String>> oldRecipients = new LinkedHashMap<>();
+
+        for (String channel : ReminderRecipients.CHANNELS)
+        {
+            oldRecipients.put(channel, recipients.getRegimenRecipients(regimen.getRegimenID(), channel));
+        }
+
+        RecipientsDialog recipientsDialog = new RecipientsDialog(frame,
+                "Recipients for Regimen \"" + regimen.getRegimenName() + "\"", oldRecipients);
+
+        if (recipientsDialog.getChangesMade() &&
+            recipients.setRegimenRecipients(regimen.getRegimenID(), recipientsDialog.getNewRecipients()))
+        {
+            for (Supplement supplement : regimen.getSupplements())
+            {
+                reloadReminders(supplement);
+            }
+        }
+    }
+
+
+    /**
+     * Lets the user choose who else is sent the reminders for the currently
+     * selected supplement, as well as the recipients of its regimen.  It is
+     * called by the {@code supplementRecipientsMenuItem}.  The recipients are
+     * saved straight away and the supplement's reminders are reloaded.
+     */
+    private void editSupplementRecipients()
+    {
+        int selectedRow = getSelectedSupplementRow();
+
+        if (selectedRow == -1)
+        {
+            JOptionPane.showMessageDialog(frame,
+                    "No supplement selected.",
+                    "Select a Supplement",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        Supplement supplement = supplementTableModel.getSupplement(selectedRow);
+        ReminderRecipients recipients = new ReminderRecipients(settingsStore.getSettings());
+
+        Map<String, List<String>> oldRecipients = new LinkedHashMap<>();
+
+        for (String channel : ReminderRecipients.CHANNELS)
+        {
+            oldRecipients.put(channel, recipients.getSupplementRecipients(supplement.getSuppID(), channel));
+        }
+
+        RecipientsDialog recipientsDialog = new RecipientsDialog(frame,
+                "Recipients for \"" + supplement.getSuppName() + "\"", oldRecipients);
+
+        if (recipientsDialog.getChangesMade() &&
+            recipients.setSupplementRecipients(supplement.getSuppID(), recipientsDialog.getNewRecipients()))
+        {
+            reloadReminders(supplement);
+        }
+    }
+
+
+    /**
+     * Gets the row in the {@code supplementTableModel} that is displayed in the
+     * selected row of the {@code supplementTable}, which differs when the rows
+     * are sorted or filtered.
+     *
+     * @return the selected row in the model, or -1 if no row is selected
+     */
+    private int getSelectedSupplementRow()
+    {
+        int viewRow = supplementTable.getSelectedRow();
+
+        if (viewRow == -1)
+        {
+            return -1;
+        }
+
+        return supplementTable.convertRowIndexToModel(viewRow);
+    }
+
+
+    /**
+     * Selects the {@code supplementTable} row that displays the specified row of
+     * the {@code supplementTableModel}, and scrolls the table to make it visible.
+     * If the row is hidden by the filter, the filter is cleared first.
+     *
+     * @param row  the row in the model
+     */
+    private void selectSupplementRow(int row)
+    {
+        if (supplementTable.convertRowIndexToView(row) == -1)
+        {
+            supplementRowSorter.clearFilter();
+            filterTextField.setText("");
+        }
+
+        int viewRow = supplementTable.convertRowIndexToView(row);
+
+        supplementTable.setRowSelectionInterval(viewRow, viewRow);
+        supplementTable.scrollRectToVisible(new Rectangle(supplementTable.getCellRect(viewRow, 0, true)));
+    }
+
+
+    /**
+     * Removes any reminders that are loaded for the specified supplement.
+     */
+    private void unloadReminders(Supplement supplement)
+    {
+        reminderManager.unloadReminder(supplement.getSuppID(), "email");
+        reminderManager.unloadReminder(supplement.getSuppID(), "text");
+        reminderManager.unloadReminder(supplement.getSuppID(), "voice");
+    }
+
+
+    /**
+     * Replaces any reminders that are loaded for the specified supplement with
+     * the reminders that its current settings call for.  Used after a change to
+     * the supplement has been undone or redone.
+     */
+    private void reloadReminders(Supplement supplement)
+    {
+        ProfileSettings settings = settingsStore.getSettings();
+
+        boolean phoneVerified = settings.getBoolean("PHONE_VERIFIED", false);
+
+        unloadReminders(supplement);
+
+        if (supplement.getEmailEnabled() &&
+            settings.getBoolean("EMAIL_REMINDERS_ENABLED", false) &&
+            settings.getBoolean("EMAIL_VERIFIED", false))
+        {
+            reminderManager.loadEmailReminder(supplement);
+        }
+
+        if (supplement.getTextEnabled() &&
+            settings.getBoolean("TEXT_REMINDERS_ENABLED", false) &&
+            phoneVerified)
+        {
+            reminderManager.loadTextReminder(supplement);
+        }
+
+        if (supplement.getVoiceEnabled() &&
+            settings.getBoolean("VOICE_REMINDERS_ENABLED", false) &&
+            phoneVerified)
+        {
+            reminderManager.loadVoiceReminder(supplement);
+        }
+    }
+
+
+    /**
+     * Records the addition of a regimen.  Undoing it deletes the regimen, which
+     * will have no supplements by then, since any supplements added to it
+     * afterwards are undone first.
+     */
+    private class RegimenAddedCommand implements EditCommand
+    {
+        private final Regimen regimen;
+
+        RegimenAddedCommand(Regimen regimen)
+        {
+            this.regimen = regimen;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Add Regimen";
+        }
+
+        @Override
+        public boolean undo()
+        {
+            int row = regimenTableModel.findRow(regimen.getRegimenID());
+
+            if (row == -1)
+            {
+                return false;
+            }
+
+            if (!regimenTableModel.removeRow(row))
+            {
+                return false;
+            }
+
+            regimenNotesTextArea.setText("");
+
+            if (regimenTable.getRowCount() > 0)
+            {
+                int selectedRow = Math.min(row, regimenTable.getRowCount() - 1);
+                regimenTable.setRowSelectionInterval(selectedRow, selectedRow);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean redo()
+        {
+            if (!regimenTableModel.insertRow(regimenTableModel.getRowCount(), regimen))
+            {
+                return false;
+            }
+
+            selectRegimen(regimen.getRegimenID());
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Records the deletion of a regimen, which keeps its supplements, so that
+     * undoing it can put them all back with their original IDs.
+     */
+    private class RegimenDeletedCommand implements EditCommand
+    {
+        private final int row;
+        private final Regimen regimen;
+
+        RegimenDeletedCommand(int row, Regimen regimen)
+        {
+            this.row = row;
+            this.regimen = regimen;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Delete Regimen";
+        }
+
+        @Override
+        public boolean undo()
+        {
+            if (!regimenTableModel.insertRow(row, regimen))
+            {
+                return false;
+            }
+
+            selectRegimen(regimen.getRegimenID());
+
+            for (Supplement supplement : regimen.getSupplements())
+            {
+                reloadReminders(supplement);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean redo()
+        {
+            int currentRow = regimenTableModel.findRow(regimen.getRegimenID());
+
+            if (currentRow == -1)
+            {
+                return false;
+            }
+
+            return removeRegimens(Collections.singletonList(regimen), currentRow);
+        }
+    }
+
+
+    /**
+     * Records a change to a regimen's name or notes.
+     */
+    private class RegimenEditedCommand implements EditCommand
+    {
+        private final int regimenID;
+        private final String oldName, oldNotes, newName, newNotes;
+
+        RegimenEditedCommand(int regimenID, String oldName, String oldNotes,
+                             String newName, String newNotes)
+        {
+            this.regimenID = regimenID;
+            this.oldName = oldName;
+            this.oldNotes = oldNotes;
+            this.newName = newName;
+            this.newNotes = newNotes;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Edit Regimen";
+        }
+
+        @Override
+        public boolean undo()
+        {
+            return apply(oldName, oldNotes);
+        }
+
+        @Override
+        public boolean redo()
+        {
+            return apply(newName, newNotes);
+        }
+
+        private boolean apply(String name, String notes)
+        {
+            int row = selectRegimen(regimenID);
+
+            if (row == -1)
+            {
+                return false;
+            }
+
+            if (!name.equals(regimenTableModel.getValueAt(row, 1)))
+                regimenTableModel.setValueAt(name, row, 1);
+
+            if (!notes.equals(regimenTableModel.getValueAt(row, 2)))
+                regimenTableModel.setValueAt(notes, row, 2);
+
+            regimenNotesTextArea.setText(notes);
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Records the addition of a supplement.
+     */
+    private class SupplementAddedCommand implements EditCommand
+    {
+        private final Supplement supplement;
+
+        SupplementAddedCommand(Supplement supplement)
+        {
+            this.supplement = supplement;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Add Supplement";
+        }
+
+        @Override
+        public boolean undo()
+        {
+            if (selectRegimen(supplement.getRegimenID()) == -1)
+            {
+                return false;
+            }
+
+            int row = supplementTableModel.findRow(supplement.getSuppID());
+
+            if (row == -1)
+            {
+                return false;
+            }
+
+            if (!supplementTableModel.removeRow(row))
+            {
+                return false;
+            }
+
+            unloadReminders(supplement);
+
+            if (supplementTable.getRowCount() > 0)
+            {
+                int selectedRow = Math.min(row, supplementTable.getRowCount() - 1);
+                supplementTable.setRowSelectionInterval(selectedRow, selectedRow);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean redo()
+        {
+            if (selectRegimen(supplement.getRegimenID()) == -1 ||
+                !supplementTableModel.insertRow(supplementTableModel.getRowCount(), supplement))
+            {
+                return false;
+            }
+
+            selectSupplement(supplement.getSuppID());
+            reloadReminders(supplement);
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Records the deletion of a supplement.
+     */
+    private class SupplementDeletedCommand implements EditCommand
+    {
+        private final int row;
+        private final Supplement supplement;
+
+        SupplementDeletedCommand(int row, Supplement supplement)
+        {
+            this.row = row;
+            this.supplement = supplement;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Delete Supplement";
+        }
+
+        @Override
+        public boolean undo()
+        {
+            if (selectRegimen(supplement.getRegimenID()) == -1 ||
+                !supplementTableModel.insertRow(row, supplement))
+            {
+                return false;
+            }
+
+            selectSupplement(supplement.getSuppID());
+            reloadReminders(supplement);
+
+            return true;
+        }
+
+        @Override
+        public boolean redo()
+        {
+            if (selectRegimen(supplement.getRegimenID()) == -1)
+            {
+                return false;
+            }
+
+            int currentRow = supplementTableModel.findRow(supplement.getSuppID());
+
+            if (currentRow == -1)
+            {
+                return false;
+            }
+
+            if (!supplementTableModel.removeRow(currentRow))
+            {
+                return false;
+            }
+
+            unloadReminders(supplement);
+
+            if (supplementTable.getRowCount() > 0)
+            {
+                int selectedRow = Math.min(currentRow, supplementTable.getRowCount() - 1);
+                supplementTable.setRowSelectionInterval(selectedRow, selectedRow);
+            }
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Records a change made in the {@code EditSupplementDialog}, as the
+     * supplement's values before and after the change.  Only the fields that
+     * differ between the two are written back when the change is undone or redone.
+     */
+    private class SupplementEditedCommand implements EditCommand
+    {
+        private final Supplement oldSupplement;
+        private final Supplement newSupplement;
+
+        SupplementEditedCommand(Supplement oldSupplement, Supplement newSupplement)
+        {
+            this.oldSupplement = oldSupplement;
+            this.newSupplement = newSupplement;
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Edit Supplement";
+        }
+
+        @Override
+        public boolean undo()
+        {
+            return apply(newSupplement, oldSupplement);
+        }
+
+        @Override
+        public boolean redo()
+        {
+            return apply(oldSupplement, newSupplement);
+        }
+
+        private boolean apply(Supplement from, Supplement to)
+        {
+            if (selectRegimen(oldSupplement.getRegimenID()) == -1)
+            {
+                return false;
+            }
+
+            int row = selectSupplement(oldSupplement.getSuppID());
+
+            if (row == -1)
+            {
+                return false;
+            }
+
+            if (!to.getSuppName().equals(from.getSuppName()))
+                supplementTableModel.setValueAt(to.getSuppName(), row, 2);
+
+            if (to.getSuppAmount() != from.getSuppAmount())
+                supplementTableModel.setValueAt(to.getSuppAmount(), row, 3);
+
+            if (!to.getSuppUnits().equals(from.getSuppUnits()))
+                supplementTableModel.setValueAt(to.getSuppUnits(), row, 4);
+
+            if (!to.getFormattedTime().equals(from.getFormattedTime()))
+                supplementTableModel.setValueAt(to.getSuppTime(), row, 5);
+
+            if (to.getEmailEnabled() != from.getEmailEnabled())
+                supplementTableModel.setValueAt(to.getEmailEnabled(), row, 6);
+
+            if (to.getTextEnabled() != from.getTextEnabled())
+                supplementTableModel.setValueAt(to.getTextEnabled(), row, 7);
+
+            if (to.getVoiceEnabled() != from.getVoiceEnabled())
+                supplementTableModel.setValueAt(to.getVoiceEnabled(), row, 8);
+
+            if (!to.getSuppNotes().equals(from.getSuppNotes()))
+                supplementTableModel.setValueAt(to.getSuppNotes(), row, 9);
+
+            if (!to.getRecurrence().equals(from.getRecurrence()))
+                supplementTableModel.setValueAt(to.getRecurrence(), row, 10);
+
+            reloadReminders(supplementTableModel.getSupplement(row));
+
+            supplementNotesTextArea.setText(to.getSuppNotes());
+
+            return true;
+        }
     }
 
 }  // end class VitaReminderPanel
@@ -0,0 +1,244 @@
+package com.vitareminder.ui.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * The history of the user's changes, used by the Undo and Redo items on the
+ * Edit menu.
+ * <p>
+ * The commands are kept in a fixed-size ring buffer, so the history never
+ * holds more than {@code capacity} commands: once it is full, recording a
+ * new command discards the oldest one.  Recording a new command also discards
+ * any commands that were undone and could still have been redone, as in most
+ * editors.
+ * <p>
+ * If a command cannot be undone or redone, the rows it refers to have been
+ * changed in some way that the history does not know about, and the whole
+ * history is discarded rather than risk applying the remaining commands to
+ * the wrong rows.  {@code VitaReminderFrame} also clears the history when
+ * the user imports a backup or reverts to the last save.
+ */
+public class CommandLog
+{
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private final EditCommand[] commands;
+
+    /** the index in {@code commands} of the oldest command */
+    private int oldest = 0;
+
+    /** the number of commands, starting at {@code oldest}, that can be undone */
+    private int undoCount = 0;
+
+    /** the number of commands, following the undoable ones, that can be redone */
+    private int redoCount = 0;
+
+    private final List<ChangeListener> changeListeners = new ArrayList<>();
+
+    private Logger logger = Logger.getLogger(CommandLog.class);
+
+
+    /**
+     * Creates a history that holds at most {@code DEFAULT_CAPACITY} commands.
+     */
+    public CommandLog()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Creates a history that holds at most {@code capacity} commands.
+     *
+     * @param capacity  the number of commands that can be undone, at least 1
+     */
+    public CommandLog(int capacity)
+    {
+        commands = new EditCommand[Math.max(1, capacity)];
+    }
+
+
+    /**
+     * Adds a command that has just been carried out to the history.
+     *
+     * @param command  the change that the user has just made
+     */
+    public void record(EditCommand command)
+    {
+        discardRedoableCommands();
+
+        if (undoCount == commands.length)
+        {
+            commands[oldest] = null;
+            oldest = (oldest + 1) % commands.length;
+            undoCount--;
+        }
+
+        commands[index(undoCount)] = command;
+        undoCount++;
+
+        fireStateChanged();
+    }
+
+
+    /**
+     * Undoes the most recent command that has not already been undone.
+     *
+     * @return <tt>true</tt> if a command was undone
+     */
+    public boolean undo()
+    {
+        if (!canUndo())
+        {
+            return false;
+        }
+
+        EditCommand command = commands[index(undoCount - 1)];
+
+        if (!command.undo())
+        {
+            logger.warn("Unable to undo \"" + command.getDescription() + "\".  The history has been cleared.");
+            clear();
+            return false;
+        }
+
+        undoCount--;
+        redoCount++;
+
+        fireStateChanged();
+
+        return true;
+    }
+
+
+    /**
+     * Redoes the most recently undone command.
+     *
+     * @return <tt>true</tt> if a command was redone
+     */
+    public boolean redo()
+    {
+        if (!canRedo())
+        {
+            return false;
+        }
+
+        EditCommand command = commands[index(undoCount)];
+
+        if (!command.redo())
+        {
+            logger.warn("Unable to redo \"" + command.getDescription() + "\".  The history has been cleared.");
+            clear();
+            return false;
+        }
+
+        undoCount++;
+        redoCount--;
+
+        fireStateChanged();
+
+        return true;
+    }
+
+
+    public boolean canUndo()
+    {
+        return undoCount > 0;
+    }
+
+
+    public boolean canRedo()
+    {
+        return redoCount > 0;
+    }
+
+
+    /**
+     * @return the description of the command that {@code undo()} would undo,
+     *         or <tt>null</tt> if there is none
+     */
+    public String getUndoDescription()
+    {
+        return canUndo() ? commands[index(undoCount - 1)].getDescription() : null;
+    }
+
+
+    /**
+     * @return the description of the command that {@code redo()} would redo,
+     *         or <tt>null</tt> if there is none
+     */
+    public String getRedoDescription()
+    {
+        return canRedo() ? commands[index(undoCount)].getDescription() : null;
+    }
+
+
+    /**
+     * Discards the whole history.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < commands.length; i++)
+        {
+            commands[i] = null;
+        }
+
+        oldest = 0;
+        undoCount = 0;
+        redoCount = 0;
+
+        fireStateChanged();
+    }
+
+
+    /**
+     * Registers a listener that is notified whenever the commands that can be
+     * undone or redone change, so that the Edit menu can be updated.
+     *
+     * @param listener  the listener to notify
+     */
+    public void addChangeListener(ChangeListener listener)
+    {
+        changeListeners.add(listener);
+    }
+
+
+    private void discardRedoableCommands()
+    {
+        for (int i = 0; i < redoCount; i++)
+        {
+            commands[index(undoCount + i)] = null;
+        }
+
+        redoCount = 0;
+    }
+
+
+    /**
+     * Converts a position relative to the oldest command into an index in
+     * the ring buffer.
+     */
+    private int index(int position)
+    {
+        return (oldest + position) % commands.length;
+    }
+
+
+    private void fireStateChanged()
+    {
+        ChangeEvent event = new ChangeEvent(this);
+
+        for (ChangeListener listener : changeListeners)
+        {
+            listener.stateChanged(event);
+        }
+    }
+
+}  // end class CommandLog
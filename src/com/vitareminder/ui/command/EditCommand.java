@@ -0,0 +1,38 @@
+package com.vitareminder.ui.command;
+
+
+/**
+ * A single change that the user has made to their regimens or supplements,
+ * recorded in the {@code CommandLog} so that it can be undone and redone.
+ * <p>
+ * A command only holds what it needs to reverse itself: the IDs of the rows
+ * it changed and the old and new values of the fields, or a copy of a row
+ * that was added or deleted.  Undoing and redoing apply the change to the
+ * database and to the table models directly, one row at a time, rather than
+ * rolling back the transaction, so the history survives the user saving.
+ * Implemented in {@code VitaReminderPanel}.
+ */
+public interface EditCommand
+{
+    /**
+     * @return a short description of the change that is shown in the Edit
+     *         menu, e.g. "Delete Supplement"
+     */
+    public String getDescription();
+
+    /**
+     * Reverses the change.
+     *
+     * @return <tt>true</tt> if the change was reversed, <tt>false</tt> if the
+     *         rows it refers to no longer exist
+     */
+    public boolean undo();
+
+    /**
+     * Applies the change again after it has been undone.
+     *
+     * @return <tt>true</tt> if the change was applied, <tt>false</tt> if the
+     *         rows it refers to no longer exist
+     */
+    public boolean redo();
+}
@@ -1,5 +1,7 @@
 package com.vitareminder.ui.model;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.JFrame;
@@ -241,8 +243,9 @@ public class RegimenTableModel extends AbstractTableModel
      * is successful, it then removes the row from the model.
      *
      * @param row  the row to be removed from the database table and table model
+     * @return <tt>true</tt> if the row was removed, <tt>false</tt> otherwise
      */
-    public void removeRow(int row)
+    public boolean removeRow(int row)
     {
         int regimenID = (int) regimens.get(row).getRegimenID();
 
@@ -261,8 +264,129 @@ public class RegimenTableModel extends AbstractTableModel
                     "Error",
                     JOptionPane.ERROR_MESSAGE);
         }
+
+        return rowRemoved;
+    }
+
+    /**
+     * Removes the regimens with the specified {@code regimenID}s, and all of their
+     * supplements, from the database and the table model.  The database rows are
+     * deleted in one statement, and the {@code JTable} is notified once, however
+     * many regimens are removed.
+     *
+     * @param regimenIDs  the {@code regimenID}s of the regimens to remove
+     * @return <tt>true</tt> if the regimens were removed, <tt>false</tt> otherwise
+     */
+    public boolean removeRows(Collection<Integer> regimenIDs)
+    {
+        boolean rowsRemoved = daoManager.getRegimenDAO().deleteRegimens(regimenIDs);
+
+        if (rowsRemoved)
+        {
+            for (Iterator<Regimen> iterator = regimens.iterator(); iterator.hasNext(); )
+            {
+                if (regimenIDs.contains(iterator.next().getRegimenID()))
+                {
+                    iterator.remove();
+                }
+            }
+
+            fireTableDataChanged();
+        }
+        else
+        {
+            JOptionPane.showMessageDialog(frame,
+                    "Error deleting regimens.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+
+        return rowsRemoved;
+    }
+
+
+    /**
+     * Puts a previously deleted {@code Regimen} and all of its {@code Supplement}s
+     * back into the database and the table model, with their original IDs.  Used
+     * to undo the deletion of a regimen.
+     * <p>
+     * The regimen is restored completely or not at all: if any of its supplements
+     * cannot be restored, the regimen is deleted again, and the ON DELETE CASCADE
+     * takes the supplements that were already restored with it.
+     *
+     * @param row  the row at which to insert the regimen, usually the row it was deleted from
+     * @param regimen  the deleted {@code Regimen}, including its {@code Supplement}s
+     * @return <tt>true</tt> if the regimen was restored, <tt>false</tt> otherwise
+     */
+    public boolean insertRow(int row, Regimen regimen)
+    {
+        boolean rowRestored = daoManager.getRegimenDAO().restoreRegimen(regimen);
+
+        boolean regimenRestored = rowRestored;
+
+        for (int i = 0; rowRestored && i < regimen.getSupplements().size(); i++)
+        {
+            rowRestored = daoManager.getSupplementDAO().restoreSupplement(regimen.getSupplements().get(i));
+        }
+
+        if (regimenRestored && !rowRestored)
+        {
+            // Leave nothing of a partial restore behind, in the database or the indexes
+            daoManager.getRegimenDAO().deleteRegimen(regimen.getRegimenID());
+        }
+
+        if (rowRestored)
+        {
+            row = Math.min(row, regimens.size());
+
+            regimens.add(row, regimen);
+
+            fireTableRowsInserted(row, row);
+        }
+        else
+        {
+            JOptionPane.showMessageDialog(frame,
+                    "Error restoring regimen.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+
+        return rowRestored;
+    }
+
+
+    /**
+     * Gets the {@code Regimen} object displayed in the specified row.
+     *
+     * @param row  the row in the model
+     * @return the {@code Regimen} object, which is shared with the data model
+     */
+    public Regimen getRegimen(int row)
+    {
+        return regimens.get(row);
     }
 
+
+    /**
+     * Finds the row that displays the {@code Regimen} with the specified {@code regimenID}.
+     *
+     * @param regimenID  the {@code regimenID} to search for
+     * @return the row in the model, or -1 if there is no such regimen
+     */
+    public int findRow(int regimenID)
+    {
+        for (int row = 0; row < regimens.size(); row++)
+        {
+            if (regimens.get(row).getRegimenID() == regimenID)
+            {
+                return row;
+            }
+        }
+
+        return -1;
+    }
+
+
     /**
      *
      *
@@ -0,0 +1,582 @@
+package com.vitareminder.ui.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import org.apache.log4j.Logger;
+
+import com.vitareminder.business.Supplement;
+
+
+/**
+ * Sorts and filters the rows of the {@code supplementTable} without doing the
+ * work on the Event Dispatch Thread.
+ * <p>
+ * When a row is added or changed, the values that it is sorted and filtered
+ * by are extracted once into a {@code RowKeys} object: its lower-case name,
+ * units and notes, its time as a minute of the day, and so on.  Sorting then
+ * compares these keys rather than calling the table model's {@code getValueAt()}.
+ * <p>
+ * When the user clicks a column header or types in the filter box, the keys
+ * are handed to a background thread, which computes the new order of the rows
+ * as an array of model row indexes.  The array is then swapped in on the Event
+ * Dispatch Thread in a single step, unless the rows have changed in the meantime,
+ * in which case it is thrown away.  Typing is debounced, so that the order is
+ * only computed once the user pauses.
+ * <p>
+ * When the table model itself changes, the {@code JTable} needs the new order
+ * before it repaints, so in that case the order is computed immediately.
+ */
+public class SupplementRowSorter extends RowSorter<SupplementTableModel>
+{
+    /** how long to wait after the last keystroke before filtering, in milliseconds */
+    public static final int FILTER_DELAY = 250;
+
+    private final SupplementTableModel model;
+
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private String filterText = "";
+
+    /** the sort and filter keys of each model row */
+    private RowKeys[] rowKeys = new RowKeys[0];
+
+    /** view row to model row, or <tt>null</tt> when the rows are neither sorted nor filtered */
+    private int[] viewToModel = null;
+
+    /** model row to view row, or -1 for rows that are filtered out */
+    private int[] modelToView = null;
+
+    /** incremented whenever the rows or the requested order change, so that stale results are discarded */
+    private int generation = 0;
+
+    private final Timer filterTimer;
+    private final ExecutorService executor;
+
+    private Logger logger = Logger.getLogger(SupplementRowSorter.class);
+
+
+    /**
+     * The values of a single row that are used for sorting and filtering,
+     * extracted once when the row is added or changed.
+     */
+    private static class RowKeys
+    {
+        final int suppID;
+        final String name;
+        final double amount;
+        final String units;
+        final int minuteOfDay;
+        final boolean emailEnabled;
+        final boolean textEnabled;
+        final boolean voiceEnabled;
+        final String notes;
+        final String recurrence;
+
+        RowKeys(Supplement supplement)
+        {
+            suppID = supplement.getSuppID();
+            name = lowerCase(supplement.getSuppName());
+            amount = supplement.getSuppAmount();
+            units = lowerCase(supplement.getSuppUnits());
+            minuteOfDay = getMinuteOfDay(supplement.getSuppTime());
+            emailEnabled = supplement.getEmailEnabled();
+            textEnabled = supplement.getTextEnabled();
+            voiceEnabled = supplement.getVoiceEnabled();
+            notes = lowerCase(supplement.getSuppNotes());
+            recurrence = supplement.getRecurrence() == null ? "" : supplement.getRecurrence().getRule();
+        }
+
+        boolean matches(String filter)
+        {
+            return name.contains(filter) || units.contains(filter) || notes.contains(filter);
+        }
+
+        int compareTo(RowKeys other, int column)
+        {
+            switch (column)
+            {
+            case 0:
+                return Integer.compare(suppID, other.suppID);
+            case 2:
+                return name.compareTo(other.name);
+            case 3:
+                return Double.compare(amount, other.amount);
+            case 4:
+                return units.compareTo(other.units);
+            case 5:
+                return Integer.compare(minuteOfDay, other.minuteOfDay);
+            case 6:
+                return Boolean.compare(emailEnabled, other.emailEnabled);
+            case 7:
+                return Boolean.compare(textEnabled, other.textEnabled);
+            case 8:
+                return Boolean.compare(voiceEnabled, other.voiceEnabled);
+            case 9:
+                return notes.compareTo(other.notes);
+            case 10:
+                return recurrence.compareTo(other.recurrence);
+            default:
+                return 0;
+            }
+        }
+
+        private static String lowerCase(String value)
+        {
+            return value == null ? "" : value.toLowerCase();
+        }
+
+        private static int getMinuteOfDay(java.util.Date time)
+        {
+            if (time == null)
+            {
+                return -1;
+            }
+
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(time);
+
+            return calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        }
+    }
+
+
+    /**
+     * Creates a sorter for the specified model.  The rows are initially in
+     * model order.
+     *
+     * @param model  the {@code supplementTable}'s model
+     */
+    public SupplementRowSorter(SupplementTableModel model)
+    {
+        this.model = model;
+
+        filterTimer = new Timer(FILTER_DELAY, new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                sortInBackground();
+            }
+        });
+        filterTimer.setRepeats(false);
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "SupplementRowSorter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        rebuildRowKeys();
+    }
+
+
+    /**
+     * Shows only the rows whose name, units or notes contain the specified
+     * text, ignoring case.  The rows are filtered once the user has stopped
+     * typing for {@code FILTER_DELAY} milliseconds.
+     *
+     * @param filterText  the text to filter by, or an empty {@code String} to show every row
+     */
+    public void setFilterText(String filterText)
+    {
+        String newFilterText = filterText == null ? "" : filterText.trim().toLowerCase();
+
+        if (newFilterText.equals(this.filterText))
+        {
+            return;
+        }
+
+        this.filterText = newFilterText;
+        generation++;
+
+        filterTimer.restart();
+    }
+
+
+    /**
+     * Shows every row immediately, without waiting for the background thread.
+     * Called by {@code VitaReminderPanel} before selecting a row that is
+     * filtered out.
+     */
+    public void clearFilter()
+    {
+        filterTimer.stop();
+        filterText = "";
+
+        sortNow();
+    }
+
+
+    @Override
+    public SupplementTableModel getModel()
+    {
+        return model;
+    }
+
+
+    /**
+     * Called by the {@code JTable} when the user clicks a column header.  The
+     * column is sorted in ascending order, then descending order, then not at all.
+     */
+    @Override
+    public void toggleSortOrder(int column)
+    {
+        SortOrder sortOrder = SortOrder.ASCENDING;
+
+        if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column)
+        {
+            switch (sortKeys.get(0).getSortOrder())
+            {
+            case ASCENDING:
+                sortOrder = SortOrder.DESCENDING;
+                break;
+            case DESCENDING:
+                sortOrder = SortOrder.UNSORTED;
+                break;
+            default:
+                sortOrder = SortOrder.ASCENDING;
+            }
+        }
+
+        if (sortOrder == SortOrder.UNSORTED)
+        {
+            setSortKeys(null);
+        }
+        else
+        {
+            setSortKeys(Collections.singletonList(new SortKey(column, sortOrder)));
+        }
+    }
+
+
+    @Override
+    public int convertRowIndexToModel(int index)
+    {
+        if (viewToModel == null)
+        {
+            if (index < 0 || index >= model.getRowCount())
+            {
+                throw new IndexOutOfBoundsException("Invalid index");
+            }
+
+            return index;
+        }
+
+        return viewToModel[index];
+    }
+
+
+    @Override
+    public int convertRowIndexToView(int index)
+    {
+        if (modelToView == null)
+        {
+            if (index < 0 || index >= model.getRowCount())
+            {
+                throw new IndexOutOfBoundsException("Invalid index");
+            }
+
+            return index;
+        }
+
+        return modelToView[index];
+    }
+
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys)
+    {
+        List<SortKey> newSortKeys = keys == null ? Collections.<SortKey>emptyList()
+                                                 : Collections.unmodifiableList(new ArrayList<SortKey>(keys));
+
+        if (newSortKeys.equals(sortKeys))
+        {
+            return;
+        }
+
+        sortKeys = newSortKeys;
+        generation++;
+
+        fireSortOrderChanged();
+
+        sortInBackground();
+    }
+
+
+    @Override
+    public List<? extends SortKey> getSortKeys()
+    {
+        return sortKeys;
+    }
+
+
+    @Override
+    public int getViewRowCount()
+    {
+        return viewToModel == null ? model.getRowCount() : viewToModel.length;
+    }
+
+
+    @Override
+    public int getModelRowCount()
+    {
+        return model.getRowCount();
+    }
+
+
+    @Override
+    public void modelStructureChanged()
+    {
+        rowsChanged();
+    }
+
+
+    @Override
+    public void allRowsChanged()
+    {
+        rowsChanged();
+    }
+
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow)
+    {
+        rowsChanged();
+    }
+
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow)
+    {
+        rowsChanged();
+    }
+
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow)
+    {
+        if (endRow >= rowKeys.length)
+        {
+            rowsChanged();
+            return;
+        }
+
+        for (int row = firstRow; row <= endRow; row++)
+        {
+            rowKeys[row] = new RowKeys(model.getSupplement(row));
+        }
+
+        generation++;
+
+        sortNow();
+    }
+
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column)
+    {
+        rowsUpdated(firstRow, endRow);
+    }
+
+
+    private void rowsChanged()
+    {
+        rebuildRowKeys();
+        generation++;
+
+        sortNow();
+    }
+
+
+    private void rebuildRowKeys()
+    {
+        int rowCount = model.getRowCount();
+        RowKeys[] newRowKeys = new RowKeys[rowCount];
+
+        for (int row = 0; row < rowCount; row++)
+        {
+            newRowKeys[row] = new RowKeys(model.getSupplement(row));
+        }
+
+        rowKeys = newRowKeys;
+    }
+
+
+    /**
+     * Computes the order on the Event Dispatch Thread and applies it.
+     */
+    private void sortNow()
+    {
+        apply(computeOrder(rowKeys, sortKeys, filterText));
+    }
+
+
+    /**
+     * Computes the order on the background thread, and applies it on the
+     * Event Dispatch Thread if nothing has changed in the meantime.
+     */
+    private void sortInBackground()
+    {
+        final RowKeys[] keys = rowKeys;
+        final List<SortKey> sort = sortKeys;
+        final String filter = filterText;
+        final int requestGeneration = generation;
+
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                final int[] order;
+
+                try
+                {
+                    order = computeOrder(keys, sort, filter);
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn("An error has occurred while sorting the supplements.", e);
+                    return;
+                }
+
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run()
+                    {
+                        if (requestGeneration == generation)
+                        {
+                            apply(order);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+
+    /**
+     * Computes the model row of each view row.
+     *
+     * @return the order, or <tt>null</tt> if the rows are neither sorted nor filtered
+     */
+    private static int[] computeOrder(final RowKeys[] keys, List<SortKey> sort, String filter)
+    {
+        if (sort.isEmpty() && filter.isEmpty())
+        {
+            return null;
+        }
+
+        Integer[] rows = new Integer[keys.length];
+        int count = 0;
+
+        for (int row = 0; row < keys.length; row++)
+        {
+            if (filter.isEmpty() || keys[row].matches(filter))
+            {
+                rows[count++] = row;
+            }
+        }
+
+        rows = Arrays.copyOf(rows, count);
+
+        if (!sort.isEmpty())
+        {
+            final int column = sort.get(0).getColumn();
+            final boolean descending = sort.get(0).getSortOrder() == SortOrder.DESCENDING;
+
+            Arrays.sort(rows, new Comparator<Integer>() {
+
+                @Override
+                public int compare(Integer row1, Integer row2)
+                {
+                    int result = keys[row1].compareTo(keys[row2], column);
+
+                    if (result == 0)
+                    {
+                        // Keep rows with equal keys in model order
+                        return row1.compareTo(row2);
+                    }
+
+                    return descending ? -result : result;
+                }
+            });
+        }
+
+        int[] order = new int[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            order[i] = rows[i];
+        }
+
+        return order;
+    }
+
+
+    /**
+     * Swaps in a new order and notifies the {@code JTable}, which keeps the
+     * same rows selected.
+     */
+    private void apply(int[] order)
+    {
+        int[] lastViewToModel = getViewToModelForEvent();
+
+        viewToModel = order;
+
+        if (order == null)
+        {
+            modelToView = null;
+        }
+        else
+        {
+            modelToView = new int[rowKeys.length];
+            Arrays.fill(modelToView, -1);
+
+            for (int view = 0; view < order.length; view++)
+            {
+                modelToView[order[view]] = view;
+            }
+        }
+
+        fireRowSorterChanged(lastViewToModel);
+    }
+
+
+    private int[] getViewToModelForEvent()
+    {
+        if (viewToModel != null)
+        {
+            return viewToModel;
+        }
+
+        int[] identity = new int[rowKeys.length];
+
+        for (int i = 0; i < identity.length; i++)
+        {
+            identity[i] = i;
+        }
+
+        return identity;
+    }
+
+}  // end class SupplementRowSorter
@@ -2,15 +2,16 @@ package com.vitareminder.ui.model;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.prefs.Preferences;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.table.AbstractTableModel;
 
 import com.vitareminder.business.Regimen;
+import com.vitareminder.business.Recurrence;
 import com.vitareminder.business.Supplement;
 import com.vitareminder.dao.DAOManager;
+import com.vitareminder.settings.ProfileSettings;
 
 
 /**
@@ -22,6 +23,11 @@ import com.vitareminder.dao.DAOManager;
  * objects, where each {@code Regimen} contains a {@code List} of its {@code Supplement}s.
  * These {@code List}s are implemented internally as {@code ArrayList}s.  {@code ArrayList}s
  * were chosen because there is currently no need for them to be synchronized.
+ * <p>
+ * {@code getValueAt()} is called for every visible cell on every repaint, and by
+ * the {@code SupplementRowSorter} for every row, so the current regimen's
+ * {@code Supplement}s and the user's global reminder preferences are looked up
+ * once and cached, rather than on every call.
  */
 @SuppressWarnings("serial")
 public class SupplementTableModel extends AbstractTableModel
@@ -34,15 +40,20 @@ public class SupplementTableModel extends AbstractTableModel
     /** the {@code regimenID} of the presently selected row in the {@code regimenTable} */
     private int currentRegimenID;
 
-    private Preferences userPreferences;
+    /** the supplements of the current regimen, or <tt>null</tt> if there is no current regimen */
+    private ArrayList<Supplement> currentSupplements;
+
+    private boolean emailRemindersEnabled;
+    private boolean textRemindersEnabled;
+    private boolean voiceRemindersEnabled;
 
 
     /**
      * The constructor for the {@code SupplementTableModel}.  In addition to setting the
-     * parameters to class variables, the constructor also acquires a reference to the
-     * user's root preference node {@code userPreferences}, which is used by the methods
-     * of the current class in determining how to display the cells in the {@code JTable}
-     * that have to do with reminders.
+     * parameters to class variables, the constructor also reads the active profile's
+     * reminder settings, which are used by the methods of the current class in
+     * determining how to display the cells in the {@code JTable} that have to do
+     * with reminders.
      *
      * @param frame  a reference to the application's main {@code JFrame}, used to set the parent
      *               window of the {@code JOptionPane}s.
@@ -59,7 +70,7 @@ public class SupplementTableModel extends AbstractTableModel
         this.daoManager = daoManager;
         this.columnNames = columnNames;
 
-        this.userPreferences = Preferences.userRoot();
+        refreshReminderPreferences();
     }
 
 
@@ -77,10 +88,8 @@ public class SupplementTableModel extends AbstractTableModel
 
     /**
      * Called by the {@code JTable} to determine how many rows it should display.
-     * This method uses the {@code currentRegimenID} to first select the current
-     * {@code Regimen} object from the {@code regimens} data model.  It then retrieves
-     * the {@code supplements} {@code ArrayList} field from this regimen.  The number
-     * of {@code Supplement}s in this list is the number of rows.
+     * The number of {@code Supplement}s in the current {@code Regimen} is the
+     * number of rows.
      *
      * @return  the number of rows in the data model (the number of {@code Regimen}s
      *          in the {@code ArrayList})
@@ -88,19 +97,9 @@ public class SupplementTableModel extends AbstractTableModel
     @Override
     public int getRowCount()
     {
-        ArrayList<Supplement> supplements = null;
-
-        for (int i = 0; i < regimens.size(); i++)
-        {
-            if (regimens.get(i).getRegimenID() == currentRegimenID)
-            {
-                supplements = regimens.get(i).getSupplements();
-            }
-        }
-
-        if (supplements != null)
+        if (currentSupplements != null)
         {
-            return supplements.size();
+            return currentSupplements.size();
         }
         else
         {
@@ -111,14 +110,14 @@ public class SupplementTableModel extends AbstractTableModel
 
     /**
      * Called by the {@code JTable} to retrieve the value at the specified cell.
-     * This implementation first retrieves the user's global e-mail, text message
-     * and voice reminder preferences.  When the cell to be retrieved falls under
+     * When the cell to be retrieved falls under
      * any of these columns, the user's global reminder preference for that reminder
      * type is consulted to determine whether or not to display the check mark for
      * that cell.  In other words, the check mark is only displayed in the {@code JTable}
      * if the user has that reminder turned on for that supplement, <i>and</i> they
      * have reminders of that type globally enabled.  This has the effect that only
-     * those reminders that are "active" are displayed as check marks.
+     * those reminders that are "active" are displayed as check marks.  The global
+     * preferences are read by {@code refreshReminderPreferences()}.
      *
      * @param row  the row in the model of the desired cell
      * @param col  the column in the model of the desired cell
@@ -127,23 +126,11 @@ public class SupplementTableModel extends AbstractTableModel
     @Override
     public Object getValueAt(int row, int col)
     {
-        boolean emailRemindersEnabled = userPreferences.getBoolean("EMAIL_REMINDERS_ENABLED", false);
-        boolean textRemindersEnabled = userPreferences.getBoolean("TEXT_REMINDERS_ENABLED", false);
-        boolean voiceRemindersEnabled = userPreferences.getBoolean("VOICE_REMINDERS_ENABLED", false);
-
         Object object = null;
 
-        ArrayList<Supplement> supplements = null;
-
-        for (int i = 0; i < regimens.size(); i++)
-        {
-            if (regimens.get(i).getRegimenID() == currentRegimenID)
-            {
-                supplements = regimens.get(i).getSupplements();
-            }
-        }
+        ArrayList<Supplement> supplements = currentSupplements;
 
-        if (supplements.size() > 0)
+        if (supplements != null && supplements.size() > 0)
         {
             switch (col)
             {
@@ -206,6 +193,9 @@ public class SupplementTableModel extends AbstractTableModel
             }
             case 9:
                 object = supplements.get(row).getSuppNotes();
+                break;
+            case 10:
+                object = supplements.get(row).getRecurrence();
             }
         }
 
@@ -231,17 +221,9 @@ public class SupplementTableModel extends AbstractTableModel
     {
         Object object = null;
 
-        ArrayList<Supplement> supplements = null;
-
-        for (int i = 0; i < regimens.size(); i++)
-        {
-            if (regimens.get(i).getRegimenID() == currentRegimenID)
-            {
-                supplements = regimens.get(i).getSupplements();
-            }
-        }
+        ArrayList<Supplement> supplements = currentSupplements;
 
-        if (supplements.size() > 0)
+        if (supplements != null && supplements.size() > 0)
         {
             switch (col)
             {
@@ -274,6 +256,9 @@ public class SupplementTableModel extends AbstractTableModel
                 break;
             case 9:
                 object = supplements.get(row).getSuppNotes();
+                break;
+            case 10:
+                object = supplements.get(row).getRecurrence();
             }
         }
 
@@ -327,20 +312,15 @@ public class SupplementTableModel extends AbstractTableModel
         // Acquire suppID and field name because these
         // are required to update the database.
 
-        ArrayList<Supplement> supplements = null;
-
-        for (int i = 0; i < regimens.size(); i++)
-        {
-            if (regimens.get(i).getRegimenID() == currentRegimenID)
-            {
-                supplements = regimens.get(i).getSupplements();
-            }
-        }
+        ArrayList<Supplement> supplements = currentSupplements;
 
         int suppID = supplements.get(row).getSuppID();
 
         String field = "";
 
+        // The recurrence is kept in the database as its rule
+        Object databaseValue = value;
+
         switch (col)
         {
         case 2:
@@ -366,10 +346,14 @@ public class SupplementTableModel extends AbstractTableModel
             break;
         case 9:
             field = "supp_notes";
+            break;
+        case 10:
+            field = "supp_recurrence";
+            databaseValue = ((Recurrence) value).getRule();
         }
 
         // First, update database
-        boolean rowUpdated = daoManager.getSupplementDAO().updateSupplement(suppID, field, value);
+        boolean rowUpdated = daoManager.getSupplementDAO().updateSupplement(suppID, field, databaseValue);
 
         // Second, update model if database operation was succesful
 
@@ -400,6 +384,9 @@ public class SupplementTableModel extends AbstractTableModel
                 break;
             case 9:
                 supplements.get(row).setSuppNotes((String) value);
+                break;
+            case 10:
+                supplements.get(row).setRecurrence((Recurrence) value);
             }
 
             fireTableCellUpdated(row, col);
@@ -449,15 +436,7 @@ public class SupplementTableModel extends AbstractTableModel
 
         if (newRowWithPK != null)
         {
-            ArrayList<Supplement> supplements = null;
-
-            for (int i = 0; i < regimens.size(); i++)
-            {
-                if (regimens.get(i).getRegimenID() == currentRegimenID)
-                {
-                    supplements = regimens.get(i).getSupplements();
-                }
-            }
+            ArrayList<Supplement> supplements = currentSupplements;
 
             supplements.add(newRowWithPK);
 
@@ -479,18 +458,11 @@ public class SupplementTableModel extends AbstractTableModel
      * is successful, it then removes the row from the model.
      *
      * @param row  the row to be removed from the database table and table model
+     * @return <tt>true</tt> if the row was removed, <tt>false</tt> otherwise
      */
-    public void removeRow(int row)
+    public boolean removeRow(int row)
     {
-        ArrayList<Supplement> supplements = null;
-
-        for (int i = 0; i < regimens.size(); i++)
-        {
-            if (regimens.get(i).getRegimenID() == currentRegimenID)
-            {
-                supplements = regimens.get(i).getSupplements();
-            }
-        }
+        ArrayList<Supplement> supplements = currentSupplements;
 
         int suppID = (int) supplements.get(row).getSuppID();
 
@@ -512,6 +484,109 @@ public class SupplementTableModel extends AbstractTableModel
                     "Error",
                     JOptionPane.ERROR_MESSAGE);
         }
+
+        return rowRemoved;
+    }
+
+
+    /**
+     * Puts a previously deleted {@code Supplement} back into the database and
+     * the current {@code Regimen}, with its original {@code suppID}.  Used to
+     * undo the deletion of a supplement.
+     *
+     * @param row  the row at which to insert the supplement, usually the row it was deleted from
+     * @param supplement  the deleted {@code Supplement}
+     * @return <tt>true</tt> if the supplement was restored, <tt>false</tt> otherwise
+     */
+    public boolean insertRow(int row, Supplement supplement)
+    {
+        // First, update database
+        boolean rowRestored = daoManager.getSupplementDAO().restoreSupplement(supplement);
+
+        if (rowRestored)
+        {
+            ArrayList<Supplement> supplements = currentSupplements;
+
+            row = Math.min(row, supplements.size());
+
+            supplements.add(row, supplement);
+
+            fireTableRowsInserted(row, row);
+        }
+        else
+        {
+            JOptionPane.showMessageDialog(frame,
+                    "Error restoring supplement data.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+
+        return rowRestored;
+    }
+
+
+    /**
+     * Gets the {@code Supplement} object displayed in the specified row.
+     *
+     * @param row  the row in the model
+     * @return the {@code Supplement} object, which is shared with the data model
+     */
+    public Supplement getSupplement(int row)
+    {
+        return currentSupplements.get(row);
+    }
+
+
+    /**
+     * Finds the row that displays the {@code Supplement} with the specified
+     * {@code suppID} in the current {@code Regimen}.
+     *
+     * @param suppID  the {@code suppID} to search for
+     * @return the row in the model, or -1 if the current regimen has no such supplement
+     */
+    public int findRow(int suppID)
+    {
+        ArrayList<Supplement> supplements = currentSupplements;
+
+        for (int row = 0; supplements != null && row < supplements.size(); row++)
+        {
+            if (supplements.get(row).getSuppID() == suppID)
+            {
+                return row;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Re-reads the active profile's global e-mail, text message and voice
+     * reminder settings, which determine whether the reminder columns display
+     * check marks.  Called by {@code VitaReminderPanel#fireSupplementTableModelUpdates()}
+     * when the user changes these settings or switches to another profile.
+     */
+    public void refreshReminderPreferences()
+    {
+        ProfileSettings settings = daoManager.getSettingsStore().getSettings();
+
+        emailRemindersEnabled = settings.getBoolean("EMAIL_REMINDERS_ENABLED", false);
+        textRemindersEnabled = settings.getBoolean("TEXT_REMINDERS_ENABLED", false);
+        voiceRemindersEnabled = settings.getBoolean("VOICE_REMINDERS_ENABLED", false);
+    }
+
+
+    private ArrayList<Supplement> findCurrentSupplements()
+    {
+        for (int i = 0; i < regimens.size(); i++)
+        {
+            if (regimens.get(i).getRegimenID() == currentRegimenID)
+            {
+                return regimens.get(i).getSupplements();
+            }
+        }
+
+        return null;
     }
 
 
@@ -530,6 +605,7 @@ public class SupplementTableModel extends AbstractTableModel
     public void setCurrentRegimenID(int currentRegimenID)
     {
         this.currentRegimenID = currentRegimenID;
+        this.currentSupplements = findCurrentSupplements();
 
         // Notify JTable that model has changed
         fireTableStructureChanged();
@@ -537,13 +613,14 @@ public class SupplementTableModel extends AbstractTableModel
 
 
     /**
+     * Replaces the data model, for example after the user imports a backup.
      *
-     *
-     * @param newRegimens
+     * @param newRegimens  the new {@code List} of {@code Regimen} objects
      */
     public void setModel(List<Regimen> newRegimens)
     {
         this.regimens = newRegimens;
+        this.currentSupplements = findCurrentSupplements();
 
         fireTableDataChanged();
     }